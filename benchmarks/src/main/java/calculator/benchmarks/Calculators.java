@@ -0,0 +1,50 @@
+package calculator.benchmarks;
+
+import calculator.Calculator;
+import calculator.PackedCalculator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+import calculator.TableCalculator;
+
+/**
+ * Creates the calculators compared by the benchmarks from the names used in their
+ * {@code @Param} values.
+ */
+final class Calculators {
+
+  static final String SIMPLE = "simple";
+  static final String SMART = "smart";
+  static final String PACKED_SIMPLE = "packed-simple";
+  static final String PACKED_SMART = "packed-smart";
+  static final String TABLE_SIMPLE = "table-simple";
+  static final String TABLE_SMART = "table-smart";
+
+  private Calculators() {
+  }
+
+  static Calculator create(String type) {
+    switch (type) {
+      case SIMPLE:
+        return new SimpleCalculator();
+      case SMART:
+        return new SmartCalculator();
+      case PACKED_SIMPLE:
+        return new PackedCalculator(false);
+      case PACKED_SMART:
+        return new PackedCalculator(true);
+      case TABLE_SIMPLE:
+        return new TableCalculator(false);
+      case TABLE_SMART:
+        return new TableCalculator(true);
+      default:
+        throw new IllegalArgumentException("Unknown calculator: " + type);
+    }
+  }
+
+  static Calculator replay(Calculator calculator, String keys) {
+    for (int i = 0; i < keys.length(); i++) {
+      calculator = calculator.input(keys.charAt(i));
+    }
+    return calculator;
+  }
+}
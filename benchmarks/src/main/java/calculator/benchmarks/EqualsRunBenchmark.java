@@ -0,0 +1,69 @@
+package calculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import calculator.Calculator;
+import calculator.PackedCalculator;
+import calculator.SmartCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a run of '=' presses on a SmartCalculator after "5+3": one input('=') per press,
+ * inputEquals() with the number of presses, and a PackedCalculator replaying the run as
+ * keystrokes, which applies it at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EqualsRunBenchmark {
+
+  @Param({"10", "1000"})
+  public int presses;
+
+  private SmartCalculator start;
+  private String run;
+  private PackedCalculator engine;
+
+  /**
+   * Builds the starting state and the run of keystrokes.
+   */
+  @Setup
+  public void setUp() {
+    start = new SmartCalculator().inputAll("5+3");
+    run = "=".repeat(presses);
+    engine = new PackedCalculator(true);
+  }
+
+  @Benchmark
+  public Calculator stepwise() {
+    Calculator calculator = start;
+    for (int i = 0; i < presses; i++) {
+      calculator = calculator.input('=');
+    }
+    return calculator;
+  }
+
+  @Benchmark
+  public Calculator inputEquals() {
+    return start.inputEquals(presses);
+  }
+
+  @Benchmark
+  public Calculator packedRun() {
+    engine.reset();
+    return engine.inputAll("5+3").inputAll(run);
+  }
+}
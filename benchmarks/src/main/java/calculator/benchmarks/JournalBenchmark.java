@@ -0,0 +1,85 @@
+package calculator.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import calculator.KeystrokeJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the keystrokes per second a KeystrokeJournal makes durable for different commit
+ * delays. In durable, every thread waits for its keystroke to be on disk, as a journaled
+ * SessionRegistry does, so the threads share the fsyncs of their groups; in pipelined one
+ * thread appends without waiting and the committer forces groups behind it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+  @Param({"0", "100", "1000"})
+  public long maxDelayMicros;
+
+  @Param({"1024"})
+  public int maxBatch;
+
+  private Path file;
+  private KeystrokeJournal journal;
+
+  /**
+   * Opens a journal on a new file.
+   *
+   * @throws IOException if the file cannot be created
+   */
+  @Setup
+  public void setUp() throws IOException {
+    file = Files.createTempFile("keys", ".journal");
+    journal = new KeystrokeJournal(file, maxDelayMicros, TimeUnit.MICROSECONDS, maxBatch);
+  }
+
+  /**
+   * Closes the journal and deletes its file.
+   *
+   * @throws IOException if the journal cannot be closed
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    journal.close();
+    Files.delete(file);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void durable1() throws IOException {
+    journal.sync(journal.append(Thread.currentThread().getId(), '='));
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void durable8() throws IOException {
+    journal.sync(journal.append(Thread.currentThread().getId(), '='));
+  }
+
+  @Benchmark
+  @Threads(1)
+  public long pipelined() throws IOException {
+    return journal.append(Thread.currentThread().getId(), '=');
+  }
+}
@@ -0,0 +1,122 @@
+package calculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import calculator.ArithmeticKernel;
+import calculator.Calculator;
+import calculator.CalculatorFactory;
+import calculator.InputResult;
+import calculator.TransitionCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a single keystroke into the immutable calculators from a few fixed states, and
+ * getResult() on the state a digit leads to. Each keystroke benchmark operation is exactly
+ * one call, so gc.alloc.rate.norm is the number of bytes allocated per keystroke.
+ * A display is built when it is first read and then kept, so getResultAfterDigit types the
+ * digit into a state outside any cache and reads the display of the new state every time;
+ * the cost of getResult() is its difference from digitInOperand without a cache.
+ * With a transition cache capacity above 0 the calculators come from a CalculatorFactory with
+ * a TransitionCache, so the keystrokes are served from the cache.
+ * The rejected benchmarks compare an invalid keystroke through input(), which throws, and
+ * through tryInput(), which returns an error code.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeystrokeBenchmark {
+
+  @Param({Calculators.SIMPLE, Calculators.SMART})
+  public String calculator;
+
+  @Param({"0", "4096"})
+  public int transitionCacheCapacity;
+
+  private Calculator empty;
+  private Calculator inOperand;
+  private Calculator afterEquals;
+  private Calculator uncachedInOperand;
+
+  /**
+   * Builds the states the keystrokes are applied to.
+   */
+  @Setup
+  public void setUp() {
+    CalculatorFactory factory = transitionCacheCapacity > 0
+            ? new CalculatorFactory(ArithmeticKernel.INT,
+                    new TransitionCache(transitionCacheCapacity))
+            : CalculatorFactory.INT;
+    empty = factory.calculator(Calculators.SMART.equals(calculator));
+    inOperand = Calculators.replay(empty, "52+5");
+    afterEquals = Calculators.replay(empty, "5+3=");
+    uncachedInOperand = Calculators.replay(
+            CalculatorFactory.INT.calculator(Calculators.SMART.equals(calculator)), "52+5");
+  }
+
+  @Benchmark
+  public Calculator digitOnEmpty() {
+    return empty.input('7');
+  }
+
+  @Benchmark
+  public Calculator digitInOperand() {
+    return inOperand.input('7');
+  }
+
+  @Benchmark
+  public Calculator operatorAfterOperand() {
+    return inOperand.input('+');
+  }
+
+  @Benchmark
+  public Calculator equalsAfterOperand() {
+    return inOperand.input('=');
+  }
+
+  @Benchmark
+  public Calculator repeatedEquals() {
+    return afterEquals.input('=');
+  }
+
+  @Benchmark
+  public Calculator digitAfterEquals() {
+    return afterEquals.input('7');
+  }
+
+  @Benchmark
+  public Calculator clear() {
+    return inOperand.input('C');
+  }
+
+  @Benchmark
+  public Object rejectedInput() {
+    try {
+      return inOperand.input('/');
+    } catch (IllegalArgumentException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public InputResult rejectedTryInput() {
+    return inOperand.tryInput('/');
+  }
+
+  @Benchmark
+  public String getResultAfterDigit() {
+    return uncachedInOperand.input('7').getResult();
+  }
+}
@@ -0,0 +1,92 @@
+package calculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import calculator.Calculator;
+import calculator.KeystrokeTemplate;
+import calculator.PackedCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares evaluating a compiled KeystrokeTemplate with typing the same keystrokes into a
+ * calculator and into a reused PackedCalculator. The operands change on every operation, so
+ * the typed sessions also pay for formatting the numbers as keystrokes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeystrokeTemplateBenchmark {
+
+  @Param({"A*B+C=", "A+B*C-A==="})
+  public String template;
+
+  @Param({Calculators.SIMPLE, Calculators.SMART})
+  public String calculator;
+
+  private KeystrokeTemplate compiled;
+  private Calculator empty;
+  private PackedCalculator packed;
+  private final long[] operands = new long[3];
+  private long counter;
+
+  /**
+   * Compiles the template and creates the calculators.
+   */
+  @Setup
+  public void setUp() {
+    boolean smart = calculator.equals(Calculators.SMART);
+    compiled = KeystrokeTemplate.compile(template, smart);
+    empty = Calculators.create(calculator);
+    packed = new PackedCalculator(smart);
+  }
+
+  @Benchmark
+  public long evaluate() {
+    return compiled.evaluate(nextOperands());
+  }
+
+  @Benchmark
+  public String typed() {
+    return empty.inputAll(keys(nextOperands())).getResult();
+  }
+
+  @Benchmark
+  public String packed() {
+    packed.reset();
+    return packed.inputAll(keys(nextOperands())).getResult();
+  }
+
+  private long[] nextOperands() {
+    counter++;
+    operands[0] = counter & 0xFFFF;
+    operands[1] = (counter >>> 3) & 0x3FF;
+    operands[2] = 17;
+    return operands;
+  }
+
+  private String keys(long[] values) {
+    StringBuilder keys = new StringBuilder(32);
+    for (int i = 0; i < template.length(); i++) {
+      char c = template.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        keys.append(values[c - 'A']);
+      } else {
+        keys.append(c);
+      }
+    }
+    return keys.toString();
+  }
+}
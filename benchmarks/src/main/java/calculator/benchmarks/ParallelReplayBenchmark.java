@@ -0,0 +1,96 @@
+package calculator.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import calculator.ParallelSessionReplay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ParallelSessionReplay on a seeded corpus of random sessions, in memory and from a
+ * sessions file, at increasing parallelism. One operation is the whole corpus, so the
+ * throughput at parallelism n divided by the throughput at 1 is the speedup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelReplayBenchmark {
+
+  private static final String KEYS = "0123456789+-*=C+=";
+
+  @Param({"1", "2", "4", "8"})
+  public int parallelism;
+
+  @Param({"200000"})
+  public int sessions;
+
+  private List<String> corpus;
+  private Path input;
+  private Path output;
+  private ParallelSessionReplay replay;
+
+  /**
+   * Builds the corpus, writes it to a temporary sessions file and starts the workers.
+   *
+   * @throws IOException if the sessions file cannot be written
+   */
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(42);
+    corpus = new ArrayList<>(sessions);
+    for (int i = 0; i < sessions; i++) {
+      StringBuilder session = new StringBuilder();
+      int length = 4 + random.nextInt(28);
+      for (int j = 0; j < length; j++) {
+        session.append(KEYS.charAt(random.nextInt(KEYS.length())));
+      }
+      corpus.add(session.toString());
+    }
+    input = Files.createTempFile("sessions", ".txt");
+    output = Files.createTempFile("results", ".txt");
+    Files.write(input, corpus, StandardCharsets.US_ASCII);
+    replay = new ParallelSessionReplay(true, parallelism);
+  }
+
+  /**
+   * Stops the workers and deletes the temporary files.
+   *
+   * @throws IOException if a temporary file cannot be deleted
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    replay.close();
+    Files.deleteIfExists(input);
+    Files.deleteIfExists(output);
+  }
+
+  @Benchmark
+  public List<String> evaluateInMemory() {
+    return replay.evaluate(corpus);
+  }
+
+  @Benchmark
+  public long replayFile() throws IOException {
+    return replay.replay(input, output);
+  }
+}
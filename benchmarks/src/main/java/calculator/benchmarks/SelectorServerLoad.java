@@ -0,0 +1,98 @@
+package calculator.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import calculator.SelectorSessionServer;
+
+/**
+ * Throughput test of the SelectorSessionServer over loopback. A few connections each
+ * pipeline frames for many sessions without waiting for the replies, and the number of
+ * frames served per second is reported.
+ * Usage: SelectorServerLoad [connections] [sessions-per-connection] [frames-per-connection]
+ * [event-loops]
+ */
+public final class SelectorServerLoad {
+
+  private static final byte[] KEYS = "12+3=".getBytes(StandardCharsets.US_ASCII);
+
+  private SelectorServerLoad() {
+  }
+
+  /**
+   * Runs the throughput test.
+   *
+   * @param args the number of connections, sessions per connection, frames per connection
+   *             and event loops
+   * @throws Exception if the server cannot be started or a client fails
+   */
+  public static void main(String[] args) throws Exception {
+    int connections = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int frames = args.length > 2 ? Integer.parseInt(args[2]) : 500_000;
+    int eventLoops = args.length > 3 ? Integer.parseInt(args[3])
+            : Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    try (SelectorSessionServer server = new SelectorSessionServer(true,
+            InetAddress.getLoopbackAddress(), 0, eventLoops, sessions)) {
+      ExecutorService pool = Executors.newFixedThreadPool(2 * connections);
+      List<Socket> sockets = new ArrayList<>();
+      List<Future<?>> done = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int i = 0; i < connections; i++) {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setTcpNoDelay(true);
+        sockets.add(socket);
+        done.add(pool.submit(() -> writeFrames(socket, sessions, frames)));
+        done.add(pool.submit(() -> readReplies(socket, frames)));
+      }
+      for (Future<?> future : done) {
+        future.get();
+      }
+      long elapsed = System.nanoTime() - start;
+      pool.shutdown();
+      for (Socket socket : sockets) {
+        socket.close();
+      }
+      long total = (long) connections * frames;
+      System.out.printf("Event loops: %d, frames: %d, %.0f frames/s, %.0f keystrokes/s%n",
+              eventLoops, total, total * 1e9 / elapsed, total * KEYS.length * 1e9 / elapsed);
+    }
+  }
+
+  private static Void writeFrames(Socket socket, int sessions, int frames) throws IOException {
+    DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+    for (int i = 0; i < frames; i++) {
+      out.writeInt(i % sessions);
+      out.writeShort(KEYS.length);
+      out.write(KEYS);
+    }
+    out.flush();
+    return null;
+  }
+
+  private static Void readReplies(Socket socket, int frames) throws IOException {
+    DataInputStream in = new DataInputStream(
+            new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+    for (int i = 0; i < frames; i++) {
+      in.readInt();
+      if (in.readByte() != 0) {
+        throw new IOException("Frame " + i + " was rejected");
+      }
+      in.skipBytes(in.readInt());
+    }
+    return null;
+  }
+}
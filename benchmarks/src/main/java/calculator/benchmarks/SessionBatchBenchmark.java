@@ -0,0 +1,97 @@
+package calculator.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import calculator.PackedCalculator;
+import calculator.SessionBatch;
+import calculator.SimpleCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares SessionBatch with typing the same script into one calculator per session. One
+ * operation evaluates the script for every session, so the throughput times the number of
+ * sessions is the number of sessions evaluated per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionBatchBenchmark {
+
+  @Param({"#+#*#-#=", "#*#*#*#*#*#*#*#="})
+  public String script;
+
+  @Param({"4096"})
+  public int sessions;
+
+  private SessionBatch batch;
+  private long[][] columns;
+  private String[] keys;
+  private PackedCalculator packed;
+
+  /**
+   * Compiles the script and draws the operands of every session.
+   */
+  @Setup
+  public void setUp() {
+    batch = new SessionBatch(script);
+    Random random = new Random(16);
+    columns = new long[batch.getOperandCount()][sessions];
+    for (long[] column : columns) {
+      for (int i = 0; i < sessions; i++) {
+        column[i] = random.nextInt(1000);
+      }
+    }
+    keys = new String[sessions];
+    for (int i = 0; i < sessions; i++) {
+      StringBuilder session = new StringBuilder();
+      int operand = 0;
+      for (char c : script.toCharArray()) {
+        if (c == SessionBatch.OPERAND) {
+          session.append(columns[operand++][i]);
+        } else {
+          session.append(c);
+        }
+      }
+      keys[i] = session.toString();
+    }
+    packed = new PackedCalculator(false);
+  }
+
+  @Benchmark
+  public long[] batch() {
+    return batch.evaluate(columns);
+  }
+
+  @Benchmark
+  public String objects() {
+    String last = null;
+    for (String session : keys) {
+      last = Calculators.replay(new SimpleCalculator(), session).getResult();
+    }
+    return last;
+  }
+
+  @Benchmark
+  public String packed() {
+    String last = null;
+    for (String session : keys) {
+      packed.reset();
+      last = packed.inputAll(session).getResult();
+    }
+    return last;
+  }
+}
@@ -0,0 +1,80 @@
+package calculator.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import calculator.Calculator;
+import calculator.PackedCalculator;
+import calculator.TableCalculator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures whole keystroke sessions from an empty calculator up to the final getResult().
+ * One benchmark operation is one session, so dividing gc.alloc.rate.norm by the session
+ * length gives the average bytes allocated per keystroke.
+ * replayAll() passes the session to inputAll() in one call instead of chaining input().
+ * The packed and table driven engines are reset and reused between sessions, the way a replay loop uses them.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionBenchmark {
+
+  @Param({Calculators.SIMPLE, Calculators.SMART,
+          Calculators.PACKED_SIMPLE, Calculators.PACKED_SMART,
+          Calculators.TABLE_SIMPLE, Calculators.TABLE_SMART})
+  public String calculator;
+
+  @Param({"52+52+3=", "5+3================================", "1234567*89-42+7=C9*9+1000-1="})
+  public String session;
+
+  private Calculator calculatorToReplay;
+  private PackedCalculator packed;
+  private TableCalculator table;
+
+  /**
+   * Creates the calculator each session starts from.
+   */
+  @Setup
+  public void setUp() {
+    calculatorToReplay = Calculators.create(calculator);
+    packed = calculatorToReplay instanceof PackedCalculator
+            ? (PackedCalculator) calculatorToReplay : null;
+    table = calculatorToReplay instanceof TableCalculator
+            ? (TableCalculator) calculatorToReplay : null;
+  }
+
+  @Benchmark
+  public String replay() {
+    if (packed != null) {
+      packed.reset();
+    }
+    if (table != null) {
+      table.reset();
+    }
+    return Calculators.replay(calculatorToReplay, session).getResult();
+  }
+
+  @Benchmark
+  public String replayAll() {
+    if (packed != null) {
+      packed.reset();
+    }
+    if (table != null) {
+      table.reset();
+    }
+    return calculatorToReplay.inputAll(session).getResult();
+  }
+}
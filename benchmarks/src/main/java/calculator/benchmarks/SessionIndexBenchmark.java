@@ -0,0 +1,153 @@
+package calculator.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import calculator.LongIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares LongIntMap, the index of each SessionRegistry stripe, with HashMap and
+ * ConcurrentHashMap as the index from session ids to session slots. The index is filled with sessions numbered from 0, get() looks up sessions
+ * in a scattered order, and churn() retires the oldest session and opens a new one, so the
+ * number of sessions stays the same.
+ * The largest sizes need a large heap in the forked JVM, for example
+ * -jvmArgsAppend -Xmx24g for 50M sessions in a HashMap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionIndexBenchmark {
+
+  static final String LONG_INT_MAP = "LongIntMap";
+  static final String HASH_MAP = "HashMap";
+  static final String CONCURRENT_HASH_MAP = "ConcurrentHashMap";
+
+  @Param({LONG_INT_MAP, HASH_MAP, CONCURRENT_HASH_MAP})
+  public String index;
+
+  @Param({"1000000", "10000000", "50000000"})
+  public int sessions;
+
+  private SessionIndex sessionIndex;
+  private long lookups;
+  private long oldest;
+  private long next;
+
+  /**
+   * Fills the index with the sessions 0 to sessions - 1.
+   */
+  @Setup
+  public void setUp() {
+    sessionIndex = create(index, sessions);
+    for (int session = 0; session < sessions; session++) {
+      sessionIndex.put(session, session);
+    }
+    oldest = 0;
+    next = sessions;
+  }
+
+  @Benchmark
+  public int get() {
+    // a multiplicative step visits the live sessions in a scattered order
+    long session = oldest + (lookups++ * 0x9E3779B97F4A7C15L >>> 1) % sessions;
+    return sessionIndex.get(session);
+  }
+
+  @Benchmark
+  public int churn() {
+    int slot = sessionIndex.remove(oldest++);
+    sessionIndex.put(next++, slot);
+    return slot;
+  }
+
+  static SessionIndex create(String index, int sessions) {
+    switch (index) {
+      case LONG_INT_MAP:
+        return new PrimitiveIndex(sessions);
+      case HASH_MAP:
+        return new MapIndex(new HashMap<>(sessions * 4 / 3 + 1));
+      case CONCURRENT_HASH_MAP:
+        return new MapIndex(new ConcurrentHashMap<>(sessions * 4 / 3 + 1));
+      default:
+        throw new IllegalArgumentException("Unknown index: " + index);
+    }
+  }
+
+  /**
+   * The operations of a session index, so each trial uses a single implementation.
+   */
+  interface SessionIndex {
+
+    int get(long session);
+
+    void put(long session, int slot);
+
+    int remove(long session);
+  }
+
+  private static final class PrimitiveIndex implements SessionIndex {
+
+    private final LongIntMap map;
+
+    PrimitiveIndex(int sessions) {
+      this.map = new LongIntMap(sessions);
+    }
+
+    @Override
+    public int get(long session) {
+      return map.get(session);
+    }
+
+    @Override
+    public void put(long session, int slot) {
+      map.put(session, slot);
+    }
+
+    @Override
+    public int remove(long session) {
+      return map.remove(session);
+    }
+  }
+
+  private static final class MapIndex implements SessionIndex {
+
+    private final Map<Long, Integer> map;
+
+    MapIndex(Map<Long, Integer> map) {
+      this.map = map;
+    }
+
+    @Override
+    public int get(long session) {
+      Integer slot = map.get(session);
+      return slot == null ? -1 : slot;
+    }
+
+    @Override
+    public void put(long session, int slot) {
+      map.put(session, slot);
+    }
+
+    @Override
+    public int remove(long session) {
+      Integer slot = map.remove(session);
+      return slot == null ? -1 : slot;
+    }
+  }
+}
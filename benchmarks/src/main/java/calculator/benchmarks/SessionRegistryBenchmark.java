@@ -0,0 +1,82 @@
+package calculator.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import calculator.Calculator;
+import calculator.SessionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures SessionRegistry keystrokes from 1 to 8 threads. With one session every thread
+ * competes for the same compare-and-set; with more sessions the threads mostly land on
+ * different sessions. Every keystroke is a repeated '=' on a SmartCalculator, which is
+ * always accepted.
+ * The benchmark methods differ only in the number of threads, so the total throughput of
+ * threads8 divided by that of threads1 is the speedup.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionRegistryBenchmark {
+
+  @Param({"1", "1024"})
+  public int sessions;
+
+  private SessionRegistry registry;
+
+  /**
+   * Opens the sessions and leaves each of them ready to repeat an addition.
+   */
+  @Setup
+  public void setUp() {
+    registry = new SessionRegistry(true);
+    for (long session = 0; session < sessions; session++) {
+      registry.open(session);
+      registry.tryInputAll(session, "1+1");
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Calculator threads1() {
+    return keystroke();
+  }
+
+  @Benchmark
+  @Threads(2)
+  public Calculator threads2() {
+    return keystroke();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Calculator threads4() {
+    return keystroke();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Calculator threads8() {
+    return keystroke();
+  }
+
+  private Calculator keystroke() {
+    long session = sessions == 1 ? 0 : ThreadLocalRandom.current().nextInt(sessions);
+    return registry.input(session, '=');
+  }
+}
@@ -0,0 +1,129 @@
+package calculator.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import calculator.SessionServer;
+
+/**
+ * Load test of the SessionServer over loopback. It opens a number of idle sessions, reports
+ * the heap they take, then lets a few active clients send keystrokes one at a time and
+ * reports the p50 and p99 round trip latency of a keystroke and its reply.
+ * Usage: SessionServerLoad [idle-sessions] [active-clients] [keystrokes-per-client]
+ * Both ends run in this JVM, so every idle session uses two file descriptors and the heap
+ * figure includes the client sockets.
+ */
+public final class SessionServerLoad {
+
+  private static final byte[] KEYS = "52+5=".getBytes(StandardCharsets.US_ASCII);
+
+  private SessionServerLoad() {
+  }
+
+  /**
+   * Runs the load test.
+   *
+   * @param args the number of idle sessions, active clients and keystrokes per client
+   * @throws Exception if the server cannot be started or a client fails
+   */
+  public static void main(String[] args) throws Exception {
+    int idleSessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int clients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    int keystrokes = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+    try (SessionServer server = new SessionServer(true, InetAddress.getLoopbackAddress(), 0,
+            idleSessions + clients)) {
+      System.out.println("Virtual threads: " + server.usesVirtualThreads());
+      long heapBefore = usedHeap();
+      List<Socket> idle = new ArrayList<>(idleSessions);
+      try {
+        for (int i = 0; i < idleSessions; i++) {
+          idle.add(new Socket(InetAddress.getLoopbackAddress(), server.getPort()));
+        }
+        while (server.getSessionCount() < idleSessions) {
+          Thread.sleep(10);
+        }
+        long heapAfter = usedHeap();
+        System.out.printf("Idle sessions: %d, heap: %d bytes per session%n", idleSessions,
+                idleSessions == 0 ? 0 : (heapAfter - heapBefore) / idleSessions);
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+          results.add(pool.submit(() -> runClient(server.getPort(), keystrokes)));
+        }
+        long[] latencies = new long[clients * keystrokes];
+        int count = 0;
+        for (Future<long[]> result : results) {
+          long[] clientLatencies = result.get();
+          System.arraycopy(clientLatencies, 0, latencies, count, clientLatencies.length);
+          count += clientLatencies.length;
+        }
+        pool.shutdown();
+        Arrays.sort(latencies);
+        System.out.printf("Keystrokes: %d, p50: %.1f us, p99: %.1f us, max: %.1f us%n",
+                latencies.length, percentile(latencies, 0.50) / 1000.0,
+                percentile(latencies, 0.99) / 1000.0,
+                latencies[latencies.length - 1] / 1000.0);
+      } finally {
+        for (Socket socket : idle) {
+          socket.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sends keystrokes one at a time, each followed by '?' unless it is '=', and measures the
+   * time until the reply line has arrived.
+   */
+  private static long[] runClient(int port, int keystrokes) throws IOException {
+    long[] latencies = new long[keystrokes];
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.setTcpNoDelay(true);
+      OutputStream out = socket.getOutputStream();
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      byte[] request = new byte[2];
+      for (int i = 0; i < keystrokes; i++) {
+        byte key = KEYS[i % KEYS.length];
+        request[0] = key;
+        request[1] = '?';
+        long start = System.nanoTime();
+        out.write(request, 0, key == '=' ? 1 : 2);
+        int b;
+        while ((b = in.read()) != '\n') {
+          if (b == -1) {
+            throw new IOException("The server closed the session");
+          }
+        }
+        latencies[i] = System.nanoTime() - start;
+      }
+    }
+    return latencies;
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
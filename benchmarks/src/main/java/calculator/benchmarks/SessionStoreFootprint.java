@@ -0,0 +1,67 @@
+package calculator.benchmarks;
+
+import calculator.Calculator;
+import calculator.OffHeapSessionStore;
+
+/**
+ * Compares the memory taken by many live sessions held as calculator objects with the same
+ * sessions held in an OffHeapSessionStore. Every session is left in the middle of an
+ * operation, so each one has its own operands and display.
+ * Usage: SessionStoreFootprint [simple|smart] [sessions]
+ */
+public final class SessionStoreFootprint {
+
+  private SessionStoreFootprint() {
+  }
+
+  /**
+   * Runs the comparison.
+   *
+   * @param args the calculator type and the number of sessions
+   * @throws InterruptedException if interrupted while waiting for the garbage collector
+   */
+  public static void main(String[] args) throws InterruptedException {
+    String type = args.length > 0 ? args[0] : Calculators.SMART;
+    int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+    long before = usedHeap();
+    Calculator[] calculators = new Calculator[sessions];
+    for (int i = 0; i < sessions; i++) {
+      calculators[i] = Calculators.replay(Calculators.create(type), keys(i));
+    }
+    long objects = usedHeap() - before;
+    System.out.printf("%d %s calculators: %d heap bytes per session%n", sessions, type,
+            objects / sessions);
+    calculators = null;
+
+    before = usedHeap();
+    OffHeapSessionStore store = new OffHeapSessionStore(type.equals(Calculators.SMART));
+    for (int i = 0; i < sessions; i++) {
+      int session = store.open();
+      String keys = keys(i);
+      for (int k = 0; k < keys.length(); k++) {
+        store.input(session, keys.charAt(k));
+      }
+    }
+    long heap = Math.max(0, usedHeap() - before);
+    System.out.printf("%d sessions in OffHeapSessionStore: %d heap bytes per session, "
+            + "%d off-heap bytes per session%n", sessions, heap / sessions,
+            store.offHeapBytes() / sessions);
+    if (store.size() != sessions) {
+      throw new IllegalStateException("Sessions were lost");
+    }
+  }
+
+  private static String keys(int session) {
+    return (session % 9973) + "+" + (session % 97);
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
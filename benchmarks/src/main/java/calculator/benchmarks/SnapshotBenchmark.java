@@ -0,0 +1,118 @@
+package calculator.benchmarks;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import calculator.Calculator;
+import calculator.CalculatorSnapshot;
+import calculator.InputResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares checkpointing sessions to a snapshot file and restoring them from it with
+ * restoring them by replaying their keystrokes. One operation handles every session, so the
+ * throughput times the number of sessions is the number of sessions per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+  private static final String ALPHABET = "0123456789+-*=C";
+
+  @Param({Calculators.SIMPLE, Calculators.SMART})
+  public String calculator;
+
+  @Param({"1000000"})
+  public int sessions;
+
+  @Param({"40"})
+  public int keystrokes;
+
+  private List<Calculator> states;
+  private String[] keys;
+  private Path file;
+
+  /**
+   * Types random keystrokes into every session and writes a first snapshot to read back.
+   *
+   * @throws IOException if the snapshot file cannot be written
+   */
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(21);
+    states = new ArrayList<>(sessions);
+    keys = new String[sessions];
+    for (int i = 0; i < sessions; i++) {
+      Calculator session = Calculators.create(calculator);
+      StringBuilder typed = new StringBuilder(keystrokes);
+      for (int k = 0; k < keystrokes; k++) {
+        char key = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        InputResult next = session.tryInput(key);
+        if (!next.isError()) {
+          session = next.getCalculator();
+          typed.append(key);
+        }
+      }
+      states.add(session);
+      keys[i] = typed.toString();
+    }
+    file = Files.createTempFile("sessions", ".snapshot");
+    checkpoint();
+  }
+
+  /**
+   * Deletes the snapshot file.
+   *
+   * @throws IOException if the file cannot be deleted
+   */
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.delete(file);
+  }
+
+  @Benchmark
+  public long checkpoint() throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      return CalculatorSnapshot.writeAll(states, channel);
+    }
+  }
+
+  @Benchmark
+  public List<Calculator> restore() throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      return CalculatorSnapshot.readAll(channel);
+    }
+  }
+
+  @Benchmark
+  public Calculator[] replay() {
+    Calculator[] restored = new Calculator[sessions];
+    for (int i = 0; i < sessions; i++) {
+      restored[i] = Calculators.create(calculator).inputAll(keys[i]);
+    }
+    return restored;
+  }
+}
@@ -1,41 +1,58 @@
 package calculator;
 
+import java.util.Objects;
+
 /**
  * AbstractCalculator provides a generic foundation for calculators, handling common tasks
  * such as processing digits and operations while ensuring immutability.
  * It serves as a base class for specific calculator implementations, the type T allows for
  * both Smart and Simple Calculator to extend this class.
  * It also contains the common code found in both subclasses.
+ * The display is an immutable Display, so a new calculator shares the unchanged part of the
+ * display with the calculator it was created from instead of copying it.
+ * As every field is final, the empty state and the single digit states are shared canonical
+ * instances instead of being created again by clear() and by digits entered after '='.
+ * Every calculator belongs to the CalculatorFactory it was created from, which fixes its
+ * ArithmeticKernel and transition cache and holds those canonical instances; its successors
+ * belong to the same one.
+ * With ArithmeticKernel.EXACT a result can leave the long range. The long field then holds
+ * its low 64 bits, which the wrapping long operations still compute exactly, and a WideInteger
+ * companion kept by the subclass holds the whole value; the companion is null whenever the
+ * value fits in a long.
  *
  * @param <T> the type of the concrete calculator class extending this abstract class
  */
-public abstract class AbstractCalculator<T> implements Calculator {
+public abstract class AbstractCalculator<T extends Calculator> implements Calculator {
 
-  protected long currentOperand;
-  protected char currentOperation;
-  protected long result;
-  protected StringBuilder display;
-  protected int maxValue;
-  protected boolean lastInputWasEqual;
-  protected boolean lastInputWasOperator;
+  protected final CalculatorFactory factory;
+  protected final long currentOperand;
+  protected final char currentOperation;
+  protected final long result;
+  protected final Display display;
+  protected final int maxValue;
+  protected final boolean lastInputWasEqual;
+  protected final boolean lastInputWasOperator;
 
-  protected AbstractCalculator() {
+  protected AbstractCalculator(CalculatorFactory factory) {
+    this.factory = factory;
     this.currentOperand = 0;
     this.result = 0;
-    this.display = new StringBuilder();
+    this.display = Display.EMPTY;
     this.maxValue = Integer.MAX_VALUE;
     this.currentOperation = '\0';
     this.lastInputWasEqual = false;
     this.lastInputWasOperator = false;
   }
 
-  protected AbstractCalculator(long currentOperand, char currentOperation, long result,
-                               StringBuilder display, int maxValue, boolean lastInputWasEqual,
+  protected AbstractCalculator(CalculatorFactory factory, long currentOperand,
+                               char currentOperation, long result, Display display,
+                               int maxValue, boolean lastInputWasEqual,
                                boolean lastInputWasOperator) {
+    this.factory = factory;
     this.currentOperand = currentOperand;
     this.currentOperation = currentOperation;
     this.result = result;
-    this.display = new StringBuilder(display);
+    this.display = display;
     this.maxValue = maxValue;
     this.lastInputWasEqual = lastInputWasEqual;
     this.lastInputWasOperator = lastInputWasOperator;
@@ -44,11 +61,13 @@ public abstract class AbstractCalculator<T> implements Calculator {
 
   /**
    * createCalculator allows both Smart and Simple calculators to use this abstract class,
-   * allowing the Abstract class to not explicitly return either or.
+   * allowing the Abstract class to not explicitly return either or. The new calculator
+   * belongs to the same factory as this one.
    *
    * @param currentOperand of the respective calculator
    * @param currentOperation of the respective calculator
    * @param result of the respective calculator
+   * @param wideResult of the respective calculator
    * @param display of the respective calculator
    * @param maxValue of the respective calculator
    * @param lastInputWasEqual of the respective calculator
@@ -56,12 +75,191 @@ public abstract class AbstractCalculator<T> implements Calculator {
    * @return a new instance of the respective calculator
    */
   protected abstract T createCalculator(long currentOperand, char currentOperation,
-                                        long result, StringBuilder display, int maxValue,
-                                        boolean lastInputWasEqual, boolean lastInputWasOperator);
+                                        long result, WideInteger wideResult, Display display,
+                                        int maxValue, boolean lastInputWasEqual,
+                                        boolean lastInputWasOperator);
+
+  /**
+   * replay runs a whole keystroke sequence through a PackedCalculator loaded with this state,
+   * so only the final calculator is created instead of one per keystroke.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @param smart whether the SmartCalculator rules apply
+   * @param lastOperand the last operand of the respective calculator
+   * @return the engine holding the state after the last keystroke
+   */
+  protected PackedCalculator replay(CharSequence keys, boolean smart, long lastOperand) {
+    return toPackedCalculator(smart, lastOperand).inputAll(keys);
+  }
+
+  /**
+   * replay runs keys[offset] to keys[offset + length - 1] through a PackedCalculator loaded
+   * with this state.
+   *
+   * @param keys the array holding the characters entered in the calculator
+   * @param offset the index of the first character to process
+   * @param length the number of characters to process
+   * @param smart whether the SmartCalculator rules apply
+   * @param lastOperand the last operand of the respective calculator
+   * @return the engine holding the state after the last keystroke
+   */
+  protected PackedCalculator replay(char[] keys, int offset, int length, boolean smart,
+                                    long lastOperand) {
+    return toPackedCalculator(smart, lastOperand).inputAll(keys, offset, length);
+  }
+
+  /**
+   * tryReplay runs a whole keystroke sequence through a PackedCalculator loaded with this
+   * state, like replay(), but returns the error of a rejected keystroke instead of throwing.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @param smart whether the SmartCalculator rules apply
+   * @param lastOperand the last operand of the respective calculator
+   * @return the engine holding the state after the last keystroke, or the error
+   */
+  protected InputResult tryReplay(CharSequence keys, boolean smart, long lastOperand) {
+    return toPackedCalculator(smart, lastOperand).tryInputAll(keys);
+  }
+
+  /**
+   * inputEach processes every character with tryInput(), for the calculators whose state no
+   * PackedCalculator can hold, and throws the exception replay() would for a rejected one.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @param firstIndex the index reported for the first character
+   * @return the calculator after the last character
+   */
+  protected T inputEach(CharSequence keys, int firstIndex) {
+    AbstractCalculator<?> calculator = this;
+    for (int i = 0; i < keys.length(); i++) {
+      char input = keys.charAt(i);
+      InputResult next = calculator.tryInput(input);
+      if (next.isError()) {
+        throw new KeystrokeException(calculator.rejectionMessage(next.getError(), input),
+                firstIndex + i, next.getError());
+      }
+      calculator = (AbstractCalculator<?>) next;
+    }
+    @SuppressWarnings("unchecked")
+    T last = (T) calculator;
+    return last;
+  }
+
+  /**
+   * tryInputEach processes every character with tryInput() like inputEach(), but returns the
+   * error of a rejected one instead of throwing.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return the calculator after the last character, or the error and index of the rejected one
+   */
+  protected InputResult tryInputEach(CharSequence keys) {
+    InputResult calculator = this;
+    for (int i = 0; i < keys.length(); i++) {
+      InputResult next = calculator.getCalculator().tryInput(keys.charAt(i));
+      if (next.isError()) {
+        return new RejectedKeystroke(next.getError(), i);
+      }
+      calculator = next;
+    }
+    return calculator;
+  }
+
+  private PackedCalculator toPackedCalculator(boolean smart, long lastOperand) {
+    PackedCalculator engine = new PackedCalculator(smart, factory.kernel);
+    engine.load(currentOperand, currentOperation, result, lastOperand, lastInputWasEqual,
+            lastInputWasOperator, display);
+    return engine;
+  }
+
+  /**
+   * emptyCalculator returns the shared instance of the respective calculator in its initial
+   * state, with zeroed operands, no current operation and an empty display.
+   *
+   * @return the canonical empty calculator of the respective type
+   */
+  protected abstract T emptyCalculator();
 
   protected T clear() {
-    return createCalculator(0, '\0', 0, new StringBuilder(),
-            maxValue, false, false);
+    return emptyCalculator();
+  }
+
+  /**
+   * isInitialState checks whether this calculator is in the same state as a new one, so that
+   * the canonical instances can be used for the states that follow it.
+   *
+   * @return true if this calculator is in the initial state
+   */
+  protected boolean isInitialState() {
+    return display.length() == 0 && currentOperand == 0 && result == 0 && wideResult() == null
+            && currentOperation == '\0' && !lastInputWasEqual && !lastInputWasOperator
+            && lastOperandState() == 0 && wideLastOperandState() == null;
+  }
+
+  /**
+   * getFactory returns the factory this calculator belongs to, which fixes its kernel.
+   *
+   * @return the factory of this calculator
+   */
+  public CalculatorFactory getFactory() {
+    return factory;
+  }
+
+  /**
+   * calculate combines the result and an operand with the kernel of this calculator.
+   *
+   * @param operation the operation, or '\0' for none
+   * @param left the result so far
+   * @param right the operand
+   * @return the new result, 0 if it is out of the range of the kernel; with the EXACT kernel,
+   *         the low 64 bits of the result
+   */
+  protected long calculate(char operation, long left, long right) {
+    ArithmeticKernel kernel = factory.kernel;
+    if (kernel == ArithmeticKernel.EXACT) {
+      return ArithmeticKernel.operate(operation, left, right);
+    }
+    return kernel.calculate(operation, left, right);
+  }
+
+  /**
+   * calculateWide combines the result and an operand like calculate(), and returns the whole
+   * result when the EXACT kernel takes it outside the long range.
+   *
+   * @param operation the operation, or '\0' for none
+   * @param left the low 64 bits of the result so far
+   * @param wideLeft the result so far if it is outside the long range, null otherwise
+   * @param right the low 64 bits of the operand
+   * @param wideRight the operand if it is outside the long range, null otherwise
+   * @return the new result if it is outside the long range, null otherwise
+   */
+  protected WideInteger calculateWide(char operation, long left, WideInteger wideLeft,
+                                      long right, WideInteger wideRight) {
+    if (!isExact()) {
+      return null;
+    }
+    return WideInteger.calculate(operation, left, wideLeft, right, wideRight);
+  }
+
+  /**
+   * isExact checks whether this calculator carries results beyond the long range, which the
+   * PackedCalculator its inputAll() otherwise replays on cannot hold.
+   *
+   * @return true if the kernel of this calculator is ArithmeticKernel.EXACT
+   */
+  protected boolean isExact() {
+    return factory.kernel == ArithmeticKernel.EXACT;
+  }
+
+  /**
+   * resultDisplay returns the display showing a value held by a long field and its wide
+   * companion.
+   *
+   * @param value the value, or its low 64 bits
+   * @param wide the value if it is outside the long range, null otherwise
+   * @return a display showing the value in decimal
+   */
+  protected static Display resultDisplay(long value, WideInteger wide) {
+    return wide != null ? Display.of(wide.toString()) : Display.of(value);
   }
 
   @Override
@@ -69,44 +267,167 @@ public abstract class AbstractCalculator<T> implements Calculator {
     return null;
   }
 
+  /**
+   * transition computes the calculator that follows this one after the given input, following
+   * the rules of the respective calculator.
+   *
+   * @param input a single character that is entered in the calculator
+   * @return a new instance of the respective calculator, or the error if the input is rejected
+   */
+  protected abstract InputResult transition(char input);
+
+  /**
+   * nextCalculator returns the calculator that follows this one after the given input, and
+   * throws the IllegalArgumentException of the respective calculator if it is rejected.
+   *
+   * @param input a single character that is entered in the calculator
+   * @return the respective calculator after the input
+   */
+  protected T nextCalculator(char input) {
+    InputResult next = tryInput(input);
+    if (next.isError()) {
+      throw new IllegalArgumentException(rejectionMessage(next.getError(), input));
+    }
+    @SuppressWarnings("unchecked")
+    T calculator = (T) next;
+    return calculator;
+  }
+
+  /**
+   * tryInput returns the calculator that follows this one after the given input, or the
+   * error if it is rejected. The calculator is taken from the transition cache of the factory
+   * when it has one holding this state and input, and computed with transition() otherwise.
+   * Rejected inputs are never cached.
+   *
+   * @param input a single character that is entered in the calculator
+   * @return the respective calculator after the input, or the error
+   */
+  @Override
+  public InputResult tryInput(char input) {
+    TransitionCache cache = factory.transitionCache;
+    if (cache == null) {
+      return transition(input);
+    }
+    TransitionCache.Transition key = new TransitionCache.Transition(this, input);
+    InputResult next = cache.get(key);
+    if (next == null) {
+      next = transition(input);
+      if (!next.isError()) {
+        cache.put(key, next.getCalculator());
+      }
+    }
+    return next;
+  }
+
+  /**
+   * rejectionMessage returns the message input() throws when this calculator rejects the
+   * given input.
+   *
+   * @param error why the input is rejected
+   * @param input the rejected character
+   * @return the message of the exception
+   */
+  protected String rejectionMessage(InputError error, char input) {
+    return error.message(input, false, currentOperation != '\0');
+  }
+
+  /**
+   * lastOperandState returns the part of the state kept by a subclass on top of the fields of
+   * this class, so that it is part of the value the transition cache keys on.
+   *
+   * @return the last operand of the respective calculator, 0 if it has none
+   */
+  protected long lastOperandState() {
+    return 0;
+  }
+
+  /**
+   * wideResult returns the result when the EXACT kernel has taken it outside the long range,
+   * as the wide companion of the result field.
+   *
+   * @return the result if it is outside the long range, null otherwise
+   */
+  protected abstract WideInteger wideResult();
+
+  /**
+   * wideLastOperandState returns the last operand of a subclass when the EXACT kernel has
+   * taken it outside the long range, as the wide companion of lastOperandState().
+   *
+   * @return the last operand if it is outside the long range, null otherwise
+   */
+  protected WideInteger wideLastOperandState() {
+    return null;
+  }
+
+  /**
+   * stateHash returns a hash of the value of this state, consistent with hasSameState().
+   *
+   * @return the hash of the state
+   */
+  int stateHash() {
+    int h = getClass().hashCode();
+    h = 31 * h + System.identityHashCode(factory);
+    h = 31 * h + Long.hashCode(currentOperand);
+    h = 31 * h + currentOperation;
+    h = 31 * h + Long.hashCode(result);
+    h = 31 * h + Objects.hashCode(wideResult());
+    h = 31 * h + maxValue;
+    h = 31 * h + (lastInputWasEqual ? 2 : 0) + (lastInputWasOperator ? 1 : 0);
+    h = 31 * h + Long.hashCode(lastOperandState());
+    h = 31 * h + Objects.hashCode(wideLastOperandState());
+    return 31 * h + display.contentHash();
+  }
+
+  /**
+   * hasSameState checks whether other is a calculator of the same class and factory holding
+   * the same value, so that both have the same successors whatever path reached them.
+   *
+   * @param other the calculator to compare with
+   * @return true if both states are equal
+   */
+  boolean hasSameState(AbstractCalculator<?> other) {
+    return this == other
+            || other.getClass() == getClass() && other.factory == factory
+            && other.currentOperand == currentOperand
+            && other.currentOperation == currentOperation && other.result == result
+            && Objects.equals(other.wideResult(), wideResult())
+            && other.maxValue == maxValue && other.lastInputWasEqual == lastInputWasEqual
+            && other.lastInputWasOperator == lastInputWasOperator
+            && other.lastOperandState() == lastOperandState()
+            && Objects.equals(other.wideLastOperandState(), wideLastOperandState())
+            && display.hasSameText(other.display);
+  }
+
   @Override
   public String getResult() {
     return display.toString();
   }
 
-  protected T isValidDigit(char digit) {
+  protected InputResult isValidDigit(char digit) {
+    ArithmeticKernel kernel = factory.kernel;
+    int value = Character.digit(digit, 10);
     long newOperand = currentOperand;
     long newResult = result;
-    StringBuilder newDisplay = new StringBuilder(display);
-
-    String digitStr = Character.toString(digit);
 
     if (currentOperation != '\0') {
-      String newOperandStr = currentOperand == 0 ? digitStr : (currentOperand) + digitStr;
-      newOperand = Long.parseLong(newOperandStr);
-      if (newOperand > maxValue) {
-        throw new IllegalArgumentException("Operand exceeds maximum limit.");
+      if (!kernel.canAppendDigit(currentOperand, value)) {
+        return InputError.OVERFLOW;
       }
+      newOperand = ArithmeticKernel.appendDigit(currentOperand, value);
     } else {
-      String newResultStr = result == 0 ? digitStr : (result) + digitStr;
-      newResult = Long.parseLong(newResultStr);
-      if (newResult > maxValue) {
-        throw new IllegalArgumentException("Operation value exceeds maximum limit.");
+      // operands are typed within the long range, so a result beyond it takes no digits
+      if (wideResult() != null || !kernel.canAppendDigit(result, value)) {
+        return InputError.OVERFLOW;
       }
+      newResult = ArithmeticKernel.appendDigit(result, value);
     }
-    if (newDisplay.toString().equals("0")) {
-      newDisplay.setLength(0);
-    }
-    newDisplay.append(digit);
-    return createCalculator(newOperand, currentOperation, newResult, newDisplay,
-            maxValue, false, false);
+    Display newDisplay = display.isZero() ? Display.EMPTY : display;
+    return createCalculator(newOperand, currentOperation, newResult, wideResult(),
+            newDisplay.append(digit), maxValue, false, false);
   }
 
   protected T prepareOperation(char operation) {
-    StringBuilder newDisplay = new StringBuilder(display);
-    newDisplay.append(operation);
-
-    return createCalculator(0, operation, result, newDisplay, maxValue,
-            false, true);
+    return createCalculator(0, operation, result, wideResult(), display.append(operation),
+            maxValue, false, true);
   }
 }
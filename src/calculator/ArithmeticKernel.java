@@ -0,0 +1,318 @@
+package calculator;
+
+/**
+ * ArithmeticKernel decides how the Simple and Smart calculators enter operands and combine
+ * them, so the range of the numbers can be chosen without changing the calculators.
+ * Every CalculatorFactory fixes the kernel of the calculators it creates.
+ */
+public interface ArithmeticKernel {
+
+  /**
+   * The default kernel. Operands go up to Integer.MAX_VALUE and a result outside the int
+   * range is reset to 0.
+   */
+  ArithmeticKernel INT = new ArithmeticKernel() {
+    @Override
+    public boolean canAppendDigit(long value, int digit) {
+      // values stay in the int range, so the new value cannot overflow a long
+      return value * 10 + digit <= Integer.MAX_VALUE;
+    }
+
+    @Override
+    public long calculate(char operation, long left, long right) {
+      long result = operate(operation, left, right);
+      return result == (int) result ? result : 0;
+    }
+
+    @Override
+    public long repeat(char operation, long left, long right, long times) {
+      return repeatInRange(this, operation, left, right, times, Integer.MIN_VALUE,
+              Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+      return "INT";
+    }
+  };
+
+  /**
+   * A kernel with the int rules moved to the long range. Operands go up to Long.MAX_VALUE, and
+   * a result outside the long range is reset to 0, just as INT resets results outside the int
+   * range: sums and differences are checked with the sign tests of Math.addExact and
+   * Math.subtractExact, and products with the high half from Math.multiplyHigh. EXACT keeps
+   * such results instead.
+   */
+  ArithmeticKernel LONG = new ArithmeticKernel() {
+    @Override
+    public boolean canAppendDigit(long value, int digit) {
+      if (value < 0) {
+        return value >= (Long.MIN_VALUE + digit) / 10;
+      }
+      return value <= (Long.MAX_VALUE - digit) / 10;
+    }
+
+    @Override
+    public long calculate(char operation, long left, long right) {
+      return WideInteger.fitsLong(operation, left, right) ? operate(operation, left, right) : 0;
+    }
+
+    @Override
+    public long repeat(char operation, long left, long right, long times) {
+      return repeatInRange(this, operation, left, right, times, Long.MIN_VALUE,
+              Long.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+      return "LONG";
+    }
+  };
+
+  /**
+   * The exact kernel. Operands are typed up to the long range, as with LONG, but a result is
+   * never reset: while it fits in a long it is computed like LONG, and beyond it the Simple
+   * and Smart calculators carry it on as a WideInteger, in 128 bits with Math.multiplyHigh and
+   * as a BigInteger only past 128 bits. The methods of this interface only see the long part:
+   * calculate() and repeat() throw an ArithmeticException for a result outside the long range.
+   * The engines that keep their values in long fields, PackedCalculator, TableCalculator,
+   * KeystrokeTemplate and CalculatorSnapshot, do not accept this kernel, and the calculators
+   * of an EXACT factory type inputAll() key by key.
+   */
+  ArithmeticKernel EXACT = new ArithmeticKernel() {
+    @Override
+    public boolean canAppendDigit(long value, int digit) {
+      return LONG.canAppendDigit(value, digit);
+    }
+
+    @Override
+    public long calculate(char operation, long left, long right) {
+      if (!WideInteger.fitsLong(operation, left, right)) {
+        throw new ArithmeticException("long overflow");
+      }
+      return operate(operation, left, right);
+    }
+
+    @Override
+    public long repeat(char operation, long left, long right, long times) {
+      if (times < 0) {
+        throw new IllegalArgumentException("Cannot repeat an operation " + times + " times");
+      }
+      WideInteger result = WideInteger.repeat(operation, WideInteger.valueOf(left, null),
+              WideInteger.valueOf(right, null), times);
+      if (!result.fitsLong()) {
+        throw new ArithmeticException("long overflow");
+      }
+      return result.longValue();
+    }
+
+    @Override
+    public String toString() {
+      return "EXACT";
+    }
+  };
+
+  /**
+   * Returns whether the digit can be typed after the given value without leaving the range
+   * of this kernel.
+   *
+   * @param value the operand typed so far
+   * @param digit the value of the digit typed next, from 0 to 9
+   * @return true if the digit is accepted, false if the calculator rejects it as an overflow
+   */
+  boolean canAppendDigit(long value, int digit);
+
+  /**
+   * Combines two values with an operation.
+   *
+   * @param operation '+', '-', '*', or '\0' for no operation
+   * @param left the result so far
+   * @param right the operand
+   * @return the result, or 0 if it is outside the range of this kernel; left if there is no
+   *         operation
+   */
+  long calculate(char operation, long left, long right);
+
+  /**
+   * Applies an operation with the same right operand several times in a row, as repeated
+   * presses of '=' do, and returns the same value as calling calculate() that many times on
+   * its own result. This implementation calls calculate() step by step. Every step depends
+   * only on the value it starts from, so once a value comes back the rest of the run is a
+   * cycle and only the steps left over after its whole turns are taken. A run that finds no
+   * cycle within 1 << 20 steps is rejected, so a kernel whose values cycle slowly, such as
+   * one that lets '+' wrap around, has to override this method. The INT, LONG and EXACT
+   * kernels compute it in closed form.
+   *
+   * @param operation '+', '-', '*', or '\0' for no operation
+   * @param left the result so far
+   * @param right the operand of every step
+   * @param times the number of steps, 0 or more
+   * @return the result after the last step
+   * @throws IllegalArgumentException if times is negative, or if this implementation finds
+   *                                  no cycle within 1 << 20 steps of a longer run
+   */
+  default long repeat(char operation, long left, long right, long times) {
+    if (times < 0) {
+      throw new IllegalArgumentException("Cannot repeat an operation " + times + " times");
+    }
+    return repeatStepwise(this, operation, left, right, times);
+  }
+
+  /**
+   * Returns the value typed so far followed by a digit.
+   *
+   * @param value the operand typed so far, accepted by canAppendDigit()
+   * @param digit the value of the digit, from 0 to 9
+   * @return the new operand
+   */
+  static long appendDigit(long value, int digit) {
+    return value < 0 ? value * 10 - digit : value * 10 + digit;
+  }
+
+  /**
+   * Returns the result of an operation with the wrap-around of long arithmetic.
+   *
+   * @param operation '+', '-', '*', or '\0' for no operation
+   * @param left the result so far
+   * @param right the operand
+   * @return the result, or left if there is no operation
+   */
+  static long operate(char operation, long left, long right) {
+    switch (operation) {
+      case '+':
+        return left + right;
+      case '-':
+        return left - right;
+      case '*':
+        return left * right;
+      default:
+        return left;
+    }
+  }
+
+  private static long repeatStepwise(ArithmeticKernel kernel, char operation, long left,
+                                     long right, long times) {
+    // Brent's cycle detection: the value of a power-of-two step is kept and compared with
+    // the values after it, until one of them is equal and the distance is the cycle length
+    long limit = 1 << 20;
+    long value = left;
+    long kept = left;
+    long keptStep = 0;
+    for (long step = 1; step <= times; step++) {
+      value = kernel.calculate(operation, value, right);
+      if (value == kept) {
+        for (long rest = (times - step) % (step - keptStep); rest > 0; rest--) {
+          value = kernel.calculate(operation, value, right);
+        }
+        return value;
+      }
+      if (step == 2 * keptStep || step == 1) {
+        if (step >= limit && step < times) {
+          throw new IllegalArgumentException("Cannot repeat an operation " + times
+                  + " times: " + kernel + " does not cycle within " + limit + " steps");
+        }
+        kept = value;
+        keptStep = step;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Repeats an operation in closed form for a kernel that resets every result outside
+   * min..max to 0. A result is reset at the first step that leaves the range, exactly as
+   * calculate() does, and the steps after it start again from 0.
+   */
+  private static long repeatInRange(ArithmeticKernel kernel, char operation, long left,
+                                    long right, long times, long min, long max) {
+    if (times < 0) {
+      throw new IllegalArgumentException("Cannot repeat an operation " + times + " times");
+    }
+    if (times > 0 && (left < min || left > max)) {
+      // only a restored or hand-made state can start outside the range; one step brings it in
+      left = kernel.calculate(operation, left, right);
+      times--;
+    }
+    if (right < min || right > max || (operation == '-' && right == Long.MIN_VALUE)) {
+      return repeatStepwise(kernel, operation, left, right, times);
+    }
+    switch (operation) {
+      case '+':
+        return repeatSum(left, right, times, min, max);
+      case '-':
+        return repeatSum(left, -right, times, min, max);
+      case '*':
+        return repeatProduct(left, right, times, min, max);
+      default:
+        return left;
+    }
+  }
+
+  /**
+   * Returns left + times * step, reset to 0 at every step that leaves min..max. The distances
+   * to the ends of the range can exceed a long, so they are divided as unsigned values.
+   */
+  private static long repeatSum(long left, long step, long times, long min, long max) {
+    if (times == 0 || step == 0) {
+      return left;
+    }
+    long magnitude = step > 0 ? step : -step;
+    // the steps that stay in range from left, and from 0 once a result has been reset
+    long fromLeft = Long.divideUnsigned(step > 0 ? max - left : left - min, magnitude);
+    if (Long.compareUnsigned(fromLeft, times) >= 0) {
+      return left + times * step;
+    }
+    long remaining = times - fromLeft - 1;
+    long fromZero = Long.divideUnsigned(step > 0 ? max : -min, magnitude);
+    if (Long.compareUnsigned(fromZero, remaining) >= 0) {
+      return remaining * step;
+    }
+    return Long.remainderUnsigned(remaining, fromZero + 1) * step;
+  }
+
+  /**
+   * Returns left * factor^times, or 0 if a step leaves min..max, as 0 then stays 0. The power
+   * is computed by squaring. With a factor of magnitude 2 or more every step is at least twice
+   * the one before, so the result is in range exactly when no step has left it.
+   */
+  private static long repeatProduct(long left, long factor, long times, long min, long max) {
+    if (times == 0 || left == 0 || factor == 1) {
+      return left;
+    }
+    if (factor == 0) {
+      return 0;
+    }
+    if (factor == -1) {
+      long negated = -left;
+      if (left == Long.MIN_VALUE || negated < min || negated > max) {
+        return 0;
+      }
+      return (times & 1) == 0 ? left : negated;
+    }
+    // starting from left, every partial product has the sign of the result and is not larger
+    long product = left;
+    long base = factor;
+    long exponent = times;
+    while (true) {
+      if ((exponent & 1) != 0) {
+        if (!multiplicationFits(product, base)) {
+          return 0;
+        }
+        product *= base;
+      }
+      exponent >>>= 1;
+      if (exponent == 0) {
+        break;
+      }
+      if (!multiplicationFits(base, base)) {
+        return 0;
+      }
+      base *= base;
+    }
+    return product < min || product > max ? 0 : product;
+  }
+
+  private static boolean multiplicationFits(long left, long right) {
+    return Math.multiplyHigh(left, right) == (left * right) >> 63;
+  }
+}
@@ -1,11 +1,15 @@
 package calculator;
 
+import java.util.Objects;
+
 /**
  * Interface for a basic calculator that performs arithmetic operations
  * and maintains its state based on character inputs.
- * Contains methods input() and getResult().
+ * Contains methods input(), inputAll() and getResult().
+ * A calculator is also the InputResult of the keystrokes that led to it, which lets
+ * tryInput() return it without wrapping it.
  */
-public interface Calculator {
+public interface Calculator extends InputResult {
   /**
    * Updates the calculator state based on the provided character input.
    * This method processes digits, operators, and control commands to perform
@@ -16,6 +20,89 @@ public interface Calculator {
    */
   Calculator input(char input);
 
+  /**
+   * Processes the input like input(), but reports a rejected character through the returned
+   * result instead of throwing an exception.
+   * This default calls input() and reports every rejection as INVALID_CHAR, the calculators
+   * of this package override it with a version that creates no exception.
+   *
+   * @param input a single character that is entered in the calculator
+   * @return the Calculator after the input, or the error if the input is rejected
+   */
+  default InputResult tryInput(char input) {
+    try {
+      return input(input);
+    } catch (IllegalArgumentException e) {
+      return InputError.INVALID_CHAR;
+    }
+  }
+
+  /**
+   * Processes every character of the given sequence like inputAll(), but reports a rejected
+   * character through the returned result, with its index, instead of throwing an exception.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return the Calculator after the last character, or the error of the rejected one
+   */
+  default InputResult tryInputAll(CharSequence keys) {
+    Calculator calculator = this;
+    for (int i = 0; i < keys.length(); i++) {
+      InputResult next = calculator.tryInput(keys.charAt(i));
+      if (next.isError()) {
+        return new RejectedKeystroke(next.getError(), i);
+      }
+      calculator = next.getCalculator();
+    }
+    return calculator;
+  }
+
+  /**
+   * Processes every character of the given sequence as if input() was called for each of
+   * them in order, and returns the calculator left after the last one.
+   * If a character is rejected, the exception has the same message input() would have
+   * thrown and reports the index of that character.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return the Calculator instance after processing all the characters
+   * @throws KeystrokeException if one of the characters is rejected
+   */
+  default Calculator inputAll(CharSequence keys) {
+    Calculator calculator = this;
+    for (int i = 0; i < keys.length(); i++) {
+      try {
+        calculator = calculator.input(keys.charAt(i));
+      } catch (IllegalArgumentException e) {
+        throw new KeystrokeException(e.getMessage(), i, e);
+      }
+    }
+    return calculator;
+  }
+
+  /**
+   * Processes the characters keys[offset] to keys[offset + length - 1] as if input() was
+   * called for each of them in order. The index reported for a rejected character is its
+   * index in the array.
+   *
+   * @param keys the array holding the characters entered in the calculator
+   * @param offset the index of the first character to process
+   * @param length the number of characters to process
+   * @return the Calculator instance after processing all the characters
+   * @throws KeystrokeException if one of the characters is rejected
+   * @throws IndexOutOfBoundsException if offset and length do not describe a range of keys
+   */
+  default Calculator inputAll(char[] keys, int offset, int length) {
+    Objects.checkFromIndexSize(offset, length, keys.length);
+    Calculator calculator = this;
+    for (int i = offset; i < offset + length; i++) {
+      try {
+        calculator = calculator.input(keys[i]);
+      } catch (IllegalArgumentException e) {
+        throw new KeystrokeException(e.getMessage(), i, e);
+      }
+    }
+    return calculator;
+  }
+
   /**
    * This method provides a string representation of the calculator's state,
    * including any partial inputs or the computed result after operations.
@@ -24,4 +111,24 @@ public interface Calculator {
    * @return the current display of the calculator as a String
    */
   String getResult();
+
+  @Override
+  default boolean isError() {
+    return false;
+  }
+
+  @Override
+  default Calculator getCalculator() {
+    return this;
+  }
+
+  @Override
+  default InputError getError() {
+    return null;
+  }
+
+  @Override
+  default int getIndex() {
+    return -1;
+  }
 }
@@ -0,0 +1,163 @@
+package calculator;
+
+/**
+ * CalculatorFactory fixes the configuration of a family of Simple and Smart calculators: the
+ * ArithmeticKernel that enters their operands and computes their results, and the optional
+ * TransitionCache their successors are looked up in. Every calculator
+ * that follows from a state of the family belongs to the same family, so the rules of a
+ * session never change under it, and calculators of different families can be used side by
+ * side. The engines the calculators replay keystrokes on, and the snapshots they are written
+ * to, carry the same kernel; the calculators of ArithmeticKernel.EXACT, whose results can
+ * leave the long range, have neither.
+ * A factory also holds the canonical empty and single digit states of its family, which
+ * clear() and digits entered after '=' return instead of building new calculators.
+ * Snapshots keep the kernel but not the cache: a restored calculator belongs to
+ * CalculatorFactory.INT or CalculatorFactory.LONG.
+ * A CalculatorFactory is immutable and can be shared between threads.
+ */
+public final class CalculatorFactory {
+
+  /**
+   * The family of new SimpleCalculator() and new SmartCalculator(), with ArithmeticKernel.INT
+   * and no transition cache.
+   */
+  public static final CalculatorFactory INT = new CalculatorFactory(ArithmeticKernel.INT);
+
+  /**
+   * The calculators with ArithmeticKernel.LONG and no transition cache.
+   */
+  public static final CalculatorFactory LONG = new CalculatorFactory(ArithmeticKernel.LONG);
+
+  /**
+   * The calculators with ArithmeticKernel.EXACT and no transition cache.
+   */
+  public static final CalculatorFactory EXACT = new CalculatorFactory(ArithmeticKernel.EXACT);
+
+  final ArithmeticKernel kernel;
+  final TransitionCache transitionCache;
+  final SimpleCalculator simpleEmpty;
+  final SimpleCalculator[] simpleDigits;
+  final SmartCalculator smartEmpty;
+  final SmartCalculator[] smartDigits;
+
+  /**
+   * Creates a family of calculators with the given kernel and no transition cache.
+   *
+   * @param kernel the kernel of every calculator of the family
+   * @throws IllegalArgumentException if kernel is null
+   */
+  public CalculatorFactory(ArithmeticKernel kernel) {
+    this(kernel, null);
+  }
+
+  /**
+   * Creates a family of calculators with the given kernel whose successors are looked up in
+   * the given cache. As states are cached by value, sessions of the same factory share cached
+   * successors whenever they reach equal states.
+   *
+   * @param kernel the kernel of every calculator of the family
+   * @param transitionCache the cache of the family, or null for none
+   * @throws IllegalArgumentException if kernel is null
+   */
+  public CalculatorFactory(ArithmeticKernel kernel, TransitionCache transitionCache) {
+    if (kernel == null) {
+      throw new IllegalArgumentException("The arithmetic kernel cannot be null");
+    }
+    this.kernel = kernel;
+    this.transitionCache = transitionCache;
+    this.simpleEmpty = new SimpleCalculator(this);
+    this.simpleDigits = SimpleCalculator.digitCalculators(this);
+    this.smartEmpty = new SmartCalculator(this);
+    this.smartDigits = SmartCalculator.digitCalculators(this);
+  }
+
+  /**
+   * Returns the factory of a built-in kernel, or a new one for any other kernel.
+   */
+  static CalculatorFactory of(ArithmeticKernel kernel) {
+    if (kernel == ArithmeticKernel.INT) {
+      return INT;
+    }
+    if (kernel == ArithmeticKernel.EXACT) {
+      return EXACT;
+    }
+    return kernel == ArithmeticKernel.LONG ? LONG : new CalculatorFactory(kernel);
+  }
+
+  /**
+   * Returns the kernel of the calculators of this family.
+   *
+   * @return the kernel
+   */
+  public ArithmeticKernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Returns the transition cache of this family.
+   *
+   * @return the cache, or null if there is none
+   */
+  public TransitionCache getTransitionCache() {
+    return transitionCache;
+  }
+
+  /**
+   * Returns the empty SimpleCalculator of this family. As calculators are immutable, every
+   * call returns the same instance.
+   *
+   * @return the empty SimpleCalculator
+   */
+  public SimpleCalculator simpleCalculator() {
+    return simpleEmpty;
+  }
+
+  /**
+   * Returns the empty SmartCalculator of this family. As calculators are immutable, every
+   * call returns the same instance.
+   *
+   * @return the empty SmartCalculator
+   */
+  public SmartCalculator smartCalculator() {
+    return smartEmpty;
+  }
+
+  /**
+   * Returns the empty calculator of this family for one rule set.
+   *
+   * @param smart true for the SmartCalculator rules, false for SimpleCalculator
+   * @return the empty calculator
+   */
+  public Calculator calculator(boolean smart) {
+    return smart ? smartEmpty : simpleEmpty;
+  }
+
+  /**
+   * Creates an empty PackedCalculator with the kernel of this family.
+   *
+   * @param smart true for the SmartCalculator rules, false for SimpleCalculator
+   * @return a new engine
+   * @throws IllegalArgumentException if the kernel of this family is ArithmeticKernel.EXACT
+   */
+  public PackedCalculator packedCalculator(boolean smart) {
+    return new PackedCalculator(smart, kernel);
+  }
+
+  /**
+   * Creates an empty TableCalculator with the kernel of this family.
+   *
+   * @param smart true for the SmartCalculator rules, false for SimpleCalculator
+   * @return a new engine
+   * @throws IllegalArgumentException if the kernel of this family is ArithmeticKernel.EXACT
+   */
+  public TableCalculator tableCalculator(boolean smart) {
+    return new TableCalculator(smart, kernel);
+  }
+
+  @Override
+  public String toString() {
+    return "CalculatorFactory[" + kernel
+            + (transitionCache == null ? "" : ", cache of " + transitionCache.getCapacity())
+            + "]";
+  }
+}
@@ -0,0 +1,281 @@
+package calculator;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CalculatorProcessor applies a stream of keystrokes to a calculator and publishes the
+ * display, as returned by getResult(), on the configured events: after every '=', after every
+ * n keys, or both. When the keystrokes complete, the display is published once more if keys
+ * arrived since the last snapshot.
+ * Keystrokes are requested from upstream only while there is room for the snapshots they may
+ * produce, so at most bufferSize snapshots wait for the subscriber and a slow subscriber
+ * throttles the keystrokes instead of letting them pile up.
+ * A rejected keystroke cancels the keystrokes and, after the snapshots before it, signals a
+ * KeystrokeException holding its InputError and its index in the stream. A processor has a
+ * single subscriber.
+ */
+public final class CalculatorProcessor implements Flow.Processor<Character, String> {
+
+  private final boolean publishOnEquals;
+  private final int publishEveryKeys;
+  private final int bufferSize;
+  private final int replenishThreshold;
+
+  // touched only by the upstream thread, whose signals are serialized
+  private Calculator calculator;
+  private int keysSinceSnapshot;
+  private long keys;
+
+  private final Queue<String> snapshots = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger snapshotCount = new AtomicInteger();
+  private final AtomicInteger outstandingKeys = new AtomicInteger();
+  private final AtomicLong demand = new AtomicLong();
+  private final AtomicInteger wip = new AtomicInteger();
+  private volatile Flow.Subscription upstream;
+  private volatile Flow.Subscriber<? super String> downstream;
+  private volatile boolean done;
+  private volatile boolean cancelled;
+  private volatile Throwable error;
+  private boolean terminated;
+
+  /**
+   * Creates a CalculatorProcessor buffering up to Flow.defaultBufferSize() snapshots.
+   *
+   * @param calculator the calculator the first keystroke is applied to
+   * @param publishOnEquals true to publish the display after every '='
+   * @param publishEveryKeys publish the display after this many keys, or 0 not to
+   * @throws IllegalArgumentException if publishEveryKeys is negative, or no event is chosen
+   */
+  public CalculatorProcessor(Calculator calculator, boolean publishOnEquals,
+                             int publishEveryKeys) {
+    this(calculator, publishOnEquals, publishEveryKeys, Flow.defaultBufferSize());
+  }
+
+  /**
+   * Creates a CalculatorProcessor.
+   *
+   * @param calculator the calculator the first keystroke is applied to
+   * @param publishOnEquals true to publish the display after every '='
+   * @param publishEveryKeys publish the display after this many keys, or 0 not to
+   * @param bufferSize the largest number of snapshots waiting for the subscriber
+   * @throws IllegalArgumentException if publishEveryKeys is negative, bufferSize is not
+   *                                  positive, or no event is chosen
+   */
+  public CalculatorProcessor(Calculator calculator, boolean publishOnEquals,
+                             int publishEveryKeys, int bufferSize) {
+    if (publishEveryKeys < 0) {
+      throw new IllegalArgumentException("The number of keys cannot be negative");
+    }
+    if (!publishOnEquals && publishEveryKeys == 0) {
+      throw new IllegalArgumentException("No event to publish the display on");
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.calculator = calculator;
+    this.publishOnEquals = publishOnEquals;
+    this.publishEveryKeys = publishEveryKeys;
+    this.bufferSize = bufferSize;
+    this.replenishThreshold = Math.max(1, bufferSize / 2);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super String> subscriber) {
+    synchronized (this) {
+      if (downstream == null) {
+        downstream = subscriber;
+        subscriber.onSubscribe(new SnapshotSubscription());
+        drain();
+        return;
+      }
+    }
+    subscriber.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+      }
+
+      @Override
+      public void cancel() {
+      }
+    });
+    subscriber.onError(new IllegalStateException("A CalculatorProcessor has one subscriber"));
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    if (upstream != null || cancelled) {
+      subscription.cancel();
+      return;
+    }
+    upstream = subscription;
+    drain();
+  }
+
+  @Override
+  public void onNext(Character key) {
+    if (done || cancelled) {
+      return;
+    }
+    outstandingKeys.decrementAndGet();
+    InputResult next = calculator.tryInput(key);
+    if (next.isError()) {
+      upstream.cancel();
+      int index = (int) Math.min(keys, Integer.MAX_VALUE);
+      error = new KeystrokeException(rejectionMessage(calculator, next.getError(), key),
+              index, next.getError());
+      done = true;
+      drain();
+      return;
+    }
+    calculator = next.getCalculator();
+    keys++;
+    keysSinceSnapshot++;
+    if ((publishOnEquals && key == '=')
+            || (publishEveryKeys > 0 && keysSinceSnapshot >= publishEveryKeys)) {
+      publish();
+    }
+    drain();
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    if (done) {
+      return;
+    }
+    error = throwable;
+    done = true;
+    drain();
+  }
+
+  @Override
+  public void onComplete() {
+    if (done) {
+      return;
+    }
+    if (keysSinceSnapshot > 0) {
+      publish();
+    }
+    done = true;
+    drain();
+  }
+
+  /**
+   * Returns the message input() throws when the calculator rejects the key, as inputAll()
+   * reports it.
+   */
+  private static String rejectionMessage(Calculator calculator, InputError error, char key) {
+    if (calculator instanceof AbstractCalculator) {
+      return ((AbstractCalculator<?>) calculator).rejectionMessage(error, key);
+    }
+    if (calculator instanceof PackedCalculator) {
+      return ((PackedCalculator) calculator).message(error, key);
+    }
+    if (calculator instanceof TableCalculator) {
+      return ((TableCalculator) calculator).message(error, key);
+    }
+    // a rejected key leaves any calculator as it was, so it can be typed again for the message
+    try {
+      calculator.input(key);
+    } catch (IllegalArgumentException e) {
+      return e.getMessage();
+    }
+    return error.name();
+  }
+
+  private void publish() {
+    snapshots.add(calculator.getResult());
+    snapshotCount.incrementAndGet();
+    keysSinceSnapshot = 0;
+  }
+
+  /**
+   * Hands the waiting snapshots to the subscriber as far as its demand allows, signals the
+   * end once they are all delivered, and requests more keys when there is room for them.
+   * Only one thread runs the loop at a time; a call that finds it running makes it go round
+   * once more instead.
+   */
+  private void drain() {
+    if (wip.getAndIncrement() != 0) {
+      return;
+    }
+    int missed = 1;
+    do {
+      Flow.Subscriber<? super String> subscriber = downstream;
+      if (cancelled) {
+        snapshots.clear();
+      } else if (subscriber != null && !terminated) {
+        long requested = demand.get();
+        long emitted = 0;
+        while (emitted != requested && !cancelled) {
+          String snapshot = snapshots.poll();
+          if (snapshot == null) {
+            break;
+          }
+          snapshotCount.decrementAndGet();
+          subscriber.onNext(snapshot);
+          emitted++;
+        }
+        if (emitted != 0 && requested != Long.MAX_VALUE) {
+          demand.addAndGet(-emitted);
+        }
+        if (done && snapshots.isEmpty() && !cancelled) {
+          terminated = true;
+          Throwable failure = error;
+          if (failure != null) {
+            subscriber.onError(failure);
+          } else {
+            subscriber.onComplete();
+          }
+        }
+      }
+      Flow.Subscription subscription = upstream;
+      if (subscription != null && !done && !cancelled) {
+        int room = bufferSize - snapshotCount.get() - outstandingKeys.get();
+        if (room >= replenishThreshold) {
+          outstandingKeys.addAndGet(room);
+          subscription.request(room);
+        }
+      }
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private final class SnapshotSubscription implements Flow.Subscription {
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        error = new IllegalArgumentException("Demand must be positive: " + n);
+        done = true;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+          subscription.cancel();
+        }
+        snapshots.clear();
+        drain();
+        return;
+      }
+      long current;
+      long next;
+      do {
+        current = demand.get();
+        next = current + n < 0 ? Long.MAX_VALUE : current + n;
+      } while (!demand.compareAndSet(current, next));
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      Flow.Subscription subscription = upstream;
+      if (subscription != null) {
+        subscription.cancel();
+      }
+      drain();
+    }
+  }
+}
@@ -0,0 +1,329 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CalculatorSnapshot writes the state of SimpleCalculator and SmartCalculator sessions in a
+ * compact binary format and restores them without replaying their keystrokes.
+ * A record starts with a header byte holding the rules, the current operation, the input
+ * flags, how the display is stored and whether the ArithmeticKernel is INT or LONG, followed
+ * by the current operand, the result and, for
+ * the SmartCalculator rules, the last operand as zigzag varints. Most displays are not
+ * stored at all: an empty display, the result, or the result, the operator and the operand
+ * being typed are derived from the numbers, and only other displays are written out, as a
+ * varint length and one varint per character. A typical record takes 3 to 12 bytes.
+ * A snapshot written to a channel starts with a magic number, the format version and the
+ * number of records; records can also be written to and read from a ByteBuffer one by one.
+ */
+public final class CalculatorSnapshot {
+
+  /**
+   * The version of the format written by this class.
+   */
+  public static final int VERSION = 2;
+
+  static final int MAGIC = 0x43414C43;
+  static final int FILE_HEADER_SIZE = 9;
+
+  private static final int SMART = 0x1;
+  private static final int OPERATION_SHIFT = 1;
+  private static final int LAST_INPUT_WAS_EQUAL = 0x8;
+  private static final int LAST_INPUT_WAS_OPERATOR = 0x10;
+  private static final int DISPLAY_SHIFT = 5;
+  private static final int DISPLAY_MASK = 0x3;
+  private static final int DISPLAY_LITERAL = 0;
+  private static final int DISPLAY_EMPTY = 1;
+  private static final int DISPLAY_RESULT = 2;
+  private static final int DISPLAY_EXPRESSION = 3;
+  private static final int LONG_KERNEL = 0x80;
+
+  private static final int MAX_VARINT_SIZE = 10;
+  private static final int MAX_FIXED_SIZE = 1 + 4 * MAX_VARINT_SIZE;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private CalculatorSnapshot() {
+  }
+
+  /**
+   * Writes the state of a calculator as one record at the position of the buffer.
+   *
+   * @param calculator a SimpleCalculator or SmartCalculator
+   * @param buffer the buffer to write to
+   * @throws IllegalArgumentException if the calculator is of another type, or its kernel is
+   *                                  neither ArithmeticKernel.INT nor ArithmeticKernel.LONG
+   * @throws java.nio.BufferOverflowException if the record does not fit in the buffer
+   */
+  public static void write(Calculator calculator, ByteBuffer buffer) {
+    AbstractCalculator<?> state = state(calculator);
+    boolean smart = state instanceof SmartCalculator;
+    String display = state.display.toString();
+    int displayMode = displayMode(state, display);
+    buffer.put((byte) ((smart ? SMART : 0)
+            | PackedCalculator.operationCode(state.currentOperation) << OPERATION_SHIFT
+            | (state.lastInputWasEqual ? LAST_INPUT_WAS_EQUAL : 0)
+            | (state.lastInputWasOperator ? LAST_INPUT_WAS_OPERATOR : 0)
+            | displayMode << DISPLAY_SHIFT
+            | (state.factory.kernel == ArithmeticKernel.LONG ? LONG_KERNEL : 0)));
+    putVarLong(buffer, state.currentOperand);
+    putVarLong(buffer, state.result);
+    if (smart) {
+      putVarLong(buffer, state.lastOperandState());
+    }
+    if (displayMode == DISPLAY_LITERAL) {
+      putVarLong(buffer, display.length());
+      for (int i = 0; i < display.length(); i++) {
+        putVarLong(buffer, display.charAt(i));
+      }
+    }
+  }
+
+  /**
+   * Reads one record at the position of the buffer and returns the calculator it holds. If
+   * the buffer ends within the record, its position is left where the record starts.
+   *
+   * @param buffer the buffer to read from
+   * @return a SimpleCalculator or SmartCalculator in the state of the record
+   * @throws IllegalArgumentException if the record is malformed
+   * @throws BufferUnderflowException if the buffer ends within the record
+   */
+  public static Calculator read(ByteBuffer buffer) {
+    int start = buffer.position();
+    try {
+      return readRecord(buffer);
+    } catch (BufferUnderflowException e) {
+      buffer.position(start);
+      throw e;
+    }
+  }
+
+  /**
+   * Writes a snapshot of the given sessions to a channel, such as a FileChannel.
+   *
+   * @param sessions the SimpleCalculator and SmartCalculator sessions, in order
+   * @param channel the channel to write to
+   * @return the number of bytes written
+   * @throws IOException if the channel cannot be written
+   * @throws IllegalArgumentException if a session is of another type
+   */
+  public static long writeAll(List<? extends Calculator> sessions, WritableByteChannel channel)
+          throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    buffer.putInt(MAGIC);
+    buffer.put((byte) VERSION);
+    buffer.putInt(sessions.size());
+    long written = 0;
+    for (Calculator session : sessions) {
+      int maxSize = MAX_FIXED_SIZE + 3 * state(session).display.length();
+      if (buffer.remaining() < maxSize) {
+        written += flush(buffer, channel);
+        if (buffer.capacity() < maxSize) {
+          buffer = ByteBuffer.allocate(maxSize);
+        }
+      }
+      write(session, buffer);
+    }
+    return written + flush(buffer, channel);
+  }
+
+  /**
+   * Reads a whole snapshot written by writeAll() from a channel, such as a FileChannel.
+   *
+   * @param channel the channel to read from
+   * @return the restored sessions, in the order they were written
+   * @throws IOException if the channel cannot be read
+   * @throws StreamCorruptedException if the channel does not hold a snapshot of a supported
+   *                                  version, or it ends early
+   */
+  public static List<Calculator> readAll(ReadableByteChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    buffer.flip();
+    while (buffer.remaining() < FILE_HEADER_SIZE) {
+      buffer = fill(buffer, channel);
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new StreamCorruptedException("Not a calculator snapshot");
+    }
+    int version = buffer.get();
+    if (version < 1 || version > VERSION) {
+      throw new StreamCorruptedException("Unsupported snapshot version: " + version);
+    }
+    int count = buffer.getInt();
+    if (count < 0) {
+      throw new StreamCorruptedException("Invalid number of sessions: " + count);
+    }
+    List<Calculator> sessions = new ArrayList<>(count);
+    while (sessions.size() < count) {
+      try {
+        sessions.add(read(buffer));
+      } catch (BufferUnderflowException e) {
+        buffer = fill(buffer, channel);
+      } catch (IllegalArgumentException e) {
+        StreamCorruptedException corrupted = new StreamCorruptedException(
+                "Invalid record of session " + sessions.size());
+        corrupted.initCause(e);
+        throw corrupted;
+      }
+    }
+    return sessions;
+  }
+
+  private static AbstractCalculator<?> state(Calculator calculator) {
+    if (!(calculator instanceof SimpleCalculator || calculator instanceof SmartCalculator)) {
+      throw new IllegalArgumentException("Cannot snapshot a "
+              + (calculator == null ? "null" : calculator.getClass().getSimpleName()));
+    }
+    AbstractCalculator<?> state = (AbstractCalculator<?>) calculator;
+    ArithmeticKernel kernel = state.factory.kernel;
+    if (kernel != ArithmeticKernel.INT && kernel != ArithmeticKernel.LONG) {
+      throw new IllegalArgumentException("Cannot snapshot a calculator with the kernel "
+              + kernel);
+    }
+    return state;
+  }
+
+  /**
+   * Returns how the display can be stored: derived from the numbers when they give it back
+   * exactly, written out otherwise.
+   */
+  private static int displayMode(AbstractCalculator<?> state, String display) {
+    if (display.isEmpty()) {
+      return DISPLAY_EMPTY;
+    }
+    String result = Long.toString(state.result);
+    if (display.equals(result)) {
+      return DISPLAY_RESULT;
+    }
+    if (state.currentOperation != '\0' && display.equals(expression(state.result,
+            state.currentOperation, state.currentOperand, state.lastInputWasOperator))) {
+      return DISPLAY_EXPRESSION;
+    }
+    return DISPLAY_LITERAL;
+  }
+
+  private static String expression(long result, char operation, long operand,
+                                   boolean operatorOnly) {
+    StringBuilder expression = new StringBuilder(24).append(result).append(operation);
+    return (operatorOnly ? expression : expression.append(operand)).toString();
+  }
+
+  private static Calculator readRecord(ByteBuffer buffer) {
+    int header = buffer.get() & 0xFF;
+    CalculatorFactory factory = (header & LONG_KERNEL) != 0
+            ? CalculatorFactory.LONG : CalculatorFactory.INT;
+    boolean smart = (header & SMART) != 0;
+    char operation = PackedCalculator.operation(header >>> OPERATION_SHIFT);
+    boolean lastInputWasEqual = (header & LAST_INPUT_WAS_EQUAL) != 0;
+    boolean lastInputWasOperator = (header & LAST_INPUT_WAS_OPERATOR) != 0;
+    long currentOperand = getVarLong(buffer);
+    long result = getVarLong(buffer);
+    long lastOperand = smart ? getVarLong(buffer) : 0;
+    Display display;
+    switch (header >>> DISPLAY_SHIFT & DISPLAY_MASK) {
+      case DISPLAY_EMPTY:
+        display = Display.EMPTY;
+        break;
+      case DISPLAY_RESULT:
+        display = Display.of(result);
+        break;
+      case DISPLAY_EXPRESSION:
+        if (operation == '\0') {
+          throw new IllegalArgumentException("Expression display without an operation");
+        }
+        display = Display.of(expression(result, operation, currentOperand,
+                lastInputWasOperator));
+        break;
+      default:
+        display = Display.of(getText(buffer));
+        break;
+    }
+    if (smart) {
+      return SmartCalculator.restore(factory, currentOperand, operation, result, display,
+              lastInputWasEqual, lastInputWasOperator, lastOperand);
+    }
+    return SimpleCalculator.restore(factory, currentOperand, operation, result, display,
+            lastInputWasEqual, lastInputWasOperator);
+  }
+
+  private static String getText(ByteBuffer buffer) {
+    long length = getVarLong(buffer);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid display length: " + length);
+    }
+    if (length > buffer.remaining()) {
+      // every character takes at least one byte, so the record cannot be complete
+      throw new BufferUnderflowException();
+    }
+    char[] text = new char[(int) length];
+    for (int i = 0; i < text.length; i++) {
+      long c = getVarLong(buffer);
+      if (c < 0 || c > Character.MAX_VALUE) {
+        throw new IllegalArgumentException("Invalid display character: " + c);
+      }
+      text[i] = (char) c;
+    }
+    return new String(text);
+  }
+
+  /**
+   * Writes a value as a zigzag varint: seven bits per byte, least significant first, with
+   * the sign folded into the lowest bit so small negative numbers stay short.
+   */
+  static void putVarLong(ByteBuffer buffer, long value) {
+    long bits = (value << 1) ^ (value >> 63);
+    while ((bits & ~0x7FL) != 0) {
+      buffer.put((byte) ((bits & 0x7F) | 0x80));
+      bits >>>= 7;
+    }
+    buffer.put((byte) bits);
+  }
+
+  static long getVarLong(ByteBuffer buffer) {
+    long bits = 0;
+    for (int shift = 0; shift < 7 * MAX_VARINT_SIZE; shift += 7) {
+      byte b = buffer.get();
+      bits |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return (bits >>> 1) ^ -(bits & 1);
+      }
+    }
+    throw new IllegalArgumentException("Varint longer than " + MAX_VARINT_SIZE + " bytes");
+  }
+
+  private static long flush(ByteBuffer buffer, WritableByteChannel channel)
+          throws IOException {
+    buffer.flip();
+    long written = buffer.remaining();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+    return written;
+  }
+
+  /**
+   * Moves the unread bytes to the start of the buffer, growing it when they fill it, and
+   * reads more bytes after them.
+   */
+  private static ByteBuffer fill(ByteBuffer buffer, ReadableByteChannel channel)
+          throws IOException {
+    if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+      ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2);
+      grown.put(buffer);
+      buffer = grown;
+    } else {
+      buffer.compact();
+    }
+    if (channel.read(buffer) == -1) {
+      throw new StreamCorruptedException("Snapshot ends within a record");
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -0,0 +1,377 @@
+package calculator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * DifferentialHarness drives the same random sessions through several calculator engines,
+ * measures the keystrokes per second of each and reports where they disagree with the first
+ * engine, the reference.
+ * Sessions are generated in batches before they are timed. Each engine types the first batch
+ * a few times untimed so the timed rounds run compiled code, then types every batch on its
+ * own, so the timing covers only its keystrokes and the exceptions of the rejected ones.
+ * The batch is then typed into all engines side by side, and after every keystroke the
+ * displays and the class and message of any exception are compared; the first keystroke an
+ * engine disagrees on ends that session for it. Finally every engine takes each session in
+ * one inputAll() and one tryInputAll() call, which must end where the reference ends when
+ * typed key by key up to its first rejected keystroke. This covers the paths an engine only
+ * takes for whole sequences, such as a run of '=' applied at once.
+ */
+public final class DifferentialHarness {
+
+  private static final int BATCH_SIZE = 4096;
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int MAX_REPORTED_DIVERGENCES = 10;
+
+  private final List<String> names;
+  private final List<Supplier<? extends Calculator>> engines;
+
+  /**
+   * Creates a DifferentialHarness comparing the given engines.
+   *
+   * @param engines the engines by name, in order, each creating an empty calculator; the
+   *                first one is the reference
+   * @throws IllegalArgumentException if there is no engine
+   */
+  public DifferentialHarness(Map<String, ? extends Supplier<? extends Calculator>> engines) {
+    if (engines.isEmpty()) {
+      throw new IllegalArgumentException("At least one engine is needed");
+    }
+    this.names = new ArrayList<>(engines.keySet());
+    this.engines = new ArrayList<>(engines.values());
+  }
+
+  /**
+   * Creates a DifferentialHarness comparing the calculators of one rule set: the immutable
+   * calculator as the reference, then PackedCalculator and TableCalculator.
+   *
+   * @param smart true for the SmartCalculator rules, false for SimpleCalculator
+   * @return the harness
+   */
+  public static DifferentialHarness forEngines(boolean smart) {
+    Map<String, Supplier<? extends Calculator>> engines = new LinkedHashMap<>();
+    if (smart) {
+      engines.put("smart", SmartCalculator::new);
+    } else {
+      engines.put("simple", SimpleCalculator::new);
+    }
+    engines.put("packed", () -> new PackedCalculator(smart));
+    engines.put("table", () -> new TableCalculator(smart));
+    return new DifferentialHarness(engines);
+  }
+
+  /**
+   * Drives sessions from the generator through every engine.
+   *
+   * @param generator the source of the sessions
+   * @param sessions the number of sessions
+   * @return the throughput of each engine and the divergences found
+   */
+  public Report run(KeystrokeGenerator generator, int sessions) {
+    Report report = new Report(names);
+    String[] batch = new String[BATCH_SIZE];
+    for (int done = 0; done < sessions; done += BATCH_SIZE) {
+      int size = Math.min(BATCH_SIZE, sessions - done);
+      for (int i = 0; i < size; i++) {
+        batch[i] = generator.nextSession();
+        report.keystrokes += batch[i].length();
+      }
+      if (done == 0) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+          for (Supplier<? extends Calculator> engine : engines) {
+            time(engine, batch, size, report);
+          }
+        }
+      }
+      for (int engine = 0; engine < engines.size(); engine++) {
+        report.nanos[engine] += time(engines.get(engine), batch, size, report);
+      }
+      for (int i = 0; i < size; i++) {
+        compare(batch[i], report);
+      }
+    }
+    return report;
+  }
+
+  private long time(Supplier<? extends Calculator> engine, String[] batch, int size,
+                    Report report) {
+    long sink = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < size; i++) {
+      String keys = batch[i];
+      Calculator calculator = engine.get();
+      for (int k = 0; k < keys.length(); k++) {
+        try {
+          calculator = calculator.input(keys.charAt(k));
+        } catch (IllegalArgumentException e) {
+          sink++;
+        }
+      }
+      sink += calculator.getResult().length();
+    }
+    long elapsed = System.nanoTime() - start;
+    report.sink += sink;
+    return elapsed;
+  }
+
+  /**
+   * Types one session into every engine side by side and records the first divergence of
+   * each engine from the reference, then compares the whole session in one call.
+   */
+  private void compare(String keys, Report report) {
+    Calculator[] calculators = new Calculator[engines.size()];
+    for (int engine = 0; engine < calculators.length; engine++) {
+      calculators[engine] = engines.get(engine).get();
+    }
+    boolean[] diverged = new boolean[calculators.length];
+    String expectedBulk = null;
+    String expectedTry = null;
+    for (int k = 0; k < keys.length(); k++) {
+      char key = keys.charAt(k);
+      Outcome expected = Outcome.of(calculators, 0, key);
+      if (expected.error != null) {
+        report.rejected++;
+        if (expectedBulk == null) {
+          // the reference is left before the rejected key, so it rejects the key again
+          InputError error = calculators[0].tryInput(key).getError();
+          expectedBulk = rejection(error, k, expected.message);
+          expectedTry = rejection(error, k, null);
+        }
+      }
+      for (int engine = 1; engine < calculators.length; engine++) {
+        if (diverged[engine]) {
+          continue;
+        }
+        Outcome actual = Outcome.of(calculators, engine, key);
+        if (!expected.equals(actual)) {
+          diverged[engine] = true;
+          report.addDivergence(names.get(engine) + " after \"" + keys.substring(0, k + 1)
+                  + "\": expected " + expected + " but was " + actual);
+        }
+      }
+    }
+    if (expectedBulk == null) {
+      expectedBulk = "\"" + calculators[0].getResult() + "\"";
+      expectedTry = expectedBulk;
+    }
+    compareBulk(keys, expectedBulk, expectedTry, diverged, report);
+  }
+
+  /**
+   * Types the whole session into a new calculator of every engine with inputAll() and with
+   * tryInputAll(), and records a divergence for an engine that has not diverged yet when
+   * either call does not end as expected.
+   */
+  private void compareBulk(String keys, String expectedBulk, String expectedTry,
+                           boolean[] diverged, Report report) {
+    for (int engine = 0; engine < engines.size(); engine++) {
+      if (diverged[engine]) {
+        continue;
+      }
+      String bulk = inputAll(engines.get(engine).get(), keys);
+      String tried = tryInputAll(engines.get(engine).get(), keys);
+      if (!bulk.equals(expectedBulk)) {
+        diverged[engine] = true;
+        report.addDivergence(names.get(engine) + " inputAll(\"" + keys + "\"): expected "
+                + expectedBulk + " but was " + bulk);
+      } else if (!tried.equals(expectedTry)) {
+        diverged[engine] = true;
+        report.addDivergence(names.get(engine) + " tryInputAll(\"" + keys + "\"): expected "
+                + expectedTry + " but was " + tried);
+      }
+    }
+  }
+
+  private static String inputAll(Calculator calculator, String keys) {
+    try {
+      return "\"" + calculator.inputAll(keys).getResult() + "\"";
+    } catch (KeystrokeException e) {
+      return rejection(e.getError(), e.getIndex(), e.getMessage());
+    }
+  }
+
+  private static String tryInputAll(Calculator calculator, String keys) {
+    InputResult result = calculator.tryInputAll(keys);
+    if (result.isError()) {
+      return rejection(result.getError(), result.getIndex(), null);
+    }
+    return "\"" + result.getCalculator().getResult() + "\"";
+  }
+
+  private static String rejection(InputError error, int index, String message) {
+    return error + " at " + index + (message == null ? "" : " (" + message + ")");
+  }
+
+  /**
+   * The display after a keystroke, or the exception that rejected it.
+   */
+  private static final class Outcome {
+
+    private final String display;
+    private final Class<?> error;
+    private final String message;
+
+    private Outcome(String display, Class<?> error, String message) {
+      this.display = display;
+      this.error = error;
+      this.message = message;
+    }
+
+    /**
+     * Types a key into one of the calculators, replacing it with the calculator that
+     * follows, and returns what happened.
+     */
+    static Outcome of(Calculator[] calculators, int index, char key) {
+      try {
+        calculators[index] = calculators[index].input(key);
+        return new Outcome(calculators[index].getResult(), null, null);
+      } catch (RuntimeException e) {
+        return new Outcome(calculators[index].getResult(), e.getClass(), e.getMessage());
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Outcome)) {
+        return false;
+      }
+      Outcome outcome = (Outcome) other;
+      return display.equals(outcome.display) && Objects.equals(error, outcome.error)
+              && Objects.equals(message, outcome.message);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(display, error, message);
+    }
+
+    @Override
+    public String toString() {
+      if (error == null) {
+        return "\"" + display + "\"";
+      }
+      return error.getSimpleName() + "(" + message + ") with \"" + display + "\"";
+    }
+  }
+
+  /**
+   * The results of a run: the keystrokes per second of every engine, the share of
+   * keystrokes the reference rejected, and the divergences from the reference.
+   */
+  public static final class Report {
+
+    private final List<String> names;
+    private final long[] nanos;
+    private final List<String> divergences = new ArrayList<>();
+    private long keystrokes;
+    private long rejected;
+    private int divergenceCount;
+    private long sink;
+
+    private Report(List<String> names) {
+      this.names = names;
+      this.nanos = new long[names.size()];
+    }
+
+    private void addDivergence(String divergence) {
+      divergenceCount++;
+      if (divergences.size() < MAX_REPORTED_DIVERGENCES) {
+        divergences.add(divergence);
+      }
+    }
+
+    /**
+     * Returns the number of keystrokes each engine typed.
+     *
+     * @return the number of keystrokes of all sessions
+     */
+    public long getKeystrokes() {
+      return keystrokes;
+    }
+
+    /**
+     * Returns the keystrokes per second of an engine.
+     *
+     * @param engine the name of the engine
+     * @return the keystrokes divided by the time the engine took
+     * @throws IllegalArgumentException if there is no such engine
+     */
+    public double getKeystrokesPerSecond(String engine) {
+      int index = names.indexOf(engine);
+      if (index < 0) {
+        throw new IllegalArgumentException("No such engine: " + engine);
+      }
+      return nanos[index] == 0 ? 0 : keystrokes * 1e9 / nanos[index];
+    }
+
+    /**
+     * Returns the share of keystrokes the reference engine rejected.
+     *
+     * @return the rejected keystrokes divided by all keystrokes
+     */
+    public double getErrorShare() {
+      return keystrokes == 0 ? 0 : (double) rejected / keystrokes;
+    }
+
+    /**
+     * Returns the number of sessions in which an engine diverged from the reference,
+     * counting every engine separately.
+     *
+     * @return the number of divergences
+     */
+    public int getDivergenceCount() {
+      return divergenceCount;
+    }
+
+    /**
+     * Returns a description of the first divergences found.
+     *
+     * @return up to ten divergences, in the order they were found
+     */
+    public List<String> getDivergences() {
+      return Collections.unmodifiableList(divergences);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      report.append(String.format("Keystrokes: %d, rejected: %.1f%%%n", keystrokes,
+              100 * getErrorShare()));
+      for (String name : names) {
+        report.append(String.format("  %-10s %,15.0f keystrokes/s%n", name,
+                getKeystrokesPerSecond(name)));
+      }
+      report.append("Divergences: ").append(divergenceCount).append(System.lineSeparator());
+      for (String divergence : divergences) {
+        report.append("  ").append(divergence).append(System.lineSeparator());
+      }
+      return report.toString();
+    }
+  }
+
+  /**
+   * Runs the harness from the command line.
+   * Usage: DifferentialHarness simple|smart [sessions] [seed]
+   *
+   * @param args the rule set, the number of sessions and the seed
+   */
+  public static void main(String[] args) {
+    if (args.length < 1 || !(args[0].equals("simple") || args[0].equals("smart"))) {
+      System.err.println("Usage: DifferentialHarness simple|smart [sessions] [seed]");
+      System.exit(2);
+    }
+    int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 23;
+    Report report = forEngines(args[0].equals("smart"))
+            .run(new KeystrokeGenerator(seed, 1, 40), sessions);
+    System.out.print(report);
+    if (report.getDivergenceCount() > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package calculator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Display is the immutable text shown by a calculator. Appending a character creates a node
+ * that points back to the unchanged display instead of copying it, so successive calculators
+ * share the prefix they have in common and a keystroke costs the same however long the
+ * display is. The text is only materialized when toString() is called, and is then cached.
+ * Which displays were derived from which is kept in the nodes, so the way a transition
+ * changed the display can be told without comparing texts.
+ */
+final class Display implements CharSequence {
+
+  static final Display EMPTY = new Display("");
+
+  private final Display prefix;
+  private final char last;
+  private final int length;
+  private String text;
+  // the hash of the text once contentHash() has computed it, 0 before
+  private int hash;
+
+  private Display(String text) {
+    this.prefix = null;
+    this.last = '\0';
+    this.length = text.length();
+    this.text = text;
+  }
+
+  private Display(Display prefix, char last) {
+    this.prefix = prefix;
+    this.last = last;
+    this.length = prefix.length + 1;
+  }
+
+  /**
+   * Returns a display showing the given text.
+   */
+  static Display of(String text) {
+    return text.isEmpty() ? EMPTY : new Display(text);
+  }
+
+  /**
+   * Returns a display showing the given number in decimal.
+   */
+  static Display of(long value) {
+    return new Display(Long.toString(value));
+  }
+
+  /**
+   * Returns a display showing this text followed by c. This display is left unchanged.
+   */
+  Display append(char c) {
+    return new Display(this, c);
+  }
+
+  /**
+   * Returns a display showing this text without its last character.
+   */
+  Display dropLast() {
+    if (prefix != null) {
+      return prefix;
+    }
+    return of(text.substring(0, length - 1));
+  }
+
+  /**
+   * Returns whether this display was built by appending characters to the given one, or is
+   * that display itself. Only the nodes are followed, so a display rebuilt from a string does
+   * not extend another one even when its text starts with the other text.
+   */
+  boolean extendsDisplay(Display other) {
+    Display node = this;
+    while (node.length > other.length && node.prefix != null) {
+      node = node.prefix;
+    }
+    return node == other;
+  }
+
+  /**
+   * Returns whether this display was built by appending a character to other.dropLast(), so
+   * it shows other with a different last character. dropLast() rebuilds the prefix of a
+   * display that was itself rebuilt from a string, so for those the known texts are compared.
+   */
+  boolean replacesLastOf(Display other) {
+    if (prefix == null || length != other.length) {
+      return false;
+    }
+    if (prefix == other.prefix) {
+      return true;
+    }
+    return other.prefix == null && prefix.prefix == null
+            && other.text.regionMatches(0, prefix.text, 0, prefix.length);
+  }
+
+  /**
+   * Returns the hash code of the text of this display, the same as toString().hashCode(),
+   * without building the text. Walking back stops at the nearest node whose hash or text is
+   * known, and the result is kept, so a display appended to a hashed one costs one step.
+   */
+  int contentHash() {
+    int h = hash;
+    if (h != 0 || length == 0) {
+      return h;
+    }
+    int tail = 0;
+    int power = 1;
+    Display node = this;
+    while (node.text == null && node.hash == 0) {
+      tail += node.last * power;
+      power *= 31;
+      node = node.prefix;
+    }
+    h = (node.text != null ? node.text.hashCode() : node.hash) * power + tail;
+    hash = h;
+    return h;
+  }
+
+  /**
+   * Returns whether this display shows the same text as other, comparing from the end and
+   * stopping early at a node both share, without building either text.
+   */
+  boolean hasSameText(Display other) {
+    if (length != other.length) {
+      return false;
+    }
+    Display mine = this;
+    Display theirs = other;
+    for (int i = length - 1; i >= 0 && mine != theirs; i--) {
+      char c = mine.text != null ? mine.text.charAt(i) : mine.last;
+      char d = theirs.text != null ? theirs.text.charAt(i) : theirs.last;
+      if (c != d) {
+        return false;
+      }
+      if (mine.text == null) {
+        mine = mine.prefix;
+      }
+      if (theirs.text == null) {
+        theirs = theirs.prefix;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes the characters of this display from the given index on as single bytes at the
+   * position of the buffer, without building the text, and advances the position past them.
+   */
+  void putAscii(ByteBuffer target, int from) {
+    int start = target.position() - from;
+    int end = length;
+    Display node = this;
+    // the characters appended after the nearest node whose text is known, last one first
+    while (node.text == null && end > from) {
+      target.put(start + --end, (byte) node.last);
+      node = node.prefix;
+    }
+    for (int i = from; i < end; i++) {
+      target.put(start + i, (byte) node.text.charAt(i));
+    }
+    target.position(start + length);
+  }
+
+  /**
+   * Returns whether this display shows exactly "0".
+   */
+  boolean isZero() {
+    return length == 1 && charAt(0) == '0';
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index == length - 1 && prefix != null) {
+      return last;
+    }
+    return toString().charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    String result = text;
+    if (result == null) {
+      char[] chars = new char[length];
+      Display node = this;
+      int end = length;
+      // walks back to the nearest node whose text is already known
+      while (node.text == null) {
+        chars[--end] = node.last;
+        node = node.prefix;
+      }
+      node.text.getChars(0, end, chars, 0);
+      result = new String(chars);
+      text = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,99 @@
+package calculator;
+
+/**
+ * DisplayBuffer is the reusable, mutable display of the packed calculator engines. It grows
+ * like a StringBuilder but can also write numbers in decimal without allocating, so updating
+ * the display never creates garbage once the buffer is large enough.
+ */
+final class DisplayBuffer implements CharSequence {
+
+  private char[] chars;
+  private int length;
+
+  DisplayBuffer(int capacity) {
+    this.chars = new char[Math.max(1, capacity)];
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return chars[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * Returns whether this display shows nothing. It is public because CharSequence declares
+   * the same method from Java 15 on, and a package-private one would not compile there.
+   */
+  public boolean isEmpty() {
+    return length == 0;
+  }
+
+  /**
+   * Returns whether this display shows exactly "0".
+   */
+  boolean isZero() {
+    return length == 1 && chars[0] == '0';
+  }
+
+  void clear() {
+    length = 0;
+  }
+
+  void set(CharSequence text) {
+    length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      append(text.charAt(i));
+    }
+  }
+
+  void setNumber(long value) {
+    length = 0;
+    appendNumber(value);
+  }
+
+  void replaceLast(char c) {
+    chars[length - 1] = c;
+  }
+
+  void append(char c) {
+    if (length == chars.length) {
+      char[] grown = new char[chars.length * 2];
+      System.arraycopy(chars, 0, grown, 0, length);
+      chars = grown;
+    }
+    chars[length++] = c;
+  }
+
+  void appendNumber(long value) {
+    if (value < 0) {
+      append('-');
+    } else {
+      // works on the negative value so that Long.MIN_VALUE does not overflow
+      value = -value;
+    }
+    int start = length;
+    do {
+      append((char) ('0' - value % 10));
+      value /= 10;
+    } while (value != 0);
+    for (int i = start, j = length - 1; i < j; i++, j--) {
+      char swap = chars[i];
+      chars[i] = chars[j];
+      chars[j] = swap;
+    }
+  }
+}
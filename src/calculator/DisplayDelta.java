@@ -0,0 +1,202 @@
+package calculator;
+
+/**
+ * DisplayDelta is the change from one display of a session to the next, so a client that
+ * keeps the display can be sent only what changed instead of the whole text. A delta keeps
+ * the first characters of the old display and appends some text after them, which covers
+ * every transition of the calculators: a digit or an operator appends a character, an
+ * operator typed over an operator replaces the last one, clearing truncates the display, and
+ * '=' or a calculation resets it to the result.
+ * For the Simple and Smart calculators the kind follows from how the transitions built the
+ * new display: appended to the old one, cut back to one of its prefixes, given a new last
+ * character, or rebuilt from a number. A display that is rebuilt is a RESET even when its
+ * text happens to start with the old text, so "10+0" followed by '=' resets to "10" instead
+ * of truncating. Finding the kind costs the same however long the display is.
+ */
+public final class DisplayDelta {
+
+  /**
+   * The shape of a delta.
+   */
+  public enum Kind {
+
+    /**
+     * The display did not change.
+     */
+    NONE,
+
+    /**
+     * Characters are appended to the display.
+     */
+    APPEND,
+
+    /**
+     * The display is cut to its first characters.
+     */
+    TRUNCATE,
+
+    /**
+     * The last character of the display is replaced.
+     */
+    REPLACE_LAST,
+
+    /**
+     * The display is replaced as a whole.
+     */
+    RESET
+  }
+
+  private static final DisplayDelta CLEARED = new DisplayDelta(Kind.TRUNCATE, 0, "");
+
+  private final Kind kind;
+  private final int keep;
+  private final String text;
+
+  private DisplayDelta(Kind kind, int keep, String text) {
+    this.kind = kind;
+    this.keep = keep;
+    this.text = text;
+  }
+
+  /**
+   * Returns the delta that turns the display of one calculator into the display of another,
+   * usually the calculator the first one turned into after some keystrokes. The kind is
+   * taken from the transitions for Simple and Smart calculators, and from the texts for
+   * other calculators.
+   *
+   * @param before the calculator whose display the client has
+   * @param after the calculator whose display the client should have
+   * @return the change between the two displays
+   */
+  public static DisplayDelta between(Calculator before, Calculator after) {
+    if (before instanceof AbstractCalculator && after instanceof AbstractCalculator) {
+      return between(((AbstractCalculator<?>) before).display,
+              ((AbstractCalculator<?>) after).display);
+    }
+    return between(before.getResult(), after.getResult());
+  }
+
+  private static DisplayDelta between(Display from, Display to) {
+    if (to == from) {
+      return new DisplayDelta(Kind.NONE, from.length(), "");
+    }
+    if (to.length() == 0) {
+      return CLEARED;
+    }
+    if (from.length() == 0 || to.extendsDisplay(from)) {
+      return new DisplayDelta(Kind.APPEND, from.length(), suffix(to, from.length()));
+    }
+    if (from.extendsDisplay(to)) {
+      return new DisplayDelta(Kind.TRUNCATE, to.length(), "");
+    }
+    if (to.replacesLastOf(from)) {
+      return new DisplayDelta(Kind.REPLACE_LAST, to.length() - 1,
+              suffix(to, to.length() - 1));
+    }
+    return new DisplayDelta(Kind.RESET, 0, to.toString());
+  }
+
+  /**
+   * Returns the delta that turns one display text into another. Only the texts are known
+   * here, so a reset whose text starts with the old one is classified by the texts, for
+   * example as TRUNCATE for "10+0" to "10".
+   *
+   * @param before the display the client has
+   * @param after the display the client should have
+   * @return the change between the two displays
+   */
+  public static DisplayDelta between(CharSequence before, CharSequence after) {
+    int shared = 0;
+    int end = Math.min(before.length(), after.length());
+    while (shared < end && before.charAt(shared) == after.charAt(shared)) {
+      shared++;
+    }
+    return between(before, after, shared);
+  }
+
+  private static DisplayDelta between(CharSequence before, CharSequence after, int shared) {
+    int oldLength = before.length();
+    int newLength = after.length();
+    if (shared == oldLength) {
+      if (shared == newLength) {
+        return new DisplayDelta(Kind.NONE, shared, "");
+      }
+      return new DisplayDelta(Kind.APPEND, shared, suffix(after, shared));
+    }
+    if (shared == newLength) {
+      return shared == 0 ? CLEARED : new DisplayDelta(Kind.TRUNCATE, shared, "");
+    }
+    if (shared == oldLength - 1 && newLength == oldLength) {
+      return new DisplayDelta(Kind.REPLACE_LAST, shared, suffix(after, shared));
+    }
+    return new DisplayDelta(Kind.RESET, 0, after.toString());
+  }
+
+  private static String suffix(CharSequence text, int start) {
+    if (start == text.length() - 1) {
+      // the last character of a Display is known without building its text
+      return String.valueOf(text.charAt(start));
+    }
+    return text.toString().substring(start);
+  }
+
+  /**
+   * Returns the shape of this delta.
+   *
+   * @return the kind of change
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * Returns the number of characters of the old display that are kept.
+   *
+   * @return the length the old display is cut to before the text is appended
+   */
+  public int getKeep() {
+    return keep;
+  }
+
+  /**
+   * Returns the text appended after the kept characters.
+   *
+   * @return the new characters, empty if there are none
+   */
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * Applies this delta to a display in place.
+   *
+   * @param display the display the delta was computed from
+   * @throws IllegalArgumentException if the display is shorter than the kept characters
+   */
+  public void applyTo(StringBuilder display) {
+    if (display.length() < keep) {
+      throw new IllegalArgumentException("Display too short for the delta: " + display);
+    }
+    display.setLength(keep);
+    display.append(text);
+  }
+
+  /**
+   * Returns the display this delta turns the given one into.
+   *
+   * @param display the display the delta was computed from
+   * @return the new display
+   * @throws IllegalArgumentException if the display is shorter than the kept characters
+   */
+  public String applyTo(String display) {
+    if (display.length() < keep) {
+      throw new IllegalArgumentException("Display too short for the delta: " + display);
+    }
+    return display.substring(0, keep).concat(text);
+  }
+
+  @Override
+  public String toString() {
+    return kind + " " + keep + " \"" + text + "\"";
+  }
+}
@@ -0,0 +1,116 @@
+package calculator;
+
+/**
+ * InputError is the reason a keystroke is rejected by tryInput(). The constants are shared,
+ * so a rejected keystroke costs no allocation; input() turns them back into the
+ * IllegalArgumentException it has always thrown.
+ * Every error has a fixed code, which the wire and file formats use; the codes never change
+ * and a new error takes the next free code.
+ */
+public enum InputError implements InputResult {
+
+  /**
+   * The character is not a digit, an operator, '=' or 'C'.
+   */
+  INVALID_CHAR(1),
+
+  /**
+   * An operator directly follows another operator.
+   */
+  DOUBLE_OPERATOR(2),
+
+  /**
+   * A digit would make the operand or the value exceed the maximum value.
+   */
+  OVERFLOW(3),
+
+  /**
+   * '=' directly follows an operator.
+   */
+  INCOMPLETE(4),
+
+  /**
+   * The operation starts with '*', '-' or '='.
+   */
+  BAD_START(5);
+
+  private final int code;
+
+  InputError(int code) {
+    this.code = code;
+  }
+
+  /**
+   * Returns the code of this error, between 1 and 255.
+   *
+   * @return the code
+   */
+  public int getCode() {
+    return code;
+  }
+
+  /**
+   * Returns the error with the given code.
+   *
+   * @param code the code of an error
+   * @return the error
+   * @throws IllegalArgumentException if no error has the code
+   */
+  public static InputError forCode(int code) {
+    for (InputError error : values()) {
+      if (error.code == code) {
+        return error;
+      }
+    }
+    throw new IllegalArgumentException("No such input error code: " + code);
+  }
+
+  @Override
+  public boolean isError() {
+    return true;
+  }
+
+  @Override
+  public Calculator getCalculator() {
+    throw new IllegalStateException("The input was rejected: " + this);
+  }
+
+  @Override
+  public InputError getError() {
+    return this;
+  }
+
+  @Override
+  public int getIndex() {
+    return 0;
+  }
+
+  /**
+   * Returns the message input() throws for this error, the same message the calculators
+   * threw before the errors had codes.
+   *
+   * @param input the rejected character
+   * @param smart whether the SmartCalculator rules apply
+   * @param operationPending whether an operation was entered and is waiting for its operand
+   * @return the message of the IllegalArgumentException thrown by input()
+   */
+  String message(char input, boolean smart, boolean operationPending) {
+    switch (this) {
+      case DOUBLE_OPERATOR:
+        return "Cannot input two operators in a row";
+      case OVERFLOW:
+        return operationPending ? "Operand exceeds maximum limit."
+                : "Operation value exceeds maximum limit.";
+      case INCOMPLETE:
+        return "Incomplete Operation";
+      case BAD_START:
+        if (input == '=') {
+          return "Operation cannot start with =";
+        }
+        return smart ? "Operation cannot start with the operator"
+                : "Operation cannot start with this operator";
+      default:
+        return "Invalid input: " + input;
+    }
+  }
+}
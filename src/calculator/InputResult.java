@@ -0,0 +1,41 @@
+package calculator;
+
+/**
+ * InputResult is what tryInput() and tryInputAll() return: either the calculator reached
+ * after the accepted keystrokes, or the InputError of the keystroke that was rejected.
+ * Every Calculator is itself an accepted result and every InputError constant is a rejected
+ * one, so trying a keystroke allocates nothing beyond the next calculator and never creates
+ * an exception.
+ */
+public interface InputResult {
+
+  /**
+   * Returns whether a keystroke was rejected.
+   *
+   * @return true if a keystroke was rejected, false if every keystroke was accepted
+   */
+  boolean isError();
+
+  /**
+   * Returns the calculator reached after the accepted keystrokes.
+   *
+   * @return the calculator after the last keystroke
+   * @throws IllegalStateException if a keystroke was rejected
+   */
+  Calculator getCalculator();
+
+  /**
+   * Returns why a keystroke was rejected.
+   *
+   * @return the error of the rejected keystroke, or null if every keystroke was accepted
+   */
+  InputError getError();
+
+  /**
+   * Returns the index of the rejected keystroke in the keys passed to tryInputAll(). The
+   * single keystroke of tryInput() has index 0.
+   *
+   * @return the index of the rejected keystroke, or -1 if every keystroke was accepted
+   */
+  int getIndex();
+}
@@ -0,0 +1,59 @@
+package calculator;
+
+/**
+ * KeystrokeException is thrown when one keystroke of a sequence passed to inputAll() is
+ * rejected. It carries the same message the single input() call would have thrown, together
+ * with the index of the keystroke that failed and, when it is known, its InputError.
+ */
+public class KeystrokeException extends IllegalArgumentException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int index;
+  private final InputError error;
+
+  /**
+   * Creates a new KeystrokeException for the keystroke at the given index.
+   *
+   * @param message the message of the rejected keystroke
+   * @param index the index of the rejected keystroke in the sequence
+   * @param cause the exception thrown by the single input() call
+   */
+  public KeystrokeException(String message, int index, Throwable cause) {
+    super(message, cause);
+    this.index = index;
+    this.error = null;
+  }
+
+  /**
+   * Creates a new KeystrokeException for the keystroke at the given index, rejected with the
+   * given error.
+   *
+   * @param message the message of the rejected keystroke
+   * @param index the index of the rejected keystroke in the sequence
+   * @param error why the keystroke was rejected
+   */
+  public KeystrokeException(String message, int index, InputError error) {
+    super(message);
+    this.index = index;
+    this.error = error;
+  }
+
+  /**
+   * Returns the index of the rejected keystroke in the sequence that was passed in.
+   *
+   * @return the index of the rejected keystroke
+   */
+  public int getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns why the keystroke was rejected.
+   *
+   * @return the error of the rejected keystroke, or null if it is not known
+   */
+  public InputError getError() {
+    return error;
+  }
+}
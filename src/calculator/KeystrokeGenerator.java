@@ -0,0 +1,111 @@
+package calculator;
+
+import java.util.SplittableRandom;
+
+/**
+ * KeystrokeGenerator produces seeded random keystroke sessions over the whole alphabet of the
+ * calculators: digits, the operators '+', '-' and '*', '=', 'C', and characters the
+ * calculators reject. Each kind of key is drawn with its own weight, and the length of a
+ * session is drawn uniformly between a minimum and a maximum, so the same seed and settings
+ * always give the same sessions.
+ */
+public final class KeystrokeGenerator {
+
+  static final String DIGITS = "0123456789";
+  static final String OPERATORS = "+-*";
+  static final String INVALID = "x/.% ";
+
+  private final SplittableRandom random;
+  private final int minLength;
+  private final int maxLength;
+  private final int[] thresholds;
+
+  /**
+   * Creates a KeystrokeGenerator with a mix of half digits, a quarter operators, a tenth
+   * '=', a twentieth 'C' and the rest invalid characters.
+   *
+   * @param seed the seed of the random sessions
+   * @param minLength the shortest session
+   * @param maxLength the longest session
+   * @throws IllegalArgumentException if the lengths are negative or out of order
+   */
+  public KeystrokeGenerator(long seed, int minLength, int maxLength) {
+    this(seed, minLength, maxLength, 50, 25, 10, 5, 10);
+  }
+
+  /**
+   * Creates a KeystrokeGenerator with the given mix. A weight of 0 leaves that kind of key
+   * out.
+   *
+   * @param seed the seed of the random sessions
+   * @param minLength the shortest session
+   * @param maxLength the longest session
+   * @param digits the weight of the digits
+   * @param operators the weight of the operators
+   * @param equals the weight of '='
+   * @param clear the weight of 'C'
+   * @param invalid the weight of the characters the calculators reject
+   * @throws IllegalArgumentException if the lengths are negative or out of order, a weight
+   *                                  is negative, or every weight is 0
+   */
+  public KeystrokeGenerator(long seed, int minLength, int maxLength, int digits,
+                            int operators, int equals, int clear, int invalid) {
+    if (minLength < 0 || maxLength < minLength) {
+      throw new IllegalArgumentException("Invalid session lengths: " + minLength + ".."
+              + maxLength);
+    }
+    int[] weights = {digits, operators, equals, clear, invalid};
+    this.thresholds = new int[weights.length];
+    int total = 0;
+    for (int i = 0; i < weights.length; i++) {
+      if (weights[i] < 0) {
+        throw new IllegalArgumentException("Weights cannot be negative");
+      }
+      total += weights[i];
+      thresholds[i] = total;
+    }
+    if (total == 0) {
+      throw new IllegalArgumentException("At least one weight must be positive");
+    }
+    this.random = new SplittableRandom(seed);
+    this.minLength = minLength;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Returns the next random session.
+   *
+   * @return the keystrokes of the session
+   */
+  public String nextSession() {
+    StringBuilder session = new StringBuilder(maxLength);
+    int length = random.nextInt(minLength, maxLength + 1);
+    for (int i = 0; i < length; i++) {
+      session.append(nextKey());
+    }
+    return session.toString();
+  }
+
+  /**
+   * Returns the next random keystroke.
+   *
+   * @return a key drawn with the weights of this generator
+   */
+  public char nextKey() {
+    int draw = random.nextInt(thresholds[thresholds.length - 1]);
+    if (draw < thresholds[0]) {
+      return pick(DIGITS);
+    } else if (draw < thresholds[1]) {
+      return pick(OPERATORS);
+    } else if (draw < thresholds[2]) {
+      return '=';
+    } else if (draw < thresholds[3]) {
+      return 'C';
+    }
+    return pick(INVALID);
+  }
+
+  private char pick(String keys) {
+    return keys.charAt(random.nextInt(keys.length()));
+  }
+}
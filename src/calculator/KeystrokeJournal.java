@@ -0,0 +1,397 @@
+package calculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * KeystrokeJournal is a write-ahead log of accepted keystrokes, so sessions can be rebuilt
+ * after a crash. A record is the long id of a session and the char of the keystroke, or a
+ * marker for a session being opened or removed.
+ * Appending only copies the record into memory. A committer thread writes the records and
+ * forces them to disk in groups: as soon as maxBatch records are waiting, or the oldest of
+ * them has waited maxDelay, whichever comes first. Threads that need their records durable
+ * wait in sync() and are all released by the same force, so a burst of keystrokes costs one
+ * fsync instead of one per keystroke. Appending only waits when the disk falls sixteen
+ * batches behind.
+ * Records are numbered from 0 in the order they were appended, across restarts. Opening a
+ * journal drops a record that was only partly written when the process stopped.
+ */
+public final class KeystrokeJournal implements AutoCloseable {
+
+  /**
+   * Receives the records of a journal as they are replayed.
+   */
+  public interface RecordConsumer {
+
+    /**
+     * Receives one record.
+     *
+     * @param session the id of the session
+     * @param key the keystroke, or OPENED or REMOVED
+     */
+    void accept(long session, char key);
+  }
+
+  /**
+   * The key of a record for a session being opened.
+   */
+  public static final char OPENED = '\uFFFE';
+
+  /**
+   * The key of a record for a session being removed.
+   */
+  public static final char REMOVED = '\uFFFF';
+
+  static final int RECORD_SIZE = 10;
+
+  private static final int INITIAL_BUFFER_RECORDS = 1024;
+  private static final int REPLAY_BUFFER_RECORDS = 64 * 1024;
+  private static final int MAX_PENDING_BATCHES = 16;
+
+  private final FileChannel channel;
+  private final long maxDelayNanos;
+  private final int maxBatch;
+  private final long maxPendingBytes;
+  private final long recoveredRecords;
+  private final Thread committer;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition commitNeeded = lock.newCondition();
+  private final Condition committed = lock.newCondition();
+  private ByteBuffer pending;
+  private ByteBuffer writing;
+  private long firstPendingNanos;
+  private long appended;
+  private long durable;
+  private long commits;
+  private IOException failure;
+  private boolean closed;
+
+  /**
+   * Opens a journal file, creating it if it does not exist, and starts its committer thread.
+   * New records are appended after the records already in the file.
+   *
+   * @param file the journal file
+   * @param maxDelay the longest time a record waits before its group is committed
+   * @param unit the unit of maxDelay
+   * @param maxBatch the number of waiting records that are committed without waiting longer
+   * @throws IOException if the file cannot be opened
+   * @throws IllegalArgumentException if maxDelay is negative or maxBatch is not positive
+   */
+  public KeystrokeJournal(Path file, long maxDelay, TimeUnit unit, int maxBatch)
+          throws IOException {
+    if (maxDelay < 0) {
+      throw new IllegalArgumentException("Delay cannot be negative");
+    }
+    if (maxBatch <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.maxDelayNanos = unit.toNanos(maxDelay);
+    this.maxBatch = maxBatch;
+    this.maxPendingBytes = (long) MAX_PENDING_BATCHES * RECORD_SIZE
+            * Math.max(maxBatch, INITIAL_BUFFER_RECORDS);
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    long size = channel.size();
+    // a record cut short by a crash was never acknowledged, so it is dropped
+    channel.truncate(size - size % RECORD_SIZE);
+    channel.position(channel.size());
+    this.recoveredRecords = channel.size() / RECORD_SIZE;
+    this.appended = recoveredRecords;
+    this.durable = recoveredRecords;
+    int capacity = Math.min(maxBatch, INITIAL_BUFFER_RECORDS) * RECORD_SIZE;
+    this.pending = ByteBuffer.allocateDirect(capacity);
+    this.writing = ByteBuffer.allocateDirect(capacity);
+    this.committer = new Thread(this::commitLoop, "calculator-journal-committer");
+    committer.setDaemon(true);
+    committer.start();
+  }
+
+  /**
+   * Appends a record without waiting for it to be written.
+   *
+   * @param session the id of the session
+   * @param key the accepted keystroke, or OPENED or REMOVED
+   * @return the number of records appended so far, to pass to sync()
+   * @throws IOException if an earlier commit failed
+   * @throws IllegalStateException if the journal is closed
+   */
+  public long append(long session, char key) throws IOException {
+    lock.lock();
+    try {
+      waitForRoom();
+      return put(session, key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until the disk is no more than sixteen batches behind, the wait append() does
+   * before it copies its record. Callers that append while holding their own locks wait here
+   * first and then append with appendWithoutWaiting(), so the disk never holds up their
+   * locks.
+   *
+   * @throws IOException if an earlier commit failed
+   * @throws IllegalStateException if the journal is closed
+   */
+  void awaitRoom() throws IOException {
+    lock.lock();
+    try {
+      waitForRoom();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Appends a record like append(), without waiting for the disk to catch up. The records
+   * waiting may then go past the limit of append() by the records of the callers racing
+   * each other between awaitRoom() and this call.
+   *
+   * @param session the id of the session
+   * @param key the accepted keystroke, or OPENED or REMOVED
+   * @return the number of records appended so far, to pass to sync()
+   * @throws IOException if an earlier commit failed
+   * @throws IllegalStateException if the journal is closed
+   */
+  long appendWithoutWaiting(long session, char key) throws IOException {
+    lock.lock();
+    try {
+      checkOpen();
+      return put(session, key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void waitForRoom() throws IOException {
+    checkOpen();
+    while (pending.position() >= maxPendingBytes) {
+      // the disk is behind, so appending waits for a group to be written
+      committed.awaitUninterruptibly();
+      checkOpen();
+    }
+  }
+
+  // called with the lock held
+  private long put(long session, char key) {
+    if (pending.remaining() < RECORD_SIZE) {
+      ByteBuffer grown = ByteBuffer.allocateDirect(pending.capacity() * 2);
+      pending.flip();
+      pending = grown.put(pending);
+    }
+    pending.putLong(session);
+    pending.putChar(key);
+    appended++;
+    int waiting = pending.position() / RECORD_SIZE;
+    if (waiting == 1) {
+      firstPendingNanos = System.nanoTime();
+      commitNeeded.signal();
+    } else if (waiting >= maxBatch) {
+      commitNeeded.signal();
+    }
+    return appended;
+  }
+
+  /**
+   * Waits until the first records of the journal are on disk.
+   *
+   * @param records the number of records that must be durable, as returned by append()
+   * @throws IOException if the commit of these records failed
+   */
+  public void sync(long records) throws IOException {
+    lock.lock();
+    try {
+      while (durable < records) {
+        checkFailure();
+        if (closed && !committer.isAlive()) {
+          throw new IllegalStateException("The journal is closed");
+        }
+        committed.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of records appended to this journal, including the records that were
+   * in the file when it was opened.
+   *
+   * @return the number of the next record
+   */
+  public long getRecordCount() {
+    lock.lock();
+    try {
+      return appended;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of groups forced to disk since the journal was opened.
+   *
+   * @return the number of fsyncs
+   */
+  public long getCommitCount() {
+    lock.lock();
+    try {
+      return commits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Replays the records that were in the file when this journal was opened, in order,
+   * starting from the given record.
+   *
+   * @param from the number of the first record to replay
+   * @param consumer receives each record
+   * @throws IOException if the file cannot be read
+   */
+  public void replay(long from, RecordConsumer consumer) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(REPLAY_BUFFER_RECORDS * RECORD_SIZE);
+    long position = from * RECORD_SIZE;
+    long end = recoveredRecords * RECORD_SIZE;
+    while (position < end) {
+      buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+      while (buffer.hasRemaining()) {
+        int read = channel.read(buffer, position + buffer.position());
+        if (read == -1) {
+          throw new IOException("Journal shorter than when it was opened");
+        }
+      }
+      buffer.flip();
+      position += buffer.remaining();
+      while (buffer.hasRemaining()) {
+        consumer.accept(buffer.getLong(), buffer.getChar());
+      }
+    }
+  }
+
+  /**
+   * Commits the records that are still waiting, stops the committer thread and closes the
+   * file.
+   *
+   * @throws IOException if the last commit or closing the file fails
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      closed = true;
+      commitNeeded.signal();
+    } finally {
+      lock.unlock();
+    }
+    boolean interrupted = false;
+    while (committer.isAlive()) {
+      try {
+        committer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    channel.close();
+    lock.lock();
+    try {
+      checkFailure();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IllegalStateException("The journal is closed");
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("An earlier journal commit failed", failure);
+    }
+  }
+
+  /**
+   * Waits for a group to be due, swaps the pending buffer with the one written last, and
+   * writes and forces the group outside the lock so appends go on meanwhile.
+   */
+  private void commitLoop() {
+    while (true) {
+      long target;
+      lock.lock();
+      try {
+        while (!closed && !isDue()) {
+          if (pending.position() == 0) {
+            commitNeeded.awaitUninterruptibly();
+          } else {
+            long waited = System.nanoTime() - firstPendingNanos;
+            try {
+              commitNeeded.awaitNanos(maxDelayNanos - waited);
+            } catch (InterruptedException e) {
+              // the committer is only stopped by close()
+            }
+          }
+        }
+        if (pending.position() == 0) {
+          committed.signalAll();
+          return;
+        }
+        ByteBuffer group = pending;
+        pending = writing;
+        writing = group;
+        target = appended;
+      } finally {
+        lock.unlock();
+      }
+      IOException error = null;
+      try {
+        writing.flip();
+        while (writing.hasRemaining()) {
+          channel.write(writing);
+        }
+        channel.force(false);
+      } catch (IOException e) {
+        error = e;
+      }
+      writing.clear();
+      lock.lock();
+      try {
+        committed.signalAll();
+        if (error != null) {
+          // nothing after a failed group can be durable, so appends fail from now on
+          failure = error;
+          return;
+        }
+        durable = target;
+        commits++;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Returns whether the pending records are due: enough of them, or the oldest waited long
+   * enough.
+   */
+  private boolean isDue() {
+    int waiting = pending.position() / RECORD_SIZE;
+    return waiting > 0 && (waiting >= maxBatch
+            || System.nanoTime() - firstPendingNanos >= maxDelayNanos);
+  }
+}
@@ -0,0 +1,292 @@
+package calculator;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * KeystrokeTemplate is a keystroke sequence with placeholders for its operands, such as
+ * "A*B+C=", compiled once into a plan that only does the arithmetic.
+ * Every uppercase letter of a template stands for an operand typed in full; a letter used
+ * twice stands for the same operand, and the operands are passed to evaluate() in the order
+ * their letters first appear. As letters are placeholders, a template cannot clear.
+ * Compiling follows the control flow of the SimpleCalculator or SmartCalculator rules once:
+ * which operation is pending, whether the last key was '=' or an operator. The calculations
+ * it finds become a chain of MethodHandles over the operands, the result and the last operand,
+ * bound to the ArithmeticKernel given at compile time, so evaluate() gives the result a
+ * calculator with that kernel shows after typing the template with the same numbers.
+ * A KeystrokeTemplate is immutable and can be shared between threads.
+ */
+public final class KeystrokeTemplate {
+
+  private static final MethodType STEP = MethodType.methodType(long.class, long[].class,
+          long.class, long.class);
+  private static final MethodHandle RESULT = MethodHandles.dropArguments(
+          MethodHandles.dropArguments(MethodHandles.identity(long.class), 0, long[].class), 2,
+          long.class);
+  private static final MethodHandle LAST_OPERAND = MethodHandles.dropArguments(
+          MethodHandles.identity(long.class), 0, long[].class, long.class);
+  private static final MethodHandle ZERO = MethodHandles.dropArguments(
+          MethodHandles.constant(long.class, 0L), 0, long[].class, long.class, long.class);
+  private static final MethodHandle OPERAND = MethodHandles.arrayElementGetter(long[].class);
+  private static final MethodHandle CALCULATE;
+
+  static {
+    try {
+      CALCULATE = MethodHandles.publicLookup().findVirtual(ArithmeticKernel.class, "calculate",
+              MethodType.methodType(long.class, char.class, long.class, long.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final String template;
+  private final boolean smart;
+  private final ArithmeticKernel kernel;
+  private final int operandCount;
+  private final MethodHandle plan;
+
+  private KeystrokeTemplate(String template, boolean smart, ArithmeticKernel kernel,
+                            int operandCount, MethodHandle plan) {
+    this.template = template;
+    this.smart = smart;
+    this.kernel = kernel;
+    this.operandCount = operandCount;
+    this.plan = plan;
+  }
+
+  /**
+   * Compiles a template with ArithmeticKernel.INT, the kernel of new SimpleCalculator() and
+   * new SmartCalculator().
+   *
+   * @param template the keystrokes, with an uppercase letter for each operand
+   * @param smart true to follow the SmartCalculator rules, false for SimpleCalculator
+   * @return the compiled template
+   * @throws IllegalArgumentException if the template contains other characters, two operands
+   *                                  in a row, does not end with '=', or would be rejected by
+   *                                  the calculator
+   */
+  public static KeystrokeTemplate compile(String template, boolean smart) {
+    return compile(template, smart, ArithmeticKernel.INT);
+  }
+
+  /**
+   * Compiles a template with the given kernel.
+   *
+   * @param template the keystrokes, with an uppercase letter for each operand
+   * @param smart true to follow the SmartCalculator rules, false for SimpleCalculator
+   * @param kernel the kernel the calculations are done with
+   * @return the compiled template
+   * @throws IllegalArgumentException if kernel is null or ArithmeticKernel.EXACT, whose
+   *                                  results do not fit in the long the template returns,
+   *                                  or the template contains other
+   *                                  characters, two operands in a row, does not end with
+   *                                  '=', or would be rejected by the calculator
+   */
+  public static KeystrokeTemplate compile(String template, boolean smart,
+                                          ArithmeticKernel kernel) {
+    if (kernel == null) {
+      throw new IllegalArgumentException("The arithmetic kernel cannot be null");
+    }
+    if (kernel == ArithmeticKernel.EXACT) {
+      throw new IllegalArgumentException("Cannot hold the results of the kernel " + kernel);
+    }
+    OperandScript.validate(template, smart, c -> isPlaceholder((char) c), "template");
+    Compiler compiler = new Compiler(smart, CALCULATE.bindTo(kernel));
+    List<Character> letters = new ArrayList<>();
+    for (int i = 0; i < template.length(); i++) {
+      char c = template.charAt(i);
+      if (isPlaceholder(c)) {
+        if (!letters.contains(c)) {
+          letters.add(c);
+        }
+        compiler.operand(letters.indexOf(c));
+      } else if (c == '=') {
+        compiler.equal();
+      } else {
+        compiler.operator(c);
+      }
+    }
+    return new KeystrokeTemplate(template, smart, kernel, letters.size(), compiler.plan());
+  }
+
+  /**
+   * Returns the template this plan was compiled from.
+   *
+   * @return the template
+   */
+  public String getTemplate() {
+    return template;
+  }
+
+  /**
+   * Returns whether this template follows the SmartCalculator rules.
+   *
+   * @return true for the SmartCalculator rules, false for SimpleCalculator
+   */
+  public boolean isSmart() {
+    return smart;
+  }
+
+  /**
+   * Returns the number of operands evaluate() takes.
+   *
+   * @return the number of distinct letters in the template
+   */
+  public int getOperandCount() {
+    return operandCount;
+  }
+
+  /**
+   * Evaluates the template with the given operands.
+   *
+   * @param operands the value of each letter, in the order the letters first appear
+   * @return the result the calculator shows at the end of the template
+   * @throws IllegalArgumentException if the number of operands is wrong, or an operand is
+   *                                  negative or could not be typed under the kernel
+   */
+  public long evaluate(long... operands) {
+    if (operands.length != operandCount) {
+      throw new IllegalArgumentException("Expected " + operandCount + " operands");
+    }
+    for (long operand : operands) {
+      // typing an operand is accepted if its last digit fits after the ones before it
+      if (operand < 0 || !kernel.canAppendDigit(operand / 10, (int) (operand % 10))) {
+        throw new IllegalArgumentException("Operand out of range: " + operand);
+      }
+    }
+    try {
+      return (long) plan.invokeExact(operands);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return template;
+  }
+
+  private static boolean isPlaceholder(char c) {
+    return c >= 'A' && c <= 'Z';
+  }
+
+  /**
+   * Compiler follows a validated template through the states of a calculator. The result
+   * and last operand are terms: an operand, zero, or the value left by the previous
+   * calculation, passed along the chain. Every calculation becomes a step of the chain.
+   */
+  private static final class Compiler {
+
+    private final boolean smart;
+    private final MethodHandle calculate;
+    private final List<MethodHandle[]> steps = new ArrayList<>();
+    private MethodHandle result = ZERO;
+    private MethodHandle lastOperand = ZERO;
+    private MethodHandle currentOperand = ZERO;
+    private char currentOperation = '\0';
+    private boolean lastInputWasEqual;
+    private boolean lastInputWasOperator;
+    private boolean initial = true;
+
+    Compiler(boolean smart, MethodHandle calculate) {
+      this.smart = smart;
+      this.calculate = calculate;
+    }
+
+    void operand(int index) {
+      MethodHandle operand = MethodHandles.dropArguments(
+              MethodHandles.insertArguments(OPERAND, 1, index), 1, long.class, long.class);
+      if (lastInputWasEqual || initial) {
+        // the first digit starts again from the shared single digit state
+        result = operand;
+        currentOperand = ZERO;
+        currentOperation = '\0';
+        if (smart) {
+          lastOperand = ZERO;
+        }
+      } else {
+        currentOperand = operand;
+      }
+      lastInputWasEqual = false;
+      lastInputWasOperator = false;
+      initial = false;
+    }
+
+    void operator(char operation) {
+      if (smart) {
+        if (lastInputWasEqual) {
+          lastOperand = result;
+        } else if (initial) {
+          return;
+        } else if (!lastInputWasOperator && currentOperation != '\0') {
+          calculate(currentOperation, currentOperand, ZERO);
+        }
+      } else if (currentOperation != '\0') {
+        calculate(currentOperation, currentOperand, lastOperand);
+      }
+      currentOperand = ZERO;
+      currentOperation = operation;
+      lastInputWasEqual = false;
+      lastInputWasOperator = true;
+      initial = false;
+    }
+
+    void equal() {
+      if (smart) {
+        MethodHandle operandToUse = lastInputWasOperator ? result
+                : (lastInputWasEqual ? lastOperand : currentOperand);
+        if (currentOperation != '\0') {
+          calculate(currentOperation, operandToUse, operandToUse);
+        } else {
+          lastOperand = operandToUse;
+        }
+      } else if (currentOperation != '\0' && !lastInputWasEqual) {
+        calculate(currentOperation, currentOperand, lastOperand);
+        currentOperation = '\0';
+      }
+      currentOperand = ZERO;
+      lastInputWasEqual = true;
+      lastInputWasOperator = false;
+    }
+
+    /**
+     * Adds a step that combines the result with an operand and sets the last operand, after
+     * which both are the values passed along the chain.
+     */
+    private void calculate(char operation, MethodHandle operand, MethodHandle newLastOperand) {
+      MethodHandle combine = MethodHandles.insertArguments(calculate, 0, operation);
+      combine = MethodHandles.collectArguments(combine, 0, result);
+      combine = MethodHandles.collectArguments(combine, 3, operand);
+      steps.add(new MethodHandle[] {
+          MethodHandles.permuteArguments(combine, STEP, 0, 1, 2, 0, 1, 2), newLastOperand});
+      result = RESULT;
+      lastOperand = LAST_OPERAND;
+    }
+
+    /**
+     * Chains the steps from the last one back, so each step passes its result and last
+     * operand to the next, and starts the chain from zero.
+     */
+    MethodHandle plan() {
+      MethodHandle plan = result;
+      for (int i = steps.size() - 1; i >= 0; i--) {
+        MethodHandle newResult = steps.get(i)[0];
+        MethodHandle newLastOperand = steps.get(i)[1];
+        // (newResult, newLastOperand, operands, result, lastOperand) -> next step
+        MethodHandle next = MethodHandles.permuteArguments(plan, MethodType.methodType(
+                long.class, long.class, long.class, long[].class, long.class, long.class),
+                2, 0, 1);
+        next = MethodHandles.foldArguments(next,
+                MethodHandles.dropArguments(newResult, 0, long.class));
+        next = MethodHandles.foldArguments(next, newLastOperand);
+        plan = next;
+      }
+      return MethodHandles.insertArguments(plan, 1, 0L, 0L);
+    }
+  }
+}
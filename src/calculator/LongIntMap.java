@@ -0,0 +1,346 @@
+package calculator;
+
+/**
+ * LongIntMap maps long session ids to int slots without boxing either of them. It is the
+ * index behind the stripes of SessionRegistry, which change their maps under a lock and look
+ * sessions up with getOptimistic(). Keys and values live in two parallel arrays with open
+ * addressing and linear probing.
+ * Removing a key shifts the following entries of its probe run back instead of leaving a
+ * tombstone, so lookups never slow down as sessions come and go.
+ * Growing the table does not rehash every entry at once: the old table is kept next to the
+ * new one and a few of its buckets are moved over by each put and remove, so no single call
+ * pays for the whole rehash. Lookups check both tables while a move is in progress.
+ * Values must be between 0 and Integer.MAX_VALUE - 1. A map is not thread-safe.
+ */
+public final class LongIntMap {
+
+  /**
+   * The value returned for a key that is not in the map.
+   */
+  public static final int NO_VALUE = -1;
+
+  private static final int MINIMUM_CAPACITY = 16;
+  private static final int MAXIMUM_CAPACITY = 1 << 30;
+  private static final int MIGRATION_STEP = 8;
+
+  // values are stored plus one, so that the 0 of a new array marks an empty bucket
+  private long[] keys;
+  private int[] values;
+  private int tableSize;
+  private int threshold;
+
+  private long[] oldKeys;
+  private int[] oldValues;
+  private int migrationStart;
+  private int migrated;
+
+  private int size;
+
+  /**
+   * Creates an empty LongIntMap with a small initial capacity.
+   */
+  public LongIntMap() {
+    this(MINIMUM_CAPACITY / 2);
+  }
+
+  /**
+   * Creates an empty LongIntMap that holds the given number of entries without growing.
+   *
+   * @param expectedSize the number of entries expected
+   * @throws IllegalArgumentException if expectedSize is negative or too large
+   */
+  public LongIntMap(int expectedSize) {
+    if (expectedSize < 0 || expectedSize > MAXIMUM_CAPACITY / 4 * 3) {
+      throw new IllegalArgumentException("Invalid expected size: " + expectedSize);
+    }
+    int capacity = MINIMUM_CAPACITY;
+    while (capacity / 4 * 3 < expectedSize) {
+      capacity *= 2;
+    }
+    allocate(capacity);
+  }
+
+  /**
+   * Returns the value of the given key.
+   *
+   * @param key the key to look up
+   * @return the value of the key, or NO_VALUE if the key is not in the map
+   */
+  public int get(long key) {
+    int index = indexOf(keys, values, key, home(key, keys.length));
+    if (index >= 0) {
+      return values[index] - 1;
+    }
+    if (oldKeys != null) {
+      index = indexOfOld(key);
+      if (index >= 0) {
+        return oldValues[index] - 1;
+      }
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Looks a key up like get(), for a reader that runs without a lock and afterwards checks
+   * that no writer changed the map in the meantime, such as a StampedLock optimistic read.
+   * Every field is read once and every probe is bounded, so a map changing underneath gives
+   * a wrong value instead of an exception or an endless loop; the value is only meaningful
+   * if no change overlapped the call.
+   *
+   * @param key the key to look up
+   * @return the value of the key, NO_VALUE, or any value at all if the map was changed
+   */
+  int getOptimistic(long key) {
+    long[] keys = this.keys;
+    int[] values = this.values;
+    int index = probe(keys, values, key, home(key, keys.length));
+    if (index >= 0) {
+      return values[index] - 1;
+    }
+    long[] oldKeys = this.oldKeys;
+    int[] oldValues = this.oldValues;
+    if (oldKeys != null && oldValues != null) {
+      int mask = oldKeys.length - 1;
+      int start = home(key, oldKeys.length);
+      int moveStart = migrationStart;
+      int moved = migrated;
+      if (((start - moveStart) & mask) < moved) {
+        start = (moveStart + moved) & mask;
+      }
+      index = probe(oldKeys, oldValues, key, start);
+      if (index >= 0) {
+        return oldValues[index] - 1;
+      }
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Returns whether the given key is in the map.
+   *
+   * @param key the key to look up
+   * @return true if the key has a value
+   */
+  public boolean containsKey(long key) {
+    return get(key) != NO_VALUE;
+  }
+
+  /**
+   * Sets the value of the given key.
+   *
+   * @param key the key
+   * @param value the new value of the key
+   * @return the previous value of the key, or NO_VALUE if the key was not in the map
+   * @throws IllegalArgumentException if value is negative or Integer.MAX_VALUE
+   * @throws IllegalStateException if the key is new and the map cannot grow any further
+   */
+  public int put(long key, int value) {
+    if (value < 0 || value == Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid value: " + value);
+    }
+    migrateStep();
+    int mask = keys.length - 1;
+    int index = home(key, keys.length);
+    while (values[index] != 0) {
+      if (keys[index] == key) {
+        int previous = values[index] - 1;
+        values[index] = value + 1;
+        return previous;
+      }
+      index = (index + 1) & mask;
+    }
+    if (tableSize == threshold && keys.length == MAXIMUM_CAPACITY) {
+      throw new IllegalStateException("LongIntMap is full");
+    }
+    int previous = NO_VALUE;
+    if (oldKeys != null) {
+      int oldIndex = indexOfOld(key);
+      if (oldIndex >= 0) {
+        previous = oldValues[oldIndex] - 1;
+        removeAt(oldKeys, oldValues, oldIndex);
+        size--;
+      }
+    }
+    keys[index] = key;
+    values[index] = value + 1;
+    tableSize++;
+    size++;
+    if (tableSize > threshold) {
+      grow();
+    }
+    return previous;
+  }
+
+  /**
+   * Removes the given key.
+   *
+   * @param key the key to remove
+   * @return the value the key had, or NO_VALUE if the key was not in the map
+   */
+  public int remove(long key) {
+    migrateStep();
+    int index = indexOf(keys, values, key, home(key, keys.length));
+    if (index >= 0) {
+      int previous = values[index] - 1;
+      removeAt(keys, values, index);
+      tableSize--;
+      size--;
+      return previous;
+    }
+    if (oldKeys != null) {
+      index = indexOfOld(key);
+      if (index >= 0) {
+        int previous = oldValues[index] - 1;
+        removeAt(oldKeys, oldValues, index);
+        size--;
+        return previous;
+      }
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Returns the number of keys in the map.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether a table is still being moved into a larger one.
+   */
+  boolean isMigrating() {
+    return oldKeys != null;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new int[capacity];
+    tableSize = 0;
+    threshold = capacity / 4 * 3;
+  }
+
+  private void grow() {
+    while (oldKeys != null) {
+      migrateStep();
+    }
+    oldKeys = keys;
+    oldValues = values;
+    allocate(keys.length * 2);
+    // starting right after an empty bucket, no probe run of the old table wraps past the
+    // start of the move
+    int empty = 0;
+    while (oldValues[empty] != 0) {
+      empty++;
+    }
+    migrationStart = (empty + 1) & (oldKeys.length - 1);
+    migrated = 0;
+  }
+
+  /**
+   * Moves the next few buckets of the old table into the current one.
+   */
+  private void migrateStep() {
+    if (oldKeys == null) {
+      return;
+    }
+    int mask = oldKeys.length - 1;
+    for (int n = 0; n < MIGRATION_STEP && migrated < oldKeys.length; n++) {
+      int index = (migrationStart + migrated) & mask;
+      if (oldValues[index] != 0) {
+        insertMoved(oldKeys[index], oldValues[index]);
+        oldValues[index] = 0;
+      }
+      migrated++;
+    }
+    if (migrated == oldKeys.length) {
+      oldKeys = null;
+      oldValues = null;
+    }
+  }
+
+  private void insertMoved(long key, int storedValue) {
+    int mask = keys.length - 1;
+    int index = home(key, keys.length);
+    while (values[index] != 0) {
+      index = (index + 1) & mask;
+    }
+    keys[index] = key;
+    values[index] = storedValue;
+    tableSize++;
+  }
+
+  /**
+   * Finds a key in the old table. The buckets already moved are empty, so a probe run that
+   * starts among them is picked up where the move has got to.
+   */
+  private int indexOfOld(long key) {
+    int mask = oldKeys.length - 1;
+    int index = home(key, oldKeys.length);
+    if (((index - migrationStart) & mask) < migrated) {
+      index = (migrationStart + migrated) & mask;
+    }
+    return indexOf(oldKeys, oldValues, key, index);
+  }
+
+  private static int indexOf(long[] keys, int[] values, long key, int start) {
+    int mask = keys.length - 1;
+    for (int index = start; values[index] != 0; index = (index + 1) & mask) {
+      if (keys[index] == key) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds a key like indexOf(), but visits every bucket at most once and gives up on arrays
+   * of different tables.
+   */
+  private static int probe(long[] keys, int[] values, long key, int start) {
+    if (keys.length != values.length) {
+      return -1;
+    }
+    int mask = keys.length - 1;
+    int index = start & mask;
+    for (int n = 0; n < keys.length && values[index] != 0; n++) {
+      if (keys[index] == key) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Empties a bucket and shifts back the entries after it that may move closer to their
+   * home bucket, so no probe run is broken by the hole.
+   */
+  private static void removeAt(long[] keys, int[] values, int hole) {
+    int mask = keys.length - 1;
+    int index = (hole + 1) & mask;
+    while (values[index] != 0) {
+      int home = home(keys[index], keys.length);
+      if (((index - home) & mask) >= ((index - hole) & mask)) {
+        keys[hole] = keys[index];
+        values[hole] = values[index];
+        hole = index;
+      }
+      index = (index + 1) & mask;
+    }
+    values[hole] = 0;
+  }
+
+  private static int home(long key, int capacity) {
+    // the finalizer of MurmurHash3, so sequential session ids spread over the table
+    long hash = key;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return (int) hash & (capacity - 1);
+  }
+}
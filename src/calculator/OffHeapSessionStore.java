@@ -0,0 +1,264 @@
+package calculator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OffHeapSessionStore keeps the state of many calculator sessions in fixed-width slots of
+ * direct ByteBuffers instead of one calculator object per session, so the heap does not grow
+ * with the number of sessions.
+ * A slot is 64 bytes: the current operand, the result and the last operand, the packed
+ * operation and input flags, the display length and up to 32 display characters. The rare
+ * displays that do not fit, made of many leading zeros or of digits outside Latin-1, are
+ * kept on the heap. Slots are allocated in chunks and the slots of removed sessions are
+ * reused.
+ * A keystroke loads the slot into a reused PackedCalculator, applies the rules of the store
+ * and writes the slot back in place; get() rehydrates an immutable Calculator on demand.
+ * A store is not thread-safe.
+ */
+public final class OffHeapSessionStore {
+
+  static final int SLOT_SIZE = 64;
+  static final int DISPLAY_CAPACITY = 32;
+
+  private static final int CURRENT_OPERAND = 0;
+  private static final int RESULT = 8;
+  private static final int LAST_OPERAND = 16;
+  private static final int CONTROL = 24;
+  private static final int DISPLAY_LENGTH = 28;
+  private static final int DISPLAY = 32;
+
+  private static final int IN_USE = 0x100;
+  private static final int DISPLAY_ON_HEAP = 0x200;
+  private static final int CHUNK_SHIFT = 14;
+  private static final int SLOTS_PER_CHUNK = 1 << CHUNK_SHIFT;
+  private static final int NO_FREE_SLOT = -1;
+
+  private final boolean smart;
+  private final PackedCalculator engine;
+  private final Map<Integer, String> longDisplays = new HashMap<>();
+  private ByteBuffer[] chunks = new ByteBuffer[1];
+  private int chunkCount;
+  private int slotCount;
+  private int freeSlot = NO_FREE_SLOT;
+  private int size;
+
+  /**
+   * Creates an empty OffHeapSessionStore.
+   *
+   * @param smart true to follow the SmartCalculator rules, false for the SimpleCalculator rules
+   */
+  public OffHeapSessionStore(boolean smart) {
+    this.smart = smart;
+    this.engine = new PackedCalculator(smart);
+  }
+
+  /**
+   * Opens a new session in the empty state.
+   *
+   * @return the id of the new session
+   */
+  public int open() {
+    int session = freeSlot;
+    if (session != NO_FREE_SLOT) {
+      freeSlot = (int) chunk(session).getLong(offset(session) + CURRENT_OPERAND);
+    } else {
+      session = newSlot();
+    }
+    ByteBuffer chunk = chunk(session);
+    int offset = offset(session);
+    chunk.putLong(offset + CURRENT_OPERAND, 0);
+    chunk.putLong(offset + RESULT, 0);
+    chunk.putLong(offset + LAST_OPERAND, 0);
+    chunk.putInt(offset + CONTROL, IN_USE);
+    chunk.putInt(offset + DISPLAY_LENGTH, 0);
+    size++;
+    return session;
+  }
+
+  /**
+   * Removes a session, so its slot can be reused by a later session.
+   *
+   * @param session the id of the session
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public void remove(int session) {
+    checkSession(session);
+    ByteBuffer chunk = chunk(session);
+    int offset = offset(session);
+    if ((chunk.getInt(offset + CONTROL) & DISPLAY_ON_HEAP) != 0) {
+      longDisplays.remove(session);
+    }
+    chunk.putInt(offset + CONTROL, 0);
+    chunk.putLong(offset + CURRENT_OPERAND, freeSlot);
+    freeSlot = session;
+    size--;
+  }
+
+  /**
+   * Applies a keystroke to a session, like input() on its calculator.
+   *
+   * @param session the id of the session
+   * @param input a single character that is entered in the calculator
+   * @throws IllegalArgumentException if there is no such session or the input is rejected,
+   *                                  with the message the calculator would have thrown
+   */
+  public void input(int session, char input) {
+    load(session);
+    engine.input(input);
+    store(session);
+  }
+
+  /**
+   * Applies a keystroke to a session like input(), but returns the error instead of throwing
+   * it. A rejected keystroke leaves the session unchanged.
+   *
+   * @param session the id of the session
+   * @param input a single character that is entered in the calculator
+   * @return the error if the input is rejected, null if it is accepted
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public InputError tryInput(int session, char input) {
+    load(session);
+    InputError error = engine.apply(input);
+    if (error == null) {
+      store(session);
+    }
+    return error;
+  }
+
+  /**
+   * Returns the display of a session.
+   *
+   * @param session the id of the session
+   * @return the display of the session's calculator
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public String getResult(int session) {
+    checkSession(session);
+    ByteBuffer chunk = chunk(session);
+    int offset = offset(session);
+    if ((chunk.getInt(offset + CONTROL) & DISPLAY_ON_HEAP) != 0) {
+      return longDisplays.get(session);
+    }
+    int length = chunk.getInt(offset + DISPLAY_LENGTH);
+    char[] text = new char[length];
+    for (int i = 0; i < length; i++) {
+      text[i] = (char) (chunk.get(offset + DISPLAY + i) & 0xFF);
+    }
+    return new String(text);
+  }
+
+  /**
+   * Returns an immutable calculator in the current state of a session. Later keystrokes
+   * applied to the session do not change the returned calculator.
+   *
+   * @param session the id of the session
+   * @return a SmartCalculator or SimpleCalculator in the state of the session
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public Calculator get(int session) {
+    load(session);
+    return smart ? SmartCalculator.fromEngine(CalculatorFactory.INT, engine)
+        : SimpleCalculator.fromEngine(CalculatorFactory.INT, engine);
+  }
+
+  /**
+   * Returns the number of open sessions.
+   *
+   * @return the number of sessions
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of bytes of direct memory held by this store.
+   *
+   * @return the capacity of the slot chunks in bytes
+   */
+  public long offHeapBytes() {
+    return (long) chunkCount * SLOTS_PER_CHUNK * SLOT_SIZE;
+  }
+
+  private void load(int session) {
+    checkSession(session);
+    ByteBuffer chunk = chunk(session);
+    int offset = offset(session);
+    int control = chunk.getInt(offset + CONTROL);
+    engine.load(chunk.getLong(offset + CURRENT_OPERAND), chunk.getLong(offset + RESULT),
+            chunk.getLong(offset + LAST_OPERAND), control);
+    DisplayBuffer display = engine.displayBuffer();
+    if ((control & DISPLAY_ON_HEAP) != 0) {
+      display.set(longDisplays.get(session));
+      return;
+    }
+    int length = chunk.getInt(offset + DISPLAY_LENGTH);
+    for (int i = 0; i < length; i++) {
+      display.append((char) (chunk.get(offset + DISPLAY + i) & 0xFF));
+    }
+  }
+
+  private void store(int session) {
+    ByteBuffer chunk = chunk(session);
+    int offset = offset(session);
+    chunk.putLong(offset + CURRENT_OPERAND, engine.currentOperand());
+    chunk.putLong(offset + RESULT, engine.result());
+    chunk.putLong(offset + LAST_OPERAND, engine.lastOperand());
+    boolean wasOnHeap = (chunk.getInt(offset + CONTROL) & DISPLAY_ON_HEAP) != 0;
+    DisplayBuffer display = engine.displayBuffer();
+    int length = display.length();
+    chunk.putInt(offset + DISPLAY_LENGTH, length);
+    if (fitsInSlot(display)) {
+      if (wasOnHeap) {
+        longDisplays.remove(session);
+      }
+      for (int i = 0; i < length; i++) {
+        chunk.put(offset + DISPLAY + i, (byte) display.charAt(i));
+      }
+      chunk.putInt(offset + CONTROL, engine.control() | IN_USE);
+    } else {
+      longDisplays.put(session, display.toString());
+      chunk.putInt(offset + CONTROL, engine.control() | IN_USE | DISPLAY_ON_HEAP);
+    }
+  }
+
+  private static boolean fitsInSlot(DisplayBuffer display) {
+    if (display.length() > DISPLAY_CAPACITY) {
+      return false;
+    }
+    for (int i = 0; i < display.length(); i++) {
+      if (display.charAt(i) > 0xFF) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int newSlot() {
+    if (slotCount == chunkCount * SLOTS_PER_CHUNK) {
+      if (chunkCount == chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunks.length * 2);
+      }
+      chunks[chunkCount++] = ByteBuffer.allocateDirect(SLOTS_PER_CHUNK * SLOT_SIZE);
+    }
+    return slotCount++;
+  }
+
+  private void checkSession(int session) {
+    if (session < 0 || session >= slotCount
+            || (chunk(session).getInt(offset(session) + CONTROL) & IN_USE) == 0) {
+      throw new IllegalArgumentException("No such session: " + session);
+    }
+  }
+
+  private ByteBuffer chunk(int session) {
+    return chunks[session >>> CHUNK_SHIFT];
+  }
+
+  private static int offset(int session) {
+    return (session & (SLOTS_PER_CHUNK - 1)) * SLOT_SIZE;
+  }
+}
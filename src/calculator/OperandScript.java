@@ -0,0 +1,44 @@
+package calculator;
+
+import java.util.function.IntPredicate;
+
+/**
+ * OperandScript checks keystroke scripts in which placeholders stand for operands typed in
+ * full, as compiled by SessionBatch and KeystrokeTemplate.
+ */
+final class OperandScript {
+
+  private OperandScript() {
+  }
+
+  /**
+   * Checks that a script ends with '=', holds nothing but placeholders, operators and '=',
+   * never has two placeholders in a row, and is accepted by a calculator of the given rules.
+   * Which keystrokes a calculator accepts does not depend on the operands, so the script is
+   * typed once with 1 for every placeholder.
+   *
+   * @param script the script to check
+   * @param smart true for the SmartCalculator rules, false for SimpleCalculator
+   * @param placeholder tells which characters stand for an operand
+   * @param noun what the messages call the script
+   * @throws IllegalArgumentException if the script is not valid
+   */
+  static void validate(String script, boolean smart, IntPredicate placeholder, String noun) {
+    if (script.isEmpty() || script.charAt(script.length() - 1) != '=') {
+      throw new IllegalArgumentException("A " + noun + " must end with '='");
+    }
+    Calculator calculator = CalculatorFactory.INT.calculator(smart);
+    for (int i = 0; i < script.length(); i++) {
+      char c = script.charAt(i);
+      if (placeholder.test(c)) {
+        if (i > 0 && placeholder.test(script.charAt(i - 1))) {
+          throw new IllegalArgumentException("Two operands in a row at index " + i);
+        }
+        c = '1';
+      } else if ("+-*=".indexOf(c) < 0) {
+        throw new IllegalArgumentException("Invalid " + noun + " character: " + c);
+      }
+      calculator = calculator.input(c);
+    }
+  }
+}
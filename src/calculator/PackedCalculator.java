@@ -0,0 +1,492 @@
+package calculator;
+
+import java.util.Objects;
+
+/**
+ * PackedCalculator is a mutable engine that follows the exact rules of either the
+ * SimpleCalculator or the SmartCalculator, but keeps its whole state in primitive fields.
+ * The current operation and the two input flags are packed into a single int, digits are
+ * accumulated arithmetically and the display lives in a reusable char buffer, so a keystroke
+ * does not allocate anything once the buffer is large enough. Digits and results go through
+ * the ArithmeticKernel of the engine, ArithmeticKernel.INT unless another one is given.
+ * Unlike the other calculators, input() updates this instance and returns it, so an instance
+ * must not be shared between threads or kept as a snapshot of an earlier state.
+ * Under the SmartCalculator rules, inputAll() and tryInputAll() apply a run of '=' at once.
+ */
+public final class PackedCalculator implements Calculator {
+
+  static final int OPERATION_MASK = 0x3;
+  static final int LAST_INPUT_WAS_EQUAL = 0x4;
+  static final int LAST_INPUT_WAS_OPERATOR = 0x8;
+
+  private static final char[] OPERATIONS = {'\0', '+', '-', '*'};
+  private static final int INITIAL_DISPLAY_CAPACITY = 32;
+
+  private final boolean smart;
+  private final ArithmeticKernel kernel;
+  private long currentOperand;
+  private long result;
+  private long lastOperand;
+  private int control;
+  private final DisplayBuffer display;
+
+  /**
+   * Initializes a new PackedCalculator in the same empty state as a new SimpleCalculator
+   * or SmartCalculator.
+   *
+   * @param smart true to follow the SmartCalculator rules, false for the SimpleCalculator rules
+   */
+  public PackedCalculator(boolean smart) {
+    this(smart, ArithmeticKernel.INT);
+  }
+
+  /**
+   * Initializes a new PackedCalculator in the empty state that enters operands and computes
+   * results with the given kernel, like the calculators of a CalculatorFactory with that
+   * kernel.
+   *
+   * @param smart true to follow the SmartCalculator rules, false for the SimpleCalculator rules
+   * @param kernel the kernel of the engine
+   * @throws IllegalArgumentException if kernel is null or ArithmeticKernel.EXACT, whose
+   *                                  results the long fields of this engine cannot hold
+   */
+  public PackedCalculator(boolean smart, ArithmeticKernel kernel) {
+    if (kernel == null) {
+      throw new IllegalArgumentException("The arithmetic kernel cannot be null");
+    }
+    if (kernel == ArithmeticKernel.EXACT) {
+      throw new IllegalArgumentException("Cannot hold the results of the kernel " + kernel);
+    }
+    this.smart = smart;
+    this.kernel = kernel;
+    this.display = new DisplayBuffer(INITIAL_DISPLAY_CAPACITY);
+  }
+
+  /**
+   * Returns the kernel this engine computes with.
+   *
+   * @return the kernel
+   */
+  public ArithmeticKernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Returns whether this engine follows the SmartCalculator rules.
+   *
+   * @return true for SmartCalculator rules, false for SimpleCalculator rules
+   */
+  public boolean isSmart() {
+    return smart;
+  }
+
+  @Override
+  public PackedCalculator input(char input) {
+    InputError error = apply(input);
+    if (error != null) {
+      throw new IllegalArgumentException(message(error, input));
+    }
+    return this;
+  }
+
+  /**
+   * Processes the input like input(), but returns the error instead of throwing it. This
+   * engine is the result when the input is accepted, and is left unchanged when it is not.
+   *
+   * @param input a single character that is entered in the calculator
+   * @return this engine, or the error if the input is rejected
+   */
+  @Override
+  public InputResult tryInput(char input) {
+    InputError error = apply(input);
+    return error != null ? error : this;
+  }
+
+  /**
+   * Processes every character of the given sequence in order. If a character is rejected,
+   * this engine is left in the state reached before that character.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return this engine
+   * @throws KeystrokeException if one of the characters is rejected
+   */
+  @Override
+  public PackedCalculator inputAll(CharSequence keys) {
+    for (int i = 0; i < keys.length(); i++) {
+      char input = keys.charAt(i);
+      int presses = smart && input == '=' ? equalsRun(keys, i, keys.length()) : 1;
+      InputError error = presses > 1 ? applyEquals(presses) : apply(input);
+      if (error != null) {
+        throw new KeystrokeException(message(error, input), i, error);
+      }
+      i += presses - 1;
+    }
+    return this;
+  }
+
+  /**
+   * Processes the characters keys[offset] to keys[offset + length - 1] in order. If a
+   * character is rejected, this engine is left in the state reached before that character.
+   *
+   * @param keys the array holding the characters entered in the calculator
+   * @param offset the index of the first character to process
+   * @param length the number of characters to process
+   * @return this engine
+   * @throws KeystrokeException if one of the characters is rejected
+   */
+  @Override
+  public PackedCalculator inputAll(char[] keys, int offset, int length) {
+    Objects.checkFromIndexSize(offset, length, keys.length);
+    for (int i = offset; i < offset + length; i++) {
+      int presses = smart && keys[i] == '=' ? equalsRun(keys, i, offset + length) : 1;
+      InputError error = presses > 1 ? applyEquals(presses) : apply(keys[i]);
+      if (error != null) {
+        throw new KeystrokeException(message(error, keys[i]), i, error);
+      }
+      i += presses - 1;
+    }
+    return this;
+  }
+
+  /**
+   * Processes every character of the given sequence in order, stopping at the first one that
+   * is rejected. This engine is then left in the state reached before that character.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return this engine, or the error and index of the rejected character
+   */
+  @Override
+  public InputResult tryInputAll(CharSequence keys) {
+    for (int i = 0; i < keys.length(); i++) {
+      char input = keys.charAt(i);
+      int presses = smart && input == '=' ? equalsRun(keys, i, keys.length()) : 1;
+      InputError error = presses > 1 ? applyEquals(presses) : apply(input);
+      if (error != null) {
+        return new RejectedKeystroke(error, i);
+      }
+      i += presses - 1;
+    }
+    return this;
+  }
+
+  @Override
+  public String getResult() {
+    return display.toString();
+  }
+
+  /**
+   * Resets this engine to the empty state, the same state a new instance starts in.
+   * The display buffer is kept so it can be reused.
+   */
+  public void reset() {
+    currentOperand = 0;
+    result = 0;
+    lastOperand = 0;
+    control = 0;
+    display.clear();
+  }
+
+  /**
+   * Replaces the state of this engine with the given state of an immutable calculator.
+   */
+  void load(long currentOperand, char currentOperation, long result, long lastOperand,
+            boolean lastInputWasEqual, boolean lastInputWasOperator, CharSequence display) {
+    this.currentOperand = currentOperand;
+    this.result = result;
+    this.lastOperand = lastOperand;
+    this.control = operationCode(currentOperation)
+            | (lastInputWasEqual ? LAST_INPUT_WAS_EQUAL : 0)
+            | (lastInputWasOperator ? LAST_INPUT_WAS_OPERATOR : 0);
+    this.display.set(display);
+  }
+
+  /**
+   * Replaces the numbers and the control state of this engine and empties the display, so
+   * the caller can append the display it keeps elsewhere.
+   */
+  void load(long currentOperand, long result, long lastOperand, int control) {
+    this.currentOperand = currentOperand;
+    this.result = result;
+    this.lastOperand = lastOperand;
+    this.control = control & (OPERATION_MASK | LAST_INPUT_WAS_EQUAL | LAST_INPUT_WAS_OPERATOR);
+    this.display.clear();
+  }
+
+  int control() {
+    return control;
+  }
+
+  long currentOperand() {
+    return currentOperand;
+  }
+
+  long result() {
+    return result;
+  }
+
+  long lastOperand() {
+    return lastOperand;
+  }
+
+  char currentOperation() {
+    return operation(control);
+  }
+
+  boolean lastInputWasEqual() {
+    return (control & LAST_INPUT_WAS_EQUAL) != 0;
+  }
+
+  boolean lastInputWasOperator() {
+    return (control & LAST_INPUT_WAS_OPERATOR) != 0;
+  }
+
+  DisplayBuffer displayBuffer() {
+    return display;
+  }
+
+  Display display() {
+    return Display.of(display.toString());
+  }
+
+  /**
+   * Applies the rules of this engine to the input, leaving the state unchanged if it is
+   * rejected.
+   *
+   * @return the error if the input is rejected, null if it is accepted
+   */
+  InputError apply(char input) {
+    return smart ? inputSmart(input) : inputSimple(input);
+  }
+
+  /**
+   * Applies a run of presses of '=' under the SmartCalculator rules. The first press is
+   * applied as usual and the others, which repeat the last operation with the last operand,
+   * at once with ArithmeticKernel.repeat(), so the display is only written once. Only the
+   * first press can be rejected.
+   *
+   * @return the error if the first press is rejected, null if the presses are accepted
+   */
+  private InputError applyEquals(int presses) {
+    InputError error = inputSmart('=');
+    if (error != null || presses == 1) {
+      return error;
+    }
+    result = kernel.repeat(operation(control), result, lastOperand, presses - 1);
+    display.setNumber(result);
+    return null;
+  }
+
+  private static int equalsRun(CharSequence keys, int from, int end) {
+    int to = from + 1;
+    while (to < end && keys.charAt(to) == '=') {
+      to++;
+    }
+    return to - from;
+  }
+
+  private static int equalsRun(char[] keys, int from, int end) {
+    int to = from + 1;
+    while (to < end && keys[to] == '=') {
+      to++;
+    }
+    return to - from;
+  }
+
+  String message(InputError error, char input) {
+    return error.message(input, smart, operationCode() != 0);
+  }
+
+  private InputError inputSimple(char input) {
+    if (input == 'C') {
+      reset();
+      return null;
+    }
+
+    if (input == '0' && display.isEmpty() && lastInputWasOperator()) {
+      currentOperand = 0;
+      control &= ~LAST_INPUT_WAS_OPERATOR;
+      return null;
+    }
+
+    if (display.isEmpty() && (input == '*' || input == '-')) {
+      return InputError.BAD_START;
+    }
+
+    if (input == '=' && operationCode() == 0 && !lastInputWasEqual()) {
+      if (display.isEmpty()) {
+        return InputError.BAD_START;
+      }
+      display.setNumber(result);
+      control |= LAST_INPUT_WAS_EQUAL;
+      return null;
+    }
+
+    if (Character.isDigit(input)) {
+      if (lastInputWasEqual()) {
+        reset();
+      }
+      return inputDigit(input);
+    }
+
+    switch (input) {
+      case '+':
+      case '-':
+      case '*':
+        if (lastInputWasOperator()) {
+          return InputError.DOUBLE_OPERATOR;
+        }
+        if (operationCode() != 0) {
+          result = calculate(currentOperand);
+          display.setNumber(result);
+        }
+        prepareOperation(input);
+        return null;
+      case '=':
+        if (lastInputWasOperator()) {
+          return InputError.INCOMPLETE;
+        }
+        if (!lastInputWasEqual()) {
+          result = calculate(currentOperand);
+          currentOperand = 0;
+          control = 0;
+          display.setNumber(result);
+        }
+        control = (control & OPERATION_MASK) | LAST_INPUT_WAS_EQUAL;
+        return null;
+      default:
+        return InputError.INVALID_CHAR;
+    }
+  }
+
+  private InputError inputSmart(char input) {
+    if (input == 'C') {
+      reset();
+      return null;
+    }
+
+    if (input == '0' && display.isEmpty() && lastInputWasOperator()) {
+      currentOperand = 0;
+      control &= ~LAST_INPUT_WAS_OPERATOR;
+      return null;
+    }
+
+    if (input == '=') {
+      if (display.isEmpty() && result == 0) {
+        return InputError.BAD_START;
+      }
+      long operandToUse = smartOperand();
+      result = calculate(operandToUse);
+      lastOperand = operandToUse;
+      currentOperand = 0;
+      control = operationCode() | LAST_INPUT_WAS_EQUAL;
+      display.setNumber(result);
+      return null;
+    }
+
+    if (display.isEmpty() && (input == '*' || input == '-')) {
+      return InputError.BAD_START;
+    }
+
+    if (Character.isDigit(input)) {
+      if (lastInputWasEqual()) {
+        reset();
+      }
+      return inputDigit(input);
+    }
+
+    switch (input) {
+      case '+':
+      case '-':
+      case '*':
+        if (lastInputWasEqual()) {
+          currentOperand = 0;
+          lastOperand = result;
+          display.setNumber(result);
+          display.append(input);
+          control = operationCode(input) | LAST_INPUT_WAS_OPERATOR;
+          return null;
+        }
+        if (display.isEmpty()) {
+          control &= OPERATION_MASK;
+          return null;
+        }
+        if (lastInputWasOperator()) {
+          display.replaceLast(input);
+          control = operationCode(input) | LAST_INPUT_WAS_OPERATOR;
+          return null;
+        }
+        if (operationCode() != 0) {
+          // the SmartCalculator shows only the intermediate result here, without the operator
+          result = calculate(smartOperand());
+          currentOperand = 0;
+          lastOperand = 0;
+          display.setNumber(result);
+          control = operationCode(input) | LAST_INPUT_WAS_OPERATOR;
+          return null;
+        }
+        prepareOperation(input);
+        return null;
+      default:
+        return InputError.INVALID_CHAR;
+    }
+  }
+
+  private InputError inputDigit(char digit) {
+    int value = Character.digit(digit, 10);
+    if (operationCode() != 0) {
+      if (!kernel.canAppendDigit(currentOperand, value)) {
+        return InputError.OVERFLOW;
+      }
+      currentOperand = ArithmeticKernel.appendDigit(currentOperand, value);
+    } else {
+      if (!kernel.canAppendDigit(result, value)) {
+        return InputError.OVERFLOW;
+      }
+      result = ArithmeticKernel.appendDigit(result, value);
+    }
+    if (display.isZero()) {
+      display.clear();
+    }
+    display.append(digit);
+    control &= OPERATION_MASK;
+    return null;
+  }
+
+  private void prepareOperation(char operation) {
+    display.append(operation);
+    currentOperand = 0;
+    control = operationCode(operation) | LAST_INPUT_WAS_OPERATOR;
+  }
+
+  private long smartOperand() {
+    if (lastInputWasOperator()) {
+      return result;
+    }
+    return lastInputWasEqual() ? lastOperand : currentOperand;
+  }
+
+  private long calculate(long operand) {
+    return kernel.calculate(operation(control), result, operand);
+  }
+
+  static int operationCode(char operation) {
+    switch (operation) {
+      case '+':
+        return 1;
+      case '-':
+        return 2;
+      case '*':
+        return 3;
+      default:
+        return 0;
+    }
+  }
+
+  static char operation(int operationCode) {
+    return OPERATIONS[operationCode & OPERATION_MASK];
+  }
+
+  private int operationCode() {
+    return control & OPERATION_MASK;
+  }
+}
@@ -0,0 +1,250 @@
+package calculator;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelSessionReplay evaluates independent keystroke sessions on a ForkJoinPool.
+ * A corpus, either a list of sessions in memory or a memory-mapped sessions file, is split
+ * into chunks, each chunk is replayed by one worker with its own PackedCalculator, and the
+ * results are merged back in the original session order.
+ * Results use the same format as SessionReplay: the final display of an accepted session, or
+ * "ERROR" followed by the index of the rejected keystroke and the name of its InputError.
+ */
+public final class ParallelSessionReplay implements AutoCloseable {
+
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final boolean smart;
+  private final int windowSize;
+  private final ForkJoinPool pool;
+
+  /**
+   * Creates a ParallelSessionReplay using one worker per available processor.
+   *
+   * @param smart true to replay with the SmartCalculator rules, false for SimpleCalculator
+   */
+  public ParallelSessionReplay(boolean smart) {
+    this(smart, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a ParallelSessionReplay with the given number of workers.
+   *
+   * @param smart true to replay with the SmartCalculator rules, false for SimpleCalculator
+   * @param parallelism the number of worker threads
+   * @throws IllegalArgumentException if parallelism is not positive
+   */
+  public ParallelSessionReplay(boolean smart, int parallelism) {
+    this(smart, parallelism, SessionReplay.DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Creates a ParallelSessionReplay with the given number of workers that maps sessions files
+   * windowSize bytes at a time.
+   *
+   * @param smart true to replay with the SmartCalculator rules, false for SimpleCalculator
+   * @param parallelism the number of worker threads
+   * @param windowSize the number of bytes of a sessions file mapped at a time
+   * @throws IllegalArgumentException if parallelism or windowSize is not positive
+   */
+  public ParallelSessionReplay(boolean smart, int parallelism, int windowSize) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("Window size must be positive");
+    }
+    this.smart = smart;
+    this.windowSize = windowSize;
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Returns the number of worker threads of this replay.
+   *
+   * @return the parallelism level
+   */
+  public int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  /**
+   * Evaluates every session of the list and returns their results in the same order.
+   *
+   * @param sessions the keystroke sessions to evaluate
+   * @return the result of each session, at the index of the session
+   */
+  public List<String> evaluate(List<? extends CharSequence> sessions) {
+    String[] results = new String[sessions.size()];
+    int chunkSize = Math.max(1, (sessions.size() + chunkCount() - 1) / chunkCount());
+    int chunks = (sessions.size() + chunkSize - 1) / chunkSize;
+    pool.invoke(new ListChunks(sessions, results, chunkSize, 0, chunks));
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Replays every session of the sessions file and writes the results, one line per session
+   * in the same order, to the results file. Each mapped window is split into chunks at line
+   * boundaries and the chunks are replayed in parallel.
+   *
+   * @param sessions the file of newline separated keystroke sessions
+   * @param results the file the results are written to, replaced if it exists
+   * @return the number of sessions replayed
+   * @throws IOException if a file cannot be read or written
+   */
+  public long replay(Path sessions, Path results) throws IOException {
+    try (FileChannel in = FileChannel.open(sessions, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(results, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      return SessionReplay.replayWindows(in, windowSize, (window, end) -> {
+        int[] bounds = chunkBounds(window, end, chunkCount());
+        ResultBuffer[] buffers = new ResultBuffer[bounds.length - 1];
+        long[] counts = new long[buffers.length];
+        pool.invoke(new MappedChunks(window, bounds, buffers, counts, 0, buffers.length));
+        long count = 0;
+        for (int i = 0; i < buffers.length; i++) {
+          buffers[i].writeTo(out);
+          count += counts[i];
+        }
+        return count;
+      });
+    }
+  }
+
+  /**
+   * Shuts down the worker threads of this replay.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  private int chunkCount() {
+    return pool.getParallelism() * CHUNKS_PER_THREAD;
+  }
+
+  /**
+   * Splits [0, end) into at most chunks ranges that each start at the beginning of a line.
+   */
+  private static int[] chunkBounds(MappedByteBuffer buffer, int end, int chunks) {
+    int[] bounds = new int[chunks + 1];
+    int count = 1;
+    for (int i = 1; i < chunks; i++) {
+      int bound = Math.max(bounds[count - 1], (int) ((long) end * i / chunks));
+      while (bound < end && bound > 0 && buffer.get(bound - 1) != '\n') {
+        bound++;
+      }
+      if (bound > bounds[count - 1] && bound < end) {
+        bounds[count++] = bound;
+      }
+    }
+    bounds[count++] = end;
+    return Arrays.copyOf(bounds, count);
+  }
+
+  private static String evaluate(CharSequence session, PackedCalculator engine) {
+    engine.reset();
+    for (int i = 0; i < session.length(); i++) {
+      InputError error = engine.apply(session.charAt(i));
+      if (error != null) {
+        return SessionReplay.ERROR + i + " " + error.name();
+      }
+    }
+    return engine.getResult();
+  }
+
+  /**
+   * Evaluates the chunks [from, to) of an in-memory session list, splitting the range in
+   * half until a single chunk is left.
+   */
+  private final class ListChunks extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient List<? extends CharSequence> sessions;
+    private final String[] results;
+    private final int chunkSize;
+    private final int from;
+    private final int to;
+
+    ListChunks(List<? extends CharSequence> sessions, String[] results, int chunkSize,
+               int from, int to) {
+      this.sessions = sessions;
+      this.results = results;
+      this.chunkSize = chunkSize;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new ListChunks(sessions, results, chunkSize, from, middle),
+                new ListChunks(sessions, results, chunkSize, middle, to));
+        return;
+      }
+      if (from == to) {
+        return;
+      }
+      PackedCalculator engine = new PackedCalculator(smart);
+      int end = Math.min(sessions.size(), (from + 1) * chunkSize);
+      for (int i = from * chunkSize; i < end; i++) {
+        results[i] = evaluate(sessions.get(i), engine);
+      }
+    }
+  }
+
+  /**
+   * Replays the chunks [from, to) of a mapped window into their own result buffers,
+   * splitting the range in half until a single chunk is left.
+   */
+  private final class MappedChunks extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient MappedByteBuffer sessions;
+    private final int[] bounds;
+    private final transient ResultBuffer[] buffers;
+    private final long[] counts;
+    private final int from;
+    private final int to;
+
+    MappedChunks(MappedByteBuffer sessions, int[] bounds, ResultBuffer[] buffers,
+                 long[] counts, int from, int to) {
+      this.sessions = sessions;
+      this.bounds = bounds;
+      this.buffers = buffers;
+      this.counts = counts;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > 1) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new MappedChunks(sessions, bounds, buffers, counts, from, middle),
+                new MappedChunks(sessions, bounds, buffers, counts, middle, to));
+        return;
+      }
+      if (from == to) {
+        return;
+      }
+      int start = bounds[from];
+      int end = bounds[from + 1];
+      ResultBuffer buffer = new ResultBuffer(end - start);
+      counts[from] = SessionReplay.replay(sessions.duplicate(), start, end,
+              new PackedCalculator(smart), buffer);
+      buffers[from] = buffer;
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package calculator;
+
+/**
+ * RejectedKeystroke is the result of tryInputAll() when one of the keystrokes is rejected,
+ * keeping the index of that keystroke next to its error.
+ */
+final class RejectedKeystroke implements InputResult {
+
+  private final InputError error;
+  private final int index;
+
+  RejectedKeystroke(InputError error, int index) {
+    this.error = error;
+    this.index = index;
+  }
+
+  @Override
+  public boolean isError() {
+    return true;
+  }
+
+  @Override
+  public Calculator getCalculator() {
+    throw new IllegalStateException("The keystroke at " + index + " was rejected: " + error);
+  }
+
+  @Override
+  public InputError getError() {
+    return error;
+  }
+
+  @Override
+  public int getIndex() {
+    return index;
+  }
+
+  @Override
+  public String toString() {
+    return error + " at " + index;
+  }
+}
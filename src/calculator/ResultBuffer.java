@@ -0,0 +1,76 @@
+package calculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ResultBuffer collects the ASCII result lines written by the batch replay tools in a
+ * growable byte array, so results can be produced without creating a String per session and
+ * written to a channel in large blocks.
+ */
+final class ResultBuffer {
+
+  private byte[] bytes;
+  private int size;
+
+  ResultBuffer(int initialCapacity) {
+    this.bytes = new byte[Math.max(16, initialCapacity)];
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    size = 0;
+  }
+
+  void write(char c) {
+    if (size == bytes.length) {
+      byte[] grown = new byte[bytes.length * 2];
+      System.arraycopy(bytes, 0, grown, 0, size);
+      bytes = grown;
+    }
+    bytes[size++] = (byte) c;
+  }
+
+  void write(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      write(text.charAt(i));
+    }
+  }
+
+  void writeNumber(long value) {
+    if (value < 0) {
+      write('-');
+    } else {
+      value = -value;
+    }
+    // works on the negative value so that Long.MIN_VALUE does not overflow
+    int start = size;
+    do {
+      write((char) ('0' - value % 10));
+      value /= 10;
+    } while (value != 0);
+    for (int i = start, j = size - 1; i < j; i++, j--) {
+      byte swap = bytes[i];
+      bytes[i] = bytes[j];
+      bytes[j] = swap;
+    }
+  }
+
+  void writeDisplay(PackedCalculator engine) {
+    DisplayBuffer display = engine.displayBuffer();
+    for (int i = 0; i < display.length(); i++) {
+      write(display.charAt(i));
+    }
+  }
+
+  void writeTo(WritableByteChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, size);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
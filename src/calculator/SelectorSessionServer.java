@@ -0,0 +1,458 @@
+package calculator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+/**
+ * SelectorSessionServer serves calculator sessions over TCP with a binary frame format, for
+ * clients that pipeline many sessions over a few connections. Connections are spread over a
+ * small number of event loops, each running a Selector on its own thread. A failed accept is
+ * logged and retried after a pause, as in SessionServer; only close() stops accepting.
+ * A request frame is a big-endian int session id, an unsigned short keystroke count and that
+ * many keystroke bytes. Each request frame is answered, in order, with a reply frame: the int
+ * session id, a status byte and an int display length followed by the ASCII display. The
+ * status is 0 when every keystroke was accepted, and otherwise the InputError code of the
+ * first rejected keystroke, in which case the rest of the frame is skipped and the
+ * session keeps the state it had before that keystroke.
+ * A server can instead reply with display deltas, for clients that keep the display of each
+ * session: after the status byte, a reply frame then holds an int, the number of characters
+ * of the previous display of the session to keep, and the int length and ASCII characters
+ * of the text appended after them, as in DisplayDelta. The display of a new session is empty.
+ * Session ids are chosen by the client and are local to its connection; they must be
+ * between 0 and the maximum number of sessions per connection, and a frame with any other id
+ * closes the connection.
+ * Each event loop reads into and writes from its own direct buffers, which are reused for
+ * every frame, and displays are copied into the reply straight from the calculator, so
+ * serving a frame with full displays allocates nothing besides the calculator states; a
+ * delta reply also allocates its DisplayDelta.
+ */
+public final class SelectorSessionServer implements AutoCloseable {
+
+  /**
+   * The default number of sessions a single connection may use.
+   */
+  public static final int DEFAULT_MAX_SESSIONS_PER_CONNECTION = 4096;
+
+  static final int HEADER_SIZE = 6;
+  static final int MAX_KEYSTROKES = 0xFFFF;
+  static final int REPLY_HEADER_SIZE = 9;
+  static final int DELTA_REPLY_HEADER_SIZE = 13;
+
+  private static final int BUFFER_SIZE = 2 * (HEADER_SIZE + MAX_KEYSTROKES);
+  private static final int BACKLOG = 1024;
+  private static final Logger LOGGER = Logger.getLogger(SelectorSessionServer.class.getName());
+
+  private final boolean smart;
+  private final int maxSessionsPerConnection;
+  private final boolean deltas;
+  private final ServerSocketChannel server;
+  private final EventLoop[] loops;
+  private final Thread acceptor;
+  private volatile boolean closed;
+
+  /**
+   * Creates a SelectorSessionServer listening on the loopback address, with one event loop
+   * per available processor up to four, and starts accepting connections.
+   *
+   * @param smart true to serve SmartCalculator sessions, false for SimpleCalculator
+   * @param port the port to listen on, 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public SelectorSessionServer(boolean smart, int port) throws IOException {
+    this(smart, InetAddress.getLoopbackAddress(), port,
+            Math.min(4, Runtime.getRuntime().availableProcessors()),
+            DEFAULT_MAX_SESSIONS_PER_CONNECTION);
+  }
+
+  /**
+   * Creates a SelectorSessionServer listening on the given address and starts accepting
+   * connections.
+   *
+   * @param smart true to serve SmartCalculator sessions, false for SimpleCalculator
+   * @param address the address to listen on
+   * @param port the port to listen on, 0 for any free port
+   * @param eventLoops the number of event loop threads
+   * @param maxSessionsPerConnection the number of sessions a single connection may use
+   * @throws IOException if the port cannot be bound
+   * @throws IllegalArgumentException if eventLoops or maxSessionsPerConnection is not positive
+   */
+  public SelectorSessionServer(boolean smart, InetAddress address, int port, int eventLoops,
+                               int maxSessionsPerConnection) throws IOException {
+    this(smart, address, port, eventLoops, maxSessionsPerConnection, false);
+  }
+
+  /**
+   * Creates a SelectorSessionServer listening on the given address and starts accepting
+   * connections, replying with either full displays or display deltas.
+   *
+   * @param smart true to serve SmartCalculator sessions, false for SimpleCalculator
+   * @param address the address to listen on
+   * @param port the port to listen on, 0 for any free port
+   * @param eventLoops the number of event loop threads
+   * @param maxSessionsPerConnection the number of sessions a single connection may use
+   * @param deltas true to reply with display deltas, false with full displays
+   * @throws IOException if the port cannot be bound
+   * @throws IllegalArgumentException if eventLoops or maxSessionsPerConnection is not positive
+   */
+  public SelectorSessionServer(boolean smart, InetAddress address, int port, int eventLoops,
+                               int maxSessionsPerConnection, boolean deltas)
+          throws IOException {
+    if (eventLoops <= 0) {
+      throw new IllegalArgumentException("Event loops must be positive");
+    }
+    if (maxSessionsPerConnection <= 0) {
+      throw new IllegalArgumentException("Maximum sessions must be positive");
+    }
+    this.smart = smart;
+    this.maxSessionsPerConnection = maxSessionsPerConnection;
+    this.deltas = deltas;
+    this.server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(address, port), BACKLOG);
+    this.loops = new EventLoop[eventLoops];
+    for (int i = 0; i < eventLoops; i++) {
+      loops[i] = new EventLoop(i);
+    }
+    this.acceptor = new Thread(this::acceptConnections, "calculator-selector-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the port this server listens on.
+   *
+   * @return the local port
+   * @throws IOException if the port cannot be read
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) server.getLocalAddress()).getPort();
+  }
+
+  /**
+   * Returns the number of event loop threads of this server.
+   *
+   * @return the number of event loops
+   */
+  public int getEventLoops() {
+    return loops.length;
+  }
+
+  /**
+   * Stops accepting connections, closes every connection and stops the event loops.
+   *
+   * @throws IOException if the listening socket cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    server.close();
+    for (EventLoop loop : loops) {
+      loop.selector.wakeup();
+    }
+  }
+
+  private void acceptConnections() {
+    int next = 0;
+    long pause = 0;
+    while (!closed) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (IOException e) {
+        if (closed || !server.isOpen()) {
+          return;
+        }
+        pause = SessionServer.pauseAfterAcceptFailure(LOGGER, e, pause);
+        continue;
+      }
+      pause = 0;
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      } catch (IOException e) {
+        // the connection went away before it could be set up
+        closeQuietly(channel);
+        continue;
+      }
+      loops[next].add(channel);
+      next = (next + 1) % loops.length;
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // nothing is left to release
+    }
+  }
+
+  /**
+   * The state of one connection: its sessions, the bytes of a frame that has not fully
+   * arrived yet, and the reply bytes the socket did not take yet.
+   */
+  private final class Connection {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private Calculator[] sessions = new Calculator[16];
+    private ByteBuffer input;
+    private ByteBuffer output;
+
+    Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    Calculator session(int id) {
+      if (id >= sessions.length) {
+        sessions = Arrays.copyOf(sessions, Math.min(maxSessionsPerConnection,
+                Math.max(id + 1, sessions.length * 2)));
+      }
+      Calculator session = sessions[id];
+      if (session == null) {
+        session = smart ? new SmartCalculator() : new SimpleCalculator();
+      }
+      return session;
+    }
+
+    boolean hasInput() {
+      return input != null && input.position() > 0;
+    }
+
+    boolean hasOutput() {
+      return output != null && output.position() > 0;
+    }
+
+    void saveInput(ByteBuffer remaining) {
+      input = append(input, remaining, HEADER_SIZE + MAX_KEYSTROKES);
+    }
+
+    void saveOutput(ByteBuffer remaining) {
+      output = append(output, remaining, 1024);
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private ByteBuffer append(ByteBuffer buffer, ByteBuffer remaining, int initialCapacity) {
+      if (buffer == null) {
+        buffer = ByteBuffer.allocate(Math.max(initialCapacity, remaining.remaining()));
+      } else if (buffer.remaining() < remaining.remaining()) {
+        ByteBuffer grown = ByteBuffer.allocate(
+                Math.max(buffer.capacity() * 2, buffer.position() + remaining.remaining()));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+      }
+      return buffer.put(remaining);
+    }
+
+    void close() {
+      key.cancel();
+      closeQuietly(channel);
+    }
+  }
+
+  /**
+   * One selector thread serving its share of the connections.
+   */
+  private final class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+
+    EventLoop(int index) throws IOException {
+      this.selector = Selector.open();
+      Thread thread = new Thread(this, "calculator-selector-" + index);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void add(SocketChannel channel) {
+      added.add(channel);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!closed) {
+          selector.select(this::handle);
+          SocketChannel channel;
+          while ((channel = added.poll()) != null) {
+            register(channel);
+          }
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        // the loop cannot go on, its connections are closed below
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          closeQuietly(key.channel());
+        }
+        closeQuietly(selector);
+        SocketChannel channel;
+        while ((channel = added.poll()) != null) {
+          closeQuietly(channel);
+        }
+      }
+    }
+
+    private void register(SocketChannel channel) {
+      try {
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+      } catch (IOException e) {
+        closeQuietly(channel);
+      }
+    }
+
+    private void handle(SelectionKey key) {
+      Connection connection = (Connection) key.attachment();
+      try {
+        if (key.isWritable()) {
+          writePending(connection);
+        }
+        if (key.isValid() && key.isReadable()) {
+          read(connection);
+        }
+      } catch (IOException e) {
+        connection.close();
+      }
+    }
+
+    private void read(Connection connection) throws IOException {
+      readBuffer.clear();
+      if (connection.hasInput()) {
+        connection.input.flip();
+        readBuffer.put(connection.input);
+        connection.input.clear();
+      }
+      if (connection.channel.read(readBuffer) == -1) {
+        connection.close();
+        return;
+      }
+      readBuffer.flip();
+      serve(connection);
+    }
+
+    private void writePending(Connection connection) throws IOException {
+      ByteBuffer output = connection.output;
+      output.flip();
+      connection.channel.write(output);
+      output.compact();
+      if (output.position() > 0) {
+        return;
+      }
+      connection.key.interestOps(SelectionKey.OP_READ);
+      if (connection.hasInput()) {
+        // frames that arrived while the replies were held back
+        readBuffer.clear();
+        connection.input.flip();
+        readBuffer.put(connection.input);
+        connection.input.clear();
+        readBuffer.flip();
+        serve(connection);
+      }
+    }
+
+    /**
+     * Serves the complete frames in the read buffer and keeps the rest for later. Serving
+     * stops early while replies are waiting for the socket.
+     */
+    private void serve(Connection connection) throws IOException {
+      writeBuffer.clear();
+      while (readBuffer.remaining() >= HEADER_SIZE && !connection.hasOutput()) {
+        int start = readBuffer.position();
+        int id = readBuffer.getInt(start);
+        int count = readBuffer.getShort(start + 4) & 0xFFFF;
+        if (readBuffer.remaining() < HEADER_SIZE + count) {
+          break;
+        }
+        if (id < 0 || id >= maxSessionsPerConnection) {
+          connection.close();
+          return;
+        }
+        Calculator session = connection.session(id);
+        Calculator previous = session;
+        int status = 0;
+        for (int i = start + HEADER_SIZE; i < start + HEADER_SIZE + count; i++) {
+          InputResult next = session.tryInput((char) (readBuffer.get(i) & 0xFF));
+          if (next.isError()) {
+            status = next.getError().getCode();
+            break;
+          }
+          session = next.getCalculator();
+        }
+        connection.sessions[id] = session;
+        readBuffer.position(start + HEADER_SIZE + count);
+        Display display = ((AbstractCalculator<?>) session).display;
+        if (deltas) {
+          // the text of a delta is always the display from the kept characters on
+          reply(connection, id, status, DisplayDelta.between(previous, session).getKeep(),
+                  display);
+        } else {
+          reply(connection, id, status, -1, display);
+        }
+      }
+      flush(connection);
+      if (readBuffer.hasRemaining()) {
+        connection.saveInput(readBuffer);
+      }
+    }
+
+    /**
+     * Writes a reply frame with the whole display, or with the kept length of a display delta
+     * and the display from there on unless keep is negative.
+     */
+    private void reply(Connection connection, int id, int status, int keep, Display display)
+            throws IOException {
+      int from = Math.max(keep, 0);
+      int length = display.length() - from;
+      int size = (keep < 0 ? REPLY_HEADER_SIZE : DELTA_REPLY_HEADER_SIZE) + length;
+      if (writeBuffer.remaining() < size) {
+        flush(connection);
+      }
+      ByteBuffer target = writeBuffer;
+      if (connection.hasOutput() || writeBuffer.remaining() < size) {
+        // the socket is full or the display is larger than the buffer
+        flush(connection);
+        target = ByteBuffer.allocate(size);
+      }
+      target.putInt(id);
+      target.put((byte) status);
+      if (keep >= 0) {
+        target.putInt(keep);
+      }
+      target.putInt(length);
+      display.putAscii(target, from);
+      if (target != writeBuffer) {
+        target.flip();
+        connection.saveOutput(target);
+      }
+    }
+
+    private void flush(Connection connection) throws IOException {
+      writeBuffer.flip();
+      if (!connection.hasOutput()) {
+        connection.channel.write(writeBuffer);
+      }
+      if (writeBuffer.hasRemaining()) {
+        connection.saveOutput(writeBuffer);
+      }
+      writeBuffer.clear();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package calculator;
+
+import java.util.Arrays;
+
+/**
+ * SessionBatch evaluates one keystroke script for many sessions at once, each session with
+ * its own operands, under the SimpleCalculator rules.
+ * A script is made of operators, '=' and the placeholder '#', which stands for an operand
+ * typed in full, such as "#+#*#=". The script is checked and compiled once into steps that
+ * either load an operand column into the result column or combine the result column with an
+ * operand column. Every step is a loop over parallel long[] columns, one lane per session;
+ * the result of every lane is the same as typing the operands of that session into a
+ * SimpleCalculator.
+ * A SessionBatch is immutable and can be shared between threads.
+ */
+public final class SessionBatch {
+
+  /**
+   * The character that stands for an operand in a script.
+   */
+  public static final char OPERAND = '#';
+
+  private static final char LOAD = '\0';
+
+  private final String script;
+  private final char[] operations;
+  private final int[] operands;
+  private final int operandCount;
+
+  /**
+   * Compiles a script.
+   *
+   * @param script the keystrokes of every session, with OPERAND for each operand
+   * @throws IllegalArgumentException if the script contains other characters, two operands in
+   *                                  a row, does not end with '=', or would be rejected by a
+   *                                  SimpleCalculator
+   */
+  public SessionBatch(String script) {
+    this.script = script;
+    OperandScript.validate(script, false, c -> c == OPERAND, "script");
+    char[] steps = new char[script.length()];
+    int[] stepOperands = new int[script.length()];
+    int stepCount = 0;
+    int operand = 0;
+    char pendingOperation = '\0';
+    int pendingOperand = -1;
+    for (int i = 0; i < script.length(); i++) {
+      char c = script.charAt(i);
+      if (c == OPERAND) {
+        if (pendingOperation != '\0') {
+          pendingOperand = operand++;
+        } else {
+          steps[stepCount] = LOAD;
+          stepOperands[stepCount++] = operand++;
+        }
+        continue;
+      }
+      if (pendingOperation != '\0') {
+        steps[stepCount] = pendingOperation;
+        stepOperands[stepCount++] = pendingOperand;
+      }
+      pendingOperation = c == '=' ? '\0' : c;
+    }
+    this.operations = Arrays.copyOf(steps, stepCount);
+    this.operands = Arrays.copyOf(stepOperands, stepCount);
+    this.operandCount = operand;
+  }
+
+  /**
+   * Returns the script of this batch.
+   *
+   * @return the script this batch was compiled from
+   */
+  public String getScript() {
+    return script;
+  }
+
+  /**
+   * Returns the number of operands each session types.
+   *
+   * @return the number of OPERAND placeholders in the script
+   */
+  public int getOperandCount() {
+    return operandCount;
+  }
+
+  /**
+   * Evaluates the script for every session.
+   *
+   * @param columns one column per operand of the script, holding that operand for every
+   *                session; every column has one entry per session
+   * @return the result of every session, whose display is the decimal form of the result
+   * @throws IllegalArgumentException if the number or lengths of the columns do not match,
+   *                                  or an operand is negative or larger than
+   *                                  Integer.MAX_VALUE, which a calculator would reject
+   */
+  public long[] evaluate(long[][] columns) {
+    if (columns.length != operandCount) {
+      throw new IllegalArgumentException("Expected " + operandCount + " operand columns");
+    }
+    int sessions = columns.length == 0 ? 0 : columns[0].length;
+    for (long[] column : columns) {
+      checkColumn(column, sessions);
+    }
+    long[] results = new long[sessions];
+    for (int step = 0; step < operations.length; step++) {
+      long[] operand = columns[operands[step]];
+      switch (operations[step]) {
+        case LOAD:
+          System.arraycopy(operand, 0, results, 0, sessions);
+          break;
+        case '+':
+          for (int i = 0; i < sessions; i++) {
+            results[i] = clamp(results[i] + operand[i]);
+          }
+          break;
+        case '-':
+          for (int i = 0; i < sessions; i++) {
+            results[i] = clamp(results[i] - operand[i]);
+          }
+          break;
+        default:
+          for (int i = 0; i < sessions; i++) {
+            results[i] = clamp(results[i] * operand[i]);
+          }
+          break;
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns 0 for a value outside the int range and the value itself otherwise, like
+   * performCalculation(), without a branch. Results and operands stay in the int range, so
+   * the sum, difference or product of two of them never overflows a long.
+   */
+  private static long clamp(long value) {
+    long high = (value - Integer.MIN_VALUE) >>> 32;
+    return value & ((high - 1) >> 63);
+  }
+
+  private static void checkColumn(long[] column, int sessions) {
+    if (column.length != sessions) {
+      throw new IllegalArgumentException("Every operand column needs " + sessions + " entries");
+    }
+    long outside = 0;
+    for (long operand : column) {
+      outside |= operand | (Integer.MAX_VALUE - operand);
+    }
+    if (outside < 0) {
+      throw new IllegalArgumentException("Operands must be between 0 and "
+              + Integer.MAX_VALUE);
+    }
+  }
+}
@@ -0,0 +1,622 @@
+package calculator;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * SessionRegistry holds calculator sessions that keystrokes may reach from several threads
+ * at once, for example a retried keystroke racing the original one.
+ * Each session keeps its current immutable calculator in an AtomicReference. A keystroke
+ * computes the next calculator from the current one and installs it with compareAndSet,
+ * retrying from the newer state if another keystroke got there first, so every keystroke of
+ * a session is applied exactly once and to the state left by the one before it.
+ * Sessions are found by id in one of 64 stripes, each a LongIntMap from ids to slots guarded
+ * by a StampedLock. Opening and removing a session take the write lock of its stripe, while
+ * looking a session up is an optimistic read that takes no lock and neither boxes the id
+ * nor writes to shared memory; it only falls back to the read lock when a session of the
+ * same stripe was opened or removed during the lookup. Applying a keystroke without a
+ * journal therefore takes no lock at all.
+ * A keystroke that races remove() may be applied just before the session goes away.
+ * A registry can write every accepted keystroke, and every session opened or removed, to a
+ * KeystrokeJournal. The changes of a session are then applied and journaled under the lock
+ * of its state, so the journal holds them in the order they were applied, and a call returns
+ * once its records are durable. A call waits for room in the journal before it takes any
+ * lock, so a disk that falls behind slows the callers down without holding up checkpoints
+ * or other sessions. checkpoint() writes the sessions with CalculatorSnapshot
+ * along with the number of journal records they include, and recover() rebuilds a registry
+ * from the latest checkpoint and the journal records after it.
+ */
+public final class SessionRegistry {
+
+  private static final int CHECKPOINT_MAGIC = 0x434B5054;
+  private static final int CHECKPOINT_HEADER_SIZE = 16;
+  private static final int STRIPE_BITS = 6;
+
+  private final Calculator empty;
+  private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+  private final KeystrokeJournal journal;
+  // held shared by journaled changes and exclusively while a checkpoint takes its cut
+  private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+  /**
+   * Creates an empty SessionRegistry.
+   *
+   * @param smart true to open SmartCalculator sessions, false for SimpleCalculator sessions
+   */
+  public SessionRegistry(boolean smart) {
+    this(smart, null);
+  }
+
+  /**
+   * Creates an empty SessionRegistry that writes its changes to a journal.
+   *
+   * @param smart true to open SmartCalculator sessions, false for SimpleCalculator sessions
+   * @param journal the journal to write to, or null not to journal
+   */
+  public SessionRegistry(boolean smart, KeystrokeJournal journal) {
+    this.empty = smart ? new SmartCalculator() : new SimpleCalculator();
+    this.journal = journal;
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Rebuilds a registry after a restart: loads the checkpoint if there is one, replays the
+   * journal records written after it, and goes on journaling to the same journal.
+   *
+   * @param smart true to open SmartCalculator sessions, false for SimpleCalculator sessions
+   * @param checkpoint the checkpoint file, which may not exist
+   * @param journal the journal, opened on the file the registry wrote to
+   * @return the registry in the state of its last durable change
+   * @throws IOException if a file cannot be read or is corrupt
+   */
+  public static SessionRegistry recover(boolean smart, Path checkpoint,
+                                        KeystrokeJournal journal) throws IOException {
+    SessionRegistry registry = new SessionRegistry(smart, journal);
+    long from = Files.exists(checkpoint) ? registry.load(checkpoint) : 0;
+    IllegalArgumentException[] rejected = new IllegalArgumentException[1];
+    journal.replay(from, (session, key) -> {
+      if (rejected[0] == null) {
+        try {
+          registry.apply(session, key);
+        } catch (IllegalArgumentException e) {
+          rejected[0] = e;
+        }
+      }
+    });
+    if (rejected[0] != null) {
+      throw new StreamCorruptedException("Journal does not match the checkpoint: "
+              + rejected[0].getMessage());
+    }
+    return registry;
+  }
+
+  /**
+   * Writes every session to a checkpoint file, replacing it atomically once it is complete
+   * and making the replacement durable, so that recover() only needs the journal records
+   * written after it. Keystrokes are held back only while the sessions are collected, not
+   * while they are written. If writing fails, the old checkpoint is left in place and the
+   * temporary file is deleted.
+   *
+   * @param file the checkpoint file
+   * @throws IOException if the file cannot be written
+   */
+  public void checkpoint(Path file) throws IOException {
+    long records = 0;
+    long[] ids = new long[size()];
+    List<Calculator> states = new ArrayList<>(ids.length);
+    checkpointLock.writeLock().lock();
+    try {
+      if (journal != null) {
+        records = journal.getRecordCount();
+      }
+      for (Stripe stripe : stripes) {
+        long stamp = stripe.lock.readLock();
+        try {
+          ids = stripe.collect(ids, states);
+        } finally {
+          stripe.lock.unlockRead(stamp);
+        }
+      }
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+    if (journal != null) {
+      // a restarted journal must not number new records below the checkpoint
+      journal.sync(records);
+    }
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER_SIZE + 8 * states.size());
+        header.putInt(CHECKPOINT_MAGIC).putLong(records).putInt(states.size());
+        for (int i = 0; i < states.size(); i++) {
+          header.putLong(ids[i]);
+        }
+        header.flip();
+        while (header.hasRemaining()) {
+          channel.write(header);
+        }
+        CalculatorSnapshot.writeAll(states, channel);
+        channel.force(true);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      try {
+        Files.deleteIfExists(temporary);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+      throw e;
+    }
+    // the rename only survives a crash once the directory holding it is on disk
+    forceDirectory(file.toAbsolutePath().getParent());
+  }
+
+  private static void forceDirectory(Path directory) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      // some platforms cannot open a directory, and make renames durable on their own
+      return;
+    }
+    try (channel) {
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Opens a session in the empty state.
+   *
+   * @param session the id of the session
+   * @return true if the session was opened, false if it was already open
+   */
+  public boolean open(long session) {
+    AtomicReference<Calculator> state = new AtomicReference<>(empty);
+    if (journal == null) {
+      return putIfAbsent(session, state);
+    }
+    awaitRoom();
+    long records;
+    checkpointLock.readLock().lock();
+    try {
+      synchronized (state) {
+        if (!putIfAbsent(session, state)) {
+          return false;
+        }
+        records = append(session, KeystrokeJournal.OPENED);
+      }
+    } finally {
+      checkpointLock.readLock().unlock();
+    }
+    sync(records);
+    return true;
+  }
+
+  /**
+   * Removes a session.
+   *
+   * @param session the id of the session
+   * @return true if the session was removed, false if it was not open
+   */
+  public boolean remove(long session) {
+    if (journal == null) {
+      return remove(session, null);
+    }
+    AtomicReference<Calculator> state = find(session);
+    if (state == null) {
+      return false;
+    }
+    awaitRoom();
+    long records;
+    checkpointLock.readLock().lock();
+    try {
+      synchronized (state) {
+        if (!remove(session, state)) {
+          return false;
+        }
+        records = append(session, KeystrokeJournal.REMOVED);
+      }
+    } finally {
+      checkpointLock.readLock().unlock();
+    }
+    sync(records);
+    return true;
+  }
+
+  /**
+   * Applies a keystroke to a session, like input() on its calculator.
+   *
+   * @param session the id of the session
+   * @param input a single character that is entered in the calculator
+   * @return the calculator the session was left in by this keystroke
+   * @throws IllegalArgumentException if there is no such session or the input is rejected,
+   *                                  with the message the calculator would have thrown
+   */
+  public Calculator input(long session, char input) {
+    AtomicReference<Calculator> state = state(session);
+    if (journal != null) {
+      return journaledInput(session, state, String.valueOf(input), true).getCalculator();
+    }
+    while (true) {
+      Calculator current = state.get();
+      InputResult next = current.tryInput(input);
+      if (next.isError()) {
+        // the calculator is immutable, so input() rejects the keystroke the same way
+        return current.input(input);
+      }
+      if (state.compareAndSet(current, next.getCalculator())) {
+        return next.getCalculator();
+      }
+    }
+  }
+
+  /**
+   * Applies a keystroke to a session like input(), but returns the error instead of throwing
+   * it. A rejected keystroke leaves the session unchanged.
+   *
+   * @param session the id of the session
+   * @param input a single character that is entered in the calculator
+   * @return the calculator the session was left in, or the error if the input is rejected
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public InputResult tryInput(long session, char input) {
+    AtomicReference<Calculator> state = state(session);
+    if (journal != null) {
+      return journaledInput(session, state, String.valueOf(input), false);
+    }
+    while (true) {
+      Calculator current = state.get();
+      InputResult next = current.tryInput(input);
+      if (next.isError() || state.compareAndSet(current, next.getCalculator())) {
+        return next;
+      }
+    }
+  }
+
+  /**
+   * Applies a sequence of keystrokes to a session as a single step, so no keystroke from
+   * another thread lands between them. If a keystroke is rejected, none of them is applied.
+   *
+   * @param session the id of the session
+   * @param keys the characters entered in the calculator, in order
+   * @return the calculator the session was left in, or the error and index of the rejected
+   *         keystroke
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public InputResult tryInputAll(long session, CharSequence keys) {
+    AtomicReference<Calculator> state = state(session);
+    if (journal != null) {
+      return journaledInput(session, state, keys, false);
+    }
+    while (true) {
+      Calculator current = state.get();
+      InputResult next = current.tryInputAll(keys);
+      if (next.isError() || state.compareAndSet(current, next.getCalculator())) {
+        return next;
+      }
+    }
+  }
+
+  /**
+   * Returns the current calculator of a session.
+   *
+   * @param session the id of the session
+   * @return the calculator the session is in
+   * @throws IllegalArgumentException if there is no such session
+   */
+  public Calculator get(long session) {
+    return state(session).get();
+  }
+
+  /**
+   * Returns the number of open sessions.
+   *
+   * @return the number of sessions
+   */
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      long stamp = stripe.lock.readLock();
+      try {
+        size += stripe.slots.size();
+      } finally {
+        stripe.lock.unlockRead(stamp);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Applies keystrokes to a session and journals them under the lock of its state, then
+   * waits for them to be durable. A rejected keystroke is returned, or, for a single
+   * keystroke with throwRejected, thrown as input() would by the calculator that rejected it.
+   */
+  private InputResult journaledInput(long session, AtomicReference<Calculator> state,
+                                     CharSequence keys, boolean throwRejected) {
+    InputResult next;
+    long records;
+    awaitRoom();
+    checkpointLock.readLock().lock();
+    try {
+      synchronized (state) {
+        if (find(session) != state) {
+          throw new IllegalArgumentException("No such session: " + session);
+        }
+        Calculator current = state.get();
+        next = keys.length() == 1 ? current.tryInput(keys.charAt(0))
+                : current.tryInputAll(keys);
+        if (next.isError()) {
+          if (throwRejected) {
+            // the calculator is immutable, so input() rejects the keystroke the same way
+            current.input(keys.charAt(0));
+          }
+          return next;
+        }
+        state.set(next.getCalculator());
+        records = 0;
+        for (int i = 0; i < keys.length(); i++) {
+          records = append(session, keys.charAt(i));
+        }
+      }
+    } finally {
+      checkpointLock.readLock().unlock();
+    }
+    sync(records);
+    return next;
+  }
+
+  private void awaitRoom() {
+    try {
+      journal.awaitRoom();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // called under the lock of a session, after awaitRoom()
+  private long append(long session, char key) {
+    try {
+      return journal.appendWithoutWaiting(session, key);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void sync(long records) {
+    try {
+      journal.sync(records);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Applies a journal record to this registry, without journaling it again.
+   */
+  private void apply(long session, char key) {
+    switch (key) {
+      case KeystrokeJournal.OPENED:
+        put(session, new AtomicReference<>(empty));
+        break;
+      case KeystrokeJournal.REMOVED:
+        remove(session, null);
+        break;
+      default:
+        AtomicReference<Calculator> state = state(session);
+        state.set(state.get().input(key));
+        break;
+    }
+  }
+
+  /**
+   * Loads the sessions of a checkpoint file into this registry.
+   *
+   * @return the number of journal records the checkpoint includes
+   */
+  private long load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file)) {
+      ByteBuffer header = readFully(channel, CHECKPOINT_HEADER_SIZE);
+      if (header.getInt() != CHECKPOINT_MAGIC) {
+        throw new StreamCorruptedException("Not a session checkpoint");
+      }
+      long records = header.getLong();
+      int count = header.getInt();
+      if (count < 0) {
+        throw new StreamCorruptedException("Invalid number of sessions: " + count);
+      }
+      ByteBuffer ids = readFully(channel, 8 * count);
+      List<Calculator> states = CalculatorSnapshot.readAll(channel);
+      if (states.size() != count) {
+        throw new StreamCorruptedException("Checkpoint holds " + states.size() + " sessions");
+      }
+      for (Calculator calculator : states) {
+        put(ids.getLong(), new AtomicReference<>(calculator));
+      }
+      return records;
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) == -1) {
+        throw new StreamCorruptedException("Checkpoint ends early");
+      }
+    }
+    return buffer.flip();
+  }
+
+  private AtomicReference<Calculator> state(long session) {
+    AtomicReference<Calculator> state = find(session);
+    if (state == null) {
+      throw new IllegalArgumentException("No such session: " + session);
+    }
+    return state;
+  }
+
+  private Stripe stripe(long session) {
+    // the top bits of a Fibonacci hash, so sequential ids spread over the stripes
+    return stripes[(int) ((session * 0x9E3779B97F4A7C15L) >>> (64 - STRIPE_BITS))];
+  }
+
+  private AtomicReference<Calculator> find(long session) {
+    Stripe stripe = stripe(session);
+    long stamp = stripe.lock.tryOptimisticRead();
+    if (stamp != 0) {
+      AtomicReference<Calculator> state = stripe.getOptimistic(session);
+      if (stripe.lock.validate(stamp)) {
+        return state;
+      }
+    }
+    stamp = stripe.lock.readLock();
+    try {
+      return stripe.get(session);
+    } finally {
+      stripe.lock.unlockRead(stamp);
+    }
+  }
+
+  private boolean putIfAbsent(long session, AtomicReference<Calculator> state) {
+    Stripe stripe = stripe(session);
+    long stamp = stripe.lock.writeLock();
+    try {
+      if (stripe.get(session) != null) {
+        return false;
+      }
+      stripe.put(session, state);
+      return true;
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  private void put(long session, AtomicReference<Calculator> state) {
+    Stripe stripe = stripe(session);
+    long stamp = stripe.lock.writeLock();
+    try {
+      stripe.put(session, state);
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes a session if its state is the expected one, or whatever its state is if expected
+   * is null.
+   */
+  private boolean remove(long session, AtomicReference<Calculator> expected) {
+    Stripe stripe = stripe(session);
+    long stamp = stripe.lock.writeLock();
+    try {
+      AtomicReference<Calculator> state = stripe.get(session);
+      if (state == null || (expected != null && state != expected)) {
+        return false;
+      }
+      stripe.remove(session);
+      return true;
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Stripe holds the sessions whose ids hash to it: a LongIntMap from ids to slots, and the
+   * id and state of each slot. Slots freed by removed sessions are reused. A stripe is only
+   * changed under its write lock, and read under its read lock or, with getOptimistic(), in
+   * an optimistic read.
+   */
+  private static final class Stripe {
+
+    final StampedLock lock = new StampedLock();
+    private final LongIntMap slots = new LongIntMap();
+    private long[] ids = new long[8];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AtomicReference<Calculator>[] states = new AtomicReference[8];
+    private int slotCount;
+    private int[] free = new int[8];
+    private int freeCount;
+
+    AtomicReference<Calculator> get(long session) {
+      int slot = slots.get(session);
+      return slot == LongIntMap.NO_VALUE ? null : states[slot];
+    }
+
+    /**
+     * Looks a session up like get() while the stripe may be changing, which the caller finds
+     * out by validating its optimistic read before it uses the result.
+     */
+    AtomicReference<Calculator> getOptimistic(long session) {
+      int slot = slots.getOptimistic(session);
+      AtomicReference<Calculator>[] current = states;
+      return slot < 0 || slot >= current.length ? null : current[slot];
+    }
+
+    void put(long session, AtomicReference<Calculator> state) {
+      int slot = slots.get(session);
+      if (slot == LongIntMap.NO_VALUE) {
+        if (freeCount > 0) {
+          slot = free[--freeCount];
+        } else {
+          slot = slotCount++;
+          if (slot == states.length) {
+            ids = Arrays.copyOf(ids, slot * 2);
+            states = Arrays.copyOf(states, slot * 2);
+          }
+        }
+        ids[slot] = session;
+        states[slot] = state;
+        slots.put(session, slot);
+      } else {
+        states[slot] = state;
+      }
+    }
+
+    void remove(long session) {
+      int slot = slots.remove(session);
+      states[slot] = null;
+      if (freeCount == free.length) {
+        free = Arrays.copyOf(free, freeCount * 2);
+      }
+      free[freeCount++] = slot;
+    }
+
+    /**
+     * Adds the current calculators of the sessions of this stripe to calculators, and their
+     * ids to into at the same indexes.
+     *
+     * @return into, or a larger copy if it was too small
+     */
+    long[] collect(long[] into, List<Calculator> calculators) {
+      for (int slot = 0; slot < slotCount; slot++) {
+        AtomicReference<Calculator> state = states[slot];
+        if (state != null) {
+          if (calculators.size() == into.length) {
+            into = Arrays.copyOf(into, Math.max(16, into.length * 2));
+          }
+          into[calculators.size()] = ids[slot];
+          calculators.add(state.get());
+        }
+      }
+      return into;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+package calculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SessionReplay replays a file of keystroke sessions, one session per line, and writes one
+ * result line per session. The input file is memory-mapped window by window and its ASCII
+ * bytes are fed straight into a reused PackedCalculator, so no String is created per
+ * session or per keystroke.
+ * A session that is accepted produces its final display. A session with a rejected keystroke
+ * produces "ERROR" followed by the index of that keystroke in the session and the name of
+ * its InputError, as in "ERROR 3 DOUBLE_OPERATOR".
+ */
+public final class SessionReplay {
+
+  /**
+   * The default size of the part of the input file that is mapped at a time.
+   */
+  public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  static final String ERROR = "ERROR ";
+
+  private final boolean smart;
+  private final int windowSize;
+
+  /**
+   * Creates a SessionReplay that maps the input file with the default window size.
+   *
+   * @param smart true to replay with the SmartCalculator rules, false for SimpleCalculator
+   */
+  public SessionReplay(boolean smart) {
+    this(smart, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Creates a SessionReplay that maps the input file windowSize bytes at a time. Windows are
+   * enlarged when a single session does not fit in one.
+   *
+   * @param smart true to replay with the SmartCalculator rules, false for SimpleCalculator
+   * @param windowSize the number of bytes mapped at a time
+   * @throws IllegalArgumentException if windowSize is not positive
+   */
+  public SessionReplay(boolean smart, int windowSize) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("Window size must be positive");
+    }
+    this.smart = smart;
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * Replays every session of the sessions file and writes the results, one line per session
+   * in the same order, to the results file.
+   *
+   * @param sessions the file of newline separated keystroke sessions
+   * @param results the file the results are written to, replaced if it exists
+   * @return the number of sessions replayed
+   * @throws IOException if a file cannot be read or written
+   */
+  public long replay(Path sessions, Path results) throws IOException {
+    try (FileChannel in = FileChannel.open(sessions, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(results, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      PackedCalculator engine = new PackedCalculator(smart);
+      ResultBuffer buffer = new ResultBuffer(64 * 1024);
+      return replayWindows(in, windowSize, (window, end) -> {
+        long count = replay(window, 0, end, engine, buffer);
+        buffer.writeTo(out);
+        buffer.clear();
+        return count;
+      });
+    }
+  }
+
+  /**
+   * Maps the sessions file window by window and hands every window, cut after its last
+   * complete line, to the given replay. A window without a complete line is mapped again at
+   * twice the size.
+   *
+   * @return the total number of sessions the windows held
+   */
+  static long replayWindows(FileChannel in, int windowSize, WindowReplay replay)
+          throws IOException {
+    long count = 0;
+    long size = in.size();
+    long position = 0;
+    int window = windowSize;
+    while (position < size) {
+      int length = (int) Math.min(window, size - position);
+      MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+      int end = length;
+      if (position + length < size) {
+        end = lastLineEnd(mapped, length);
+        if (end == 0) {
+          if (window == Integer.MAX_VALUE) {
+            throw new IOException("Session at byte " + position + " is too long");
+          }
+          window = (int) Math.min(2L * window, Integer.MAX_VALUE);
+          continue;
+        }
+      }
+      count += replay.replay(mapped, end);
+      position += end;
+      window = windowSize;
+    }
+    return count;
+  }
+
+  /**
+   * Replays the sessions held in sessions[from, to) and writes their result lines.
+   * A session ends at a newline or at the end of the range, and a trailing carriage return
+   * is ignored. A newline ending the range does not start another session.
+   *
+   * @return the number of sessions replayed
+   */
+  static long replay(ByteBuffer sessions, int from, int to, PackedCalculator engine,
+                     ResultBuffer results) {
+    long count = 0;
+    int start = from;
+    while (start < to) {
+      int end = start;
+      while (end < to && sessions.get(end) != '\n') {
+        end++;
+      }
+      int next = end + 1;
+      if (end > start && sessions.get(end - 1) == '\r') {
+        end--;
+      }
+      replaySession(sessions, start, end, engine, results);
+      count++;
+      start = next;
+    }
+    return count;
+  }
+
+  private static void replaySession(ByteBuffer sessions, int start, int end,
+                                    PackedCalculator engine, ResultBuffer results) {
+    engine.reset();
+    for (int i = start; i < end; i++) {
+      InputError error = engine.apply((char) (sessions.get(i) & 0xFF));
+      if (error != null) {
+        results.write(ERROR);
+        results.writeNumber(i - start);
+        results.write(' ');
+        results.write(error.name());
+        results.write('\n');
+        return;
+      }
+    }
+    results.writeDisplay(engine);
+    results.write('\n');
+  }
+
+  private static int lastLineEnd(ByteBuffer buffer, int length) {
+    for (int i = length - 1; i >= 0; i--) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Replays a sessions file from the command line.
+   * Usage: SessionReplay simple|smart sessions-file results-file
+   *
+   * @param args the calculator type, the sessions file and the results file
+   * @throws IOException if a file cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3 || !(args[0].equals("simple") || args[0].equals("smart"))) {
+      System.err.println("Usage: SessionReplay simple|smart sessions-file results-file");
+      System.exit(2);
+    }
+    long count = new SessionReplay(args[0].equals("smart"))
+            .replay(Paths.get(args[1]), Paths.get(args[2]));
+    System.out.println(count + " sessions replayed");
+  }
+
+  /**
+   * WindowReplay replays the sessions of one mapped window of a sessions file.
+   */
+  interface WindowReplay {
+
+    /**
+     * Replays the sessions held in window[0, end).
+     *
+     * @return the number of sessions replayed
+     */
+    long replay(MappedByteBuffer window, int end) throws IOException;
+  }
+}
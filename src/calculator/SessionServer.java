@@ -0,0 +1,284 @@
+package calculator;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SessionServer serves calculators over TCP, keeping one SimpleCalculator or SmartCalculator
+ * session per connection.
+ * Every byte a client sends is a keystroke of its session, except '?', which asks for the
+ * current display, and carriage returns, newlines and spaces, which are ignored. The server
+ * answers each '=' and each '?' with a line holding the display, and each rejected keystroke
+ * with a line holding "ERROR" and the name of its InputError, such as "ERROR BAD_START". A
+ * rejected keystroke leaves the session in the state it was in before.
+ * Each connection is served by its own thread. When the runtime has virtual threads they are
+ * used, so an idle session only costs its socket, a small read buffer and its calculator;
+ * otherwise platform threads with a small stack are used.
+ * A failed accept, such as running out of file descriptors, is logged and retried after a
+ * pause that doubles up to a second while the failures go on; only close() stops accepting.
+ */
+public final class SessionServer implements AutoCloseable {
+
+  /**
+   * The default number of sessions served at the same time.
+   */
+  public static final int DEFAULT_MAX_SESSIONS = 100_000;
+
+  static final String ERROR = "ERROR ";
+
+  private static final int BACKLOG = 4096;
+  private static final int READ_BUFFER_SIZE = 64;
+  private static final long PLATFORM_STACK_SIZE = 256 * 1024;
+  private static final long MIN_ACCEPT_PAUSE_MILLIS = 10;
+  private static final long MAX_ACCEPT_PAUSE_MILLIS = 1000;
+  private static final Logger LOGGER = Logger.getLogger(SessionServer.class.getName());
+
+  private final boolean smart;
+  private final int maxSessions;
+  private final ServerSocketChannel server;
+  private final ThreadFactory sessionThreads;
+  private final boolean virtualThreads;
+  private final Set<SocketChannel> sessions = ConcurrentHashMap.newKeySet();
+  private final Thread acceptor;
+  private volatile boolean closed;
+
+  /**
+   * Creates a SessionServer listening on the loopback address and starts accepting
+   * connections.
+   *
+   * @param smart true to serve SmartCalculator sessions, false for SimpleCalculator
+   * @param port the port to listen on, 0 for any free port
+   * @throws IOException if the port cannot be bound
+   */
+  public SessionServer(boolean smart, int port) throws IOException {
+    this(smart, InetAddress.getLoopbackAddress(), port, DEFAULT_MAX_SESSIONS);
+  }
+
+  /**
+   * Creates a SessionServer listening on the given address and starts accepting connections.
+   * Connections arriving while maxSessions sessions are open are closed straight away.
+   *
+   * @param smart true to serve SmartCalculator sessions, false for SimpleCalculator
+   * @param address the address to listen on
+   * @param port the port to listen on, 0 for any free port
+   * @param maxSessions the number of sessions served at the same time
+   * @throws IOException if the port cannot be bound
+   * @throws IllegalArgumentException if maxSessions is not positive
+   */
+  public SessionServer(boolean smart, InetAddress address, int port, int maxSessions)
+          throws IOException {
+    if (maxSessions <= 0) {
+      throw new IllegalArgumentException("Maximum sessions must be positive");
+    }
+    this.smart = smart;
+    this.maxSessions = maxSessions;
+    ThreadFactory virtual = virtualThreadFactory();
+    this.virtualThreads = virtual != null;
+    this.sessionThreads = virtual != null ? virtual : SessionServer::platformThread;
+    this.server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(address, port), BACKLOG);
+    this.acceptor = new Thread(this::acceptSessions, "calculator-session-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Returns the port this server listens on.
+   *
+   * @return the local port
+   * @throws IOException if the port cannot be read
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) server.getLocalAddress()).getPort();
+  }
+
+  /**
+   * Returns the number of sessions currently open.
+   *
+   * @return the number of connected clients
+   */
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * Returns whether sessions are served by virtual threads.
+   *
+   * @return true for virtual threads, false for platform threads
+   */
+  public boolean usesVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Stops accepting connections and closes every open session. The acceptor is stopped
+   * first, so a connection it was accepting cannot be added after the sessions are closed.
+   *
+   * @throws IOException if the listening socket cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    server.close();
+    acceptor.interrupt();
+    boolean interrupted = false;
+    while (acceptor.isAlive()) {
+      try {
+        acceptor.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    for (SocketChannel session : sessions) {
+      try {
+        session.close();
+      } catch (IOException e) {
+        // the session thread ends either way
+      }
+    }
+  }
+
+  private void acceptSessions() {
+    long pause = 0;
+    while (!closed) {
+      SocketChannel channel;
+      try {
+        channel = server.accept();
+      } catch (IOException e) {
+        if (closed || !server.isOpen()) {
+          return;
+        }
+        pause = pauseAfterAcceptFailure(LOGGER, e, pause);
+        continue;
+      }
+      pause = 0;
+      if (sessions.size() >= maxSessions || closed) {
+        closeQuietly(channel);
+        continue;
+      }
+      sessions.add(channel);
+      sessionThreads.newThread(() -> serve(channel)).start();
+    }
+  }
+
+  /**
+   * Logs a failed accept and waits before the next one, twice as long as after the previous
+   * failure in a row, between 10 milliseconds and a second.
+   *
+   * @param logger the logger of the server
+   * @param failure why accepting failed
+   * @param previousPause the previous pause in milliseconds, 0 after a successful accept
+   * @return the pause taken, to pass to the next call
+   */
+  static long pauseAfterAcceptFailure(Logger logger, IOException failure, long previousPause) {
+    long pause = Math.min(MAX_ACCEPT_PAUSE_MILLIS,
+            Math.max(MIN_ACCEPT_PAUSE_MILLIS, previousPause * 2));
+    logger.log(Level.WARNING, "Accepting a connection failed, retrying in " + pause + " ms",
+            failure);
+    try {
+      Thread.sleep(pause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return pause;
+  }
+
+  private void serve(SocketChannel channel) {
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      ByteBuffer keys = ByteBuffer.allocate(READ_BUFFER_SIZE);
+      ResultBuffer replies = new ResultBuffer(READ_BUFFER_SIZE);
+      Calculator calculator = smart ? new SmartCalculator() : new SimpleCalculator();
+      while (channel.read(keys) != -1) {
+        for (int i = 0; i < keys.position(); i++) {
+          calculator = process(calculator, (char) (keys.get(i) & 0xFF), replies);
+        }
+        keys.clear();
+        if (replies.size() > 0) {
+          replies.writeTo(channel);
+          replies.clear();
+        }
+      }
+    } catch (IOException e) {
+      // the client went away or the server was closed, which ends the session
+    } finally {
+      sessions.remove(channel);
+      closeQuietly(channel);
+    }
+  }
+
+  /**
+   * Applies one byte of the protocol to a session and writes the reply it needs, if any.
+   *
+   * @return the calculator of the session after the byte
+   */
+  static Calculator process(Calculator calculator, char key, ResultBuffer replies) {
+    switch (key) {
+      case '\r':
+      case '\n':
+      case ' ':
+        return calculator;
+      case '?':
+        replies.write(calculator.getResult());
+        replies.write('\n');
+        return calculator;
+      default:
+        InputResult next = calculator.tryInput(key);
+        if (next.isError()) {
+          replies.write(ERROR);
+          replies.write(next.getError().name());
+          replies.write('\n');
+          return calculator;
+        }
+        if (key == '=') {
+          replies.write(next.getCalculator().getResult());
+          replies.write('\n');
+        }
+        return next.getCalculator();
+    }
+  }
+
+  private static void closeQuietly(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // nothing is left to release
+    }
+  }
+
+  private static Thread platformThread(Runnable session) {
+    Thread thread = new Thread(null, session, "calculator-session", PLATFORM_STACK_SIZE);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /**
+   * Returns Thread.ofVirtual().factory() when the runtime has virtual threads, looked up
+   * reflectively so this class still compiles and runs on older runtimes.
+   *
+   * @return the virtual thread factory, or null if there are no virtual threads
+   */
+  static ThreadFactory virtualThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+      return (ThreadFactory) factory.invoke(builder);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package calculator;
 
+import java.nio.CharBuffer;
+
 /**
  * A simple calculator for whole numbers, supporting addition, subtraction, and multiplication.
  * Processes input character by character, returning new instances to maintain immutability and
@@ -8,124 +10,199 @@ package calculator;
  */
 public class SimpleCalculator extends AbstractCalculator<SimpleCalculator> implements Calculator {
 
+  private final WideInteger wideResult;
+
   /**
    * Initializes a new SimpleCalculator with default values supered from its parent class.
    * The calculator is set to an initial state with zeroed operands,
    * no current operation, and an empty display.
    */
   public SimpleCalculator() {
-    super();
+    this(CalculatorFactory.INT);
+  }
+
+  // the empty calculator of a factory
+  SimpleCalculator(CalculatorFactory factory) {
+    super(factory);
+    this.wideResult = null;
   }
 
-  private SimpleCalculator(long currentOperand, char currentOperation, long result,
-                           StringBuilder display, int maxValue, boolean lastInputWasEqual,
+  private SimpleCalculator(CalculatorFactory factory, long currentOperand,
+                           char currentOperation, long result, WideInteger wideResult,
+                           Display display, int maxValue, boolean lastInputWasEqual,
                            boolean lastInputWasOperator) {
-    super(currentOperand, currentOperation, result, display, maxValue,
+    super(factory, currentOperand, currentOperation, result, display, maxValue,
             lastInputWasEqual, lastInputWasOperator);
+    this.wideResult = wideResult;
   }
 
   @Override
   protected SimpleCalculator createCalculator(long currentOperand, char currentOperation,
-                                              long result, StringBuilder display, int maxValue,
+                                              long result, WideInteger wideResult,
+                                              Display display, int maxValue,
                                               boolean lastInputWasEqual,
                                               boolean lastInputWasOperator) {
-    return new SimpleCalculator(currentOperand, currentOperation, result, display,
-            maxValue, lastInputWasEqual, lastInputWasOperator);
+    return new SimpleCalculator(factory, currentOperand, currentOperation, result, wideResult,
+            display, maxValue, lastInputWasEqual, lastInputWasOperator);
   }
 
   @Override
   public SimpleCalculator input(char input) {
+    return nextCalculator(input);
+  }
+
+  @Override
+  protected InputResult transition(char input) {
     if (input == 'C') {
       return clear();
     }
 
     if (input == '0' && display.length() == 0 && lastInputWasOperator) {
-      return new SimpleCalculator(0, currentOperation, result, display, maxValue,
-              lastInputWasEqual, false);
+      return new SimpleCalculator(factory, 0, currentOperation, result, wideResult, display,
+              maxValue, lastInputWasEqual, false);
     }
 
     if (display.length() == 0 && (input == '*' || input == '-')) {
-      throw new IllegalArgumentException("Operation cannot start with this operator");
+      return InputError.BAD_START;
     }
 
     if (input == '=' && currentOperation == '\0' && !lastInputWasEqual) {
-      if (display.length() > 0) {
-        display.setLength(0);
-        display.append(result);
-      } else if (display.length() == 0) {
-        throw new IllegalArgumentException("Operation cannot start with =");
+      if (display.length() == 0) {
+        return InputError.BAD_START;
       }
-      return new SimpleCalculator(currentOperand, currentOperation, result, display, maxValue,
-              true, lastInputWasOperator);
+      return new SimpleCalculator(factory, currentOperand, currentOperation, result,
+              wideResult, resultDisplay(result, wideResult), maxValue, true,
+              lastInputWasOperator);
     }
 
     if (Character.isDigit(input)) {
-      if (lastInputWasEqual) {
-        return new SimpleCalculator().input(input);
+      if (lastInputWasEqual || isInitialState()) {
+        return startWithDigit(input);
       }
-      SimpleCalculator newCalc = isValidDigit(input);
-      return new SimpleCalculator(newCalc.currentOperand,
-              newCalc.currentOperation, newCalc.result, newCalc.display, newCalc.maxValue,
-              false, false);
+      return isValidDigit(input);
     } else {
       switch (input) {
         case '+':
         case '-':
         case '*':
           if (lastInputWasOperator) {
-            throw new IllegalArgumentException("Cannot input two operators in a row");
+            return InputError.DOUBLE_OPERATOR;
           }
           if (currentOperation != '\0') {
             SimpleCalculator newCalc = performCalculation();
-            return new SimpleCalculator(newCalc.currentOperand,
-                    newCalc.currentOperation, newCalc.result, newCalc.display, newCalc.maxValue,
-                    lastInputWasEqual, false)
+            return new SimpleCalculator(factory, newCalc.currentOperand,
+                    newCalc.currentOperation, newCalc.result, newCalc.wideResult,
+                    newCalc.display, newCalc.maxValue, lastInputWasEqual, false)
                     .prepareOperation(input);
           }
           return prepareOperation(input);
         case '=':
           if (lastInputWasOperator) {
-            throw new IllegalArgumentException("Incomplete Operation");
+            return InputError.INCOMPLETE;
           }
           if (!lastInputWasEqual) {
             SimpleCalculator newCalc = performCalculation();
-            return new SimpleCalculator(newCalc.currentOperand,
-                    newCalc.currentOperation, newCalc.result,
+            return new SimpleCalculator(factory, newCalc.currentOperand,
+                    newCalc.currentOperation, newCalc.result, newCalc.wideResult,
                     newCalc.display, newCalc.maxValue,
                     true, false);
           }
-          return new SimpleCalculator(currentOperand, currentOperation, result, display, maxValue,
-                  true, false);
+          return new SimpleCalculator(factory, currentOperand, currentOperation, result,
+                  wideResult, display, maxValue, true, false);
         default:
-          throw new IllegalArgumentException("Invalid input: " + input);
+          return InputError.INVALID_CHAR;
       }
     }
   }
 
-  private SimpleCalculator performCalculation() {
-    long tempResult;
-    switch (currentOperation) {
-      case '+':
-        tempResult = result + currentOperand;
-        break;
-      case '-':
-        tempResult = result - currentOperand;
-        break;
-      case '*':
-        tempResult = result * currentOperand;
-        break;
-      default:
-        tempResult = result;
+  @Override
+  public SimpleCalculator inputAll(CharSequence keys) {
+    if (isExact()) {
+      return inputEach(keys, 0);
     }
+    return fromPackedCalculator(replay(keys, false, 0));
+  }
 
-    if (tempResult > maxValue || tempResult < Integer.MIN_VALUE) {
-      tempResult = 0;
+  @Override
+  public SimpleCalculator inputAll(char[] keys, int offset, int length) {
+    if (isExact()) {
+      return inputEach(CharBuffer.wrap(keys, offset, length), offset);
     }
+    return fromPackedCalculator(replay(keys, offset, length, false, 0));
+  }
+
+  @Override
+  public InputResult tryInputAll(CharSequence keys) {
+    if (isExact()) {
+      return tryInputEach(keys);
+    }
+    InputResult engine = tryReplay(keys, false, 0);
+    if (engine.isError()) {
+      return engine;
+    }
+    return fromPackedCalculator((PackedCalculator) engine);
+  }
+
+  /**
+   * Returns a SimpleCalculator of the given factory in the state held by the given engine.
+   */
+  static SimpleCalculator fromEngine(CalculatorFactory factory, PackedCalculator engine) {
+    return factory.simpleEmpty.fromPackedCalculator(engine);
+  }
+
+  /**
+   * Returns a SimpleCalculator of the given factory in the given state, or the shared empty
+   * calculator of the factory if it is the initial state.
+   */
+  static SimpleCalculator restore(CalculatorFactory factory, long currentOperand,
+                                  char currentOperation, long result, Display display,
+                                  boolean lastInputWasEqual, boolean lastInputWasOperator) {
+    SimpleCalculator restored = new SimpleCalculator(factory, currentOperand, currentOperation,
+            result, null, display, Integer.MAX_VALUE, lastInputWasEqual, lastInputWasOperator);
+    return restored.isInitialState() ? factory.simpleEmpty : restored;
+  }
+
+  private SimpleCalculator fromPackedCalculator(PackedCalculator engine) {
+    return new SimpleCalculator(factory, engine.currentOperand(), engine.currentOperation(),
+            engine.result(), null, engine.display(), maxValue, engine.lastInputWasEqual(),
+            engine.lastInputWasOperator());
+  }
+
+  @Override
+  protected WideInteger wideResult() {
+    return wideResult;
+  }
+
+  @Override
+  protected SimpleCalculator emptyCalculator() {
+    return factory.simpleEmpty;
+  }
+
+  static SimpleCalculator[] digitCalculators(CalculatorFactory factory) {
+    SimpleCalculator[] digits = new SimpleCalculator[10];
+    for (int digit = 0; digit < digits.length; digit++) {
+      digits[digit] = new SimpleCalculator(factory, 0, '\0', digit, null, Display.of(digit),
+              Integer.MAX_VALUE, false, false);
+    }
+    return digits;
+  }
+
+  // the state after a single digit on an empty calculator, shared for the ASCII digits
+  private InputResult startWithDigit(char digit) {
+    if (digit >= '0' && digit <= '9') {
+      return factory.simpleDigits[digit - '0'];
+    }
+    return emptyCalculator().isValidDigit(digit);
+  }
+
+  private SimpleCalculator performCalculation() {
+    long tempResult = calculate(currentOperation, result, currentOperand);
+    WideInteger wideTempResult =
+            calculateWide(currentOperation, result, wideResult, currentOperand, null);
 
-    StringBuilder newDisplay = new StringBuilder();
-    newDisplay.append(tempResult);
+    Display newDisplay = resultDisplay(tempResult, wideTempResult);
 
-    return new SimpleCalculator(0, '\0',
-            tempResult, newDisplay, maxValue, false, false);
+    return new SimpleCalculator(factory, 0, '\0',
+            tempResult, wideTempResult, newDisplay, maxValue, false, false);
   }
 }
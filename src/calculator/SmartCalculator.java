@@ -1,5 +1,7 @@
 package calculator;
 
+import java.nio.CharBuffer;
+
 /**
  * A simple calculator for whole numbers, supporting addition, subtraction, and multiplication.
  * Processes input character by character, returning new instances to maintain immutability and
@@ -9,6 +11,8 @@ package calculator;
 public class SmartCalculator extends AbstractCalculator<SmartCalculator> implements Calculator {
 
   private final long lastOperand;
+  // the result and last operand beyond the long range, null while both fit in a long
+  private final WideOperands wide;
 
   /**
    * Initializes a new SmartCalculator with default values called from parent class.
@@ -16,121 +20,284 @@ public class SmartCalculator extends AbstractCalculator<SmartCalculator> impleme
    * no current operation, and an empty display.
    */
   public SmartCalculator() {
-    super();
+    this(CalculatorFactory.INT);
+  }
+
+  // the empty calculator of a factory
+  SmartCalculator(CalculatorFactory factory) {
+    super(factory);
     this.lastOperand = 0;
+    this.wide = null;
   }
 
   // making a private SmartCalculator with the necessary default statuses
   // ensures immutability, allowing methods to call this constructor instead
-  private SmartCalculator(long currentOperand, char currentOperation, long result,
-                          StringBuilder display, int maxValue, boolean lastInputWasEqual,
-                          boolean lastInputWasOperator, long lastOperand) {
-    super(currentOperand, currentOperation, result, display, maxValue, lastInputWasEqual,
-            lastInputWasOperator);
+  private SmartCalculator(CalculatorFactory factory, long currentOperand, char currentOperation,
+                          long result, WideInteger wideResult, Display display, int maxValue,
+                          boolean lastInputWasEqual, boolean lastInputWasOperator,
+                          long lastOperand, WideInteger wideLastOperand) {
+    super(factory, currentOperand, currentOperation, result, display, maxValue,
+            lastInputWasEqual, lastInputWasOperator);
     this.lastOperand = lastOperand;
+    this.wide = wideResult == null && wideLastOperand == null ? null
+            : new WideOperands(wideResult, wideLastOperand);
   }
 
   @Override
   protected SmartCalculator createCalculator(long currentOperand, char currentOperation,
-                                             long result, StringBuilder display, int maxValue,
+                                             long result, WideInteger wideResult,
+                                             Display display, int maxValue,
                                              boolean lastInputWasEqual,
                                              boolean lastInputWasOperator) {
-    return new SmartCalculator(currentOperand, currentOperation, result, display, maxValue,
-            lastInputWasEqual, lastInputWasOperator, lastOperand);
+    return new SmartCalculator(factory, currentOperand, currentOperation, result, wideResult,
+            display, maxValue, lastInputWasEqual, lastInputWasOperator, lastOperand,
+            wideLastOperand());
   }
 
   @Override
   public SmartCalculator input(char input) {
+    return nextCalculator(input);
+  }
+
+  @Override
+  protected InputResult transition(char input) {
     if (input == 'C') {
       return clear();
     }
 
     if (input == '0' && display.length() == 0 && lastInputWasOperator) {
-      return new SmartCalculator(0, currentOperation, result, display, maxValue,
-              lastInputWasEqual, false, lastOperand);
+      return new SmartCalculator(factory, 0, currentOperation, result, wideResult(), display,
+              maxValue, lastInputWasEqual, false, lastOperand, wideLastOperand());
     }
 
     if (input == '=') {
-      if (display.length() == 0 && result == 0) {
-        throw new IllegalArgumentException("Operation cannot start with =");
+      if (display.length() == 0 && result == 0 && wideResult() == null) {
+        return InputError.BAD_START;
       }
       SmartCalculator newCalc = performCalculation();
-      return new SmartCalculator(newCalc.currentOperand, newCalc.currentOperation, newCalc.result,
-              newCalc.display, newCalc.maxValue, true, false,
-              newCalc.lastOperand);
+      return new SmartCalculator(factory, newCalc.currentOperand, newCalc.currentOperation,
+              newCalc.result, newCalc.wideResult(), newCalc.display, newCalc.maxValue, true,
+              false, newCalc.lastOperand, newCalc.wideLastOperand());
     }
 
     if (display.length() == 0 && (input == '*' || input == '-')) {
-      throw new IllegalArgumentException("Operation cannot start with the operator");
+      return InputError.BAD_START;
     }
 
     if (Character.isDigit(input)) {
-      if (lastInputWasEqual) {
-        return new SmartCalculator().input(input);
+      if (lastInputWasEqual || isInitialState()) {
+        return startWithDigit(input);
       }
-      SmartCalculator newCalc = isValidDigit(input);
-      return new SmartCalculator(newCalc.currentOperand, newCalc.currentOperation, newCalc.result,
-              newCalc.display, newCalc.maxValue, false, false, newCalc.lastOperand);
+      return isValidDigit(input);
     } else {
       switch (input) {
         case '+':
         case '-':
         case '*':
           if (lastInputWasEqual) {
-            return new SmartCalculator(0, input, result,
-                    new StringBuilder(String.valueOf(result)).append(input), maxValue,
-                    false, true, result);
+            return new SmartCalculator(factory, 0, input, result, wideResult(),
+                    resultDisplay(result, wideResult()).append(input), maxValue,
+                    false, true, result, wideResult());
           }
           if (display.length() == 0) {
-            return new SmartCalculator(currentOperand, currentOperation, result, display, maxValue,
-                    false, false, lastOperand);
+            return new SmartCalculator(factory, currentOperand, currentOperation, result,
+                    wideResult(), display, maxValue, false, false, lastOperand, wideLastOperand());
           }
           if (lastInputWasOperator) {
-            display.setLength(display.length() - 1);
-            display.append(input);
-            return new SmartCalculator(currentOperand, input, result, display, maxValue,
-                    lastInputWasEqual, true, lastOperand);
+            return new SmartCalculator(factory, currentOperand, input, result, wideResult(),
+                    display.dropLast().append(input), maxValue, lastInputWasEqual, true,
+                    lastOperand, wideLastOperand());
           }
           if (currentOperation != '\0') {
             SmartCalculator newCalc = performCalculation();
-            return new SmartCalculator(newCalc.currentOperand, input, newCalc.result,
-                    newCalc.display, newCalc.maxValue, lastInputWasEqual, true,
-                    newCalc.currentOperand);
+            return new SmartCalculator(factory, newCalc.currentOperand, input, newCalc.result,
+                    newCalc.wideResult(), newCalc.display, newCalc.maxValue, lastInputWasEqual,
+                    true, newCalc.currentOperand, null);
           }
           return prepareOperation(input);
         default:
-          throw new IllegalArgumentException("Invalid input: " + input);
+          return InputError.INVALID_CHAR;
       }
     }
   }
 
+  /**
+   * Returns the calculator after '=' is pressed the given number of times, the same as calling
+   * input('=') that many times. Every '=' after the first repeats the last operation with the
+   * last operand, so those presses are applied at once with ArithmeticKernel.repeat(): a result
+   * that leaves the range of the kernel is reset to 0 at the press where it would have been.
+   * With ArithmeticKernel.EXACT the presses are applied exactly in closed form instead.
+   *
+   * @param times the number of presses of '=', 0 or more
+   * @return the calculator after the last press, this calculator for 0 presses
+   * @throws IllegalArgumentException if times is negative, if '=' is rejected in this state, or
+   *                                  if an exact product would be longer than 1 << 20 bits
+   */
+  public SmartCalculator inputEquals(long times) {
+    if (times < 0) {
+      throw new IllegalArgumentException("Cannot press '=' " + times + " times");
+    }
+    if (times == 0) {
+      return this;
+    }
+    SmartCalculator calculator = this;
+    if (!lastInputWasEqual || lastInputWasOperator || display.length() == 0) {
+      calculator = input('=');
+      times--;
+    }
+    return calculator.repeatEquals(times);
+  }
+
+  // the presses of '=' that follow another '=', which all use the last operand
+  private SmartCalculator repeatEquals(long times) {
+    if (times == 0) {
+      return this;
+    }
+    long newResult;
+    WideInteger wideNewResult = null;
+    if (isExact()) {
+      WideInteger exact = WideInteger.repeat(currentOperation,
+              WideInteger.valueOf(result, wideResult()),
+              WideInteger.valueOf(lastOperand, wideLastOperand()), times);
+      newResult = exact.longValue();
+      wideNewResult = exact.fitsLong() ? null : exact;
+    } else {
+      newResult = factory.kernel.repeat(currentOperation, result, lastOperand, times);
+    }
+    return new SmartCalculator(factory, 0, currentOperation, newResult, wideNewResult,
+            resultDisplay(newResult, wideNewResult), maxValue, true, false, lastOperand,
+            wideLastOperand());
+  }
+
+  @Override
+  public SmartCalculator inputAll(CharSequence keys) {
+    if (isExact()) {
+      return inputEach(keys, 0);
+    }
+    return fromPackedCalculator(replay(keys, true, lastOperand));
+  }
+
+  @Override
+  public SmartCalculator inputAll(char[] keys, int offset, int length) {
+    if (isExact()) {
+      return inputEach(CharBuffer.wrap(keys, offset, length), offset);
+    }
+    return fromPackedCalculator(replay(keys, offset, length, true, lastOperand));
+  }
+
+  @Override
+  public InputResult tryInputAll(CharSequence keys) {
+    if (isExact()) {
+      return tryInputEach(keys);
+    }
+    InputResult engine = tryReplay(keys, true, lastOperand);
+    if (engine.isError()) {
+      return engine;
+    }
+    return fromPackedCalculator((PackedCalculator) engine);
+  }
+
+  /**
+   * Returns a SmartCalculator of the given factory in the state held by the given engine.
+   */
+  static SmartCalculator fromEngine(CalculatorFactory factory, PackedCalculator engine) {
+    return factory.smartEmpty.fromPackedCalculator(engine);
+  }
+
+  /**
+   * Returns a SmartCalculator of the given factory in the given state, or the shared empty
+   * calculator of the factory if it is the initial state.
+   */
+  static SmartCalculator restore(CalculatorFactory factory, long currentOperand,
+                                 char currentOperation, long result, Display display,
+                                 boolean lastInputWasEqual, boolean lastInputWasOperator,
+                                 long lastOperand) {
+    SmartCalculator restored = new SmartCalculator(factory, currentOperand, currentOperation,
+            result, null, display, Integer.MAX_VALUE, lastInputWasEqual, lastInputWasOperator,
+            lastOperand, null);
+    return restored.isInitialState() ? factory.smartEmpty : restored;
+  }
+
+  private SmartCalculator fromPackedCalculator(PackedCalculator engine) {
+    return new SmartCalculator(factory, engine.currentOperand(), engine.currentOperation(),
+            engine.result(), null, engine.display(), maxValue, engine.lastInputWasEqual(),
+            engine.lastInputWasOperator(), engine.lastOperand(), null);
+  }
+
+  @Override
+  protected String rejectionMessage(InputError error, char input) {
+    return error.message(input, true, currentOperation != '\0');
+  }
+
+  @Override
+  protected long lastOperandState() {
+    return lastOperand;
+  }
+
+  @Override
+  protected WideInteger wideResult() {
+    return wide != null ? wide.result : null;
+  }
+
+  @Override
+  protected WideInteger wideLastOperandState() {
+    return wideLastOperand();
+  }
+
+  private WideInteger wideLastOperand() {
+    return wide != null ? wide.lastOperand : null;
+  }
+
+  @Override
+  protected SmartCalculator emptyCalculator() {
+    return factory.smartEmpty;
+  }
+
+  static SmartCalculator[] digitCalculators(CalculatorFactory factory) {
+    SmartCalculator[] digits = new SmartCalculator[10];
+    for (int digit = 0; digit < digits.length; digit++) {
+      digits[digit] = new SmartCalculator(factory, 0, '\0', digit, null, Display.of(digit),
+              Integer.MAX_VALUE, false, false, 0, null);
+    }
+    return digits;
+  }
+
+  // the state after a single digit on an empty calculator, shared for the ASCII digits
+  private InputResult startWithDigit(char digit) {
+    if (digit >= '0' && digit <= '9') {
+      return factory.smartDigits[digit - '0'];
+    }
+    return emptyCalculator().isValidDigit(digit);
+  }
+
   private SmartCalculator performCalculation() {
-    long tempResult;
     long operandToUse =
             lastInputWasOperator ? result : (lastInputWasEqual ? lastOperand : currentOperand);
+    WideInteger wideOperandToUse =
+            lastInputWasOperator ? wideResult() : (lastInputWasEqual ? wideLastOperand() : null);
 
-    switch (currentOperation) {
-      case '+':
-        tempResult = result + operandToUse;
-        break;
-      case '-':
-        tempResult = result - operandToUse;
-        break;
-      case '*':
-        tempResult = result * operandToUse;
-        break;
-      default:
-        tempResult = result;
-        break;
-    }
-    if (tempResult > maxValue || tempResult < Integer.MIN_VALUE) {
-      tempResult = 0;
-    }
-
-    StringBuilder newDisplay = new StringBuilder();
-    newDisplay.append(tempResult);
-
-    return new SmartCalculator(0, currentOperation, tempResult, newDisplay, maxValue,
-            true, false, operandToUse);
+    long tempResult = calculate(currentOperation, result, operandToUse);
+    WideInteger wideTempResult =
+            calculateWide(currentOperation, result, wideResult(), operandToUse, wideOperandToUse);
+
+    Display newDisplay = resultDisplay(tempResult, wideTempResult);
+
+    return new SmartCalculator(factory, 0, currentOperation, tempResult, wideTempResult,
+            newDisplay, maxValue, true, false, operandToUse, wideOperandToUse);
+  }
+
+  /**
+   * WideOperands holds the values the EXACT kernel has taken outside the long range, so that
+   * a calculator keeps a single reference for both.
+   */
+  private static final class WideOperands {
+
+    private final WideInteger result;
+    private final WideInteger lastOperand;
+
+    WideOperands(WideInteger result, WideInteger lastOperand) {
+      this.result = result;
+      this.lastOperand = lastOperand;
+    }
   }
 }
@@ -0,0 +1,479 @@
+package calculator;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * TableCalculator is a mutable engine with the same rules and state as PackedCalculator, but
+ * the control part of the rules is compiled once into a transition table.
+ * A keystroke is classified into a key class, the control state is the packed operation and
+ * input flags plus whether the display is empty, and one table lookup gives both the
+ * arithmetic action to run and the next control state. Only the actions touch the numbers
+ * and the display, through the ArithmeticKernel of the engine.
+ * Like PackedCalculator, input() updates this instance and returns it.
+ */
+public final class TableCalculator implements Calculator {
+
+  private static final int DISPLAY_EMPTY = 0x10;
+  private static final int CONTROL_STATES = 0x20;
+
+  private static final int KEY_CLEAR = 0;
+  private static final int KEY_ZERO = 1;
+  private static final int KEY_DIGIT = 2;
+  private static final int KEY_PLUS = 3;
+  private static final int KEY_MINUS = 4;
+  private static final int KEY_TIMES = 5;
+  private static final int KEY_EQUALS = 6;
+  private static final int KEY_INVALID = 7;
+  private static final int KEY_CLASSES = 8;
+
+  private static final int KEEP = 0;
+  private static final int CLEAR = 1;
+  private static final int ZERO_OPERAND = 2;
+  private static final int DIGIT = 3;
+  private static final int NEW_DIGIT = 4;
+  private static final int SHOW_RESULT = 5;
+  private static final int OPERATOR = 6;
+  private static final int SIMPLE_CALCULATE_OPERATOR = 7;
+  private static final int SIMPLE_EQUALS = 8;
+  private static final int SMART_EQUALS = 9;
+  private static final int SMART_EQUALS_ON_EMPTY = 10;
+  private static final int SMART_OPERATOR_AFTER_EQUALS = 11;
+  private static final int REPLACE_OPERATOR = 12;
+  private static final int SMART_CALCULATE_OPERATOR = 13;
+  private static final int ERROR_OPERATOR_START = 14;
+  private static final int ERROR_EQUALS_START = 15;
+  private static final int ERROR_DOUBLE_OPERATOR = 16;
+  private static final int ERROR_INCOMPLETE = 17;
+  private static final int ERROR_INVALID = 18;
+
+  private static final byte[] KEY_CLASS = new byte[128];
+  private static final int[] SIMPLE_TABLE = new int[CONTROL_STATES * KEY_CLASSES];
+  private static final int[] SMART_TABLE = new int[CONTROL_STATES * KEY_CLASSES];
+
+  static {
+    Arrays.fill(KEY_CLASS, (byte) KEY_INVALID);
+    for (char c = '1'; c <= '9'; c++) {
+      KEY_CLASS[c] = KEY_DIGIT;
+    }
+    KEY_CLASS['0'] = KEY_ZERO;
+    KEY_CLASS['C'] = KEY_CLEAR;
+    KEY_CLASS['+'] = KEY_PLUS;
+    KEY_CLASS['-'] = KEY_MINUS;
+    KEY_CLASS['*'] = KEY_TIMES;
+    KEY_CLASS['='] = KEY_EQUALS;
+    for (int state = 0; state < CONTROL_STATES; state++) {
+      for (int key = 0; key < KEY_CLASSES; key++) {
+        SIMPLE_TABLE[state * KEY_CLASSES + key] = simpleTransition(state, key);
+        SMART_TABLE[state * KEY_CLASSES + key] = smartTransition(state, key);
+      }
+    }
+  }
+
+  private final boolean smart;
+  private final int[] table;
+  private final ArithmeticKernel kernel;
+  private long currentOperand;
+  private long result;
+  private long lastOperand;
+  private int control;
+  private final DisplayBuffer display;
+
+  /**
+   * Initializes a new TableCalculator in the same empty state as a new SimpleCalculator or
+   * SmartCalculator.
+   *
+   * @param smart true to follow the SmartCalculator rules, false for the SimpleCalculator rules
+   */
+  public TableCalculator(boolean smart) {
+    this(smart, ArithmeticKernel.INT);
+  }
+
+  /**
+   * Initializes a new TableCalculator in the empty state that enters operands and computes
+   * results with the given kernel, like the calculators of a CalculatorFactory with that
+   * kernel.
+   *
+   * @param smart true to follow the SmartCalculator rules, false for the SimpleCalculator rules
+   * @param kernel the kernel of the engine
+   * @throws IllegalArgumentException if kernel is null or ArithmeticKernel.EXACT, whose
+   *                                  results the long fields of this engine cannot hold
+   */
+  public TableCalculator(boolean smart, ArithmeticKernel kernel) {
+    if (kernel == null) {
+      throw new IllegalArgumentException("The arithmetic kernel cannot be null");
+    }
+    if (kernel == ArithmeticKernel.EXACT) {
+      throw new IllegalArgumentException("Cannot hold the results of the kernel " + kernel);
+    }
+    this.smart = smart;
+    this.table = smart ? SMART_TABLE : SIMPLE_TABLE;
+    this.kernel = kernel;
+    this.display = new DisplayBuffer(32);
+  }
+
+  /**
+   * Returns the kernel this engine computes with.
+   *
+   * @return the kernel
+   */
+  public ArithmeticKernel getKernel() {
+    return kernel;
+  }
+
+  /**
+   * Returns whether this engine follows the SmartCalculator rules.
+   *
+   * @return true for SmartCalculator rules, false for SimpleCalculator rules
+   */
+  public boolean isSmart() {
+    return smart;
+  }
+
+  @Override
+  public TableCalculator input(char input) {
+    InputError error = apply(input);
+    if (error != null) {
+      throw new IllegalArgumentException(message(error, input));
+    }
+    return this;
+  }
+
+  /**
+   * Processes the input like input(), but returns the error instead of throwing it. This
+   * engine is the result when the input is accepted, and is left unchanged when it is not.
+   *
+   * @param input a single character that is entered in the calculator
+   * @return this engine, or the error if the input is rejected
+   */
+  @Override
+  public InputResult tryInput(char input) {
+    InputError error = apply(input);
+    return error != null ? error : this;
+  }
+
+  /**
+   * Processes every character of the given sequence in order. If a character is rejected,
+   * this engine is left in the state reached before that character.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return this engine
+   * @throws KeystrokeException if one of the characters is rejected
+   */
+  @Override
+  public TableCalculator inputAll(CharSequence keys) {
+    for (int i = 0; i < keys.length(); i++) {
+      char input = keys.charAt(i);
+      InputError error = apply(input);
+      if (error != null) {
+        throw new KeystrokeException(message(error, input), i, error);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Processes the characters keys[offset] to keys[offset + length - 1] in order. If a
+   * character is rejected, this engine is left in the state reached before that character.
+   *
+   * @param keys the array holding the characters entered in the calculator
+   * @param offset the index of the first character to process
+   * @param length the number of characters to process
+   * @return this engine
+   * @throws KeystrokeException if one of the characters is rejected
+   */
+  @Override
+  public TableCalculator inputAll(char[] keys, int offset, int length) {
+    Objects.checkFromIndexSize(offset, length, keys.length);
+    for (int i = offset; i < offset + length; i++) {
+      InputError error = apply(keys[i]);
+      if (error != null) {
+        throw new KeystrokeException(message(error, keys[i]), i, error);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Processes every character of the given sequence in order, stopping at the first one that
+   * is rejected. This engine is then left in the state reached before that character.
+   *
+   * @param keys the characters entered in the calculator, in order
+   * @return this engine, or the error and index of the rejected character
+   */
+  @Override
+  public InputResult tryInputAll(CharSequence keys) {
+    for (int i = 0; i < keys.length(); i++) {
+      InputError error = apply(keys.charAt(i));
+      if (error != null) {
+        return new RejectedKeystroke(error, i);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public String getResult() {
+    return display.toString();
+  }
+
+  /**
+   * Resets this engine to the empty state, the same state a new instance starts in.
+   * The display buffer is kept so it can be reused.
+   */
+  public void reset() {
+    currentOperand = 0;
+    result = 0;
+    lastOperand = 0;
+    control = 0;
+    display.clear();
+  }
+
+  private InputError apply(char input) {
+    int state = control | (display.isEmpty() ? DISPLAY_EMPTY : 0);
+    int transition = table[state * KEY_CLASSES + keyClass(input)];
+    InputError error = perform(transition & 0xFF, input);
+    if (error == null) {
+      control = transition >>> 8;
+    }
+    return error;
+  }
+
+  String message(InputError error, char input) {
+    return error.message(input, smart, (control & PackedCalculator.OPERATION_MASK) != 0);
+  }
+
+  private static int keyClass(char input) {
+    if (input < KEY_CLASS.length) {
+      return KEY_CLASS[input];
+    }
+    return Character.isDigit(input) ? KEY_DIGIT : KEY_INVALID;
+  }
+
+  private static int transition(int action, int nextControl) {
+    return action | nextControl << 8;
+  }
+
+  private static int operatorControl(int key) {
+    return (key - KEY_PLUS + 1) | PackedCalculator.LAST_INPUT_WAS_OPERATOR;
+  }
+
+  /**
+   * The control part of SimpleCalculator.input(), evaluated once per table entry.
+   */
+  private static int simpleTransition(int state, int key) {
+    int operation = state & PackedCalculator.OPERATION_MASK;
+    boolean wasEqual = (state & PackedCalculator.LAST_INPUT_WAS_EQUAL) != 0;
+    boolean wasOperator = (state & PackedCalculator.LAST_INPUT_WAS_OPERATOR) != 0;
+    boolean empty = (state & DISPLAY_EMPTY) != 0;
+    int control = state & ~DISPLAY_EMPTY;
+
+    if (key == KEY_CLEAR) {
+      return transition(CLEAR, 0);
+    }
+    if (key == KEY_ZERO && empty && wasOperator) {
+      return transition(ZERO_OPERAND, control & ~PackedCalculator.LAST_INPUT_WAS_OPERATOR);
+    }
+    if (empty && (key == KEY_TIMES || key == KEY_MINUS)) {
+      return transition(ERROR_OPERATOR_START, control);
+    }
+    if (key == KEY_EQUALS && operation == 0 && !wasEqual) {
+      if (empty) {
+        return transition(ERROR_EQUALS_START, control);
+      }
+      return transition(SHOW_RESULT, control | PackedCalculator.LAST_INPUT_WAS_EQUAL);
+    }
+    switch (key) {
+      case KEY_ZERO:
+      case KEY_DIGIT:
+        if (wasEqual) {
+          return transition(NEW_DIGIT, 0);
+        }
+        return transition(DIGIT, operation);
+      case KEY_PLUS:
+      case KEY_MINUS:
+      case KEY_TIMES:
+        if (wasOperator) {
+          return transition(ERROR_DOUBLE_OPERATOR, control);
+        }
+        if (operation != 0) {
+          return transition(SIMPLE_CALCULATE_OPERATOR, operatorControl(key));
+        }
+        return transition(OPERATOR, operatorControl(key));
+      case KEY_EQUALS:
+        if (wasOperator) {
+          return transition(ERROR_INCOMPLETE, control);
+        }
+        if (!wasEqual) {
+          return transition(SIMPLE_EQUALS, PackedCalculator.LAST_INPUT_WAS_EQUAL);
+        }
+        return transition(KEEP, operation | PackedCalculator.LAST_INPUT_WAS_EQUAL);
+      default:
+        return transition(ERROR_INVALID, control);
+    }
+  }
+
+  /**
+   * The control part of SmartCalculator.input(), evaluated once per table entry.
+   */
+  private static int smartTransition(int state, int key) {
+    int operation = state & PackedCalculator.OPERATION_MASK;
+    boolean wasEqual = (state & PackedCalculator.LAST_INPUT_WAS_EQUAL) != 0;
+    boolean wasOperator = (state & PackedCalculator.LAST_INPUT_WAS_OPERATOR) != 0;
+    boolean empty = (state & DISPLAY_EMPTY) != 0;
+    int control = state & ~DISPLAY_EMPTY;
+
+    if (key == KEY_CLEAR) {
+      return transition(CLEAR, 0);
+    }
+    if (key == KEY_ZERO && empty && wasOperator) {
+      return transition(ZERO_OPERAND, control & ~PackedCalculator.LAST_INPUT_WAS_OPERATOR);
+    }
+    if (key == KEY_EQUALS) {
+      return transition(empty ? SMART_EQUALS_ON_EMPTY : SMART_EQUALS,
+              operation | PackedCalculator.LAST_INPUT_WAS_EQUAL);
+    }
+    if (empty && (key == KEY_TIMES || key == KEY_MINUS)) {
+      return transition(ERROR_OPERATOR_START, control);
+    }
+    switch (key) {
+      case KEY_ZERO:
+      case KEY_DIGIT:
+        if (wasEqual) {
+          return transition(NEW_DIGIT, 0);
+        }
+        return transition(DIGIT, operation);
+      case KEY_PLUS:
+      case KEY_MINUS:
+      case KEY_TIMES:
+        if (wasEqual) {
+          return transition(SMART_OPERATOR_AFTER_EQUALS, operatorControl(key));
+        }
+        if (empty) {
+          return transition(KEEP, operation);
+        }
+        if (wasOperator) {
+          return transition(REPLACE_OPERATOR, operatorControl(key));
+        }
+        if (operation != 0) {
+          return transition(SMART_CALCULATE_OPERATOR, operatorControl(key));
+        }
+        return transition(OPERATOR, operatorControl(key));
+      default:
+        return transition(ERROR_INVALID, control);
+    }
+  }
+
+  /**
+   * Runs the arithmetic part of a transition. Errors are returned before anything is
+   * changed.
+   */
+  private InputError perform(int action, char input) {
+    switch (action) {
+      case KEEP:
+        return null;
+      case CLEAR:
+        reset();
+        return null;
+      case ZERO_OPERAND:
+        currentOperand = 0;
+        return null;
+      case NEW_DIGIT:
+        // a single digit on an empty calculator cannot overflow, so nothing is lost on errors
+        reset();
+        return inputDigit(input);
+      case DIGIT:
+        return inputDigit(input);
+      case SHOW_RESULT:
+        display.setNumber(result);
+        return null;
+      case OPERATOR:
+        display.append(input);
+        currentOperand = 0;
+        return null;
+      case SIMPLE_CALCULATE_OPERATOR:
+        result = calculate(currentOperand);
+        display.setNumber(result);
+        display.append(input);
+        currentOperand = 0;
+        return null;
+      case SIMPLE_EQUALS:
+        result = calculate(currentOperand);
+        currentOperand = 0;
+        display.setNumber(result);
+        return null;
+      case SMART_EQUALS_ON_EMPTY:
+        if (result == 0) {
+          return InputError.BAD_START;
+        }
+        smartEquals();
+        return null;
+      case SMART_EQUALS:
+        smartEquals();
+        return null;
+      case SMART_OPERATOR_AFTER_EQUALS:
+        currentOperand = 0;
+        lastOperand = result;
+        display.setNumber(result);
+        display.append(input);
+        return null;
+      case REPLACE_OPERATOR:
+        display.replaceLast(input);
+        return null;
+      case SMART_CALCULATE_OPERATOR:
+        result = calculate(currentOperand);
+        currentOperand = 0;
+        lastOperand = 0;
+        display.setNumber(result);
+        return null;
+      case ERROR_OPERATOR_START:
+      case ERROR_EQUALS_START:
+        return InputError.BAD_START;
+      case ERROR_DOUBLE_OPERATOR:
+        return InputError.DOUBLE_OPERATOR;
+      case ERROR_INCOMPLETE:
+        return InputError.INCOMPLETE;
+      default:
+        return InputError.INVALID_CHAR;
+    }
+  }
+
+  private void smartEquals() {
+    long operandToUse;
+    if ((control & PackedCalculator.LAST_INPUT_WAS_OPERATOR) != 0) {
+      operandToUse = result;
+    } else if ((control & PackedCalculator.LAST_INPUT_WAS_EQUAL) != 0) {
+      operandToUse = lastOperand;
+    } else {
+      operandToUse = currentOperand;
+    }
+    result = calculate(operandToUse);
+    lastOperand = operandToUse;
+    currentOperand = 0;
+    display.setNumber(result);
+  }
+
+  private InputError inputDigit(char digit) {
+    int value = Character.digit(digit, 10);
+    if ((control & PackedCalculator.OPERATION_MASK) != 0) {
+      if (!kernel.canAppendDigit(currentOperand, value)) {
+        return InputError.OVERFLOW;
+      }
+      currentOperand = ArithmeticKernel.appendDigit(currentOperand, value);
+    } else {
+      if (!kernel.canAppendDigit(result, value)) {
+        return InputError.OVERFLOW;
+      }
+      result = ArithmeticKernel.appendDigit(result, value);
+    }
+    if (display.isZero()) {
+      display.clear();
+    }
+    display.append(digit);
+    return null;
+  }
+
+  private long calculate(long operand) {
+    return kernel.calculate(PackedCalculator.operation(control), result, operand);
+  }
+}
@@ -0,0 +1,181 @@
+package calculator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TransitionCache remembers the successor calculator of (state, input) pairs. Since
+ * calculators are immutable, the successor of a state for an input never changes, so a
+ * cached successor can be returned and shared instead of being rebuilt.
+ * States are keyed by value: two calculators of the same class and CalculatorFactory holding
+ * the same operands, operation, flags and display text share their cached successors, however
+ * they were reached and whether or not they are the same instance. The key refers to the state
+ * instead of copying it, and hashes and compares the display without building its text.
+ * The cache holds at most a fixed number of transitions, split over segments that each evict
+ * their least recently used transition when full and are locked independently, so threads
+ * typing into different states rarely wait for each other. It counts hits and misses and is
+ * safe to share between threads.
+ */
+public final class TransitionCache {
+
+  // every segment holds at least this many transitions, so small caches stay exact LRU
+  private static final int MIN_SEGMENT_CAPACITY = 64;
+  private static final int MAX_SEGMENTS = 16;
+
+  private final int capacity;
+  private final Segment[] segments;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Creates an empty TransitionCache holding at most capacity transitions.
+   *
+   * @param capacity the maximum number of cached transitions
+   * @throws IllegalArgumentException if capacity is not positive
+   */
+  public TransitionCache(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+    int count = Integer.highestOneBit(
+            Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY)));
+    this.segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      // the first capacity % count segments take one transition more
+      segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+    }
+  }
+
+  /**
+   * Returns the maximum number of transitions this cache holds.
+   *
+   * @return the capacity of this cache
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of transitions currently cached.
+   *
+   * @return the number of cached transitions
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of lookups that found a cached successor.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * Returns the number of lookups that did not find a cached successor.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Removes every cached transition and resets the hit and miss counters.
+   */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+    hits.reset();
+    misses.reset();
+  }
+
+  Calculator get(Transition key) {
+    Segment segment = segmentFor(key);
+    Calculator successor;
+    synchronized (segment) {
+      successor = segment.get(key);
+    }
+    (successor == null ? misses : hits).increment();
+    return successor;
+  }
+
+  void put(Transition key, Calculator successor) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.put(key, successor);
+    }
+  }
+
+  private Segment segmentFor(Transition key) {
+    int h = key.hash;
+    return segments[(h ^ h >>> 16) & (segments.length - 1)];
+  }
+
+  /**
+   * Segment is an access ordered map that evicts its eldest transition beyond its capacity.
+   * It is only used while holding its own lock.
+   */
+  private static final class Segment extends LinkedHashMap<Transition, Calculator> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Transition, Calculator> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /**
+   * Transition is a calculator state, compared by value, together with an input.
+   */
+  static final class Transition {
+
+    private final AbstractCalculator<?> state;
+    private final char input;
+    private final int hash;
+
+    Transition(AbstractCalculator<?> state, char input) {
+      this.state = state;
+      this.input = input;
+      this.hash = 31 * state.stateHash() + input;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Transition)) {
+        return false;
+      }
+      Transition other = (Transition) o;
+      return input == other.input && hash == other.hash && state.hasSameState(other.state);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
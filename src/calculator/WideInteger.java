@@ -0,0 +1,321 @@
+package calculator;
+
+import java.math.BigInteger;
+
+/**
+ * WideInteger is an exact integer, as the results of ArithmeticKernel.EXACT are carried on
+ * beyond the long range. Up to 128 bits it is held as the high and low words of its two's
+ * complement, which are added with carries and multiplied with Math.multiplyHigh, and only a
+ * value beyond 128 bits falls back to a BigInteger. A value has a single form, so equal
+ * values are equal objects. Instances are immutable.
+ */
+final class WideInteger {
+
+  // a repeated product longer than this is rejected instead of being computed
+  static final int MAX_REPEAT_BITS = 1 << 20;
+
+  private static final long DECIMAL_CHUNK = 1_000_000_000L;
+  private static final int DECIMAL_CHUNK_DIGITS = 9;
+
+  private final long high;
+  private final long low;
+  // null up to 128 bits, the value itself beyond
+  private final BigInteger big;
+
+  private WideInteger(long high, long low) {
+    this.high = high;
+    this.low = low;
+    this.big = null;
+  }
+
+  private WideInteger(BigInteger big) {
+    this.high = 0;
+    this.low = 0;
+    this.big = big;
+  }
+
+  /**
+   * Returns the value held by a long field and its wide companion: the companion if there is
+   * one, the long otherwise.
+   */
+  static WideInteger valueOf(long value, WideInteger wide) {
+    return wide != null ? wide : new WideInteger(value >> 63, value);
+  }
+
+  private static WideInteger valueOf(BigInteger value) {
+    if (value.bitLength() < 128) {
+      return new WideInteger(value.shiftRight(64).longValue(), value.longValue());
+    }
+    return new WideInteger(value);
+  }
+
+  /**
+   * Returns whether an operation on two longs gives a result in the long range, with the sign
+   * tests of Math.addExact and Math.subtractExact and the high half from Math.multiplyHigh.
+   *
+   * @param operation '+', '-', '*', or '\0' for no operation
+   * @param left the result so far
+   * @param right the operand
+   * @return true if the result fits in a long
+   */
+  static boolean fitsLong(char operation, long left, long right) {
+    switch (operation) {
+      case '+':
+        long sum = left + right;
+        return ((left ^ sum) & (right ^ sum)) >= 0;
+      case '-':
+        long difference = left - right;
+        return ((left ^ right) & (left ^ difference)) >= 0;
+      case '*':
+        return Math.multiplyHigh(left, right) == (left * right) >> 63;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Returns the exact result of an operation on the values of two long fields and their wide
+   * companions, as the wide companion of the result: null if the result fits in a long, which
+   * is then the long result of ArithmeticKernel.operate() on the two long fields.
+   *
+   * @param operation '+', '-', '*', or '\0' for no operation
+   * @param left the low 64 bits of the result so far
+   * @param wideLeft the result so far if it is outside the long range, null otherwise
+   * @param right the low 64 bits of the operand
+   * @param wideRight the operand if it is outside the long range, null otherwise
+   * @return the result if it is outside the long range, null otherwise
+   */
+  static WideInteger calculate(char operation, long left, WideInteger wideLeft, long right,
+                               WideInteger wideRight) {
+    if (wideLeft == null && wideRight == null && fitsLong(operation, left, right)) {
+      return null;
+    }
+    return valueOf(left, wideLeft).calculate(operation, valueOf(right, wideRight))
+            .beyondLong();
+  }
+
+  /**
+   * Returns the exact result of applying an operation with the same right operand several
+   * times in a row, as ArithmeticKernel.repeat() does for the other kernels. Sums are
+   * computed as one product; products as a power, by squaring.
+   *
+   * @param operation '+', '-', '*', or '\0' for no operation
+   * @param left the result so far
+   * @param right the operand of every step
+   * @param times the number of steps, 0 or more
+   * @return the result after the last step
+   * @throws IllegalArgumentException if a product would be longer than MAX_REPEAT_BITS
+   */
+  static WideInteger repeat(char operation, WideInteger left, WideInteger right, long times) {
+    if (times == 0) {
+      return left;
+    }
+    switch (operation) {
+      case '+':
+        return left.add(right.multiply(valueOf(times, null)));
+      case '-':
+        return left.subtract(right.multiply(valueOf(times, null)));
+      case '*':
+        // 0 stays 0 however large the power would be
+        return left.fitsLong() && left.low == 0 ? left : left.multiply(right.power(times));
+      default:
+        return left;
+    }
+  }
+
+  /**
+   * Returns whether this value is in the long range.
+   */
+  boolean fitsLong() {
+    return big == null && high == low >> 63;
+  }
+
+  /**
+   * Returns the low 64 bits of this value, the value itself if it fits in a long.
+   */
+  long longValue() {
+    return big != null ? big.longValue() : low;
+  }
+
+  WideInteger calculate(char operation, WideInteger other) {
+    switch (operation) {
+      case '+':
+        return add(other);
+      case '-':
+        return subtract(other);
+      case '*':
+        return multiply(other);
+      default:
+        return this;
+    }
+  }
+
+  WideInteger add(WideInteger other) {
+    if (big == null && other.big == null) {
+      long sumLow = low + other.low;
+      long sumHigh = high + other.high + (Long.compareUnsigned(sumLow, low) < 0 ? 1 : 0);
+      if (((high ^ sumHigh) & (other.high ^ sumHigh)) >= 0) {
+        return new WideInteger(sumHigh, sumLow);
+      }
+    }
+    return valueOf(toBigInteger().add(other.toBigInteger()));
+  }
+
+  WideInteger subtract(WideInteger other) {
+    if (big == null && other.big == null) {
+      long differenceLow = low - other.low;
+      long differenceHigh =
+              high - other.high - (Long.compareUnsigned(low, other.low) < 0 ? 1 : 0);
+      if (((high ^ other.high) & (high ^ differenceHigh)) >= 0) {
+        return new WideInteger(differenceHigh, differenceLow);
+      }
+    }
+    return valueOf(toBigInteger().subtract(other.toBigInteger()));
+  }
+
+  WideInteger multiply(WideInteger other) {
+    if (big == null && other.big == null) {
+      if (fitsLong() && other.fitsLong()) {
+        // the product of two longs always fits in 128 bits
+        return new WideInteger(Math.multiplyHigh(low, other.low), low * other.low);
+      }
+      boolean negative = high < 0 != other.high < 0;
+      WideInteger a = abs();
+      WideInteger b = other.abs();
+      // magnitudes whose lengths add up to 127 bits or less have a signed 128-bit product,
+      // and then at least one of them fits in the low word
+      if (a.bitLength() + b.bitLength() <= 127) {
+        if (a.high != 0) {
+          WideInteger swap = a;
+          a = b;
+          b = swap;
+        }
+        long productLow = a.low * b.low;
+        long productHigh = unsignedMultiplyHigh(a.low, b.low) + a.low * b.high;
+        WideInteger product = new WideInteger(productHigh, productLow);
+        return negative ? product.negate() : product;
+      }
+    }
+    return valueOf(toBigInteger().multiply(other.toBigInteger()));
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof WideInteger)) {
+      return false;
+    }
+    WideInteger other = (WideInteger) o;
+    return big != null ? big.equals(other.big)
+            : other.big == null && high == other.high && low == other.low;
+  }
+
+  @Override
+  public int hashCode() {
+    return big != null ? big.hashCode() : 31 * Long.hashCode(high) + Long.hashCode(low);
+  }
+
+  /**
+   * Returns this value in decimal. A 128-bit value is divided into chunks of nine digits with
+   * long arithmetic on 32-bit parts of its magnitude.
+   */
+  @Override
+  public String toString() {
+    if (big != null) {
+      return big.toString();
+    }
+    if (fitsLong()) {
+      return Long.toString(low);
+    }
+    WideInteger magnitude = abs();
+    // the magnitude as four unsigned 32-bit parts, most significant first
+    long[] parts = {
+        magnitude.high >>> 32, magnitude.high & 0xFFFFFFFFL,
+        magnitude.low >>> 32, magnitude.low & 0xFFFFFFFFL};
+    StringBuilder reversed = new StringBuilder(40);
+    boolean zero;
+    do {
+      long remainder = 0;
+      zero = true;
+      for (int i = 0; i < parts.length; i++) {
+        long current = remainder << 32 | parts[i];
+        parts[i] = current / DECIMAL_CHUNK;
+        remainder = current % DECIMAL_CHUNK;
+        zero &= parts[i] == 0;
+      }
+      for (int digit = 0; digit < DECIMAL_CHUNK_DIGITS && (!zero || remainder != 0); digit++) {
+        reversed.append((char) ('0' + remainder % 10));
+        remainder /= 10;
+      }
+    } while (!zero);
+    if (high < 0) {
+      reversed.append('-');
+    }
+    return reversed.reverse().toString();
+  }
+
+  private WideInteger beyondLong() {
+    return fitsLong() ? null : this;
+  }
+
+  private WideInteger power(long exponent) {
+    if (fitsLong() && (low == 0 || low == 1 || low == -1)) {
+      return low == -1 && (exponent & 1) == 0 ? valueOf(1, null) : this;
+    }
+    // a factor of magnitude 2 or more adds at least one bit per step
+    if (exponent > MAX_REPEAT_BITS || (abs().bitLength() - 1) * exponent > MAX_REPEAT_BITS) {
+      throw new IllegalArgumentException("Cannot repeat the product " + exponent
+              + " times: the result would be longer than " + MAX_REPEAT_BITS + " bits");
+    }
+    WideInteger result = valueOf(1, null);
+    WideInteger base = this;
+    for (long rest = exponent; ; rest >>>= 1) {
+      if ((rest & 1) != 0) {
+        result = result.multiply(base);
+      }
+      if (rest == 1) {
+        return result;
+      }
+      base = base.multiply(base);
+    }
+  }
+
+  private WideInteger negate() {
+    return valueOf(0, null).subtract(this);
+  }
+
+  // the magnitude of a 128-bit value, as an unsigned 128-bit value for -2^127
+  private WideInteger abs() {
+    if (big != null) {
+      return new WideInteger(big.abs());
+    }
+    if (high >= 0) {
+      return this;
+    }
+    return new WideInteger(~high + (low == 0 ? 1 : 0), -low);
+  }
+
+  // the bit length of an unsigned 128-bit magnitude
+  private int bitLength() {
+    if (big != null) {
+      return big.bitLength();
+    }
+    return high != 0 ? 128 - Long.numberOfLeadingZeros(high)
+            : 64 - Long.numberOfLeadingZeros(low);
+  }
+
+  private BigInteger toBigInteger() {
+    if (big != null) {
+      return big;
+    }
+    BigInteger lowBits = BigInteger.valueOf(low >>> 1).shiftLeft(1)
+            .or(BigInteger.valueOf(low & 1));
+    return BigInteger.valueOf(high).shiftLeft(64).or(lowBits);
+  }
+
+  private static long unsignedMultiplyHigh(long x, long y) {
+    return Math.multiplyHigh(x, y) + (x >> 63 & y) + (y >> 63 & x);
+  }
+}
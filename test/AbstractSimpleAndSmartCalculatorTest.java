@@ -1,9 +1,14 @@
 import org.junit.Test;
 
 import calculator.Calculator;
+import calculator.InputError;
+import calculator.InputResult;
+import calculator.KeystrokeException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 /**
  * Unit tests shared between SimpleCalculator and SmartCalculator.
@@ -601,4 +606,138 @@ public abstract class AbstractSimpleAndSmartCalculatorTest {
     assertEquals("-1111111110", newCalculator.getResult());
   }
 
+  @Test
+  public void testInputAllMatchesInput() {
+    Calculator chained = calculator.input('5').input('2').input('+').input('5').input('2')
+            .input('+').input('3').input('=');
+    Calculator bulk = calculator.inputAll("52+52+3=");
+    assertEquals(chained.getResult(), bulk.getResult());
+    assertEquals(chained.input('*').input('2').input('=').getResult(),
+            bulk.input('*').input('2').input('=').getResult());
+  }
+
+  @Test
+  public void testInputAllContinuesFromState() {
+    Calculator newCalculator = calculator.input('9').input('*');
+    assertEquals("9*3", newCalculator.inputAll("3").getResult());
+    assertEquals("27", newCalculator.inputAll("3=").getResult());
+    assertEquals("9*", newCalculator.getResult());
+  }
+
+  @Test
+  public void testInputAllEmpty() {
+    assertEquals("", calculator.inputAll("").getResult());
+  }
+
+  @Test
+  public void testInputAllCharArray() {
+    char[] keys = "xx7-8=yy".toCharArray();
+    assertEquals("-1", calculator.inputAll(keys, 2, 4).getResult());
+  }
+
+  @Test
+  public void testInputAllReportsFailingIndex() {
+    String expectedMessage = null;
+    try {
+      calculator.input('1').input('/');
+    } catch (IllegalArgumentException e) {
+      expectedMessage = e.getMessage();
+    }
+    try {
+      calculator.inputAll("1/");
+      fail("Expected an invalid input");
+    } catch (KeystrokeException e) {
+      assertEquals(expectedMessage, e.getMessage());
+      assertEquals(1, e.getIndex());
+      assertEquals(InputError.INVALID_CHAR, e.getError());
+    }
+  }
+
+  @Test
+  public void testInputAllCharArrayReportsArrayIndex() {
+    try {
+      calculator.inputAll("12345678901234".toCharArray(), 2, 12);
+      fail("Expected an overflow");
+    } catch (KeystrokeException e) {
+      assertEquals(11, e.getIndex());
+      assertEquals(InputError.OVERFLOW, e.getError());
+    }
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testInputAllCharArrayOutOfBounds() {
+    calculator.inputAll(new char[3], 2, 2);
+  }
+
+  @Test
+  public void testLongDisplayIsSharedBetweenCalculators() {
+    Calculator newCalculator = calculator.input('1').input('+');
+    Calculator shorter = null;
+    for (int i = 0; i < 10000; i++) {
+      shorter = newCalculator;
+      newCalculator = newCalculator.input('0');
+    }
+    assertEquals(10002, newCalculator.getResult().length());
+    assertEquals(10001, shorter.getResult().length());
+    assertEquals("1", newCalculator.input('=').getResult());
+  }
+
+  @Test
+  public void testClearReturnsCanonicalEmptyCalculator() {
+    Calculator cleared = calculator.input('5').input('+').input('3').input('C');
+    assertSame(cleared, calculator.input('9').input('C'));
+    assertEquals("", cleared.getResult());
+    assertEquals("8", cleared.input('8').getResult());
+  }
+
+  @Test
+  public void testSingleDigitsAreCanonical() {
+    Calculator afterEquals = calculator.input('5').input('+').input('3').input('=');
+    for (char digit = '0'; digit <= '9'; digit++) {
+      assertSame(calculator.input(digit), afterEquals.input(digit));
+      assertEquals(String.valueOf(digit), afterEquals.input(digit).getResult());
+    }
+    assertEquals("72", afterEquals.input('7').input('2').getResult());
+  }
+
+  @Test
+  public void testTryInputReportsErrorCodes() {
+    assertSame(InputError.INVALID_CHAR, calculator.input('1').tryInput('/'));
+    assertSame(InputError.BAD_START, calculator.tryInput('*'));
+    assertSame(InputError.BAD_START, calculator.tryInput('='));
+    assertSame(InputError.OVERFLOW, calculator.inputAll("2147483647").tryInput('1'));
+    assertSame(InputError.OVERFLOW, calculator.inputAll("1+2147483647").tryInput('0'));
+  }
+
+  @Test
+  public void testTryInputMatchesInput() {
+    InputResult next = calculator.input('4').input('*').tryInput('6');
+    assertEquals(false, next.isError());
+    assertEquals(-1, next.getIndex());
+    assertEquals("4*6", next.getCalculator().getResult());
+    assertEquals("24", next.getCalculator().tryInput('=').getCalculator().getResult());
+  }
+
+  @Test
+  public void testTryInputLeavesCalculatorUnchanged() {
+    Calculator newCalculator = calculator.input('7').input('+');
+    assertEquals(true, newCalculator.tryInput('x').isError());
+    assertEquals("7+2", newCalculator.input('2').getResult());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRejectedInputHasNoCalculator() {
+    calculator.tryInput('/').getCalculator();
+  }
+
+  @Test
+  public void testTryInputAllReportsIndex() {
+    InputResult rejected = calculator.tryInputAll("12+/3");
+    assertSame(InputError.INVALID_CHAR, rejected.getError());
+    assertEquals(3, rejected.getIndex());
+    InputResult accepted = calculator.tryInputAll("12+3=");
+    assertEquals(false, accepted.isError());
+    assertEquals(calculator.inputAll("12+3=").getResult(),
+            accepted.getCalculator().getResult());
+  }
 }
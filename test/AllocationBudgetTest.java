@@ -0,0 +1,156 @@
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import calculator.Calculator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Allocation budgets of SimpleCalculator and SmartCalculator. Every test types one kind of
+ * keystroke into the same calculator many times, measures the bytes the thread allocated with
+ * com.sun.management.ThreadMXBean, and fails when the best of several rounds exceeds the
+ * budget declared for that code path, so a change that makes the hot path allocate more
+ * shows up here. The best round is taken so the budgets hold once the JIT compiler has run,
+ * and the budgets assume a 64-bit HotSpot JVM with compressed references and class pointers,
+ * so the tests are skipped on a JVM without them, such as one with a heap over 32 GB.
+ */
+public class AllocationBudgetTest {
+
+  // bytes per keystroke, for SimpleCalculator and SmartCalculator
+  private static final long[] FIRST_DIGIT = {0, 0};
+  private static final long[] DIGIT = {96, 96};
+  private static final long[] OPERATOR = {96, 96};
+  private static final long[] OPERATOR_WITH_CALCULATION = {256, 224};
+  private static final long[] EQUALS = {192, 224};
+  private static final long[] REPEATED_EQUALS = {64, 224};
+  private static final long[] CLEAR = {0, 0};
+  // bytes per session of SESSION, including the calculator it starts from
+  private static final long[] FULL_SESSION = {2048, 2048};
+
+  private static final String SESSION = "12+34*5-6=C78*9==";
+  private static final int ROUNDS = 10;
+  private static final int KEYSTROKES_PER_ROUND = 10_000;
+  private static final int SESSIONS_PER_ROUND = 1000;
+
+  private static com.sun.management.ThreadMXBean threads;
+  private static volatile Object sink;
+
+  @BeforeClass
+  public static void checkSupport() {
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    assumeTrue("The budgets assume compressed references", isEnabled("UseCompressedOops"));
+    assumeTrue("The budgets assume 12 byte object headers",
+            isEnabled("UseCompressedClassPointers"));
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test
+  public void testFirstDigit() {
+    assertKeystrokeBudget("first digit", FIRST_DIGIT, "", '5');
+  }
+
+  @Test
+  public void testDigit() {
+    assertKeystrokeBudget("digit", DIGIT, "12+3", '4');
+  }
+
+  @Test
+  public void testOperator() {
+    assertKeystrokeBudget("operator", OPERATOR, "12", '+');
+  }
+
+  @Test
+  public void testOperatorWithCalculation() {
+    assertKeystrokeBudget("operator with calculation", OPERATOR_WITH_CALCULATION, "12+3", '*');
+  }
+
+  @Test
+  public void testEquals() {
+    assertKeystrokeBudget("'='", EQUALS, "12+3", '=');
+  }
+
+  @Test
+  public void testRepeatedEquals() {
+    assertKeystrokeBudget("repeated '='", REPEATED_EQUALS, "12+3=", '=');
+  }
+
+  @Test
+  public void testClear() {
+    assertKeystrokeBudget("'C'", CLEAR, "12+3", 'C');
+  }
+
+  @Test
+  public void testFullSession() {
+    for (int smart = 0; smart < 2; smart++) {
+      boolean isSmart = smart == 1;
+      double best = Double.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        long before = allocatedBytes();
+        for (int i = 0; i < SESSIONS_PER_ROUND; i++) {
+          Calculator calculator = isSmart ? new SmartCalculator() : new SimpleCalculator();
+          for (int k = 0; k < SESSION.length(); k++) {
+            calculator = calculator.input(SESSION.charAt(k));
+          }
+          sink = calculator.getResult();
+        }
+        best = Math.min(best, (double) (allocatedBytes() - before) / SESSIONS_PER_ROUND);
+      }
+      assertWithinBudget("session " + SESSION, isSmart, FULL_SESSION[smart], best);
+    }
+  }
+
+  /**
+   * Types the key into a calculator in the state left by the given keys, for both
+   * calculators, and checks the bytes allocated per keystroke.
+   */
+  private static void assertKeystrokeBudget(String path, long[] budget, String state,
+                                            char key) {
+    for (int smart = 0; smart < 2; smart++) {
+      Calculator calculator = smart == 1 ? new SmartCalculator() : new SimpleCalculator();
+      calculator = calculator.inputAll(state);
+      double best = Double.MAX_VALUE;
+      for (int round = 0; round < ROUNDS; round++) {
+        long before = allocatedBytes();
+        for (int i = 0; i < KEYSTROKES_PER_ROUND; i++) {
+          sink = calculator.input(key);
+        }
+        best = Math.min(best, (double) (allocatedBytes() - before) / KEYSTROKES_PER_ROUND);
+      }
+      assertWithinBudget(path, smart == 1, budget[smart], best);
+    }
+  }
+
+  private static void assertWithinBudget(String path, boolean smart, long budget,
+                                         double measured) {
+    String calculator = smart ? "SmartCalculator" : "SimpleCalculator";
+    assertTrue(calculator + " " + path + " allocates " + measured + " bytes, over its budget of "
+            + budget, measured <= budget);
+  }
+
+  private static boolean isEnabled(String option) {
+    HotSpotDiagnosticMXBean hotSpot =
+            ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+    if (hotSpot == null) {
+      return false;
+    }
+    try {
+      return Boolean.parseBoolean(hotSpot.getVMOption(option).getValue());
+    } catch (IllegalArgumentException e) {
+      // a JVM without the option
+      return false;
+    }
+  }
+
+  private static long allocatedBytes() {
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,373 @@
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongBinaryOperator;
+
+import calculator.ArithmeticKernel;
+import calculator.Calculator;
+import calculator.CalculatorFactory;
+import calculator.CalculatorSnapshot;
+import calculator.InputError;
+import calculator.KeystrokeException;
+import calculator.KeystrokeTemplate;
+import calculator.PackedCalculator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+import calculator.TableCalculator;
+import calculator.TransitionCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the ArithmeticKernel implementations, on their own and installed in the
+ * Simple and Smart calculators of a CalculatorFactory.
+ */
+public class ArithmeticKernelTest {
+
+  @Test
+  public void testIntKernelDigits() {
+    assertTrue(ArithmeticKernel.INT.canAppendDigit(214748364, 7));
+    assertFalse(ArithmeticKernel.INT.canAppendDigit(214748364, 8));
+    assertEquals(2147483647L, ArithmeticKernel.appendDigit(214748364, 7));
+  }
+
+  @Test
+  public void testIntKernelResetsOutOfRangeResults() {
+    assertEquals(Integer.MAX_VALUE,
+            ArithmeticKernel.INT.calculate('+', Integer.MAX_VALUE - 1, 1));
+    assertEquals(0, ArithmeticKernel.INT.calculate('+', Integer.MAX_VALUE, 1));
+    assertEquals(Integer.MIN_VALUE, ArithmeticKernel.INT.calculate('-', -1, Integer.MAX_VALUE));
+    assertEquals(0, ArithmeticKernel.INT.calculate('-', -2, Integer.MAX_VALUE));
+    assertEquals(0, ArithmeticKernel.INT.calculate('*', 65536, 65536));
+    assertEquals(7, ArithmeticKernel.INT.calculate('\0', 7, 3));
+  }
+
+  @Test
+  public void testLongKernelDigits() {
+    assertTrue(ArithmeticKernel.LONG.canAppendDigit(922337203685477580L, 7));
+    assertFalse(ArithmeticKernel.LONG.canAppendDigit(922337203685477580L, 8));
+    assertTrue(ArithmeticKernel.LONG.canAppendDigit(-922337203685477580L, 8));
+    assertFalse(ArithmeticKernel.LONG.canAppendDigit(-922337203685477580L, 9));
+    assertEquals(Long.MIN_VALUE, ArithmeticKernel.appendDigit(-922337203685477580L, 8));
+  }
+
+  @Test
+  public void testLongKernelIsExact() {
+    assertEquals(Long.MAX_VALUE, ArithmeticKernel.LONG.calculate('+', Long.MAX_VALUE - 1, 1));
+    assertEquals(0, ArithmeticKernel.LONG.calculate('+', Long.MAX_VALUE, 1));
+    assertEquals(Long.MIN_VALUE, ArithmeticKernel.LONG.calculate('-', -1, Long.MAX_VALUE));
+    assertEquals(0, ArithmeticKernel.LONG.calculate('-', -2, Long.MAX_VALUE));
+    assertEquals(4294967296L * 2147483647L,
+            ArithmeticKernel.LONG.calculate('*', 4294967296L, 2147483647L));
+    assertEquals(0, ArithmeticKernel.LONG.calculate('*', 4294967296L, 2147483648L));
+    assertEquals(Long.MIN_VALUE, ArithmeticKernel.LONG.calculate('*', -4294967296L, 2147483648L));
+    assertEquals(0, ArithmeticKernel.LONG.calculate('*', Long.MIN_VALUE, -1));
+  }
+
+  @Test
+  public void testDefaultKernelKeepsIntRules() {
+    assertSame(ArithmeticKernel.INT, new SimpleCalculator().getFactory().getKernel());
+    assertSame(CalculatorFactory.INT, new SmartCalculator().getFactory());
+    assertSame(InputError.OVERFLOW,
+            new SimpleCalculator().inputAll("214748364").tryInput('8').getError());
+    assertEquals("0", new SimpleCalculator().inputAll("65536*65536=").getResult());
+  }
+
+  @Test
+  public void testLongKernelInCalculators() {
+    SimpleCalculator simple = CalculatorFactory.LONG.simpleCalculator();
+    assertEquals("9000000000", simple.inputAll("3000000000*3=").getResult());
+    assertEquals("4294967296",
+            CalculatorFactory.LONG.smartCalculator().inputAll("65536*=").getResult());
+    assertEquals("9223372036854775807", simple.inputAll("9223372036854775807").getResult());
+    assertSame(InputError.OVERFLOW,
+            simple.inputAll("922337203685477580").tryInput('8').getError());
+    assertEquals("0", simple.inputAll("9223372036854775807+1=").getResult());
+  }
+
+  @Test
+  public void testKernelStaysWithItsCalculators() {
+    Calculator wide = CalculatorFactory.LONG.simpleCalculator().inputAll("65536*65536");
+    Calculator narrow = new SimpleCalculator().inputAll("65536*65536");
+    assertEquals("4294967296", wide.input('=').getResult());
+    assertEquals("0", narrow.input('=').getResult());
+    assertSame(CalculatorFactory.LONG,
+            ((SimpleCalculator) wide.input('C').input('7')).getFactory());
+    assertEquals("9000000000", wide.input('=').input('C').inputAll("3000000000*3=")
+            .getResult());
+  }
+
+  @Test
+  public void testEnginesUseTheKernelOfTheirFactory() {
+    String keys = "3000000000*3=*4=C9223372036*5=";
+    for (boolean smart : new boolean[] {false, true}) {
+      String expected = CalculatorFactory.LONG.calculator(smart).inputAll(keys).getResult();
+      assertEquals(expected,
+              CalculatorFactory.LONG.packedCalculator(smart).inputAll(keys).getResult());
+      assertEquals(expected,
+              CalculatorFactory.LONG.tableCalculator(smart).inputAll(keys).getResult());
+      assertEquals("0", new PackedCalculator(smart).inputAll("3000000*3000000=").getResult());
+    }
+  }
+
+  @Test
+  public void testLongKernelTryInputAllReportsIndex() {
+    SimpleCalculator simple = CalculatorFactory.LONG.simpleCalculator();
+    assertEquals(20, simple.tryInputAll("1+9223372036854775808").getIndex());
+    assertEquals("1+922337203685477580",
+            simple.tryInputAll("1+922337203685477580").getCalculator().getResult());
+  }
+
+  @Test
+  public void testTransitionCacheKeepsKernelsApart() {
+    TransitionCache cache = new TransitionCache(64);
+    assertEquals("0", new CalculatorFactory(ArithmeticKernel.INT, cache).simpleCalculator()
+            .inputAll("65536*65536").input('=').getResult());
+    assertEquals("4294967296", new CalculatorFactory(ArithmeticKernel.LONG, cache)
+            .simpleCalculator().inputAll("65536*65536").input('=').getResult());
+  }
+
+  @Test
+  public void testRepeatMatchesSteps() {
+    long[] values = {0, 1, -1, 2, -2, 3, 7, -9, 1000, -65536, 46341, 1 << 30, Integer.MAX_VALUE,
+        Integer.MIN_VALUE, Integer.MIN_VALUE + 1, 3037000500L, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (ArithmeticKernel kernel : new ArithmeticKernel[] {ArithmeticKernel.INT,
+        ArithmeticKernel.LONG}) {
+      for (char operation : new char[] {'+', '-', '*', '\0'}) {
+        for (long left : values) {
+          for (long right : values) {
+            long stepped = left;
+            for (int times = 0; times <= 70; times++) {
+              assertEquals(kernel + " " + left + operation + right + " x" + times, stepped,
+                      kernel.repeat(operation, left, right, times));
+              stepped = kernel.calculate(operation, stepped, right);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRepeatResetsAtFirstOverflow() {
+    // 2147483000 + 100 * 6 stays in range, the seventh step is reset and the rest start from 0
+    assertEquals(2147483600L, ArithmeticKernel.INT.repeat('+', 2147483000, 100, 6));
+    assertEquals(0, ArithmeticKernel.INT.repeat('+', 2147483000, 100, 7));
+    assertEquals(300, ArithmeticKernel.INT.repeat('+', 2147483000, 100, 10));
+    // from 0, 1 << 30 is added once and reset on the next step, forever
+    assertEquals(0, ArithmeticKernel.INT.repeat('+', 0, 1 << 30, 1_000_000_000_000L));
+    assertEquals(1 << 30, ArithmeticKernel.INT.repeat('+', 0, 1 << 30, 1_000_000_000_001L));
+    assertEquals(-7 * 1_000_000L, ArithmeticKernel.INT.repeat('-', 0, 7, 1_000_000));
+    assertEquals(1 << 30, ArithmeticKernel.INT.repeat('*', 1, 2, 30));
+    assertEquals(0, ArithmeticKernel.INT.repeat('*', 1, 2, 31));
+    assertEquals(Integer.MIN_VALUE, ArithmeticKernel.INT.repeat('*', -1, 2, 31));
+    assertEquals(Long.MIN_VALUE, ArithmeticKernel.LONG.repeat('*', 1, -2, 63));
+    assertEquals(0, ArithmeticKernel.LONG.repeat('*', 3, 3, Long.MAX_VALUE));
+    assertEquals(-5, ArithmeticKernel.LONG.repeat('*', 5, -1, Long.MAX_VALUE));
+    assertEquals(-1, ArithmeticKernel.LONG.repeat('+', Long.MIN_VALUE + 1, 1,
+            Long.MAX_VALUE - 1));
+  }
+
+  @Test
+  public void testRepeatOfOtherKernelsSteps() {
+    ArithmeticKernel halves = new ArithmeticKernel() {
+      @Override
+      public boolean canAppendDigit(long value, int digit) {
+        return true;
+      }
+
+      @Override
+      public long calculate(char operation, long left, long right) {
+        return left / 2;
+      }
+    };
+    assertEquals(12, halves.repeat('+', 100, 0, 3));
+    assertEquals(0, halves.repeat('+', 100, 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testRepeatOfOtherKernelsFindsCycles() {
+    // results are kept modulo 1000, so a run of '+' cycles after at most 1000 steps
+    ArithmeticKernel modulo = kernel((left, right) -> Math.floorMod(left + right, 1000));
+    assertEquals(Math.floorMod(5 + 7 * 10_001, 1000), modulo.repeat('+', 5, 7, 10_001));
+    long times = Long.MAX_VALUE;
+    assertEquals(Math.floorMod(5 + 7 * (times % 1000), 1000), modulo.repeat('+', 5, 7, times));
+    ArithmeticKernel negate = kernel((left, right) -> -left);
+    assertEquals(-3, negate.repeat('*', 3, 0, Long.MAX_VALUE));
+    assertEquals(3, negate.repeat('*', 3, 0, Long.MAX_VALUE - 1));
+  }
+
+  @Test
+  public void testRepeatWithoutCycleIsRejected() {
+    ArithmeticKernel wrapping = kernel(Long::sum);
+    assertEquals(1 << 20, wrapping.repeat('+', 0, 1, 1 << 20));
+    try {
+      wrapping.repeat('+', 0, 1, Long.MAX_VALUE);
+      fail("Expected the run to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Cannot repeat an operation"));
+    }
+  }
+
+  @Test
+  public void testExactKernelLongPart() {
+    assertEquals(Long.MAX_VALUE, ArithmeticKernel.EXACT.calculate('+', Long.MAX_VALUE - 1, 1));
+    assertEquals(1L << 62, ArithmeticKernel.EXACT.repeat('*', 1, 2, 62));
+    assertEquals(-7_000_000L, ArithmeticKernel.EXACT.repeat('-', 0, 7, 1_000_000));
+    assertTrue(ArithmeticKernel.EXACT.canAppendDigit(922337203685477580L, 7));
+    assertFalse(ArithmeticKernel.EXACT.canAppendDigit(922337203685477580L, 8));
+    try {
+      ArithmeticKernel.EXACT.calculate('*', 1L << 32, 1L << 31);
+      fail("Expected a product outside the long range to be reported");
+    } catch (ArithmeticException e) {
+      assertEquals("long overflow", e.getMessage());
+    }
+    try {
+      ArithmeticKernel.EXACT.repeat('*', 1, 2, 63);
+      fail("Expected a product outside the long range to be reported");
+    } catch (ArithmeticException e) {
+      assertEquals("long overflow", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testExactKernelCarriesResultsBeyondLong() {
+    SimpleCalculator simple = CalculatorFactory.EXACT.simpleCalculator();
+    String max = Long.toString(Long.MAX_VALUE);
+    BigInteger big = BigInteger.valueOf(Long.MAX_VALUE);
+    assertEquals(big.multiply(big).toString(),
+            simple.inputAll(max + "*" + max + "=").getResult());
+    assertEquals(big.pow(3).negate().toString(),
+            simple.inputAll("0-" + max + "*" + max + "*" + max + "=").getResult());
+    // through 128 bits and back into the long range
+    assertEquals("0", simple.inputAll(max + "*2-" + max + "-" + max + "=").getResult());
+    assertEquals("1", simple.inputAll(max + "*" + max + "*" + max + "*0+1=").getResult());
+    assertEquals("18446744073709551616+",
+            simple.inputAll("4294967296*4294967296+").getResult());
+    assertSame(InputError.OVERFLOW,
+            simple.inputAll("922337203685477580").tryInput('8').getError());
+    // Long.MIN_VALUE squared is 2^126, and doubled it no longer fits in 128 signed bits
+    assertEquals(BigInteger.ONE.shiftLeft(127).toString(), CalculatorFactory.EXACT
+            .smartCalculator().inputAll("0-" + max + "-1=*=*2=").getResult());
+  }
+
+  @Test
+  public void testExactKernelMatchesBigInteger() {
+    Random random = new Random(17);
+    for (int round = 0; round < 2000; round++) {
+      long first = exactOperand(random);
+      StringBuilder keys = new StringBuilder().append(first);
+      BigInteger expected = BigInteger.valueOf(first);
+      for (int step = 1 + random.nextInt(8); step > 0; step--) {
+        char operation = "+-*".charAt(random.nextInt(3));
+        long operand = exactOperand(random);
+        keys.append(operation).append(operand);
+        BigInteger value = BigInteger.valueOf(operand);
+        expected = operation == '+' ? expected.add(value)
+                : operation == '-' ? expected.subtract(value) : expected.multiply(value);
+      }
+      keys.append('=');
+      for (boolean smart : new boolean[] {false, true}) {
+        assertEquals(keys.toString(), expected.toString(),
+                CalculatorFactory.EXACT.calculator(smart).inputAll(keys).getResult());
+      }
+    }
+  }
+
+  // operands of every length, so that results cross 64 and 128 bits in both directions
+  private static long exactOperand(Random random) {
+    return random.nextLong() >>> 1 + random.nextInt(63);
+  }
+
+  @Test
+  public void testExactRepeatedEqualsMatchesSteps() {
+    SmartCalculator smart = CalculatorFactory.EXACT.smartCalculator();
+    String max = Long.toString(Long.MAX_VALUE);
+    for (String keys : new String[] {"3*=", max + "*=", max + "+=", "5-" + max + "=",
+        max + "*" + max + "=", "0-2*3=", "7*1="}) {
+      SmartCalculator calculator = smart.inputAll(keys);
+      SmartCalculator stepped = calculator;
+      for (int times = 0; times <= 40; times++) {
+        assertEquals(keys + " x" + times, stepped.getResult(),
+                calculator.inputEquals(times).getResult());
+        stepped = stepped.input('=');
+      }
+    }
+    assertEquals("0", smart.inputAll("0*9=").inputEquals(Long.MAX_VALUE).getResult());
+    assertEquals(BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.valueOf((1L << 40) + 1))
+            .add(BigInteger.ONE).toString(),
+            smart.inputAll("1+" + max + "=").inputEquals(1L << 40).getResult());
+    try {
+      smart.inputAll("2*=").inputEquals(1L << 21);
+      fail("Expected a product of more than 1 << 20 bits to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Cannot repeat the product"));
+    }
+  }
+
+  @Test
+  public void testExactKernelInputAllTypesKeyByKey() {
+    SimpleCalculator simple = CalculatorFactory.EXACT.simpleCalculator();
+    assertEquals("12*3", simple.inputAll("xx12*3".toCharArray(), 2, 4).getResult());
+    assertEquals(3, CalculatorFactory.EXACT.smartCalculator().tryInputAll("1+2/").getIndex());
+    try {
+      simple.inputAll("1++");
+      fail("Expected two operators in a row to be rejected");
+    } catch (KeystrokeException e) {
+      assertEquals(2, e.getIndex());
+      assertSame(InputError.DOUBLE_OPERATOR, e.getError());
+      assertEquals("Cannot input two operators in a row", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testLongEnginesRejectTheExactKernel() {
+    List<Runnable> engines = Arrays.asList(
+        () -> new PackedCalculator(true, ArithmeticKernel.EXACT),
+        () -> new TableCalculator(false, ArithmeticKernel.EXACT),
+        () -> CalculatorFactory.EXACT.packedCalculator(false),
+        () -> KeystrokeTemplate.compile("A+B=", true, ArithmeticKernel.EXACT),
+        () -> CalculatorSnapshot.write(CalculatorFactory.EXACT.simpleCalculator(),
+                ByteBuffer.allocate(64)));
+    for (Runnable engine : engines) {
+      try {
+        engine.run();
+        fail("Expected the EXACT kernel to be rejected");
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().endsWith("kernel EXACT"));
+      }
+    }
+  }
+
+  private static ArithmeticKernel kernel(LongBinaryOperator step) {
+    return new ArithmeticKernel() {
+      @Override
+      public boolean canAppendDigit(long value, int digit) {
+        return true;
+      }
+
+      @Override
+      public long calculate(char operation, long left, long right) {
+        return step.applyAsLong(left, right);
+      }
+    };
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeRepeatIsRejected() {
+    ArithmeticKernel.INT.repeat('+', 1, 1, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullKernelIsRejected() {
+    new CalculatorFactory(null);
+  }
+}
@@ -0,0 +1,229 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import calculator.CalculatorProcessor;
+import calculator.InputError;
+import calculator.KeystrokeException;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the CalculatorProcessor class. Keystrokes come from a publisher that records
+ * how many keys were requested, so the tests can check that a subscriber without demand
+ * holds the keystrokes back.
+ */
+public class CalculatorProcessorTest {
+
+  @Test
+  public void testPublishesOnEquals() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SimpleCalculator(), true, 0);
+    RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+    processor.subscribe(subscriber);
+    new KeyPublisher("1+2=*4=").subscribe(processor);
+    assertEquals(List.of("3", "12"), subscriber.snapshots);
+    assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void testPublishesEveryKeysAndOnComplete() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SmartCalculator(), false, 2);
+    RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+    processor.subscribe(subscriber);
+    new KeyPublisher("12+34").subscribe(processor);
+    assertEquals(List.of("12", "12+3", "12+34"), subscriber.snapshots);
+    assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void testNoDemandHoldsKeystrokesBack() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SmartCalculator(), false, 1, 8);
+    RecordingSubscriber subscriber = new RecordingSubscriber(0);
+    processor.subscribe(subscriber);
+    KeyPublisher publisher = new KeyPublisher("1+1" + "=".repeat(1000));
+    publisher.subscribe(processor);
+    assertEquals(8, publisher.requested);
+    assertTrue(subscriber.snapshots.isEmpty());
+
+    subscriber.subscription.request(5);
+    assertEquals(List.of("1", "1+", "1+1", "2", "3"), subscriber.snapshots);
+    assertTrue(publisher.requested <= 8 + 5);
+    assertFalse(subscriber.completed);
+  }
+
+  @Test
+  public void testDemandIsHonoured() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SmartCalculator(), true, 0);
+    RecordingSubscriber subscriber = new RecordingSubscriber(1);
+    processor.subscribe(subscriber);
+    new KeyPublisher("1+1====").subscribe(processor);
+    assertEquals(List.of("2"), subscriber.snapshots);
+    subscriber.subscription.request(10);
+    assertEquals(List.of("2", "3", "4", "5"), subscriber.snapshots);
+    assertTrue(subscriber.completed);
+  }
+
+  @Test
+  public void testRejectedKeystrokeEndsTheStream() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SimpleCalculator(), true, 0);
+    RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+    processor.subscribe(subscriber);
+    KeyPublisher publisher = new KeyPublisher("2*3=**4=");
+    publisher.subscribe(processor);
+    assertEquals(List.of("6"), subscriber.snapshots);
+    assertTrue(publisher.cancelled);
+    KeystrokeException error = (KeystrokeException) subscriber.error;
+    assertEquals(InputError.DOUBLE_OPERATOR, error.getError());
+    assertEquals(5, error.getIndex());
+    try {
+      new SimpleCalculator().inputAll("2*3=**");
+      fail("Expected the second '*' to be rejected");
+    } catch (KeystrokeException e) {
+      assertEquals(e.getMessage(), error.getMessage());
+    }
+    assertFalse(subscriber.completed);
+  }
+
+  @Test
+  public void testCancelStopsKeystrokes() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SimpleCalculator(), false, 1, 4);
+    RecordingSubscriber subscriber = new RecordingSubscriber(2);
+    processor.subscribe(subscriber);
+    KeyPublisher publisher = new KeyPublisher("123456789");
+    publisher.subscribe(processor);
+    subscriber.subscription.cancel();
+    assertTrue(publisher.cancelled);
+    assertEquals(List.of("1", "12"), subscriber.snapshots);
+    assertNull(subscriber.error);
+  }
+
+  @Test
+  public void testSecondSubscriberIsRejected() {
+    CalculatorProcessor processor = new CalculatorProcessor(new SimpleCalculator(), true, 0);
+    processor.subscribe(new RecordingSubscriber(1));
+    RecordingSubscriber second = new RecordingSubscriber(1);
+    processor.subscribe(second);
+    assertEquals(IllegalStateException.class, second.error.getClass());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoEventIsRejected() {
+    new CalculatorProcessor(new SimpleCalculator(), false, 0);
+  }
+
+  @Test
+  public void testAsynchronousPublisher() throws InterruptedException {
+    CalculatorProcessor processor = new CalculatorProcessor(new SmartCalculator(), true, 0, 4);
+    RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+    processor.subscribe(subscriber);
+    try (SubmissionPublisher<Character> publisher = new SubmissionPublisher<>()) {
+      publisher.subscribe(processor);
+      for (char key : ("1+1" + "=".repeat(500)).toCharArray()) {
+        publisher.submit(key);
+      }
+    }
+    assertTrue(subscriber.await(10, TimeUnit.SECONDS));
+    assertEquals(500, subscriber.snapshots.size());
+    assertEquals("501", subscriber.snapshots.get(499));
+  }
+
+  /**
+   * Publishes the characters of a string on the caller's thread as they are requested.
+   */
+  private static final class KeyPublisher implements Flow.Publisher<Character> {
+
+    private final String keys;
+    private int next;
+    private long requested;
+    private long demand;
+    private boolean emitting;
+    private boolean cancelled;
+
+    KeyPublisher(String keys) {
+      this.keys = keys;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Character> subscriber) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+          requested += n;
+          demand += n;
+          if (emitting) {
+            return;
+          }
+          emitting = true;
+          while (demand > 0 && next < keys.length() && !cancelled) {
+            demand--;
+            subscriber.onNext(keys.charAt(next++));
+          }
+          emitting = false;
+          if (next == keys.length() && !cancelled) {
+            next++;
+            subscriber.onComplete();
+          }
+        }
+
+        @Override
+        public void cancel() {
+          cancelled = true;
+        }
+      });
+    }
+  }
+
+  private static final class RecordingSubscriber implements Flow.Subscriber<String> {
+
+    private final long initialDemand;
+    private final List<String> snapshots = new ArrayList<>();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Flow.Subscription subscription;
+    private volatile boolean completed;
+    private volatile Throwable error;
+
+    RecordingSubscriber(long initialDemand) {
+      this.initialDemand = initialDemand;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (initialDemand > 0) {
+        subscription.request(initialDemand);
+      }
+    }
+
+    @Override
+    public void onNext(String item) {
+      snapshots.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      finished.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+      finished.countDown();
+    }
+
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+      return finished.await(timeout, unit);
+    }
+  }
+}
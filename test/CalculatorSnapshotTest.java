@@ -0,0 +1,206 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import calculator.ArithmeticKernel;
+import calculator.Calculator;
+import calculator.CalculatorFactory;
+import calculator.CalculatorSnapshot;
+import calculator.InputResult;
+import calculator.PackedCalculator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the CalculatorSnapshot class. Random sessions are written and read back,
+ * one record at a time and through a snapshot file, and the restored calculators must show
+ * the same display and react to further keystrokes like the originals.
+ */
+public class CalculatorSnapshotTest {
+
+  private static final String ALPHABET = "0123456789+-*=C\u0663";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRecordRoundTrip() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    Calculator calculator = new SmartCalculator().inputAll("12+3=");
+    CalculatorSnapshot.write(calculator, buffer);
+    buffer.flip();
+    Calculator restored = CalculatorSnapshot.read(buffer);
+    assertFalse(buffer.hasRemaining());
+    assertTrue(restored instanceof SmartCalculator);
+    assertEquals("15", restored.getResult());
+    assertEquals("18", restored.input('=').getResult());
+  }
+
+  @Test
+  public void testDerivedDisplaysAreNotWritten() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CalculatorSnapshot.write(new SimpleCalculator().inputAll("1234+5678"), buffer);
+    assertEquals(5, buffer.position());
+  }
+
+  @Test
+  public void testEmptyStateRestoresSharedInstance() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CalculatorSnapshot.write(new SimpleCalculator(), buffer);
+    buffer.flip();
+    assertSame(new SimpleCalculator().input('C'), CalculatorSnapshot.read(buffer));
+  }
+
+  @Test
+  public void testIncompleteRecordKeepsPosition() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CalculatorSnapshot.write(new SimpleCalculator().inputAll("1+05"), buffer);
+    buffer.flip().limit(buffer.limit() - 1);
+    try {
+      CalculatorSnapshot.read(buffer);
+    } catch (BufferUnderflowException e) {
+      assertEquals(0, buffer.position());
+      return;
+    }
+    throw new AssertionError("Expected a BufferUnderflowException");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOtherCalculatorIsRejected() {
+    CalculatorSnapshot.write(new PackedCalculator(true), ByteBuffer.allocate(64));
+  }
+
+  @Test
+  public void testKernelIsRestored() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CalculatorSnapshot.write(CalculatorFactory.LONG.smartCalculator().inputAll("65536*65536"),
+            buffer);
+    buffer.flip();
+    SmartCalculator restored = (SmartCalculator) CalculatorSnapshot.read(buffer);
+    assertSame(CalculatorFactory.LONG, restored.getFactory());
+    assertEquals("4294967296", restored.input('=').getResult());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOtherKernelIsRejected() {
+    ArithmeticKernel halves = new ArithmeticKernel() {
+      @Override
+      public boolean canAppendDigit(long value, int digit) {
+        return true;
+      }
+
+      @Override
+      public long calculate(char operation, long left, long right) {
+        return left / 2;
+      }
+    };
+    CalculatorSnapshot.write(new CalculatorFactory(halves).simpleCalculator(),
+            ByteBuffer.allocate(64));
+  }
+
+  @Test
+  public void testRandomSessionsRoundTrip() {
+    Random random = new Random(21);
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    for (int session = 0; session < 2000; session++) {
+      Calculator calculator = randomSession(random, session % 2 == 0);
+      buffer.clear();
+      CalculatorSnapshot.write(calculator, buffer);
+      buffer.flip();
+      assertSameBehaviour(random, calculator, CalculatorSnapshot.read(buffer));
+    }
+  }
+
+  @Test
+  public void testSnapshotFile() throws IOException {
+    Random random = new Random(22);
+    List<Calculator> sessions = new ArrayList<>();
+    for (int session = 0; session < 50_000; session++) {
+      sessions.add(randomSession(random, random.nextBoolean()));
+    }
+    // a display longer than the write buffer
+    sessions.add(new SimpleCalculator().inputAll("1+" + "0".repeat(2_000_000)));
+    Path file = folder.newFile("sessions.snapshot").toPath();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      long written = CalculatorSnapshot.writeAll(sessions, channel);
+      assertEquals(channel.size(), written);
+    }
+    List<Calculator> restored;
+    try (FileChannel channel = FileChannel.open(file)) {
+      restored = CalculatorSnapshot.readAll(channel);
+    }
+    assertEquals(sessions.size(), restored.size());
+    for (int i = 0; i < sessions.size(); i++) {
+      assertSameBehaviour(random, sessions.get(i), restored.get(i));
+    }
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void testTruncatedFile() throws IOException {
+    Path file = folder.newFile("truncated.snapshot").toPath();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      CalculatorSnapshot.writeAll(List.of(new SimpleCalculator().inputAll("12+3")), channel);
+      channel.truncate(channel.size() - 1);
+    }
+    try (FileChannel channel = FileChannel.open(file)) {
+      CalculatorSnapshot.readAll(channel);
+    }
+  }
+
+  @Test(expected = StreamCorruptedException.class)
+  public void testNotASnapshot() throws IOException {
+    Path file = folder.newFile("other.snapshot").toPath();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap("12+3=\n7*8=\n".getBytes()));
+    }
+    try (FileChannel channel = FileChannel.open(file)) {
+      CalculatorSnapshot.readAll(channel);
+    }
+  }
+
+  private static Calculator randomSession(Random random, boolean smart) {
+    Calculator calculator = smart ? new SmartCalculator() : new SimpleCalculator();
+    int length = random.nextInt(30);
+    for (int i = 0; i < length; i++) {
+      InputResult next = calculator.tryInput(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+      if (!next.isError()) {
+        calculator = next.getCalculator();
+      }
+    }
+    return calculator;
+  }
+
+  private static void assertSameBehaviour(Random random, Calculator expected, Calculator actual) {
+    assertEquals(expected.getClass(), actual.getClass());
+    assertEquals(expected.getResult(), actual.getResult());
+    for (int i = 0; i < 8; i++) {
+      char key = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+      InputResult next = expected.tryInput(key);
+      InputResult restored = actual.tryInput(key);
+      assertEquals(next.isError(), restored.isError());
+      if (next.isError()) {
+        assertSame(next.getError(), restored.getError());
+      } else {
+        expected = next.getCalculator();
+        actual = restored.getCalculator();
+        assertEquals(expected.getResult(), actual.getResult());
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import calculator.Calculator;
+import calculator.DifferentialHarness;
+import calculator.KeystrokeGenerator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the DifferentialHarness class. The engines of each rule set must agree on
+ * random sessions, typed key by key and in one call, and engines following different rules
+ * must be reported as diverging.
+ */
+public class DifferentialHarnessTest {
+
+  @Test
+  public void testEnginesAgree() {
+    for (boolean smart : new boolean[] {false, true}) {
+      DifferentialHarness.Report report = DifferentialHarness.forEngines(smart)
+              .run(new KeystrokeGenerator(23, 0, 40), 5000);
+      assertEquals(report.getDivergences().toString(), 0, report.getDivergenceCount());
+      assertTrue(report.getKeystrokes() > 0);
+      assertTrue(report.getErrorShare() > 0 && report.getErrorShare() < 1);
+      assertTrue(report.getKeystrokesPerSecond("packed") > 0);
+    }
+  }
+
+  @Test
+  public void testEqualsRunsAgree() {
+    DifferentialHarness.Report report = DifferentialHarness.forEngines(true)
+            .run(new KeystrokeGenerator(25, 4, 30, 4, 2, 6, 1, 0), 2000);
+    assertEquals(report.getDivergences().toString(), 0, report.getDivergenceCount());
+  }
+
+  @Test
+  public void testDivergenceIsReported() {
+    Map<String, Supplier<Calculator>> engines = new LinkedHashMap<>();
+    engines.put("simple", SimpleCalculator::new);
+    engines.put("smart", SmartCalculator::new);
+    DifferentialHarness.Report report = new DifferentialHarness(engines)
+            .run(new KeystrokeGenerator(23, 0, 40), 1000);
+    assertTrue(report.getDivergenceCount() > 0);
+    assertTrue(report.getDivergences().size() <= 10);
+    assertTrue(report.getDivergences().get(0).startsWith("smart after "));
+  }
+
+  @Test
+  public void testSameEngineTwice() {
+    Map<String, Supplier<Calculator>> engines = new LinkedHashMap<>();
+    engines.put("first", SmartCalculator::new);
+    engines.put("second", SmartCalculator::new);
+    DifferentialHarness.Report report = new DifferentialHarness(engines)
+            .run(new KeystrokeGenerator(4, 0, 10, 1, 1, 1, 1, 1), 5000);
+    assertEquals(0, report.getDivergenceCount());
+    assertEquals(5000 * 5, report.getKeystrokes(), 5000 * 5 * 0.1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoEngine() {
+    new DifferentialHarness(new LinkedHashMap<String, Supplier<Calculator>>());
+  }
+}
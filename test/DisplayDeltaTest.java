@@ -0,0 +1,131 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import calculator.ArithmeticKernel;
+import calculator.Calculator;
+import calculator.CalculatorFactory;
+import calculator.DisplayDelta;
+import calculator.InputResult;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+import calculator.TransitionCache;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the DisplayDelta class. Besides the kind of delta each transition gives,
+ * random keystrokes are typed into both calculators and the deltas between successive
+ * calculators, applied one after the other, must rebuild the display of the last one.
+ */
+public class DisplayDeltaTest {
+
+  @Test
+  public void testDigitAndOperatorAppend() {
+    Calculator before = new SimpleCalculator().inputAll("12");
+    DisplayDelta delta = DisplayDelta.between(before, before.input('+'));
+    assertEquals(DisplayDelta.Kind.APPEND, delta.getKind());
+    assertEquals(2, delta.getKeep());
+    assertEquals("+", delta.getText());
+  }
+
+  @Test
+  public void testOperatorReplacementReplacesLast() {
+    Calculator before = new SmartCalculator().inputAll("12+");
+    DisplayDelta delta = DisplayDelta.between(before, before.input('*'));
+    assertEquals(DisplayDelta.Kind.REPLACE_LAST, delta.getKind());
+    assertEquals("12*", delta.applyTo("12+"));
+  }
+
+  @Test
+  public void testEqualsResets() {
+    Calculator before = new SimpleCalculator().inputAll("12+34");
+    DisplayDelta delta = DisplayDelta.between(before, before.input('='));
+    assertEquals(DisplayDelta.Kind.RESET, delta.getKind());
+    assertEquals(0, delta.getKeep());
+    assertEquals("46", delta.getText());
+  }
+
+  @Test
+  public void testResultStartingWithOldTextResets() {
+    Calculator before = new SimpleCalculator().inputAll("10+0");
+    DisplayDelta delta = DisplayDelta.between(before, before.input('='));
+    assertEquals(DisplayDelta.Kind.RESET, delta.getKind());
+    assertEquals(0, delta.getKeep());
+    assertEquals("10", delta.getText());
+    assertEquals(DisplayDelta.Kind.TRUNCATE, DisplayDelta.between("10+0", "10").getKind());
+  }
+
+  @Test
+  public void testDeltaOverSeveralKeystrokes() {
+    Calculator before = new SmartCalculator().input('1').input('2');
+    Calculator after = before.input('+').input('3').input('4');
+    DisplayDelta delta = DisplayDelta.between(before, after);
+    assertEquals(DisplayDelta.Kind.APPEND, delta.getKind());
+    assertEquals("+34", delta.getText());
+    assertEquals(DisplayDelta.Kind.TRUNCATE, DisplayDelta.between(after, before).getKind());
+  }
+
+  @Test
+  public void testClearTruncates() {
+    Calculator before = new SmartCalculator().inputAll("12+3");
+    DisplayDelta delta = DisplayDelta.between(before, before.input('C'));
+    assertEquals(DisplayDelta.Kind.TRUNCATE, delta.getKind());
+    assertEquals(0, delta.getKeep());
+  }
+
+  @Test
+  public void testUnchangedDisplay() {
+    Calculator before = new SimpleCalculator().inputAll("7+");
+    assertEquals(DisplayDelta.Kind.NONE, DisplayDelta.between(before, before).getKind());
+  }
+
+  @Test
+  public void testTextsWithoutCalculators() {
+    assertEquals(DisplayDelta.Kind.TRUNCATE, DisplayDelta.between("123", "12").getKind());
+    assertEquals(DisplayDelta.Kind.APPEND, DisplayDelta.between("12", "12+3").getKind());
+    assertEquals(DisplayDelta.Kind.RESET, DisplayDelta.between("12+3", "15").getKind());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDisplayTooShort() {
+    DisplayDelta.between("12", "12+").applyTo("1");
+  }
+
+  @Test
+  public void testDeltasRebuildDisplay() {
+    replayRandomKeys(false);
+    replayRandomKeys(true);
+  }
+
+  @Test
+  public void testDeltasRebuildDisplayWithCache() {
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT,
+            new TransitionCache(64));
+    replayRandomKeys(factory, false);
+    replayRandomKeys(factory, true);
+  }
+
+  private static void replayRandomKeys(boolean smart) {
+    replayRandomKeys(CalculatorFactory.INT, smart);
+  }
+
+  private static void replayRandomKeys(CalculatorFactory factory, boolean smart) {
+    Random random = new Random(20);
+    String keys = "0123456789+-*=C";
+    for (int session = 0; session < 200; session++) {
+      Calculator calculator = factory.calculator(smart);
+      StringBuilder display = new StringBuilder();
+      for (int i = 0; i < 60; i++) {
+        InputResult next = calculator.tryInput(keys.charAt(random.nextInt(keys.length())));
+        if (next.isError()) {
+          continue;
+        }
+        DisplayDelta delta = DisplayDelta.between(calculator, next.getCalculator());
+        delta.applyTo(display);
+        calculator = next.getCalculator();
+        assertEquals(delta.toString(), calculator.getResult(), display.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+import org.junit.Test;
+
+import calculator.KeystrokeGenerator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the KeystrokeGenerator class: sessions are reproducible from their seed,
+ * stay within the lengths, and only hold the kinds of keys given a weight.
+ */
+public class KeystrokeGeneratorTest {
+
+  @Test
+  public void testSameSeedSameSessions() {
+    KeystrokeGenerator first = new KeystrokeGenerator(5, 0, 30);
+    KeystrokeGenerator second = new KeystrokeGenerator(5, 0, 30);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(first.nextSession(), second.nextSession());
+    }
+    assertNotEquals(new KeystrokeGenerator(6, 30, 30).nextSession(),
+            new KeystrokeGenerator(5, 30, 30).nextSession());
+  }
+
+  @Test
+  public void testLengths() {
+    KeystrokeGenerator generator = new KeystrokeGenerator(1, 3, 7);
+    for (int i = 0; i < 1000; i++) {
+      int length = generator.nextSession().length();
+      assertTrue(length >= 3 && length <= 7);
+    }
+  }
+
+  @Test
+  public void testMix() {
+    KeystrokeGenerator generator = new KeystrokeGenerator(2, 100, 100, 1, 0, 1, 0, 0);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(generator.nextSession().matches("[0-9=]{100}"));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoWeight() {
+    new KeystrokeGenerator(2, 1, 1, 0, 0, 0, 0, 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testLengthsOutOfOrder() {
+    new KeystrokeGenerator(2, 5, 4);
+  }
+}
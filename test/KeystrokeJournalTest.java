@@ -0,0 +1,106 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import calculator.KeystrokeJournal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the KeystrokeJournal class. Records are appended, committed in groups and
+ * replayed after the journal is opened again, including a journal whose last record was
+ * only partly written.
+ */
+public class KeystrokeJournalTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testRecordsSurviveReopening() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("keys.journal");
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 1, TimeUnit.MILLISECONDS, 64)) {
+      journal.append(3, KeystrokeJournal.OPENED);
+      journal.append(3, '1');
+      journal.sync(journal.append(3, '+'));
+    }
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 1, TimeUnit.MILLISECONDS, 64)) {
+      assertEquals(3, journal.getRecordCount());
+      assertEquals(List.of("3:" + KeystrokeJournal.OPENED, "3:1", "3:+"), replay(journal, 0));
+      assertEquals(List.of("3:+"), replay(journal, 2));
+      assertEquals(4, journal.append(4, '9'));
+    }
+  }
+
+  @Test
+  public void testGroupCommit() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("keys.journal");
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 10, TimeUnit.SECONDS, 100)) {
+      long records = 0;
+      for (int i = 0; i < 1000; i++) {
+        records = journal.append(i % 7, '5');
+      }
+      journal.sync(records);
+      // the delay is far away, so only full batches were committed
+      assertTrue(journal.getCommitCount() <= 10);
+    }
+  }
+
+  @Test
+  public void testDelayCommitsSmallGroup() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("keys.journal");
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 5, TimeUnit.MILLISECONDS,
+            1_000_000)) {
+      journal.sync(journal.append(1, '2'));
+      assertEquals(1, journal.getCommitCount());
+    }
+  }
+
+  @Test
+  public void testPartlyWrittenRecordIsDropped() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("keys.journal");
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 0, TimeUnit.MILLISECONDS, 1)) {
+      journal.sync(journal.append(8, '7'));
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0}));
+    }
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 0, TimeUnit.MILLISECONDS, 1)) {
+      assertEquals(1, journal.getRecordCount());
+      journal.sync(journal.append(8, '='));
+    }
+    try (KeystrokeJournal journal = new KeystrokeJournal(file, 0, TimeUnit.MILLISECONDS, 1)) {
+      assertEquals(List.of("8:7", "8:="), replay(journal, 0));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testAppendAfterClose() throws IOException {
+    Path file = folder.getRoot().toPath().resolve("keys.journal");
+    KeystrokeJournal journal = new KeystrokeJournal(file, 0, TimeUnit.MILLISECONDS, 1);
+    journal.close();
+    journal.append(1, '1');
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBatchMustBePositive() throws IOException {
+    new KeystrokeJournal(folder.getRoot().toPath().resolve("keys.journal"), 0,
+            TimeUnit.MILLISECONDS, 0);
+  }
+
+  private static List<String> replay(KeystrokeJournal journal, long from) throws IOException {
+    List<String> records = new ArrayList<>();
+    journal.replay(from, (session, key) -> records.add(session + ":" + key));
+    return records;
+  }
+}
@@ -0,0 +1,163 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import calculator.ArithmeticKernel;
+import calculator.CalculatorFactory;
+import calculator.KeystrokeTemplate;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the KeystrokeTemplate class. Random templates under both rules are
+ * evaluated with random operands, including operands large enough to be clamped, and must
+ * give the result a calculator shows after typing the same keystrokes.
+ */
+public class KeystrokeTemplateTest {
+
+  @Test
+  public void testEvaluate() {
+    KeystrokeTemplate template = KeystrokeTemplate.compile("A*B+C=", false);
+    assertEquals(3, template.getOperandCount());
+    assertEquals(26, template.evaluate(4, 5, 6));
+    assertEquals(6, template.evaluate(0, 5, 6));
+  }
+
+  @Test
+  public void testRepeatedLetterIsTheSameOperand() {
+    KeystrokeTemplate template = KeystrokeTemplate.compile("A*A-B=", false);
+    assertEquals(2, template.getOperandCount());
+    assertEquals(47, template.evaluate(7, 2));
+  }
+
+  @Test
+  public void testSmartRepeatedEquals() {
+    KeystrokeTemplate template = KeystrokeTemplate.compile("A+B===", true);
+    assertEquals(13, template.evaluate(1, 4));
+  }
+
+  @Test
+  public void testSmartOperatorThenEqualsUsesResult() {
+    assertEquals(27, KeystrokeTemplate.compile("A*==", true).evaluate(3));
+  }
+
+  @Test
+  public void testOutOfRangeResultIsClamped() {
+    assertEquals(0, KeystrokeTemplate.compile("A*B=", false).evaluate(65536, 65536));
+  }
+
+  @Test
+  public void testKernelIsBoundAtCompileTime() {
+    KeystrokeTemplate intTemplate = KeystrokeTemplate.compile("A*B=", true);
+    KeystrokeTemplate wideTemplate = KeystrokeTemplate.compile("A*B=", true,
+            ArithmeticKernel.LONG);
+    assertEquals(0, intTemplate.evaluate(65536, 65536));
+    assertEquals(4294967296L, wideTemplate.evaluate(65536, 65536));
+    assertEquals(9000000000L, wideTemplate.evaluate(3000000000L, 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectedTemplate() {
+    KeystrokeTemplate.compile("A+*B=", false);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTemplateWithoutEquals() {
+    KeystrokeTemplate.compile("A+B", true);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAdjacentOperands() {
+    KeystrokeTemplate.compile("AB=", true);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOperandThatCannotBeTyped() {
+    KeystrokeTemplate.compile("A=", true).evaluate(Integer.MAX_VALUE + 1L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongNumberOfOperands() {
+    KeystrokeTemplate.compile("A+B=", true).evaluate(1);
+  }
+
+  @Test
+  public void testMatchesCalculators() {
+    compareRandomTemplates(CalculatorFactory.INT, false);
+    compareRandomTemplates(CalculatorFactory.INT, true);
+  }
+
+  @Test
+  public void testMatchesCalculatorsWithLongKernel() {
+    compareRandomTemplates(CalculatorFactory.LONG, false);
+    compareRandomTemplates(CalculatorFactory.LONG, true);
+  }
+
+  private static void compareRandomTemplates(CalculatorFactory factory, boolean smart) {
+    Random random = new Random(18);
+    int compiled = 0;
+    while (compiled < 500) {
+      KeystrokeTemplate template;
+      try {
+        template = KeystrokeTemplate.compile(randomTemplate(random), smart,
+                factory.getKernel());
+      } catch (IllegalArgumentException e) {
+        continue;
+      }
+      compiled++;
+      for (int run = 0; run < 20; run++) {
+        long[] operands = new long[template.getOperandCount()];
+        for (int i = 0; i < operands.length; i++) {
+          operands[i] = randomOperand(random);
+        }
+        String expected = factory.calculator(smart).inputAll(keys(template.getTemplate(), operands))
+                .getResult();
+        assertEquals(template.getTemplate(), expected,
+                String.valueOf(template.evaluate(operands)));
+      }
+    }
+  }
+
+  private static String randomTemplate(Random random) {
+    StringBuilder template = new StringBuilder();
+    int length = 1 + random.nextInt(12);
+    for (int i = 0; i < length; i++) {
+      int token = random.nextInt(5);
+      if (token < 2) {
+        template.append("ABC".charAt(random.nextInt(3)));
+      } else if (token < 4) {
+        template.append("+-*".charAt(random.nextInt(3)));
+      } else {
+        template.append('=');
+      }
+    }
+    return template.append('=').toString();
+  }
+
+  private static long randomOperand(Random random) {
+    switch (random.nextInt(3)) {
+      case 0:
+        return random.nextInt(10);
+      case 1:
+        return random.nextInt(100_000);
+      default:
+        return random.nextInt(Integer.MAX_VALUE);
+    }
+  }
+
+  private static String keys(String template, long[] operands) {
+    StringBuilder keys = new StringBuilder();
+    String letters = "";
+    for (char c : template.toCharArray()) {
+      if (c >= 'A' && c <= 'Z') {
+        if (letters.indexOf(c) < 0) {
+          letters += c;
+        }
+        keys.append(operands[letters.indexOf(c)]);
+      } else {
+        keys.append(c);
+      }
+    }
+    return keys.toString();
+  }
+}
@@ -0,0 +1,95 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import calculator.LongIntMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the LongIntMap class. Random puts and removes, including many made while
+ * the table is being grown, are checked against a HashMap.
+ */
+public class LongIntMapTest {
+
+  @Test
+  public void testPutGetRemove() {
+    LongIntMap map = new LongIntMap();
+    assertEquals(LongIntMap.NO_VALUE, map.put(42L, 7));
+    assertEquals(7, map.get(42L));
+    assertEquals(7, map.put(42L, 9));
+    assertEquals(9, map.get(42L));
+    assertTrue(map.containsKey(42L));
+    assertEquals(9, map.remove(42L));
+    assertFalse(map.containsKey(42L));
+    assertEquals(LongIntMap.NO_VALUE, map.remove(42L));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testExtremeKeysAndValues() {
+    LongIntMap map = new LongIntMap();
+    map.put(0L, 0);
+    map.put(-1L, Integer.MAX_VALUE - 1);
+    map.put(Long.MIN_VALUE, 3);
+    map.put(Long.MAX_VALUE, 4);
+    assertEquals(0, map.get(0L));
+    assertEquals(Integer.MAX_VALUE - 1, map.get(-1L));
+    assertEquals(3, map.get(Long.MIN_VALUE));
+    assertEquals(4, map.get(Long.MAX_VALUE));
+    assertEquals(4, map.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeValueIsRejected() {
+    new LongIntMap().put(1L, -1);
+  }
+
+  @Test
+  public void testSequentialKeysWhileGrowing() {
+    LongIntMap map = new LongIntMap();
+    for (int i = 0; i < 100_000; i++) {
+      map.put(i, i);
+      assertEquals(i / 2, map.get(i / 2));
+    }
+    assertEquals(100_000, map.size());
+    for (int i = 0; i < 100_000; i += 2) {
+      assertEquals(i, map.remove(i));
+    }
+    for (int i = 0; i < 100_000; i++) {
+      assertEquals(i % 2 == 0 ? LongIntMap.NO_VALUE : i, map.get(i));
+    }
+    assertEquals(50_000, map.size());
+  }
+
+  @Test
+  public void testMatchesHashMap() {
+    Random random = new Random(14);
+    LongIntMap map = new LongIntMap();
+    Map<Long, Integer> expected = new HashMap<>();
+    for (int step = 0; step < 1_000_000; step++) {
+      // a small key range makes removes and overwrites common
+      long key = random.nextInt(step < 500_000 ? 200_000 : 20_000) * 0x9E3779B97F4A7C15L;
+      int operation = random.nextInt(10);
+      if (operation < 5) {
+        int value = random.nextInt(Integer.MAX_VALUE);
+        Integer previous = expected.put(key, value);
+        assertEquals(previous == null ? LongIntMap.NO_VALUE : previous, map.put(key, value));
+      } else if (operation < 8) {
+        Integer previous = expected.remove(key);
+        assertEquals(previous == null ? LongIntMap.NO_VALUE : previous, map.remove(key));
+      } else {
+        Integer value = expected.get(key);
+        assertEquals(value == null ? LongIntMap.NO_VALUE : value, map.get(key));
+      }
+      assertEquals(expected.size(), map.size());
+    }
+    for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+      assertEquals((int) entry.getValue(), map.get(entry.getKey()));
+    }
+  }
+}
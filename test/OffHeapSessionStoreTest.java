@@ -0,0 +1,168 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import calculator.Calculator;
+import calculator.InputError;
+import calculator.InputResult;
+import calculator.OffHeapSessionStore;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the OffHeapSessionStore class. Many interleaved sessions are driven with
+ * random keystrokes and compared with SimpleCalculator and SmartCalculator sessions, and the
+ * displays that do not fit in a slot are checked separately.
+ */
+public class OffHeapSessionStoreTest {
+
+  private static final String ALPHABET = "0123456789+-*=C/";
+
+  @Test
+  public void testInputAndResult() {
+    OffHeapSessionStore store = new OffHeapSessionStore(false);
+    int session = store.open();
+    for (char c : "52+52+3=".toCharArray()) {
+      store.input(session, c);
+    }
+    assertEquals("107", store.getResult(session));
+    assertEquals("107", store.get(session).getResult());
+  }
+
+  @Test
+  public void testTryInputLeavesSessionUnchanged() {
+    OffHeapSessionStore store = new OffHeapSessionStore(false);
+    int session = store.open();
+    assertSame(InputError.BAD_START, store.tryInput(session, '*'));
+    assertNull(store.tryInput(session, '9'));
+    assertNull(store.tryInput(session, '-'));
+    assertSame(InputError.DOUBLE_OPERATOR, store.tryInput(session, '-'));
+    assertEquals("9-", store.getResult(session));
+  }
+
+  @Test
+  public void testInputThrowsCalculatorMessage() {
+    OffHeapSessionStore store = new OffHeapSessionStore(true);
+    int session = store.open();
+    try {
+      store.input(session, '*');
+      fail("Expected a rejected keystroke");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Operation cannot start with the operator", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testGetReturnsIndependentCalculator() {
+    OffHeapSessionStore store = new OffHeapSessionStore(true);
+    int session = store.open();
+    for (char c : "7+2=".toCharArray()) {
+      store.input(session, c);
+    }
+    Calculator snapshot = store.get(session);
+    store.input(session, '=');
+    assertEquals("11", store.getResult(session));
+    assertEquals("9", snapshot.getResult());
+    assertEquals("11", snapshot.input('=').getResult());
+  }
+
+  @Test
+  public void testLongDisplayIsKept() {
+    OffHeapSessionStore store = new OffHeapSessionStore(false);
+    int session = store.open();
+    StringBuilder expected = new StringBuilder("1+");
+    store.input(session, '1');
+    store.input(session, '+');
+    for (int i = 0; i < 100; i++) {
+      store.input(session, '0');
+      expected.append('0');
+    }
+    assertEquals(expected.toString(), store.getResult(session));
+    store.input(session, '=');
+    assertEquals("1", store.getResult(session));
+  }
+
+  @Test
+  public void testNonLatinDigitsAreKept() {
+    OffHeapSessionStore store = new OffHeapSessionStore(false);
+    int session = store.open();
+    store.input(session, '\u0663');
+    store.input(session, '+');
+    store.input(session, '2');
+    assertEquals("\u0663+2", store.getResult(session));
+    store.input(session, '=');
+    assertEquals("5", store.getResult(session));
+  }
+
+  @Test
+  public void testRemovedSlotsAreReused() {
+    OffHeapSessionStore store = new OffHeapSessionStore(false);
+    int first = store.open();
+    int second = store.open();
+    store.input(first, '4');
+    store.remove(first);
+    assertEquals(1, store.size());
+    int third = store.open();
+    assertEquals(first, third);
+    assertEquals("", store.getResult(third));
+    assertEquals(2, store.size());
+    store.input(second, '8');
+    assertEquals("8", store.getResult(second));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRemovedSessionIsRejected() {
+    OffHeapSessionStore store = new OffHeapSessionStore(false);
+    int session = store.open();
+    store.remove(session);
+    store.getResult(session);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownSessionIsRejected() {
+    new OffHeapSessionStore(false).input(3, '1');
+  }
+
+  @Test
+  public void testMatchesCalculatorsOverManySessions() {
+    compareRandomSessions(false);
+    compareRandomSessions(true);
+  }
+
+  private void compareRandomSessions(boolean smart) {
+    Random random = new Random(13);
+    int sessions = 40_000;
+    OffHeapSessionStore store = new OffHeapSessionStore(smart);
+    Calculator[] expected = new Calculator[sessions];
+    int[] ids = new int[sessions];
+    for (int i = 0; i < sessions; i++) {
+      ids[i] = store.open();
+      expected[i] = smart ? new SmartCalculator() : new SimpleCalculator();
+    }
+    assertEquals(sessions, store.size());
+    for (int step = 0; step < 400_000; step++) {
+      int i = random.nextInt(sessions);
+      char key = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+      InputResult next = expected[i].tryInput(key);
+      assertEquals(next.getError(), store.tryInput(ids[i], key));
+      if (!next.isError()) {
+        expected[i] = next.getCalculator();
+      }
+    }
+    for (int i = 0; i < sessions; i++) {
+      assertEquals(expected[i].getResult(), store.getResult(ids[i]));
+      InputResult expectedEquals = expected[i].tryInput('=');
+      InputResult actualEquals = store.get(ids[i]).tryInput('=');
+      assertEquals(expectedEquals.getError(), actualEquals.getError());
+      if (!expectedEquals.isError()) {
+        assertEquals(expectedEquals.getCalculator().getResult(),
+                actualEquals.getCalculator().getResult());
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import calculator.Calculator;
+import calculator.CalculatorSnapshot;
+import calculator.InputResult;
+import calculator.PackedCalculator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the PackedCalculator class.
+ * The packed engine is compared keystroke by keystroke against SimpleCalculator and
+ * SmartCalculator on every short sequence over a small alphabet, checking the display and
+ * the exceptions thrown, so both modes are known to follow the original rules exactly.
+ */
+public class PackedCalculatorTest {
+
+  private static final String ALPHABET = "0129+-*=C/";
+  private static final int MAX_LENGTH = 5;
+
+  @Test
+  public void testValidOperation() {
+    Calculator calculator = new PackedCalculator(false);
+    calculator = calculator.input('5').input('2').input('+').input('5').input('2')
+            .input('+').input('3').input('=');
+    assertEquals("107", calculator.getResult());
+  }
+
+  @Test
+  public void testSmartMultipleEquals() {
+    Calculator calculator = new PackedCalculator(true);
+    calculator = calculator.input('7').input('+').input('2').input('=').input('=');
+    assertEquals("11", calculator.getResult());
+  }
+
+  @Test
+  public void testSmartRunsOfEquals() {
+    String[] sessions = {"5+3==========", "2*===============================3*=====",
+        "2147483000+100==========+1==", "===", "9-====C===1+===", "7*0======"};
+    for (String keys : sessions) {
+      // the immutable calculator, one key at a time, is the reference
+      Calculator expected = new SmartCalculator();
+      int rejected = -1;
+      for (int i = 0; i < keys.length() && rejected < 0; i++) {
+        InputResult next = expected.tryInput(keys.charAt(i));
+        if (next.isError()) {
+          rejected = i;
+        } else {
+          expected = next.getCalculator();
+        }
+      }
+      InputResult tried = new PackedCalculator(true).tryInputAll(keys);
+      if (rejected >= 0) {
+        assertEquals(keys, rejected, tried.getIndex());
+        continue;
+      }
+      assertEquals(keys, expected.getResult(), tried.getCalculator().getResult());
+      char[] chars = ("x" + keys + "x").toCharArray();
+      Calculator engine = new PackedCalculator(true).inputAll(chars, 1, keys.length());
+      assertEquals(keys, expected.getResult(), engine.getResult());
+      assertEquals(keys, expected.inputAll("+1=").getResult(), engine.inputAll("+1=")
+              .getResult());
+    }
+  }
+
+  @Test
+  public void testSmartClearDropsLastOperand() {
+    // inputAll() runs on the packed engine, so the cleared state must be the empty one
+    assertEquals(snapshot(new SmartCalculator()),
+            snapshot(new SmartCalculator().inputAll("5+3=C")));
+  }
+
+  @Test
+  public void testInputReturnsSameInstance() {
+    PackedCalculator calculator = new PackedCalculator(false);
+    assertSame(calculator, calculator.input('1'));
+  }
+
+  @Test
+  public void testStateUnchangedAfterOverflow() {
+    PackedCalculator calculator = new PackedCalculator(true);
+    for (char c : "2147483647".toCharArray()) {
+      calculator.input(c);
+    }
+    try {
+      calculator.input('1');
+      fail("Expected an overflow");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Operation value exceeds maximum limit.", e.getMessage());
+    }
+    assertEquals("2147483647", calculator.getResult());
+  }
+
+  @Test
+  public void testLongDisplayGrowsBuffer() {
+    PackedCalculator calculator = new PackedCalculator(false);
+    StringBuilder expected = new StringBuilder("1+");
+    calculator.input('1').input('+');
+    for (int i = 0; i < 100; i++) {
+      calculator.input('0');
+      expected.append('0');
+    }
+    assertEquals(expected.toString(), calculator.getResult());
+    assertEquals("1", calculator.input('=').getResult());
+  }
+
+  @Test
+  public void testResetAfterUse() {
+    PackedCalculator calculator = new PackedCalculator(true);
+    calculator.input('4').input('*').input('=');
+    calculator.reset();
+    assertEquals("", calculator.getResult());
+    assertEquals("3", calculator.input('3').getResult());
+  }
+
+  @Test
+  public void testMatchesSimpleCalculator() {
+    compareAll(false, "", MAX_LENGTH);
+  }
+
+  @Test
+  public void testMatchesSmartCalculator() {
+    compareAll(true, "", MAX_LENGTH);
+  }
+
+  @Test
+  public void testMatchesOnLongSessions() {
+    String[] sessions = {"2147483646+1=", "2147483647+1=", "1111111111*9=", "99999*99999=",
+      "7-9=*2=", "24*=====", "8*4-9+7=", "9*2+=0=", "0006+05=", "-", "+32+-24="};
+    for (String session : sessions) {
+      compare(false, session);
+      compare(true, session);
+    }
+  }
+
+  private void compareAll(boolean smart, String prefix, int remaining) {
+    compare(smart, prefix);
+    if (remaining == 0) {
+      return;
+    }
+    for (int i = 0; i < ALPHABET.length(); i++) {
+      compareAll(smart, prefix + ALPHABET.charAt(i), remaining - 1);
+    }
+  }
+
+  private void compare(boolean smart, String keys) {
+    Calculator expected = smart ? new SmartCalculator() : new SimpleCalculator();
+    Calculator actual = new PackedCalculator(smart);
+    Calculator expectedTried = smart ? new SmartCalculator() : new SimpleCalculator();
+    Calculator actualTried = new PackedCalculator(smart);
+    for (int i = 0; i < keys.length(); i++) {
+      InputResult expectedResult = expectedTried.tryInput(keys.charAt(i));
+      InputResult actualResult = actualTried.tryInput(keys.charAt(i));
+      String expectedError = null;
+      String actualError = null;
+      try {
+        expected = expected.input(keys.charAt(i));
+      } catch (IllegalArgumentException e) {
+        expectedError = e.getMessage();
+      }
+      try {
+        actual = actual.input(keys.charAt(i));
+      } catch (IllegalArgumentException e) {
+        actualError = e.getMessage();
+      }
+      assertEquals(keys, expectedError, actualError);
+      assertEquals(keys, expectedResult.getError(), actualResult.getError());
+      assertEquals(keys, expectedError != null, expectedResult.isError());
+      if (expectedError != null) {
+        return;
+      }
+      expectedTried = expectedResult.getCalculator();
+      actualTried = actualResult.getCalculator();
+      assertEquals(keys, expected.getResult(), actual.getResult());
+      assertEquals(keys, expected.getResult(), expectedTried.getResult());
+      assertEquals(keys, expected.getResult(), actualTried.getResult());
+    }
+  }
+
+  private static ByteBuffer snapshot(Calculator calculator) {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CalculatorSnapshot.write(calculator, buffer);
+    return buffer.flip();
+  }
+}
@@ -0,0 +1,93 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import calculator.ParallelSessionReplay;
+import calculator.SessionReplay;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the ParallelSessionReplay class. A seeded random corpus is evaluated in
+ * parallel, in memory and from a file, and the results must be the same, in the same order,
+ * as the sequential SessionReplay.
+ */
+public class ParallelSessionReplayTest {
+
+  private static final String KEYS = "0123456789+-*=C+=";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testEvaluateMatchesSequentialReplay() throws IOException {
+    List<String> sessions = randomSessions(2000, 42);
+    try (ParallelSessionReplay replay = new ParallelSessionReplay(true, 4)) {
+      assertEquals(sequentialResults(true, sessions), replay.evaluate(sessions));
+    }
+  }
+
+  @Test
+  public void testReplayFileMatchesSequentialReplay() throws IOException {
+    List<String> sessions = randomSessions(3000, 7);
+    Path input = writeSessions(sessions);
+    Path output = folder.newFile().toPath();
+    for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+      try (ParallelSessionReplay replay = new ParallelSessionReplay(false, parallelism, 1000)) {
+        assertEquals(sessions.size(), replay.replay(input, output));
+      }
+      assertEquals(sequentialResults(false, sessions), Files.readAllLines(output));
+    }
+  }
+
+  @Test
+  public void testEvaluateFewerSessionsThanWorkers() {
+    try (ParallelSessionReplay replay = new ParallelSessionReplay(false, 8)) {
+      assertEquals(Collections.emptyList(), replay.evaluate(Collections.<String>emptyList()));
+      assertEquals(Collections.singletonList("4"),
+              replay.evaluate(Collections.singletonList("2*2=")));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    new ParallelSessionReplay(true, 0);
+  }
+
+  private List<String> sequentialResults(boolean smart, List<String> sessions)
+          throws IOException {
+    Path input = writeSessions(sessions);
+    Path output = folder.newFile().toPath();
+    new SessionReplay(smart).replay(input, output);
+    return Files.readAllLines(output);
+  }
+
+  private Path writeSessions(List<String> sessions) throws IOException {
+    Path path = folder.newFile().toPath();
+    Files.write(path, sessions, StandardCharsets.US_ASCII);
+    return path;
+  }
+
+  private static List<String> randomSessions(int count, long seed) {
+    Random random = new Random(seed);
+    List<String> sessions = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      StringBuilder session = new StringBuilder();
+      int length = random.nextInt(20);
+      for (int j = 0; j < length; j++) {
+        session.append(KEYS.charAt(random.nextInt(KEYS.length())));
+      }
+      sessions.add(session.toString());
+    }
+    return sessions;
+  }
+}
@@ -0,0 +1,299 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import calculator.Calculator;
+import calculator.InputError;
+import calculator.InputResult;
+import calculator.SelectorSessionServer;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the SelectorSessionServer class. Clients connect over the loopback address,
+ * send request frames and check the reply frames, including frames split over several
+ * writes and many frames pipelined at once.
+ */
+public class SelectorSessionServerTest {
+
+  private SelectorSessionServer server;
+
+  @After
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testSingleFrame() throws IOException {
+    server = new SelectorSessionServer(false, 0);
+    try (Client client = new Client(server)) {
+      client.send(frame(3, "12+3="));
+      client.assertReply(3, 0, "15");
+    }
+  }
+
+  @Test
+  public void testPipelinedSessions() throws IOException {
+    server = new SelectorSessionServer(true, 0);
+    try (Client client = new Client(server)) {
+      ByteArrayOutputStream frames = new ByteArrayOutputStream();
+      frames.write(frame(0, "7+2="));
+      frames.write(frame(1, "4*"));
+      frames.write(frame(0, "="));
+      frames.write(frame(1, "="));
+      frames.write(frame(2, ""));
+      client.send(frames.toByteArray());
+      client.assertReply(0, 0, "9");
+      client.assertReply(1, 0, "4*");
+      client.assertReply(0, 0, "11");
+      client.assertReply(1, 0, "16");
+      client.assertReply(2, 0, "");
+    }
+  }
+
+  @Test
+  public void testRejectedKeystrokeSkipsRestOfFrame() throws IOException {
+    server = new SelectorSessionServer(false, 0);
+    try (Client client = new Client(server)) {
+      client.send(frame(5, "1++2"));
+      client.assertReply(5, InputError.DOUBLE_OPERATOR.getCode(), "1+");
+      client.send(frame(5, "2="));
+      client.assertReply(5, 0, "3");
+    }
+  }
+
+  @Test
+  public void testStatusCodesAreFixed() {
+    // the codes are part of the frame format and must not follow the order of the constants
+    assertEquals(1, InputError.INVALID_CHAR.getCode());
+    assertEquals(2, InputError.DOUBLE_OPERATOR.getCode());
+    assertEquals(3, InputError.OVERFLOW.getCode());
+    assertEquals(4, InputError.INCOMPLETE.getCode());
+    assertEquals(5, InputError.BAD_START.getCode());
+    for (InputError error : InputError.values()) {
+      assertSame(error, InputError.forCode(error.getCode()));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStatusCode() {
+    InputError.forCode(0);
+  }
+
+  @Test
+  public void testFrameSplitAcrossWrites() throws IOException {
+    server = new SelectorSessionServer(false, 0);
+    try (Client client = new Client(server)) {
+      byte[] frame = frame(7, "52+52+3=");
+      for (byte b : frame) {
+        client.send(new byte[] {b});
+        client.out.flush();
+      }
+      client.assertReply(7, 0, "107");
+    }
+  }
+
+  @Test
+  public void testManyPipelinedFrames() throws Exception {
+    server = new SelectorSessionServer(false, InetAddress.getLoopbackAddress(), 0, 2, 64);
+    int frames = 50_000;
+    try (Client client = new Client(server)) {
+      Thread writer = new Thread(() -> {
+        try {
+          for (int i = 0; i < frames; i++) {
+            client.out.write(frame(i / 2 % 64, i % 2 == 0 ? "1+" : "2="));
+          }
+          client.out.flush();
+        } catch (IOException e) {
+          // reported by the reader
+        }
+      });
+      writer.start();
+      for (int i = 0; i < frames; i++) {
+        client.assertReply(i / 2 % 64, 0, i % 2 == 0 ? "1+" : "3");
+      }
+      writer.join();
+    }
+  }
+
+  @Test
+  public void testRepliesHeldBackWhileClientIsNotReading() throws Exception {
+    server = new SelectorSessionServer(false, 0);
+    int frames = 200;
+    String zeros = new String(new char[1000]).replace('\0', '0');
+    try (Client client = new Client(server)) {
+      client.send(frame(0, "1+"));
+      Thread writer = new Thread(() -> {
+        try {
+          for (int i = 0; i < frames; i++) {
+            client.out.write(frame(0, zeros));
+          }
+          client.out.flush();
+        } catch (IOException e) {
+          // reported by the reader
+        }
+      });
+      writer.start();
+      // the growing displays fill the socket buffers, so the server has to hold them back
+      Thread.sleep(500);
+      client.assertReply(0, 0, "1+");
+      StringBuilder display = new StringBuilder("1+");
+      for (int i = 0; i < frames; i++) {
+        display.append(zeros);
+        client.assertReply(0, 0, display.toString());
+      }
+      writer.join();
+    }
+  }
+
+  @Test
+  public void testDeltaReplies() throws IOException {
+    server = new SelectorSessionServer(true, InetAddress.getLoopbackAddress(), 0, 1, 8, true);
+    try (Client client = new Client(server)) {
+      client.send(frame(1, "12"));
+      client.assertDeltaReply(1, 0, 0, "12");
+      client.send(frame(1, "+"));
+      client.assertDeltaReply(1, 0, 2, "+");
+      client.send(frame(1, "*"));
+      client.assertDeltaReply(1, 0, 2, "*");
+      client.send(frame(1, "3="));
+      client.assertDeltaReply(1, 0, 0, "36");
+      client.send(frame(1, "C"));
+      client.assertDeltaReply(1, 0, 0, "");
+      client.send(frame(2, "5*="));
+      client.assertDeltaReply(2, 0, 0, "25");
+    }
+  }
+
+  @Test
+  public void testRandomFramesMatchCalculators() throws IOException {
+    for (boolean deltas : new boolean[] {false, true}) {
+      server = new SelectorSessionServer(true, InetAddress.getLoopbackAddress(), 0, 1, 4,
+              deltas);
+      Random random = new Random(12);
+      Calculator[] sessions = new Calculator[4];
+      StringBuilder[] displays = new StringBuilder[4];
+      for (int i = 0; i < sessions.length; i++) {
+        sessions[i] = new SmartCalculator();
+        displays[i] = new StringBuilder();
+      }
+      try (Client client = new Client(server)) {
+        for (int frame = 0; frame < 500; frame++) {
+          int id = random.nextInt(sessions.length);
+          StringBuilder keys = new StringBuilder();
+          int count = 1 + random.nextInt(6);
+          for (int i = 0; i < count; i++) {
+            keys.append("0123456789+-*=C".charAt(random.nextInt(15)));
+          }
+          int status = 0;
+          for (int i = 0; i < keys.length() && status == 0; i++) {
+            InputResult next = sessions[id].tryInput(keys.charAt(i));
+            if (next.isError()) {
+              status = next.getError().getCode();
+            } else {
+              sessions[id] = next.getCalculator();
+            }
+          }
+          client.send(frame(id, keys.toString()));
+          if (deltas) {
+            client.applyDeltaReply(id, status, displays[id]);
+            assertEquals(keys.toString(), sessions[id].getResult(), displays[id].toString());
+          } else {
+            client.assertReply(id, status, sessions[id].getResult());
+          }
+        }
+      }
+      server.close();
+    }
+  }
+
+  @Test
+  public void testInvalidSessionIdClosesConnection() throws IOException {
+    server = new SelectorSessionServer(false, InetAddress.getLoopbackAddress(), 0, 1, 8);
+    try (Client client = new Client(server)) {
+      client.send(frame(8, "1="));
+      try {
+        client.in.readInt();
+        fail("Expected the connection to be closed");
+      } catch (EOFException e) {
+        // expected
+      }
+    }
+  }
+
+  private static byte[] frame(int session, String keys) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(session);
+    out.writeShort(keys.length());
+    out.write(keys.getBytes(StandardCharsets.US_ASCII));
+    return bytes.toByteArray();
+  }
+
+  /**
+   * A loopback client that writes request frames and reads reply frames.
+   */
+  private static final class Client implements AutoCloseable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    Client(SelectorSessionServer server) throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+      socket.setSoTimeout(10_000);
+      in = new DataInputStream(socket.getInputStream());
+      out = new DataOutputStream(socket.getOutputStream());
+    }
+
+    void send(byte[] bytes) throws IOException {
+      out.write(bytes);
+      out.flush();
+    }
+
+    void assertReply(int session, int status, String display) throws IOException {
+      assertEquals(session, in.readInt());
+      assertEquals(status, in.readByte());
+      byte[] text = new byte[in.readInt()];
+      in.readFully(text);
+      assertEquals(display, new String(text, StandardCharsets.US_ASCII));
+    }
+
+    void assertDeltaReply(int session, int status, int keep, String text) throws IOException {
+      assertEquals(session, in.readInt());
+      assertEquals(status, in.readByte());
+      assertEquals(keep, in.readInt());
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      assertEquals(text, new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    void applyDeltaReply(int session, int status, StringBuilder display) throws IOException {
+      assertEquals(session, in.readInt());
+      assertEquals(status, in.readByte());
+      display.setLength(in.readInt());
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      display.append(new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+}
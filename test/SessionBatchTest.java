@@ -0,0 +1,129 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import calculator.SessionBatch;
+import calculator.SimpleCalculator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the SessionBatch class. Random scripts are evaluated for many sessions with
+ * random operands, including operands large enough to be clamped, and every lane must show
+ * what a SimpleCalculator shows after typing the same keystrokes.
+ */
+public class SessionBatchTest {
+
+  @Test
+  public void testEvaluate() {
+    SessionBatch batch = new SessionBatch("#+#*#=");
+    assertEquals(3, batch.getOperandCount());
+    long[] results = batch.evaluate(new long[][] {{2, 10}, {3, 0}, {4, 7}});
+    assertArrayEquals(new long[] {20, 70}, results);
+  }
+
+  @Test
+  public void testOutOfRangeResultIsClamped() {
+    SessionBatch batch = new SessionBatch("#*#-#=");
+    long[] results = batch.evaluate(new long[][] {{65536, 46341}, {65536, 46340}, {0, 1}});
+    assertArrayEquals(new long[] {0, 2147441939}, results);
+  }
+
+  @Test
+  public void testOperandAfterEqualsStartsAgain() {
+    SessionBatch batch = new SessionBatch("#+#=#-#=*#=");
+    assertArrayEquals(new long[] {-3}, batch.evaluate(new long[][] {{5}, {6}, {4}, {5}, {3}}));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectedScript() {
+    new SessionBatch("#+*#=");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testScriptWithoutEquals() {
+    new SessionBatch("#+#");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAdjacentOperands() {
+    new SessionBatch("##=");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeOperand() {
+    new SessionBatch("#=").evaluate(new long[][] {{-1}});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOperandAboveIntRange() {
+    new SessionBatch("#=").evaluate(new long[][] {{Integer.MAX_VALUE + 1L}});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testColumnLengthsMustMatch() {
+    new SessionBatch("#+#=").evaluate(new long[][] {{1, 2}, {3}});
+  }
+
+  @Test
+  public void testMatchesSimpleCalculator() {
+    Random random = new Random(16);
+    for (int run = 0; run < 300; run++) {
+      SessionBatch batch = new SessionBatch(randomScript(random));
+      int sessions = 1 + random.nextInt(64);
+      long[][] columns = new long[batch.getOperandCount()][sessions];
+      for (long[] column : columns) {
+        for (int i = 0; i < sessions; i++) {
+          column[i] = randomOperand(random);
+        }
+      }
+      long[] results = batch.evaluate(columns);
+      for (int i = 0; i < sessions; i++) {
+        String expected = new SimpleCalculator().inputAll(keys(batch.getScript(), columns, i))
+                .getResult();
+        assertEquals(batch.getScript(), expected, String.valueOf(results[i]));
+      }
+    }
+  }
+
+  private static String randomScript(Random random) {
+    StringBuilder script = new StringBuilder("#");
+    int length = 1 + random.nextInt(8);
+    for (int i = 0; i < length; i++) {
+      if (random.nextInt(4) == 0) {
+        script.append('=');
+        if (random.nextBoolean()) {
+          script.append('#');
+          continue;
+        }
+      }
+      script.append("+-*".charAt(random.nextInt(3))).append('#');
+    }
+    return script.append('=').toString();
+  }
+
+  private static long randomOperand(Random random) {
+    switch (random.nextInt(3)) {
+      case 0:
+        return random.nextInt(10);
+      case 1:
+        return random.nextInt(100_000);
+      default:
+        return random.nextInt(Integer.MAX_VALUE) + (long) random.nextInt(2);
+    }
+  }
+
+  private static String keys(String script, long[][] columns, int session) {
+    StringBuilder keys = new StringBuilder();
+    int operand = 0;
+    for (char c : script.toCharArray()) {
+      if (c == SessionBatch.OPERAND) {
+        keys.append(columns[operand++][session]);
+      } else {
+        keys.append(c);
+      }
+    }
+    return keys.toString();
+  }
+}
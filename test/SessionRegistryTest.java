@@ -0,0 +1,326 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import calculator.InputError;
+import calculator.InputResult;
+import calculator.KeystrokeJournal;
+import calculator.SessionRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the SessionRegistry class. Besides the single-threaded behaviour, several
+ * threads send keystrokes to the same session and no keystroke may be lost or applied to a
+ * stale state, and journaled registries are recovered from their checkpoint and journal.
+ */
+public class SessionRegistryTest {
+
+  private static final int THREADS = 4;
+  private static final int KEYSTROKES_PER_THREAD = 20_000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testInputAndGet() {
+    SessionRegistry registry = new SessionRegistry(false);
+    assertTrue(registry.open(7));
+    for (char c : "52+52+3=".toCharArray()) {
+      registry.input(7, c);
+    }
+    assertEquals("107", registry.get(7).getResult());
+  }
+
+  @Test
+  public void testOpenAndRemove() {
+    SessionRegistry registry = new SessionRegistry(true);
+    assertTrue(registry.open(1));
+    assertFalse(registry.open(1));
+    assertTrue(registry.open(2));
+    assertEquals(2, registry.size());
+    assertTrue(registry.remove(1));
+    assertFalse(registry.remove(1));
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testInputThrowsCalculatorMessage() {
+    SessionRegistry registry = new SessionRegistry(true);
+    registry.open(1);
+    try {
+      registry.input(1, '*');
+      fail("Expected a rejected keystroke");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Operation cannot start with the operator", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testTryInputLeavesSessionUnchanged() {
+    SessionRegistry registry = new SessionRegistry(false);
+    registry.open(1);
+    registry.input(1, '9');
+    registry.input(1, '-');
+    assertSame(InputError.DOUBLE_OPERATOR, registry.tryInput(1, '-').getError());
+    assertEquals("9-", registry.get(1).getResult());
+  }
+
+  @Test
+  public void testRejectedTryInputAllAppliesNothing() {
+    SessionRegistry registry = new SessionRegistry(false);
+    registry.open(1);
+    InputResult result = registry.tryInputAll(1, "12+-3");
+    assertSame(InputError.DOUBLE_OPERATOR, result.getError());
+    assertEquals(3, result.getIndex());
+    assertEquals("", registry.get(1).getResult());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownSessionIsRejected() {
+    new SessionRegistry(false).input(3, '1');
+  }
+
+  @Test
+  public void testConcurrentKeystrokesAreNotLost() throws InterruptedException {
+    SessionRegistry registry = new SessionRegistry(true);
+    registry.open(1);
+    for (char c : "1+1".toCharArray()) {
+      registry.input(1, c);
+    }
+    // every repeated '=' adds the last operand, so a lost keystroke shows in the result
+    runConcurrently(() -> {
+      for (int i = 0; i < KEYSTROKES_PER_THREAD; i++) {
+        registry.input(1, '=');
+      }
+    });
+    assertEquals(String.valueOf(1 + THREADS * KEYSTROKES_PER_THREAD),
+            registry.get(1).getResult());
+  }
+
+  @Test
+  public void testConcurrentSequencesDoNotInterleave() throws InterruptedException {
+    SessionRegistry registry = new SessionRegistry(false);
+    registry.open(1);
+    registry.input(1, '0');
+    // "+1" applied one keystroke at a time from several threads would hit DOUBLE_OPERATOR
+    runConcurrently(() -> {
+      for (int i = 0; i < KEYSTROKES_PER_THREAD; i++) {
+        if (registry.tryInputAll(1, "+1").isError()) {
+          throw new AssertionError("Interleaved keystrokes");
+        }
+      }
+    });
+    assertEquals(String.valueOf(THREADS * KEYSTROKES_PER_THREAD),
+            registry.input(1, '=').getResult());
+  }
+
+  @Test
+  public void testLookupsDuringOpenAndRemove() throws InterruptedException {
+    SessionRegistry registry = new SessionRegistry(false);
+    for (long session = 0; session < 256; session++) {
+      registry.open(session);
+    }
+    AtomicInteger roles = new AtomicInteger();
+    // half the threads open and remove other sessions of every stripe, which grows and
+    // shrinks the indexes the other half looks the open sessions up in
+    runConcurrently(() -> {
+      int role = roles.getAndIncrement();
+      for (int i = 0; i < KEYSTROKES_PER_THREAD; i++) {
+        if (role % 2 == 0) {
+          long session = 1000 + role * KEYSTROKES_PER_THREAD + i;
+          registry.open(session);
+          if (i % 4 != 0) {
+            registry.remove(session);
+          }
+        } else {
+          long session = i % 256;
+          assertEquals("", registry.get(session).getResult());
+        }
+      }
+    });
+    assertEquals(256 + THREADS / 2 * KEYSTROKES_PER_THREAD / 4, registry.size());
+  }
+
+  @Test
+  public void testRecoverFromJournal() throws IOException {
+    Path journalFile = folder.getRoot().toPath().resolve("sessions.journal");
+    Path checkpoint = folder.getRoot().toPath().resolve("sessions.checkpoint");
+    try (KeystrokeJournal journal = openJournal(journalFile)) {
+      SessionRegistry registry = new SessionRegistry(true, journal);
+      registry.open(1);
+      registry.open(2);
+      registry.tryInputAll(1, "12+3=");
+      registry.input(2, '7');
+      assertSame(InputError.INVALID_CHAR, registry.tryInputAll(2, "+x").getError());
+      registry.remove(2);
+    }
+    try (KeystrokeJournal journal = openJournal(journalFile)) {
+      SessionRegistry registry = SessionRegistry.recover(true, checkpoint, journal);
+      assertEquals(1, registry.size());
+      assertEquals("15", registry.get(1).getResult());
+      assertEquals("18", registry.input(1, '=').getResult());
+    }
+  }
+
+  @Test
+  public void testJournaledRejectionThrowsWhatItRejected() throws Exception {
+    Path journalFile = folder.getRoot().toPath().resolve("sessions.journal");
+    int[] operators = new int[2];
+    try (KeystrokeJournal journal = openJournal(journalFile)) {
+      SessionRegistry registry = new SessionRegistry(false, journal);
+      registry.open(1);
+      registry.input(1, '1');
+      registry.input(1, '+');
+      Thread other = new Thread(() -> {
+        for (int i = 0; i < 1000; i++) {
+          registry.tryInput(1, '1');
+          if (!registry.tryInput(1, '+').isError()) {
+            operators[1]++;
+          }
+        }
+      });
+      other.start();
+      // a '+' that input() returns from must have been installed and journaled
+      while (other.isAlive()) {
+        try {
+          registry.input(1, '+');
+          operators[0]++;
+        } catch (IllegalArgumentException e) {
+          assertEquals("Cannot input two operators in a row", e.getMessage());
+        }
+      }
+      other.join();
+    }
+    long[] journaled = new long[1];
+    try (KeystrokeJournal journal = openJournal(journalFile)) {
+      journal.replay(0, (session, key) -> {
+        if (key == '+') {
+          journaled[0]++;
+        }
+      });
+    }
+    assertEquals(1 + operators[0] + operators[1], journaled[0]);
+  }
+
+  @Test
+  public void testRecoverFromCheckpointAndJournal() throws Exception {
+    Path journalFile = folder.getRoot().toPath().resolve("sessions.journal");
+    Path checkpoint = folder.getRoot().toPath().resolve("sessions.checkpoint");
+    try (KeystrokeJournal journal = openJournal(journalFile)) {
+      SessionRegistry registry = new SessionRegistry(true, journal);
+      for (int session = 0; session < THREADS; session++) {
+        registry.open(session);
+        registry.input(session, '1');
+        registry.input(session, '+');
+        registry.input(session, '1');
+      }
+      long[] next = new long[1];
+      runConcurrently(() -> {
+        int session;
+        synchronized (next) {
+          session = (int) next[0]++;
+        }
+        for (int i = 0; i < 1000; i++) {
+          registry.input(session, '=');
+        }
+      });
+      registry.checkpoint(checkpoint);
+      registry.input(0, '=');
+      registry.open(THREADS);
+      registry.tryInputAll(THREADS, "6*7");
+    }
+    try (KeystrokeJournal journal = openJournal(journalFile)) {
+      SessionRegistry registry = SessionRegistry.recover(true, checkpoint, journal);
+      assertEquals(THREADS + 1, registry.size());
+      assertEquals("1002", registry.get(0).getResult());
+      assertEquals("1001", registry.get(1).getResult());
+      assertEquals("6*7", registry.get(THREADS).getResult());
+    }
+  }
+
+  @Test
+  public void testRemovedSlotsAreReused() throws IOException {
+    SessionRegistry registry = new SessionRegistry(false);
+    for (long session = 0; session < 1000; session++) {
+      registry.open(session * 1_000_003);
+      registry.input(session * 1_000_003, (char) ('0' + session % 10));
+    }
+    for (long session = 0; session < 1000; session += 2) {
+      assertTrue(registry.remove(session * 1_000_003));
+    }
+    for (long session = 1000; session < 1500; session++) {
+      assertTrue(registry.open(session * 1_000_003));
+    }
+    assertEquals(1000, registry.size());
+    assertFalse(registry.open(3 * 1_000_003));
+    assertEquals("3", registry.get(3 * 1_000_003).getResult());
+    assertEquals("", registry.get(1499 * 1_000_003).getResult());
+
+    Path checkpoint = folder.getRoot().toPath().resolve("slots.checkpoint");
+    registry.checkpoint(checkpoint);
+    try (KeystrokeJournal journal = openJournal(folder.getRoot().toPath().resolve("j"))) {
+      SessionRegistry recovered = SessionRegistry.recover(false, checkpoint, journal);
+      assertEquals(1000, recovered.size());
+      assertEquals("7", recovered.get(7 * 1_000_003).getResult());
+      assertFalse(recovered.remove(8 * 1_000_003));
+    }
+  }
+
+  @Test
+  public void testFailedCheckpointLeavesNoTemporaryFile() throws IOException {
+    SessionRegistry registry = new SessionRegistry(true);
+    registry.open(1);
+    // a non-empty directory cannot be replaced by the checkpoint
+    Path checkpoint = folder.newFolder("busy.checkpoint").toPath();
+    Files.createFile(checkpoint.resolve("file"));
+    try {
+      registry.checkpoint(checkpoint);
+      fail("Expected the checkpoint to fail");
+    } catch (IOException e) {
+      assertFalse(Files.exists(checkpoint.resolveSibling("busy.checkpoint.tmp")));
+    }
+  }
+
+  private static KeystrokeJournal openJournal(Path file) throws IOException {
+    return new KeystrokeJournal(file, 1, TimeUnit.MILLISECONDS, 256);
+  }
+
+  private static void runConcurrently(Runnable task) throws InterruptedException {
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          task.run();
+        } catch (Throwable e) {
+          synchronized (failures) {
+            failures.add(e);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(new ArrayList<Throwable>(), failures);
+  }
+}
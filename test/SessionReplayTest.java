@@ -0,0 +1,116 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import calculator.Calculator;
+import calculator.InputResult;
+import calculator.SessionReplay;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the SessionReplay class. Session files are replayed with small mapping
+ * windows so sessions cross window boundaries, and every result line is compared with the
+ * result of chaining tryInput() on SimpleCalculator or SmartCalculator.
+ */
+public class SessionReplayTest {
+
+  private static final List<String> SESSIONS = Arrays.asList("52+52+3=", "", "9*2+=0=",
+          "5+3=====", "1/", "-", "2147483647+1=", "11111111111", "24*=+-1=", "+32+-24=",
+          "0006+05", "7-9=*2=C8*8=");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReplaySimple() throws IOException {
+    assertReplay(false, 4096, "\n");
+  }
+
+  @Test
+  public void testReplaySmart() throws IOException {
+    assertReplay(true, 4096, "\n");
+  }
+
+  @Test
+  public void testReplayAcrossSmallWindows() throws IOException {
+    assertReplay(true, 8, "\n");
+    assertReplay(false, 3, "\n");
+  }
+
+  @Test
+  public void testReplayCarriageReturns() throws IOException {
+    assertReplay(false, 16, "\r\n");
+  }
+
+  @Test
+  public void testReplayWithoutFinalNewline() throws IOException {
+    Path sessions = folder.newFile().toPath();
+    Path results = folder.newFile().toPath();
+    Files.write(sessions, "1+1=\n2*3".getBytes(StandardCharsets.US_ASCII));
+    assertEquals(2, new SessionReplay(false, 5).replay(sessions, results));
+    assertEquals(Arrays.asList("2", "2*3"), Files.readAllLines(results));
+  }
+
+  @Test
+  public void testRejectedSessionsNameTheirError() throws IOException {
+    Path sessions = folder.newFile().toPath();
+    Path results = folder.newFile().toPath();
+    Files.write(sessions, "1/\n5++\n*2\n".getBytes(StandardCharsets.US_ASCII));
+    new SessionReplay(false).replay(sessions, results);
+    assertEquals(Arrays.asList("ERROR 1 INVALID_CHAR", "ERROR 2 DOUBLE_OPERATOR",
+            "ERROR 0 BAD_START"), Files.readAllLines(results));
+  }
+
+  @Test
+  public void testReplayEmptyFile() throws IOException {
+    Path sessions = folder.newFile().toPath();
+    Path results = folder.newFile().toPath();
+    assertEquals(0, new SessionReplay(true).replay(sessions, results));
+    assertEquals(0, Files.size(results));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidWindowSize() {
+    new SessionReplay(true, 0);
+  }
+
+  private void assertReplay(boolean smart, int windowSize, String separator)
+          throws IOException {
+    Path sessions = folder.newFile().toPath();
+    Path results = folder.newFile().toPath();
+    Files.write(sessions, (String.join(separator, SESSIONS) + separator)
+            .getBytes(StandardCharsets.US_ASCII));
+
+    long count = new SessionReplay(smart, windowSize).replay(sessions, results);
+
+    List<String> expected = new ArrayList<>();
+    for (String session : SESSIONS) {
+      expected.add(expectedResult(smart, session));
+    }
+    assertEquals(SESSIONS.size(), count);
+    assertEquals(expected, Files.readAllLines(results, StandardCharsets.US_ASCII));
+  }
+
+  private static String expectedResult(boolean smart, String session) {
+    Calculator calculator = smart ? new SmartCalculator() : new SimpleCalculator();
+    for (int i = 0; i < session.length(); i++) {
+      InputResult next = calculator.tryInput(session.charAt(i));
+      if (next.isError()) {
+        return "ERROR " + i + " " + next.getError().name();
+      }
+      calculator = next.getCalculator();
+    }
+    return calculator.getResult();
+  }
+}
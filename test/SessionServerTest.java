@@ -0,0 +1,190 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import calculator.SessionServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the SessionServer class. Clients connect over the loopback address and
+ * check the lines sent back for '=', '?' and rejected keystrokes.
+ */
+public class SessionServerTest {
+
+  private SessionServer server;
+
+  @After
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testResultAfterEquals() throws IOException {
+    server = new SessionServer(false, 0);
+    try (Client client = new Client(server)) {
+      assertEquals("107", client.send("52+52+3="));
+      assertEquals("107", client.send("?"));
+    }
+  }
+
+  @Test
+  public void testResultOnRequest() throws IOException {
+    server = new SessionServer(true, 0);
+    try (Client client = new Client(server)) {
+      assertEquals("", client.send("?"));
+      assertEquals("12+3", client.send("12+3?"));
+      assertEquals("15", client.send("="));
+      assertEquals("18", client.send("="));
+    }
+  }
+
+  @Test
+  public void testRejectedKeystrokeKeepsSession() throws IOException {
+    server = new SessionServer(false, 0);
+    try (Client client = new Client(server)) {
+      assertEquals("ERROR BAD_START", client.send("*"));
+      assertEquals("ERROR INVALID_CHAR", client.send("4/"));
+      assertEquals("ERROR DOUBLE_OPERATOR", client.send("++"));
+      assertEquals("9", client.send("5="));
+    }
+  }
+
+  @Test
+  public void testNewlinesAreIgnored() throws IOException {
+    server = new SessionServer(true, 0);
+    try (Client client = new Client(server)) {
+      assertEquals("24", client.send("4 * 6\r\n="));
+    }
+  }
+
+  @Test
+  public void testSessionsAreIndependent() throws IOException {
+    server = new SessionServer(false, 0);
+    try (Client first = new Client(server); Client second = new Client(server)) {
+      assertEquals("7+", first.send("7+?"));
+      assertEquals("3", second.send("3?"));
+      assertEquals("9", first.send("2="));
+      assertEquals("6", second.send("+3="));
+    }
+  }
+
+  @Test
+  public void testConnectionsOverLimitAreClosed() throws IOException {
+    server = new SessionServer(false, InetAddress.getLoopbackAddress(), 0, 1);
+    try (Client first = new Client(server)) {
+      assertEquals("1", first.send("1="));
+      try (Client second = new Client(server)) {
+        assertNull(second.send("1="));
+      }
+      assertEquals(1, server.getSessionCount());
+    }
+  }
+
+  @Test
+  public void testCloseEndsSessions() throws IOException {
+    server = new SessionServer(false, 0);
+    try (Client client = new Client(server)) {
+      assertEquals("2", client.send("2="));
+      server.close();
+      assertNull(client.readLine());
+    }
+  }
+
+  @Test
+  public void testCloseWhileConnectingClosesEverySession() throws Exception {
+    server = new SessionServer(false, 0);
+    int port = server.getPort();
+    List<Socket> clients = new ArrayList<>();
+    Thread closer = new Thread(() -> {
+      try {
+        Thread.sleep(20);
+        server.close();
+      } catch (InterruptedException | IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    closer.start();
+    try {
+      while (clients.size() < 1000) {
+        Socket socket;
+        try {
+          socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        } catch (IOException e) {
+          break;
+        }
+        clients.add(socket);
+      }
+      closer.join();
+      for (Socket socket : clients) {
+        socket.setSoTimeout(10_000);
+        try {
+          assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketTimeoutException e) {
+          throw new AssertionError("A session accepted during close() was left open", e);
+        } catch (IOException e) {
+          // a connection still in the backlog is reset instead
+        }
+      }
+    } finally {
+      for (Socket socket : clients) {
+        socket.close();
+      }
+    }
+  }
+
+  /**
+   * A loopback client that sends keystrokes and reads back one reply line.
+   */
+  private static final class Client implements AutoCloseable {
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final OutputStream out;
+
+    Client(SessionServer server) throws IOException {
+      socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+      socket.setSoTimeout(10_000);
+      in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+              StandardCharsets.US_ASCII));
+      out = socket.getOutputStream();
+    }
+
+    String send(String keys) throws IOException {
+      try {
+        out.write(keys.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+      } catch (IOException e) {
+        return null;
+      }
+      return readLine();
+    }
+
+    String readLine() throws IOException {
+      try {
+        return in.readLine();
+      } catch (IOException e) {
+        // a connection reset by the server reads as the end of the stream
+        return null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+}
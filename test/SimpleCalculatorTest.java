@@ -2,9 +2,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import calculator.Calculator;
+import calculator.InputError;
 import calculator.SimpleCalculator;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * Unit tests for the SimpleCalculator class to verify its functionality and correctness.
@@ -103,5 +105,10 @@ public class SimpleCalculatorTest extends AbstractSimpleAndSmartCalculatorTest {
     newCalculator = newCalculator.input('-').input('-').input('2').input('=').input('=');
   }
 
-}
+  @Test
+  public void testTryInputReportsSimpleErrorCodes() {
+    assertSame(InputError.DOUBLE_OPERATOR, calculator.input('9').input('-').tryInput('-'));
+    assertSame(InputError.INCOMPLETE, calculator.input('9').input('+').tryInput('='));
+  }
 
+}
@@ -465,5 +465,52 @@ public class SmartCalculatorTest extends AbstractSimpleAndSmartCalculatorTest {
     assertEquals("8", newCalculator.getResult());
   }
 
+  @Test
+  public void testReplacingOperatorKeepsEarlierCalculator() {
+    Calculator plus = calculator.input('9').input('+');
+    Calculator minus = plus.input('-');
+    assertEquals("9-", minus.getResult());
+    assertEquals("9+", plus.getResult());
+  }
 
-}
\ No newline at end of file
+  @Test
+  public void testInputEqualsMatchesRepeatedInput() {
+    String[] starts = {"5+3", "5+3=", "7*", "2*3", "1000000-999", "46340*2=", "9", "9=",
+        "2147483000+100", "3*-2=="};
+    for (String start : starts) {
+      SmartCalculator pressed = new SmartCalculator().inputAll(start);
+      for (int times = 0; times <= 40; times++) {
+        assertEquals(start + " x" + times, pressed.getResult(),
+                new SmartCalculator().inputAll(start).inputEquals(times).getResult());
+        pressed = pressed.input('=');
+      }
+    }
+  }
+
+  @Test
+  public void testInputEqualsLongRuns() {
+    assertEquals("3000005", new SmartCalculator().inputAll("5+3").inputEquals(1_000_000)
+            .getResult());
+    assertEquals("1073741824", new SmartCalculator().inputAll("2*").inputEquals(29).getResult());
+    // the thirtieth press gives 2^31, which is reset to 0 and stays 0
+    assertEquals("0", new SmartCalculator().inputAll("2*").inputEquals(30).getResult());
+    assertEquals("0", new SmartCalculator().inputAll("2*").inputEquals(Long.MAX_VALUE)
+            .getResult());
+    // 2147483000 + 100 * 6 fits, the seventh press is reset and the presses after it count
+    // up from 0 again
+    assertEquals("300", new SmartCalculator().inputAll("2147483000+100").inputEquals(10)
+            .getResult());
+    assertEquals("301", new SmartCalculator().inputAll("2147483000+100").inputEquals(10)
+            .inputAll("+1=").getResult());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInputEqualsOnEmptyCalculator() {
+    new SmartCalculator().inputEquals(3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInputEqualsNegativeTimes() {
+    new SmartCalculator().inputAll("1+1").inputEquals(-1);
+  }
+}
@@ -0,0 +1,119 @@
+import org.junit.Test;
+
+import calculator.Calculator;
+import calculator.InputResult;
+import calculator.PackedCalculator;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+import calculator.TableCalculator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the TableCalculator class.
+ * The table driven engine is compared keystroke by keystroke against SimpleCalculator,
+ * SmartCalculator and PackedCalculator on every short sequence over a small alphabet,
+ * checking the display and the exceptions thrown.
+ */
+public class TableCalculatorTest {
+
+  private static final String ALPHABET = "0129+-*=C/";
+  private static final int MAX_LENGTH = 5;
+
+  @Test
+  public void testValidOperation() {
+    Calculator calculator = new TableCalculator(false);
+    assertEquals("107", calculator.inputAll("52+52+3=").getResult());
+  }
+
+  @Test
+  public void testSmartOperatorReplacement() {
+    Calculator calculator = new TableCalculator(true);
+    assertEquals("9*", calculator.inputAll("9*+*").getResult());
+  }
+
+  @Test
+  public void testInputReturnsSameInstance() {
+    TableCalculator calculator = new TableCalculator(true);
+    assertSame(calculator, calculator.input('1'));
+  }
+
+  @Test
+  public void testNonAsciiDigit() {
+    compare(false, "\u0663+\u0664=");
+    compare(true, "\u0663*\u0664==");
+  }
+
+  @Test
+  public void testMatchesSimpleCalculator() {
+    compareAll(false, "", MAX_LENGTH);
+  }
+
+  @Test
+  public void testMatchesSmartCalculator() {
+    compareAll(true, "", MAX_LENGTH);
+  }
+
+  @Test
+  public void testMatchesOnLongSessions() {
+    String[] sessions = {"2147483646+1=", "2147483647+1=", "1111111111*9=", "99999*99999=",
+      "7-9=*2=", "24*=====", "8*4-9+7=", "9*2+=0=", "0006+05=", "+32+-24=", "20*2=*===-="};
+    for (String session : sessions) {
+      compare(false, session);
+      compare(true, session);
+    }
+  }
+
+  private void compareAll(boolean smart, String prefix, int remaining) {
+    compare(smart, prefix);
+    if (remaining == 0) {
+      return;
+    }
+    for (int i = 0; i < ALPHABET.length(); i++) {
+      compareAll(smart, prefix + ALPHABET.charAt(i), remaining - 1);
+    }
+  }
+
+  private void compare(boolean smart, String keys) {
+    Calculator expected = smart ? new SmartCalculator() : new SimpleCalculator();
+    Calculator packed = new PackedCalculator(smart);
+    Calculator actual = new TableCalculator(smart);
+    Calculator packedTried = new PackedCalculator(smart);
+    Calculator actualTried = new TableCalculator(smart);
+    for (int i = 0; i < keys.length(); i++) {
+      InputResult packedResult = packedTried.tryInput(keys.charAt(i));
+      InputResult actualResult = actualTried.tryInput(keys.charAt(i));
+      String expectedError = null;
+      String packedError = null;
+      String actualError = null;
+      try {
+        expected = expected.input(keys.charAt(i));
+      } catch (IllegalArgumentException e) {
+        expectedError = e.getMessage();
+      }
+      try {
+        packed = packed.input(keys.charAt(i));
+      } catch (IllegalArgumentException e) {
+        packedError = e.getMessage();
+      }
+      try {
+        actual = actual.input(keys.charAt(i));
+      } catch (IllegalArgumentException e) {
+        actualError = e.getMessage();
+      }
+      assertEquals(keys, expectedError, actualError);
+      assertEquals(keys, packedError, actualError);
+      assertEquals(keys, packedResult.getError(), actualResult.getError());
+      assertEquals(keys, expectedError != null, actualResult.isError());
+      if (expectedError != null) {
+        return;
+      }
+      packedTried = packedResult.getCalculator();
+      actualTried = actualResult.getCalculator();
+      assertEquals(keys, expected.getResult(), actualTried.getResult());
+      assertEquals(keys, expected.getResult(), actual.getResult());
+      assertEquals(keys, packed.getResult(), actual.getResult());
+    }
+  }
+}
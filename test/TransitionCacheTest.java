@@ -0,0 +1,214 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import calculator.ArithmeticKernel;
+import calculator.Calculator;
+import calculator.CalculatorFactory;
+import calculator.SimpleCalculator;
+import calculator.SmartCalculator;
+import calculator.TransitionCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the TransitionCache class and its use by the calculators of a
+ * CalculatorFactory. Cached successors must be shared between sessions reaching equal
+ * states, the cache must stay within its capacity, and replaying sessions with a
+ * cache must give the same results as without it.
+ */
+public class TransitionCacheTest {
+
+  private static final String KEYS = "0123456789+-*=C=+";
+
+  @Test
+  public void testNoCacheByDefault() {
+    assertEquals(null, CalculatorFactory.INT.getTransitionCache());
+    Calculator calculator = new SimpleCalculator().input('1');
+    assertNotSame(calculator.input('2'), calculator.input('2'));
+  }
+
+  @Test
+  public void testEqualStatesShareSuccessors() {
+    TransitionCache cache = new TransitionCache(100);
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT, cache);
+
+    Calculator first = factory.simpleCalculator().input('1').input('0').input('+');
+    Calculator second = factory.simpleCalculator().input('1').input('0').input('+');
+    assertSame(first, second);
+    assertEquals("10+", second.getResult());
+    assertEquals(3, cache.getMisses());
+    assertEquals(3, cache.getHits());
+    assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testEqualStatesReachedByDifferentPathsShareSuccessors() {
+    TransitionCache cache = new TransitionCache(100);
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT, cache);
+
+    Calculator replaced = factory.smartCalculator().input('1').input('+').input('-');
+    Calculator typed = factory.smartCalculator().input('1').input('-');
+    assertNotSame(replaced, typed);
+    assertEquals(typed.getResult(), replaced.getResult());
+    long hits = cache.getHits();
+    assertSame(replaced.input('2'), typed.input('2'));
+    assertEquals(hits + 1, cache.getHits());
+  }
+
+  @Test
+  public void testSimpleAndSmartAreCachedSeparately() {
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT,
+            new TransitionCache(100));
+
+    Calculator simple = factory.simpleCalculator().input('9').input('-');
+    Calculator smart = factory.smartCalculator().input('9').input('-');
+    assertEquals("9-", smart.input('-').getResult());
+    try {
+      simple.input('-');
+      fail("Expected two operators in a row to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Cannot input two operators in a row", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testRejectedInputsAreNotCached() {
+    TransitionCache cache = new TransitionCache(100);
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT, cache);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        factory.smartCalculator().input('/');
+        fail("Expected an invalid input");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Invalid input: /", e.getMessage());
+      }
+    }
+    assertEquals(0, cache.size());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testCapacityIsBounded() {
+    TransitionCache cache = new TransitionCache(4);
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT, cache);
+
+    Calculator calculator = factory.simpleCalculator();
+    for (int i = 0; i < 9; i++) {
+      calculator = calculator.input('1');
+    }
+    assertEquals("111111111", calculator.getResult());
+    assertEquals(4, cache.size());
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void testCachedResultsMatchUncached() {
+    Random random = new Random(11);
+    String[] sessions = new String[500];
+    for (int i = 0; i < sessions.length; i++) {
+      StringBuilder session = new StringBuilder();
+      int length = random.nextInt(12);
+      for (int j = 0; j < length; j++) {
+        session.append(KEYS.charAt(random.nextInt(KEYS.length())));
+      }
+      sessions[i] = session.toString();
+    }
+    String[] expected = new String[sessions.length * 2];
+    for (int i = 0; i < sessions.length; i++) {
+      expected[2 * i] = replay(new SimpleCalculator(), sessions[i]);
+      expected[2 * i + 1] = replay(new SmartCalculator(), sessions[i]);
+    }
+
+    TransitionCache cache = new TransitionCache(64);
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT, cache);
+    for (int i = 0; i < sessions.length; i++) {
+      assertEquals(sessions[i], expected[2 * i],
+              replay(factory.simpleCalculator(), sessions[i]));
+      assertEquals(sessions[i], expected[2 * i + 1],
+              replay(factory.smartCalculator(), sessions[i]));
+    }
+    assertEquals(64, cache.size());
+  }
+
+  @Test
+  public void testCachesOfFactoriesAreSeparate() {
+    TransitionCache cache = new TransitionCache(100);
+    new CalculatorFactory(ArithmeticKernel.INT, cache).simpleCalculator().input('1').input('2');
+    new SimpleCalculator().input('1').input('2');
+    assertEquals(2, cache.getMisses());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testSegmentedCacheIsBounded() {
+    TransitionCache cache = new TransitionCache(1000);
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT, cache);
+    Random random = new Random(8);
+    for (int session = 0; session < 2000; session++) {
+      Calculator calculator = factory.smartCalculator();
+      for (int i = 0; i < 8; i++) {
+        calculator = calculator.input((char) ('0' + random.nextInt(10)));
+      }
+    }
+    assertTrue(cache.size() <= 1000);
+    assertTrue(cache.size() > 900);
+  }
+
+  @Test
+  public void testConcurrentSessionsMatchUncached() throws InterruptedException {
+    CalculatorFactory factory = new CalculatorFactory(ArithmeticKernel.INT,
+            new TransitionCache(256));
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> failures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Random random = new Random(t);
+      Thread thread = new Thread(() -> {
+        for (int session = 0; session < 500; session++) {
+          StringBuilder keys = new StringBuilder();
+          for (int i = 0; i < 10; i++) {
+            keys.append(KEYS.charAt(random.nextInt(KEYS.length())));
+          }
+          String expected = replay(new SimpleCalculator(), keys.toString());
+          String actual = replay(factory.simpleCalculator(), keys.toString());
+          if (!expected.equals(actual)) {
+            synchronized (failures) {
+              failures.add(new AssertionError(keys + ": " + expected + " != " + actual));
+            }
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(List.of(), failures);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCapacity() {
+    new TransitionCache(0);
+  }
+
+  private static String replay(Calculator calculator, String session) {
+    for (int i = 0; i < session.length(); i++) {
+      try {
+        calculator = calculator.input(session.charAt(i));
+      } catch (IllegalArgumentException e) {
+        return "error " + i + " " + e.getMessage();
+      }
+    }
+    return calculator.getResult();
+  }
+}